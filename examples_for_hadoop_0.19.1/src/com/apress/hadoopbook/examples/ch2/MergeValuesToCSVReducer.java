@@ -67,7 +67,6 @@ public class MergeValuesToCSVReducer<K, V>
 			buffer.setLength(0);
 			int valueCount = 0;
 			for (;values.hasNext(); valueCount++) {
-				reporter.incrCounter( OUTPUT, MergeValuesToCSVReducer.TOTAL_VALUES, 1 );
 				String value = values.next().toString();
 				if (value.contains("\"")) { // Perform excel style quoting
 					value.replaceAll( "\"", "\\\"" );
@@ -76,6 +75,8 @@ public class MergeValuesToCSVReducer<K, V>
 				buffer.append( value );
 				buffer.append( "\"," );
 			}
+			/** One counter update per key, rather than one per value. */
+			reporter.incrCounter( OUTPUT, MergeValuesToCSVReducer.TOTAL_VALUES, valueCount );
 			buffer.setLength( buffer.length() - 1 );
 			mergedValue.set(buffer.toString());
 			reporter.incrCounter( OUTPUT, MergeValuesToCSVReducer.TOTAL_OUTPUT_RECORDS, 1 );
@@ -21,6 +21,7 @@ import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.util.Tool;
 import org.apache.hadoop.util.ToolRunner;
 
+import com.apress.hadoopbook.utils.BatchedCounters;
 import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
 import com.apress.hadoopbook.utils.Utils;
 
@@ -56,22 +57,34 @@ public class CounterExamplesWithCombiner extends Configured implements Tool {
 		 */
 		@Override
 		public void configure(JobConf job) {
-			// TODO Auto-generated method stub
 			super.configure(job);
+			/** The Combiner and Reducer names are fixed per task, so they are registered once. */
+			final String role = taskId.isMap() ? "Combiner" : "Reducer";
+			naiveInputKeys = counters.register("NaiveReducer", "Input Keys");
+			naiveInputValues = counters.register("NaiveReducer", "Input Value");
+			roleInputKeys = counters.register(role, "Input Keys");
+			roleInputValues = counters.register(role, "Input Values");
 		}
 
+		/** The counters, registered in {@link #configure(JobConf)}. */
+		BatchedCounters.Handle naiveInputKeys;
+		BatchedCounters.Handle naiveInputValues;
+		BatchedCounters.Handle roleInputKeys;
+		BatchedCounters.Handle roleInputValues;
+
 		@Override
 		public void reduce(Text key, Iterator<Text> values,
 				OutputCollector<Text, Text> output, Reporter reporter)
 				throws IOException {
 			this.reporter = reporter;
+			counters.record(reporter);
 			
-			reporter.incrCounter("NaiveReducer", "Input Keys", 1);
+			counters.incr(naiveInputKeys);
 			
-			reporter.incrCounter(taskId.isMap() ? "Combiner" : "Reducer", "Input Keys", 1 );
+			counters.incr(roleInputKeys);
 			while (values.hasNext()) {
-				reporter.incrCounter("NaiveReducer", "Input Value", 1);
-				reporter.incrCounter(taskId.isMap() ? "Combiner" : "Reducer", "Input Values", 1 );
+				counters.incr(naiveInputValues);
+				counters.incr(roleInputValues);
 				output.collect( key, values.next());
 			}
 		}
@@ -86,14 +99,21 @@ public class CounterExamplesWithCombiner extends Configured implements Tool {
 	static class CountingIdentityMapper extends ExamplesMapReduceBase implements
 			Mapper<Text, Text, Text, Text> {
 
-	
+		/** The input counter, registered in {@link #configure(JobConf)}. */
+		BatchedCounters.Handle inputCount;
 
+		@Override
+		public void configure(JobConf job) {
+			super.configure(job);
+			inputCount = counters.register("Map", "Input Count");
+		}
 
 		@Override
 		public void map(Text key, Text value,
 				OutputCollector<Text, Text> output, Reporter reporter)
 				throws IOException {
-			reporter.incrCounter("Map", "Input Count", 1);
+			counters.record(reporter);
+			counters.incr(inputCount);
 			output.collect(key, value);
 			
 		}
@@ -4,22 +4,38 @@ import java.io.IOException;
 
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
 
+import com.apress.hadoopbook.utils.BatchedCounters;
+import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
+
 /** Transform the input textual values into LongWritables
  * 
  * @author Jason
  *
  */
-public class SimpleReduceTransformingMapper extends MapReduceBase implements
+public class SimpleReduceTransformingMapper extends ExamplesMapReduceBase implements
 		Mapper<Text, Text, LongWritable, LongWritable> {
 	/** Recycle these objects to save on object generation. */
 	LongWritable outputKey = new LongWritable();
 	LongWritable outputValue = new LongWritable();
 	
+	/** The counters, registered in {@link #configure(JobConf)}. */
+	BatchedCounters.Handle inputKeys;
+	BatchedCounters.Handle outputKeys;
+	BatchedCounters.Handle failures;
+	
+	@Override
+	public void configure(JobConf job) {
+		super.configure(job);
+		inputKeys = counters.register("Map Input Keys", "Total");
+		outputKeys = counters.register("Map Output Keys", "Total");
+		failures = counters.register("Map Input Keys", "Failures");
+	}
+	
 	/** Simple mapper that just transforms the key and value into {@link LongWritable}.
 	 * 
 	 */
@@ -27,7 +43,8 @@ public class SimpleReduceTransformingMapper extends MapReduceBase implements
 	public void map(Text key, Text value,
 			OutputCollector<LongWritable, LongWritable> output,
 			Reporter reporter) throws IOException {
-		reporter.incrCounter("Map Input Keys", "Total", 1);
+		counters.record(reporter);
+		counters.incr(inputKeys);
 		try {
 			/** Convert the input into longs. */
 			outputKey.set( Long.valueOf(key.toString()));
@@ -35,10 +52,11 @@ public class SimpleReduceTransformingMapper extends MapReduceBase implements
 			
 			/** send the output to the reduce. */
 			output.collect(outputKey, outputValue);
-			reporter.incrCounter("Map Output Keys", "Total", 1);
+			counters.incr(outputKeys);
 		} catch (Throwable e) {
 			/** report on a failure. */
-			reporter.incrCounter("Map Input Keys", "Failures", 1);
+			counters.incr(failures);
+			counters.flush();
 			if (e instanceof IOException) {
 				throw (IOException) e;
 			}
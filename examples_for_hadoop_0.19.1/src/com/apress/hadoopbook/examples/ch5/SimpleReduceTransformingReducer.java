@@ -6,11 +6,14 @@ import java.util.Iterator;
 
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
 
+import com.apress.hadoopbook.utils.BatchedCounters;
+import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
+
 /** Demonstrate some aggregation in the reducer
  * 
  * Produce output records that are the key, the average, the count, the min, max and diff
@@ -18,7 +21,7 @@ import org.apache.hadoop.mapred.Reporter;
  * @author Jason
  *
  */
-public class SimpleReduceTransformingReducer extends MapReduceBase implements
+public class SimpleReduceTransformingReducer extends ExamplesMapReduceBase implements
 		Reducer<LongWritable, LongWritable, Text, Text> {
 	
 	/** Save object churn. */
@@ -29,13 +32,27 @@ public class SimpleReduceTransformingReducer extends MapReduceBase implements
 	StringBuilder sb = new StringBuilder();
 	Formatter fmt = new Formatter(sb);
 	
+	/** The counters, registered in {@link #configure(JobConf)}. */
+	BatchedCounters.Handle inputKeys;
+	BatchedCounters.Handle outputKeys;
+	BatchedCounters.Handle exceptions;
+	
+	@Override
+	public void configure(JobConf job) {
+		super.configure(job);
+		inputKeys = counters.register("Reduce Input Keys", "Total");
+		outputKeys = counters.register("Reduce Output Keys", "Total");
+		exceptions = counters.register("Reduce Input Keys", "Exception");
+	}
+	
 	
 	@Override
 	public void reduce(LongWritable key, Iterator<LongWritable> values,
 			OutputCollector<Text, Text> output,
 			Reporter reporter) throws IOException {
 		/** This is a bad practice, the transformation of the key should be done in the map. */
-		reporter.incrCounter("Reduce Input Keys", "Total", 1);
+		counters.record(reporter);
+		counters.incr(inputKeys);
 		try {
 			long total = 0;
 			long count = 0;
@@ -64,11 +81,12 @@ public class SimpleReduceTransformingReducer extends MapReduceBase implements
 			fmt.format("%4d", key.get());
 			outputKey.set(sb.toString());
 			
-			reporter.incrCounter("Reduce Output Keys", "Total", 1);
+			counters.incr(outputKeys);
 			output.collect(outputKey, outputValue);
 							
 		} catch( Throwable e) {
-			reporter.incrCounter("Reduce Input Keys", "Exception", 1);
+			counters.incr(exceptions);
+			counters.flush();
 			if (e instanceof IOException) {
 				throw (IOException) e;
 			}
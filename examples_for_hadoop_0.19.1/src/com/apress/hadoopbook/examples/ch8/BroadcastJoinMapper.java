@@ -0,0 +1,315 @@
+package com.apress.hadoopbook.examples.ch8;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.log4j.Logger;
+
+import com.apress.hadoopbook.utils.ArenaHashTable;
+import com.apress.hadoopbook.utils.BatchedCounters;
+import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
+import com.apress.hadoopbook.utils.Utils;
+
+/** The map of a broadcast join, the small tables are held in memory and the largest table is streamed through the map.
+ *
+ * The driver calls {@link #build(JobConf, List, int, Path)} to write every record of the small tables, tagged with the position of
+ * the table, to a single {@link SequenceFile}, and {@link #addToCache(JobConf, Path)} to pass it through the {@link DistributedCache}.
+ * The configure method loads the file into an {@link ArenaHashTable}, keyed by the raw key bytes, with the keys and values in a single
+ * byte arena. If the file is not in the cache, as happens with the LocalJobRunner, it is read directly from the path in {@link #BROADCAST_PATH}.
+ * The load time, the table memory and the number of keys and values loaded are reported as counters.
+ *
+ * Each record of the streamed table is looked up in the table, and the combinations of the values are passed to the tuple
+ * mapper by a {@link JoinTupleEmitter}, with the semantics of the join operator in {@link PlannedJoin#OP}:
+ * <ul>
+ * <li>inner, a record with a key missing from any small table is dropped.</li>
+ * <li>outer, a record is joined with the small tables that have its key.</li>
+ * <li>override, the value of the rightmost table that has the key is passed. When that is a small table, its values are passed
+ * once for a run of streamed records with the same key, rather than once per streamed record.</li>
+ * <li>multi, the outer join, with the streamed records after the first of a run marked as not the first value of the streamed table,
+ * so that the override marker is set once per value of the rightmost table.</li>
+ * </ul>
+ * A map only job can not tell which small table keys no map saw, so outer and override joins only produce the keys of the
+ * streamed table, and {@link com.apress.hadoopbook.utils.JoinPlanner JoinPlanner} only broadcasts them when forced.
+ * The tuples of a key are the same as a merge join produces, but a streamed key that repeats is joined one record at a time,
+ * so the tuples of a key may be in a different order.
+ *
+ * @author Jason
+ *
+ */
+public class BroadcastJoinMapper extends ExamplesMapReduceBase implements Mapper<Object, Object, Text, Text> {
+	protected static Logger LOG = Logger.getLogger(BroadcastJoinMapper.class);
+
+	/** The configuration key for the path of the broadcast file. */
+	public static final String BROADCAST_PATH = "examples.join.broadcast.path";
+	/** The configuration key for the arena size the broadcast file needs, so the arena is allocated once rather than grown. */
+	public static final String ARENA_BYTES = "examples.join.broadcast.arena.bytes";
+
+	/** The values of the small tables, by key. */
+	ArenaHashTable table;
+	/** The position of the streamed table. */
+	int streamed;
+	JoinTupleEmitter.Values[] groups;
+	/** The single value of the streamed table. */
+	ArrayList<Text> streamedValue = new ArrayList<Text>(1);
+	JoinTupleEmitter emitter;
+	boolean inner;
+	boolean override;
+	Text key = new Text();
+	/** The key of the last streamed record that was joined. */
+	Text previous = new Text();
+	boolean hasPrevious = false;
+
+	/** The counters, registered in {@link #configure(JobConf)}. */
+	BatchedCounters.Handle streamedRecords;
+	BatchedCounters.Handle misses;
+	BatchedCounters.Handle joined;
+	BatchedCounters.Handle loadMsec;
+	BatchedCounters.Handle tableBytes;
+	BatchedCounters.Handle tableKeys;
+	BatchedCounters.Handle tableValues;
+
+	/** The values of a small table for the current key, read from the arena of {@link #table}. */
+	class ArenaValues implements JoinTupleEmitter.Values {
+		final int position;
+		int first = ArenaHashTable.NONE;
+		int current = ArenaHashTable.NONE;
+
+		ArenaValues(final int position) {
+			this.position = position;
+		}
+
+		/** Select the values of the key entry <code>entry</code>, or none if <code>entry</code> is {@link ArenaHashTable#NONE}. */
+		void set(final int entry) {
+			first = entry == ArenaHashTable.NONE ? ArenaHashTable.NONE : table.first(entry, position);
+		}
+
+		public boolean isEmpty() {
+			return first == ArenaHashTable.NONE;
+		}
+
+		public void rewind() {
+			current = first;
+		}
+
+		public boolean next(Text value) {
+			if (current == ArenaHashTable.NONE) {
+				return false;
+			}
+			value.set(table.getArena(), table.valueStart(current), table.valueLength(current));
+			current = table.next(current);
+			return true;
+		}
+	}
+
+	/** Write the records of every table except <code>streamed</code> to <code>broadcast</code>, with Text keys and {@link TaggedText} values.
+	 *
+	 * @param conf The job
+	 * @param tables The tables of the join
+	 * @param streamed The position of the table that is not written
+	 * @param broadcast The file to write
+	 * @return The number of records written
+	 * @throws IOException if a table can not be read or the file can not be written
+	 */
+	@SuppressWarnings("unchecked")
+	public static long build(final JobConf conf, final List<PlannedJoin.Table> tables, final int streamed, final Path broadcast) throws IOException {
+		final FileSystem fs = broadcast.getFileSystem(conf);
+		final SequenceFile.Writer writer = SequenceFile.createWriter(fs, conf, broadcast, Text.class, TaggedText.class, SequenceFile.CompressionType.BLOCK);
+		final Text key = new Text();
+		final Text text = new Text();
+		final TaggedText value = new TaggedText();
+		long records = 0;
+		/** The key entry and value entry sizes, less the per table lists of the key entries. */
+		long arenaBytes = 0;
+		try {
+			for (int i = 0; i < tables.size(); i++) {
+				if (i == streamed) {
+					continue;
+				}
+				final JobConf tableConf = tables.get(i).readConf(conf);
+				final InputFormat format = ReflectionUtils.newInstance(tables.get(i).getInputFormat(), tableConf);
+				for (InputSplit split : format.getSplits(tableConf, 1)) {
+					final RecordReader reader = format.getRecordReader(split, tableConf, Reporter.NULL);
+					try {
+						final Object inputKey = reader.createKey();
+						final Object inputValue = reader.createValue();
+						while (reader.next(inputKey, inputValue)) {
+							key.set(inputKey.toString());
+							text.set(inputValue.toString());
+							value.set(i, text);
+							writer.append(key, value);
+							records++;
+							arenaBytes += 4 + key.getLength() + 8 + text.getLength();
+						}
+					} finally {
+						reader.close();
+					}
+				}
+			}
+		} finally {
+			writer.close();
+		}
+		LOG.info("Wrote " + records + " records of the small tables to " + broadcast + ", " + fs.getFileStatus(broadcast).getLen() + " bytes");
+		conf.set(BROADCAST_PATH, broadcast.toString());
+		conf.setLong(ARENA_BYTES, arenaBytes);
+		return records;
+	}
+
+	/** Add the broadcast file to the {@link DistributedCache}, with a symlink of the same name.
+	 *
+	 * @param conf The job to configure
+	 * @param broadcast The file to add
+	 * @throws IOException if the path can not be made into a cache URI
+	 */
+	public static void addToCache(final JobConf conf, final Path broadcast) throws IOException {
+		try {
+			DistributedCache.addCacheFile(Utils.addSymLinkFragment(broadcast), conf);
+		} catch (URISyntaxException e) {
+			throw new IOException("Unable to add " + broadcast + " to the distributed cache", e);
+		}
+		DistributedCache.createSymlink(conf);
+	}
+
+	/** Locate the broadcast file in the distributed cache and load it.
+	 *
+	 * @see com.apress.hadoopbook.utils.ExamplesMapReduceBase#configure(org.apache.hadoop.mapred.JobConf)
+	 */
+	@Override
+	public void configure(JobConf job) {
+		super.configure(job);
+		streamedRecords = counters.register("BroadcastJoinMapper", "Streamed Records");
+		misses = counters.register("BroadcastJoinMapper", "Misses");
+		joined = counters.register("BroadcastJoinMapper", "Joined Records");
+		loadMsec = counters.register("BroadcastJoinMapper", "Table Load Milliseconds");
+		tableBytes = counters.register("BroadcastJoinMapper", "Table Memory Bytes");
+		tableKeys = counters.register("BroadcastJoinMapper", "Table Keys");
+		tableValues = counters.register("BroadcastJoinMapper", "Table Values");
+		final int size = job.getInt(PlannedJoin.TABLES, 0);
+		streamed = job.getInt(PlannedJoin.STREAMED, 0);
+		inner = job.get(PlannedJoin.OP, "inner").equals("inner");
+		override = job.get(PlannedJoin.OP, "inner").equals("override");
+		groups = new JoinTupleEmitter.Values[size];
+		for (int i = 0; i < size; i++) {
+			groups[i] = new ArenaValues(i);
+		}
+		final JoinTupleEmitter.ListValues streamedGroup = new JoinTupleEmitter.ListValues();
+		streamedValue.add(new Text());
+		streamedGroup.set(streamedValue);
+		groups[streamed] = streamedGroup;
+		emitter = new JoinTupleEmitter(job, size);
+
+		final String broadcastName = job.get(BROADCAST_PATH);
+		if (broadcastName==null) {
+			throw new IllegalArgumentException("No broadcast file path set in " + BROADCAST_PATH);
+		}
+		try {
+			Path broadcastPath = Utils.findItemInCache(new Path(broadcastName).getName(), job);
+			if (broadcastPath==null) {
+				LOG.warn("The broadcast file " + broadcastName + " is not in the distributed cache, reading it directly");
+				broadcastPath = new Path(broadcastName);
+			}
+			final long start = System.currentTimeMillis();
+			load(broadcastPath, size);
+			final long elapsed = System.currentTimeMillis() - start;
+			counters.incr(loadMsec, elapsed);
+			counters.incr(tableBytes, table.getMemoryBytes());
+			counters.incr(tableKeys, table.size());
+			counters.incr(tableValues, table.getValueCount());
+			LOG.info("Loaded " + table.getValueCount() + " values of " + table.size() + " keys from " + broadcastPath + " in " + elapsed
+					+ " msec, the table holds " + table.getMemoryBytes() + " bytes");
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to load the broadcast file " + broadcastName, e);
+		}
+	}
+
+	/** Read the broadcast file into {@link #table}, the arena starts at the size {@link #build(JobConf, List, int, Path)} recorded. */
+	void load(final Path broadcastPath, final int size) throws IOException {
+		final FileSystem fs = broadcastPath.getFileSystem(conf);
+		table = new ArenaHashTable(size, 1024, (int) Math.min(conf.getLong(ARENA_BYTES, 0), Integer.MAX_VALUE));
+		final SequenceFile.Reader reader = new SequenceFile.Reader(fs, broadcastPath, conf);
+		try {
+			final Text key = new Text();
+			final TaggedText value = new TaggedText();
+			while (reader.next(key, value)) {
+				table.add(key.getBytes(), key.getLength(), value.getTag(), value.getValue().getBytes(), value.getValue().getLength());
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/** Join a record of the streamed table with the small tables.
+	 *
+	 * @see org.apache.hadoop.mapred.Mapper#map(java.lang.Object, java.lang.Object, org.apache.hadoop.mapred.OutputCollector, org.apache.hadoop.mapred.Reporter)
+	 */
+	public void map(Object inputKey, Object inputValue, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+		try {
+			counters.record(reporter);
+			counters.incr(streamedRecords);
+			if (inputKey instanceof Text) {
+				key.set((Text) inputKey);
+			} else {
+				key.set(inputKey.toString());
+			}
+			final int entry = table.find(key.getBytes(), key.getLength());
+			for (int i = 0; i < groups.length; i++) {
+				if (i == streamed) {
+					continue;
+				}
+				final ArenaValues values = (ArenaValues) groups[i];
+				values.set(entry);
+				if (inner && values.isEmpty()) {
+					counters.incr(misses);
+					return;
+				}
+			}
+			/** A streamed record with the same key as the last continues its run. */
+			final boolean continued = hasPrevious && previous.equals(key);
+			previous.set(key);
+			hasPrevious = true;
+			if (override && continued && isOverridden()) {
+				return;
+			}
+			emitter.continued = continued ? streamed : -1;
+			streamedValue.get(0).set(inputValue.toString());
+			counters.incr(joined, emitter.emit(key, groups, output, reporter));
+		} catch (Throwable e) {
+			throwsIOExcepction(reporter, "BroadcastJoinMapper", e);
+		}
+	}
+
+	/** @return true if a small table to the right of the streamed table has values for the current key */
+	boolean isOverridden() {
+		for (int i = streamed + 1; i < groups.length; i++) {
+			if (!groups[i].isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (emitter != null) {
+				emitter.close();
+			}
+		} finally {
+			super.close();
+		}
+	}
+}
@@ -1,11 +1,10 @@
 package com.apress.hadoopbook.examples.ch8;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.Formatter;
 
 import org.apache.hadoop.io.Text;
-import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.MapReduceBase;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
@@ -27,22 +26,22 @@ import org.apache.hadoop.mapred.join.TupleWritable;
  */
 class DuplicateKeyIndicatingIdentityMapper extends MapReduceBase implements Mapper<Text,TupleWritable,Text,Text> {
 
-	Text outputValue = new Text();
 	StringBuilder sb = new StringBuilder();
 	Formatter fmt = new Formatter(sb);
-	Text lastKey = new Text();
-	ArrayList<String> accumulatedValuesForLastKey = new ArrayList<String>();
-	OutputCollector<Text, Text> savedOutput;
+	/** Writes the values of each key with the [X of Y] markers. */
+	DuplicateKeyIndicatingWriter writer;
 	Reporter savedReporter;
 	
+	@Override
+	public void configure(JobConf job) {
+		writer = new DuplicateKeyIndicatingWriter(job);
+	}
+	
 	@Override
 	public void close()
 	{
-		if(accumulatedValuesForLastKey.isEmpty()) {
-			return;	/** No work to do, probably there were no keys ever, in the input. */
-		}
 		try {
-			performReduce( null, savedOutput, null);
+			writer.close();
 		} catch (IOException e) {
 			MapSideJoinExample.LOG.error("Close failed ", e);
 			savedReporter.incrCounter("Exceptions", "MapExceptionsTotal", 1);
@@ -54,67 +53,15 @@ class DuplicateKeyIndicatingIdentityMapper extends MapReduceBase implements Mapp
 			OutputCollector<Text, Text> output, Reporter reporter)
 			throws IOException {
 		try {
+			savedReporter = reporter;
 			transFormTupleToOutputString(key, value, reporter);
-			String transformedValue = sb.toString();
-
-			if (accumulatedValuesForLastKey.isEmpty()) { // Start condition
-				lastKey.set(key);
-				savedOutput = output;	/** Somewhere past 0.20 this won't be necessary to make them available in the close. */
-				savedReporter = reporter;
-				outputValue.set("File A	A Line	A Repeat#	A Repeat Count	Sequence	File B	B Line	B Repeat #	B Repeat Count	Sequence	File C	Line C	Repeat # C	Repeat Count	Sequence	Key Repeat Count");
-				/** Output some headers. */
-				output.collect( new Text("Key"), outputValue );
-			} else 	if (lastKey.equals(key)) {	/** Same key as last time, just accumulate the value. */
-				accumulatedValuesForLastKey.add(transformedValue);
-				return;
-			}
-			/** When we get here, key is different from old key, and old key's values are complete and need to be emitted. */
-			performReduce(key, output, transformedValue);
-
-
+			writer.collect(key, sb.toString(), output);
 		} catch (Throwable e) {
 			reporter.incrCounter("Exceptions", "MapExceptionsTotal", 1);
 			MapSideJoinExample.LOG.error( "Failed to handle record for " + key, e);
 		}
 	}
 
-	/**
-	 * @param key
-	 * @param output
-	 * @param transformedValue
-	 * @throws IOException
-	 */
-	private void performReduce(Text key, OutputCollector<Text, Text> output,
-			String transformedValue) throws IOException {
-		try {
-			/** This would normally be in the reduce, but because of the way map side joins work we can reduce here.*/
-
-			/** output our data. */
-			if (accumulatedValuesForLastKey.size()==1) {
-				/** If only one value short circuit and pass the key and value on. */
-				outputValue.set( accumulatedValuesForLastKey.get(0));
-				output.collect( lastKey, outputValue );
-			} else {
-
-				/** Emit an output record for each value, added [X of Y] to the text of the value. X being valueCount, Y being valueTotalCount. */
-				int valueCount = 1;
-				for( String found : accumulatedValuesForLastKey ) {
-					sb.setLength(0);
-					fmt.format( "%s\t[%d of %d]", found, valueCount++, accumulatedValuesForLastKey.size() );
-					fmt.flush();
-					outputValue.set(sb.toString());
-					output.collect(lastKey, outputValue);
-				}
-			}
-		} finally {
-			if(key!=null) {	/** are we being called from the {@link #close()} method? */
-				lastKey.set(key);
-				accumulatedValuesForLastKey.clear();
-				accumulatedValuesForLastKey.add(transformedValue);
-			}
-		}
-	}
-
 	/** Produce a tab separated output record for the values contained in <code>value</code>
 	 * 
 	 * 
@@ -127,18 +74,32 @@ class DuplicateKeyIndicatingIdentityMapper extends MapReduceBase implements Mapp
 	 * @param value The {@link TupleWritable}
 	 * @param reporter Used for reporting counters for histograms.
 	 */
-	private void transFormTupleToOutputString(Text key, TupleWritable value,
+	void transFormTupleToOutputString(Text key, TupleWritable value,
+			Reporter reporter) {
+		transFormTupleToOutputString(key, value, value.size(), reporter);
+	}
+
+	/** Produce a tab separated output record for the first <code>size</code> values contained in <code>value</code>.
+	 * 
+	 * @param key The record key, only used for logging
+	 * @param value The {@link TupleWritable}
+	 * @param size The number of data sets in the join, positions past this are not data set values
+	 * @param reporter Used for reporting counters for histograms.
+	 */
+	void transFormTupleToOutputString(Text key, TupleWritable value, int size,
 			Reporter reporter) {
 		/** The user has two choices here, there is an iterator and a get(i) size option.
-		 * The down side of the iterator is you don't know what table the value item comes from.
+		 * The down side of the iterator is you don't know what table the value item comes from,
+		 * or, as here, where the data set values end.
 		 */
-		
-		/** Gratuitous demonstration of using the TupleWritable iterator. */
 		sb.setLength(0);
 		int valueCountTotal = 0;
 		String emptyRecordString = null;	/** The output records are setup for import into excel, empty groups need to have the correct tab count emitted*/
-		for( Writable item : value) {
-			final String itemString = item.toString();
+		for( int i = 0; i < size; i++) {
+			if (!value.has(i)) {
+				continue;
+			}
+			final String itemString = value.get(i).toString();
 			if (emptyRecordString==null) {
 				emptyRecordString = extractTabs(itemString);
 			}
@@ -157,8 +118,7 @@ class DuplicateKeyIndicatingIdentityMapper extends MapReduceBase implements Mapp
 		
 		/** Produce the output value record CSV tab separated line, */
 		sb.setLength(0);
-		final int max = value.size();
-		for( int i = 0; i < max; i++) {
+		for( int i = 0; i < size; i++) {
 			String stringToOutput;
 			if (value.has(i)) {
 				stringToOutput = value.get(i).toString();
@@ -0,0 +1,121 @@
+package com.apress.hadoopbook.examples.ch8;
+
+import java.io.IOException;
+import java.util.Formatter;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.OutputCollector;
+
+import com.apress.hadoopbook.utils.KeyGroupBuffer;
+
+/** Write the values of each run of equal keys, marking each value with [X of Y] when a key has more than one value.
+ *
+ * This is the reduce step of {@link DuplicateKeyIndicatingIdentityReducer}, done in the map for map side joins,
+ * where the values for a key arrive together. A header line is written before the first key.
+ * The values of a key are held in a {@link KeyGroupBuffer}, so a hot key spills to disk rather than exhausting the heap.
+ *
+ * @author Jason
+ *
+ */
+class DuplicateKeyIndicatingWriter {
+	/** The header line written before the first key. */
+	static final String HEADER = "File A	A Line	A Repeat#	A Repeat Count	Sequence	File B	B Line	B Repeat #	B Repeat Count	Sequence	File C	Line C	Repeat # C	Repeat Count	Sequence	Key Repeat Count";
+
+	Text outputValue = new Text();
+	StringBuilder sb = new StringBuilder();
+	Formatter fmt = new Formatter(sb);
+	Text lastKey = new Text();
+	/** The values for {@link #lastKey}. */
+	KeyGroupBuffer<Text> accumulatedValuesForLastKey;
+	/** Used to add and replay the values. */
+	Text value = new Text();
+	/** The collector from the most recent {@link #collect(Text, String, OutputCollector)}, used by {@link #close()}. */
+	OutputCollector<Text, Text> savedOutput;
+
+	/**
+	 * @param conf The configuration, for the {@link KeyGroupBuffer} settings
+	 */
+	DuplicateKeyIndicatingWriter(Configuration conf) {
+		accumulatedValuesForLastKey = new KeyGroupBuffer<Text>(conf, Text.class);
+	}
+
+	/** Add <code>transformedValue</code> to the values of <code>key</code>, writing the values of the previous key if <code>key</code> is different.
+	 *
+	 * @param key The record key
+	 * @param transformedValue The value to write
+	 * @param output The collector to write to
+	 * @throws IOException
+	 */
+	void collect(Text key, String transformedValue, OutputCollector<Text, Text> output) throws IOException {
+		savedOutput = output;	/** Somewhere past 0.20 this won't be necessary to make them available in the close. */
+		if (accumulatedValuesForLastKey.size()==0) { // Start condition
+			lastKey.set(key);
+			outputValue.set(HEADER);
+			/** Output some headers. */
+			output.collect( new Text("Key"), outputValue );
+		} else 	if (lastKey.equals(key)) {	/** Same key as last time, just accumulate the value. */
+			value.set(transformedValue);
+			accumulatedValuesForLastKey.add(value);
+			return;
+		}
+		/** When we get here, key is different from old key, and old key's values are complete and need to be emitted. */
+		performReduce(key, output, transformedValue);
+	}
+
+	/** Write the values of the last key, and release the value buffer.
+	 *
+	 * @return true if there was anything to write
+	 * @throws IOException
+	 */
+	boolean close() throws IOException {
+		try {
+			if(accumulatedValuesForLastKey.size()==0) {
+				return false;	/** No work to do, probably there were no keys ever, in the input. */
+			}
+			performReduce( null, savedOutput, null);
+			return true;
+		} finally {
+			accumulatedValuesForLastKey.close();
+		}
+	}
+
+	/**
+	 * @param key
+	 * @param output
+	 * @param transformedValue
+	 * @throws IOException
+	 */
+	private void performReduce(Text key, OutputCollector<Text, Text> output,
+			String transformedValue) throws IOException {
+		try {
+			/** This would normally be in the reduce, but because of the way map side joins work we can reduce here.*/
+
+			/** output our data. */
+			accumulatedValuesForLastKey.rewind();
+			if (accumulatedValuesForLastKey.size()==1) {
+				/** If only one value short circuit and pass the key and value on. */
+				accumulatedValuesForLastKey.next(outputValue);
+				output.collect( lastKey, outputValue );
+			} else {
+
+				/** Emit an output record for each value, added [X of Y] to the text of the value. X being valueCount, Y being valueTotalCount. */
+				int valueCount = 1;
+				while( accumulatedValuesForLastKey.next(value) ) {
+					sb.setLength(0);
+					fmt.format( "%s\t[%d of %d]", value, valueCount++, accumulatedValuesForLastKey.size() );
+					fmt.flush();
+					outputValue.set(sb.toString());
+					output.collect(lastKey, outputValue);
+				}
+			}
+		} finally {
+			if(key!=null) {	/** are we being called from the {@link #close()} method? */
+				lastKey.set(key);
+				accumulatedValuesForLastKey.clear();
+				value.set(transformedValue);
+				accumulatedValuesForLastKey.add(value);
+			}
+		}
+	}
+}
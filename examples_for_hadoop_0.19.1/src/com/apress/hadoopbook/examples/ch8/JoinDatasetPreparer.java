@@ -0,0 +1,229 @@
+package com.apress.hadoopbook.examples.ch8;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.KeyValueTextInputFormat;
+import org.apache.hadoop.mapred.MapReduceBase;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityReducer;
+import org.apache.hadoop.util.ToolRunner;
+import org.apache.log4j.Logger;
+
+import com.apress.hadoopbook.utils.JobGraph;
+import com.apress.hadoopbook.utils.JoinPartitioning;
+import com.apress.hadoopbook.utils.MainProgrameShell;
+
+/** Prepare data sets for map side joins, by sorting and partitioning each one with the same partitioner and number of parts.
+ *
+ * The arguments are the input data sets, of the form path[:InputFormat] as for {@link MapSideJoinExample}, and the last argument is the output directory.
+ * Each input is written to a directory of the same name under the output directory, as part-NNNNN files of tab separated text, which
+ * {@link KeyValueTextInputFormat} reads back. A {@link JoinPartitioning#METADATA_NAME} file records the partitioner, the key comparator
+ * and the number of parts, and {@link MapSideJoinExample} and {@link com.apress.hadoopbook.examples.ch9.DataJoinReduceOutput DataJoinReduceOutput}
+ * refuse inputs whose metadata does not match. Data sets are prepared once, and every later join of them is a map only job.
+ *
+ * The number of parts comes from -D mapred.reduce.tasks=N on the command line, the partitioner from -pc, default {@link org.apache.hadoop.mapred.lib.HashPartitioner HashPartitioner},
+ * and the key comparator from -kc, default the {@link Text} comparator. The jobs for the inputs are independent, and run as a {@link JobGraph}.
+ *
+ * The local job runner only runs a single reduce, and the metadata records the number of parts actually written.
+ *
+ * @author Jason
+ *
+ */
+public class JoinDatasetPreparer extends MainProgrameShell {
+	/** general purpose logging. */
+	static Logger LOG = Logger.getLogger(JoinDatasetPreparer.class);
+
+	/** The data set specifications to prepare. */
+	ArrayList<String> datasets = new ArrayList<String>();
+	/** The directory the prepared data sets are written under. */
+	Path outputBase;
+	/** The partitioner class name, from -pc. */
+	String partitionerClass;
+	/** The key comparator class name, from -kc. */
+	String comparatorClass;
+
+	/** Pass the key and the value of any input format on as {@link Text}. */
+	static class ToTextMapper extends MapReduceBase implements Mapper<Object, Object, Text, Text> {
+		Text key = new Text();
+		Text value = new Text();
+
+		public void map(Object inputKey, Object inputValue, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+			key.set(inputKey.toString());
+			value.set(inputValue.toString());
+			output.collect(key, value);
+		}
+	}
+
+	/** Add the --partitioner and --keyComparator options.
+	 *
+	 * @see MainProgrameShell#buildGeneralOptions(Options options)
+	 */
+	@SuppressWarnings("static-access")
+	@Override
+	protected Options buildGeneralOptions(Options options) {
+		options = super.buildGeneralOptions(options);
+		options.addOption( OptionBuilder.withLongOpt("partitioner")
+				.hasArg()
+				.withDescription("The partitioner class, the same one must be used for all of the data sets that will be joined.")
+				.create("pc") );
+		options.addOption( OptionBuilder.withLongOpt("keyComparator")
+				.hasArg()
+				.withDescription("The key comparator class, this must be the comparator the join will use.")
+				.create("kc") );
+		return options;
+	}
+
+	@Override
+	protected void processGeneralOptions(JobConf conf, CommandLine commandLine) {
+		super.processGeneralOptions(conf, commandLine);
+		if (commandLine.hasOption("pc")) {
+			partitionerClass = commandLine.getOptionValue("pc");
+		}
+		if (commandLine.hasOption("kc")) {
+			comparatorClass = commandLine.getOptionValue("kc");
+		}
+	}
+
+	/** The remaining arguments are the input data sets and the output directory, in that order. There must be at least 2 arguments.
+	 *
+	 * @see com.apress.hadoopbook.utils.MainProgrameShell#handleRemainingArgs(org.apache.hadoop.mapred.JobConf, java.lang.String[])
+	 */
+	@Override
+	protected boolean handleRemainingArgs(JobConf conf, String[] args) {
+		if (args==null || args.length<2) {
+			LOG.error( "Requires at least 2 arguments, the data sets and the output directory");
+			return false;
+		}
+		for( int i = 0; i < args.length-1; i++) {
+			datasets.add(args[i]);
+		}
+		outputBase = new Path(args[args.length-1]);
+		return true;
+	}
+
+	/** The settings common to the jobs for each data set.
+	 *
+	 * @see com.apress.hadoopbook.utils.MainProgrameShell#customSetup(org.apache.hadoop.mapred.JobConf)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	protected void customSetup(JobConf conf) throws IOException {
+		super.customSetup(conf);
+		conf.setMapperClass(ToTextMapper.class);
+		conf.setReducerClass(IdentityReducer.class);
+		conf.setOutputKeyClass(Text.class);
+		conf.setOutputValueClass(Text.class);
+		conf.setOutputFormat(TextOutputFormat.class);
+		if (partitionerClass!=null) {
+			conf.setPartitionerClass((Class<? extends Partitioner>) conf.getClass(partitionerClass, null, Partitioner.class));
+		}
+		if (comparatorClass!=null) {
+			conf.setOutputKeyComparatorClass((Class<? extends RawComparator>) conf.getClass(comparatorClass, null, RawComparator.class));
+		}
+	}
+
+	/** Configure the job for one data set.
+	 *
+	 * @param baseConf The common configuration
+	 * @param dataset The data set specification, path[:InputFormat]
+	 * @param output The directory for the prepared data set
+	 * @return The job configuration
+	 * @throws IOException if the input format can not be found
+	 */
+	@SuppressWarnings("unchecked")
+	protected JobConf datasetConf(JobConf baseConf, String dataset, Path output) throws IOException {
+		final JobConf conf = new JobConf(baseConf);
+		String parts[] = dataset.split( ":" );
+		if (parts.length<1 || parts.length>2 || parts[0].length()==0 || (parts.length>1 && parts[1].length()==0)) {
+			throw new IOException( "Unable to parse " + dataset + " as a dataset[:input format] spec" );
+		}
+		Class<? extends InputFormat> inputFormat = KeyValueTextInputFormat.class;
+		if (parts.length==2) {
+			String classSpec = parts[1];
+			if (classSpec.indexOf(".")==-1) {
+				classSpec = "org.apache.hadoop.mapred." + classSpec;
+			}
+			inputFormat = conf.getClass( classSpec, null, InputFormat.class );
+			if (inputFormat==null) {
+				throw new IOException( "Unable to load a class that implements InputFormat for " + classSpec);
+			}
+		}
+		conf.setJobName("prepare " + parts[0]);
+		conf.setInputFormat(inputFormat);
+		FileInputFormat.setInputPaths(conf, new Path(parts[0]));
+		FileOutputFormat.setOutputPath(conf, output);
+		deleteOutputIf(conf);
+		return conf;
+	}
+
+	/** Run a job for each data set, then write the metadata file for each prepared data set.
+	 *
+	 * @return 0 on complete success
+	 * @see com.apress.hadoopbook.utils.MainProgrameShell#run(java.lang.String[])
+	 */
+	@Override
+	public int run(String[] args) throws Exception {
+		final JobConf baseConf = new JobConf(getConf());
+		int ret = runSetup(args, baseConf);
+		if (ret!=0) {
+			return ret;
+		}
+		JobGraph graph = newJobGraph();
+		/** The names of the prepared data set directories, which must be unique. */
+		Set<String> names = new HashSet<String>();
+		for (String dataset : datasets) {
+			String name = new Path(dataset.split(":")[0]).getName();
+			for (int i = 1; !names.add(name); i++) {
+				name = new Path(dataset.split(":")[0]).getName() + "." + i;
+			}
+			graph.add(dataset, datasetConf(baseConf, dataset, new Path(outputBase, name)));
+		}
+		final int failCount = launch(graph);
+
+		for (JobGraph.Job job : graph.getJobs()) {
+			if (job.getState()!=JobGraph.State.SUCCEEDED) {
+				continue;
+			}
+			final JobConf conf = job.getConf();
+			final Path output = FileOutputFormat.getOutputPath(conf);
+			final int parts = JoinPartitioning.countParts(conf, output);
+			if (parts!=conf.getNumReduceTasks()) {
+				LOG.warn( "Requested " + conf.getNumReduceTasks() + " parts for " + output + " but " + parts + " were written");
+			}
+			final JoinPartitioning partitioning = JoinPartitioning.forJob(conf, parts);
+			partitioning.write(conf, output);
+			if (verbose) { LOG.info( "Prepared " + job.getName() + " in " + output + " as " + partitioning); }
+		}
+		return failCount;
+	}
+
+	/**
+	 * @param args
+	 * @throws Exception
+	 */
+	public static void main(String[] args) throws Exception {
+		int res = ToolRunner.run(new Configuration(), new JoinDatasetPreparer(), args);
+		if (res!=0) {
+			System.err.println("Job exit code is " + res);
+		}
+		System.exit(res);
+	}
+}
@@ -0,0 +1,61 @@
+package com.apress.hadoopbook.examples.ch8;
+
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/** The sort comparator of a reduce side join, which orders the serialized {@link Text} keys of the shuffle as the join comparator,
+ * <code>mapred.join.keycomparator</code>, orders the keys of a merge join.
+ *
+ * The merge join only calls the object form of the join comparator, and the raw form of some join comparators, such as
+ * {@link com.apress.hadoopbook.examples.ch9.IPv4TextComparator}, expects the bare bytes of the key rather than the serialized key.
+ * The shuffle passes serialized keys, so the vint length is stripped from each key and the key bytes are passed to the object form.
+ *
+ * @author Jason
+ *
+ */
+public class JoinKeySortComparator extends WritableComparator implements Configurable {
+	Configuration conf;
+	/** The join comparator. */
+	WritableComparator joinComparator;
+	Text key1 = new Text();
+	Text key2 = new Text();
+
+	public JoinKeySortComparator() {
+		super(Text.class);
+	}
+
+	public void setConf(Configuration conf) {
+		this.conf = conf;
+		final Class<? extends WritableComparator> joinComparatorClass = conf.getClass("mapred.join.keycomparator", null, WritableComparator.class);
+		if (joinComparatorClass == null) {
+			throw new IllegalArgumentException("No join comparator is set in mapred.join.keycomparator");
+		}
+		joinComparator = ReflectionUtils.newInstance(joinComparatorClass, conf);
+	}
+
+	public Configuration getConf() {
+		return conf;
+	}
+
+	/** Strip the vint length of each serialized key, and compare the keys with the join comparator. */
+	@Override
+	public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+		final int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+		final int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+		key1.set(b1, s1 + n1, l1 - n1);
+		key2.set(b2, s2 + n2, l2 - n2);
+		return joinComparator.compare(key1, key2);
+	}
+
+	/** The reduce task groups with this form. */
+	@SuppressWarnings("unchecked")
+	@Override
+	public int compare(WritableComparable a, WritableComparable b) {
+		return joinComparator.compare(a, b);
+	}
+}
@@ -0,0 +1,211 @@
+package com.apress.hadoopbook.examples.ch8;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.join.MultiJoinRecordReader;
+import org.apache.hadoop.mapred.join.TupleWritable;
+import org.apache.hadoop.mapred.join.TupleWritables;
+import org.apache.hadoop.util.ReflectionUtils;
+
+import com.apress.hadoopbook.utils.KeyGroupBuffer;
+
+/** Pass the joined values of a key to the mapper a map side join would have run, for joins that gather the values themselves.
+ *
+ * The tuple mapper is the class in {@link PlannedJoin#TUPLE_MAPPER}, configured with the job. For inner and outer joins it
+ * is passed a {@link TupleWritable} for every combination of the values of the tables that have the key, with the rightmost
+ * table's value changing fastest, as {@link org.apache.hadoop.mapred.join.CompositeInputFormat} passes them. An inner join
+ * passes nothing unless every table has the key. For an override join it is passed each value of the rightmost table that has the key.
+ * A {@link MultiJoinRecordReader#OP multi} join passes the outer join tuples with the override marker of {@link MultiJoinRecordReader}
+ * in a last, extra position.
+ *
+ * @author Jason
+ *
+ */
+class JoinTupleEmitter {
+	/** The values of one table for the current key. */
+	interface Values {
+		/** @return true if the table has no values for the key */
+		boolean isEmpty();
+		/** Start again from the first value. */
+		void rewind() throws IOException;
+		/** Read the next value into <code>value</code>, returning false if there are no more. */
+		boolean next(Text value) throws IOException;
+	}
+
+	/** The values held in a {@link KeyGroupBuffer}. */
+	static class BufferValues implements Values {
+		final KeyGroupBuffer<Text> buffer;
+
+		BufferValues(final KeyGroupBuffer<Text> buffer) {
+			this.buffer = buffer;
+		}
+
+		public boolean isEmpty() {
+			return buffer.size() == 0;
+		}
+
+		public void rewind() throws IOException {
+			buffer.rewind();
+		}
+
+		public boolean next(Text value) throws IOException {
+			return buffer.next(value);
+		}
+	}
+
+	/** The values held in a list, which may be replaced between keys. */
+	static class ListValues implements Values {
+		List<Text> list;
+		int position;
+
+		void set(final List<Text> list) {
+			this.list = list;
+		}
+
+		public boolean isEmpty() {
+			return list == null || list.isEmpty();
+		}
+
+		public void rewind() {
+			position = 0;
+		}
+
+		public boolean next(Text value) {
+			if (list == null || position >= list.size()) {
+				return false;
+			}
+			value.set(list.get(position++));
+			return true;
+		}
+	}
+
+	final String op;
+	final Mapper<Text, Writable, Text, Text> tupleMapper;
+	/** The value of each position in the tuple. */
+	final Text[] holders;
+	final TupleWritable tuple;
+	/** The override marker of a multi join, otherwise null. */
+	final BooleanWritable override;
+	/** True for each position that holds the first value of its table for the key. */
+	final boolean[] first;
+	/** The position of a table whose values continue those of the previous emit call, which had the same key, or -1. */
+	int continued = -1;
+
+	/** The state of the current {@link #emit(Text, Values[], OutputCollector, Reporter)} call. */
+	Values[] groups;
+	Text key;
+	OutputCollector<Text, Text> output;
+	Reporter reporter;
+	long emitted;
+	int rightmost;
+
+	/**
+	 * @param conf The job, for the join operator and the tuple mapper class
+	 * @param size The number of tables in the join
+	 */
+	@SuppressWarnings("unchecked")
+	JoinTupleEmitter(final JobConf conf, final int size) {
+		op = conf.get(PlannedJoin.OP, "inner");
+		tupleMapper = ReflectionUtils.newInstance(conf.getClass(PlannedJoin.TUPLE_MAPPER, DuplicateKeyIndicatingIdentityMapper.class, Mapper.class), conf);
+		holders = new Text[size];
+		first = new boolean[size];
+		final Writable[] values = new Writable[op.equals(MultiJoinRecordReader.OP) ? size + 1 : size];
+		for (int i = 0; i < size; i++) {
+			values[i] = holders[i] = new Text();
+		}
+		if (values.length > size) {
+			values[size] = override = new BooleanWritable();
+		} else {
+			override = null;
+		}
+		tuple = new TupleWritable(values);
+	}
+
+	/** Pass the joined values of <code>key</code> to the tuple mapper.
+	 *
+	 * @param key The key
+	 * @param groups The values of each table for the key
+	 * @param output The collector for the tuple mapper
+	 * @param reporter The reporter for the tuple mapper
+	 * @return The number of tuples or values passed
+	 * @throws IOException if the tuple mapper fails
+	 */
+	long emit(final Text key, final Values[] groups, final OutputCollector<Text, Text> output, final Reporter reporter) throws IOException {
+		this.groups = groups;
+		this.key = key;
+		this.output = output;
+		this.reporter = reporter;
+		emitted = 0;
+		rightmost = -1;
+		for (int i = 0; i < groups.length; i++) {
+			if (!groups[i].isEmpty()) {
+				rightmost = i;
+			} else if (op.equals("inner")) {
+				return 0;
+			}
+		}
+		if (rightmost == -1) {
+			return 0;
+		}
+		if (op.equals("override")) {
+			final Text value = holders[rightmost];
+			groups[rightmost].rewind();
+			while (groups[rightmost].next(value)) {
+				tupleMapper.map(key, value, output, reporter);
+				emitted++;
+			}
+			return emitted;
+		}
+		TupleWritables.clearWritten(tuple);
+		for (int i = 0; i < groups.length; i++) {
+			if (!groups[i].isEmpty()) {
+				TupleWritables.setWritten(tuple, i);
+			}
+		}
+		if (override != null) {
+			TupleWritables.setWritten(tuple, groups.length);
+		}
+		emit(0);
+		return emitted;
+	}
+
+	/** Vary the value of <code>position</code> and of every position to its right. */
+	void emit(final int position) throws IOException {
+		if (position == groups.length) {
+			if (override != null) {
+				/** The override rows are the tuples with the first value of every table left of the rightmost. */
+				boolean isOverride = true;
+				for (int i = 0; isOverride && i < rightmost; i++) {
+					isOverride = groups[i].isEmpty() || first[i];
+				}
+				override.set(isOverride);
+			}
+			tupleMapper.map(key, tuple, output, reporter);
+			emitted++;
+			return;
+		}
+		if (groups[position].isEmpty()) {
+			emit(position + 1);
+			return;
+		}
+		groups[position].rewind();
+		first[position] = position != continued;
+		while (groups[position].next(holders[position])) {
+			emit(position + 1);
+			first[position] = false;
+		}
+	}
+
+	/** Close the tuple mapper. */
+	void close() throws IOException {
+		tupleMapper.close();
+	}
+}
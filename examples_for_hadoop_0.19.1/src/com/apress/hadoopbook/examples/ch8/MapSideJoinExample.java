@@ -25,11 +25,15 @@ import org.apache.hadoop.mapred.KeyValueTextInputFormat;
 import org.apache.hadoop.mapred.RunningJob;
 import org.apache.hadoop.mapred.TextOutputFormat;
 import org.apache.hadoop.mapred.join.CompositeInputFormat;
+import org.apache.hadoop.mapred.join.MultiJoinRecordReader;
 import org.apache.hadoop.mapred.lib.IdentityMapper;
 import org.apache.hadoop.mapred.lib.IdentityReducer;
 import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
 
+import com.apress.hadoopbook.utils.JobGraph;
+import com.apress.hadoopbook.utils.JoinPartitioning;
+import com.apress.hadoopbook.utils.JoinPlanner;
 import com.apress.hadoopbook.utils.MainProgrameShell;
 import com.apress.hadoopbook.utils.Utils;
 
@@ -2936,6 +2940,11 @@ import com.apress.hadoopbook.utils.Utils;
  * </li>
  * </ul>
  * 
+ * Each join is planned by {@link JoinPlanner} through {@link PlannedJoin}. Small data sets in an inner join are broadcast, the default data sets and
+ * data sets prepared by {@link JoinDatasetPreparer} are merge joined as above, and other data sets are joined in the reduce.
+ * The strategy can be forced with -D examples.join.strategy=BROADCAST|MERGE|REDUCE_SIDE. The rows are the same for every strategy,
+ * but the rows of a repeated key may come in a different order, and be numbered differently.
+ * 
  * @author Jason
  *
  */
@@ -2952,6 +2961,9 @@ public class MapSideJoinExample extends MainProgrameShell {
 	/** If true, it is okay to delete input files that match the default data set names when creating the input data sets. -dDI to toggle. */
 	boolean doDeleteInput = false;
 	
+	/** If true, run a single outer join and produce all three join results from it with {@link MultiJoinMapper}. -sP to toggle. */
+	boolean singlePass = false;
+	
 	/** The resource names to use to generate the data sets for this test. */
 	static String[] defaultDatasetResourceNames = new String[] { "maptest_a.txt", "maptest_b.txt", "maptest_c.txt" };
 
@@ -2960,6 +2972,12 @@ public class MapSideJoinExample extends MainProgrameShell {
 	
 	/** The set of data sets to use for the joins. */
 	ArrayList<String> datasets = new ArrayList<String>();
+	
+	/** The tables of {@link #datasets}, parsed in {@link #customSetup(JobConf)}. */
+	ArrayList<PlannedJoin.Table> tables = new ArrayList<PlannedJoin.Table>();
+	
+	/** The partitioning of the data sets if they were prepared by {@link JoinDatasetPreparer}, otherwise null. */
+	JoinPartitioning partitioning;
 
 	  /** Add the --noDefaultDatasets and --noDeleteInput flags.
 	   * 
@@ -2975,11 +2993,14 @@ public class MapSideJoinExample extends MainProgrameShell {
 		options.addOption( OptionBuilder.withLongOpt("doDeleteInput")
 				   .withDescription("If using the default datasets, and a file or directory exists with the name of the data set, delete it." )
 				   .create( "dDI" ) );
+		options.addOption( OptionBuilder.withLongOpt("singlePass")
+				   .withDescription("Read the data sets once, producing the inner, outer and override results from a single outer join." )
+				   .create( "sP" ) );
 		return options;
 	}
 
 
-	/** handle the --noDefaultDatasets and --doDeleteInput arguments.
+	/** handle the --noDefaultDatasets, --doDeleteInput and --singlePass arguments.
 	   * 
 	   * @see com.apress.hadoopbook.utils.MainProgrameShell#processGeneralOptions(org.apache.hadoop.mapred.JobConf, org.apache.commons.cli.CommandLine)
 	   * 
@@ -2995,6 +3016,10 @@ public class MapSideJoinExample extends MainProgrameShell {
 			  doDeleteInput = true;
 			  if (verbose) { LOG.info("Delete of default input enabled."); }
 		  }
+		  if (commandLine.hasOption("sP")) {
+			  singlePass = true;
+			  if (verbose) { LOG.info("Single pass joins enabled."); }
+		  }
 	  }
 
 	  /** Handle the custom arguments and flags.
@@ -3005,7 +3030,7 @@ public class MapSideJoinExample extends MainProgrameShell {
 	   * 
 	   */
 	  protected boolean handleRemainingArgs(JobConf conf, String[] args) {
-		  if (noDefaultDatasets&&args!=null&&args.length>0) {
+		  if (!noDefaultDatasets&&args!=null&&args.length>0) {
 			  LOG.error( "Unhandled arguments, " + args.length + " unhandled: "  + StringUtils.join( args, ", "));
 			  return false;
 		  }
@@ -3070,17 +3095,17 @@ public class MapSideJoinExample extends MainProgrameShell {
 		}
 	}
 	
-	/** Given a data set specification of the form path[:InputFormatClassName], return a map side join specifier for the data set.
+	/** Given a data set specification of the form path[:InputFormatClassName], return the table for the data set.
 	 * 
 	 * The default InputFormat class is {@link KeyValueTextInputFormat} and the default package for class lookup is org.apache.hadoop.mapred.
 	 * 
 	 * @param conf the {@link JobConf} object to use for class lookups
 	 * @param dataset The data set specifier
-	 * @return The results of {@link CompositeInputFormat#compose(Class, String)}
+	 * @return The path and input format of the data set
 	 * @throws IOException if the input format class can not be found.
 	 */
 	@SuppressWarnings("unchecked")
-	public static String parseDataset( JobConf conf, String dataset ) throws IOException
+	public static PlannedJoin.Table parseTable( JobConf conf, String dataset ) throws IOException
 	{
 		String parts[] = dataset.split( ":" );
 		/** Only accept strings that have 1 or to elements when split with a ':'. The strings have to not be 0 length. */
@@ -3108,10 +3133,21 @@ public class MapSideJoinExample extends MainProgrameShell {
 				throw new IOException( "Unable to load a class that implements InputFormat for " + classSpec);
 			}
 		}
+		return new PlannedJoin.Table(inputFormat, new Path(path));
+	}
 
+	/** Given a data set specification of the form path[:InputFormatClassName], return a map side join specifier for the data set.
+	 * 
+	 * @param conf the {@link JobConf} object to use for class lookups
+	 * @param dataset The data set specifier
+	 * @return The results of {@link CompositeInputFormat#compose(Class, String)}
+	 * @throws IOException if the input format class can not be found.
+	 * @see #parseTable(JobConf, String)
+	 */
+	public static String parseDataset( JobConf conf, String dataset ) throws IOException
+	{
 		/** Actually produce the specification string for this data set. */
-		final String tableSpec = CompositeInputFormat.compose(inputFormat, path);
-		return tableSpec;
+		return parseTable(conf, dataset).compose();
 	}
 
 	/**	Given a join operator and a set of data set specifications (Path[:InputFormat]), return a full join command
@@ -3175,15 +3211,46 @@ public class MapSideJoinExample extends MainProgrameShell {
 		/** Our specialty mapper and reducer. */
 		baseConf.setMapperClass(DuplicateKeyIndicatingIdentityMapper.class);
 		
-		
+		for (String dataset : datasets) {
+			tables.add(parseTable(baseConf, dataset));
+		}
+		partitioning = verifyPartitioning(baseConf);
+	}
+	
+	/** The data sets can be merge joined if they were prepared by {@link JoinDatasetPreparer}, or are the default data sets, which are sorted single files.
+	 * Other data sets are not known to be sorted, and are joined in the reduce unless they are small enough to broadcast.
+	 * 
+	 * @return true if the data sets are sorted and partitioned identically
+	 */
+	protected boolean isSorted() {
+		return partitioning!=null || !noDefaultDatasets;
+	}
+	
+	/** Refuse data sets prepared by {@link JoinDatasetPreparer} with different partitioning, or sorted with a different comparator than the join uses.
+	 * Data sets without metadata, such as the default data sets, are not checked.
+	 * 
+	 * @param conf The job configuration, <code>mapred.join.keycomparator</code> is the join comparator if set
+	 * @return The common partitioning, or null if the data sets have no metadata
+	 * @throws IOException if the data sets are not partitioned identically
+	 */
+	protected JoinPartitioning verifyPartitioning(JobConf conf) throws IOException {
+		ArrayList<Path> paths = new ArrayList<Path>();
+		for (String dataset : datasets) {
+			paths.add(new Path(dataset.split(":")[0]));
+		}
+		/** Without mapred.join.keycomparator the join uses the comparator registered for the key class. */
+		final Class<?> joinComparator = conf.getClass("mapred.join.keycomparator", JoinPartitioning.registeredComparator(Text.class));
+		return JoinPartitioning.verify(conf, paths, joinComparator);
 	}
 	
 	
 	
-	/** This job runs 3 map reduce jobs in sequence and needs to handle it the run method directly.
-	 * A join of inner, outer and override will be run over the input datasets.
+	/** This job runs 3 independent map reduce jobs as a {@link JobGraph} and needs to handle it the run method directly.
+	 * A join of inner, outer and override will be run over the input datasets, each with the strategy {@link PlannedJoin} chooses.
 	 * The output will be in MapSideJoinExample.inner, MapSideJoinExample.outer and MapSideJoinExample.override
 	 * 
+	 * With --singlePass a single outer join is run, and the output will be in the inner, outer and override files in MapSideJoinExample.all
+	 * 
 	 * @return 0 on complete success
 	 * 
 	 * @see com.apress.hadoopbook.utils.MainProgrameShell#run(java.lang.String[])
@@ -3202,58 +3269,72 @@ public class MapSideJoinExample extends MainProgrameShell {
 		  }
 		  Path outputDirectoryBaseName = new Path("MapSideJoinExample");
 		  
-		  /** The number of jobs that have failed. */
-		  int failCount=0;
-		  /** The {@link RunningJob} objects will be saved in <code>jobs</code> and their counters dumped when all the jobs are complete. */
-		  ArrayList<RunningJob> jobs = new ArrayList<RunningJob>();
+		  /** The jobs are independent, the graph runs them at the same time. */
+		  JobGraph graph = newJobGraph();
 		  
-		  for (String join : joinTypes ) {
-			  /** Produce the per job config object. */
-				final JobConf conf = new JobConf(baseConf);
-				conf.setJobName(join);
-				final String joinStatement = compose(conf, join, datasets);
-				if (verbose) {
-					LOG.info( "The Join statement for " + join + " is " + joinStatement);
-				}
-				/** Just to be save replace any characters in <code>join</code> that would be bad in the file name portion of a path, and use that as the output directory suffix. */
-				final String suffix = join.replaceAll("[/\\s]", "_");
-				final Path outputPath = outputDirectoryBaseName.suffix("."+suffix);
-				FileOutputFormat.setOutputPath(conf, outputPath);
-				deleteOutputIf(conf);
+		  if (singlePass) {
+			  graph.add("singlePass", singlePassConf(baseConf, outputDirectoryBaseName));
+		  } else {
+			  for (String join : joinTypes ) {
+				  /** Produce the per job config object. */
+					final JobConf conf = new JobConf(baseConf);
+					conf.setJobName(join);
+					/** Just to be save replace any characters in <code>join</code> that would be bad in the file name portion of a path, and use that as the output directory suffix. */
+					final String suffix = join.replaceAll("[/\\s]", "_");
+					final Path outputPath = outputDirectoryBaseName.suffix("."+suffix);
+					FileOutputFormat.setOutputPath(conf, outputPath);
+					deleteOutputIf(conf);
 				
-				/** Store the join expression in the config so that the {@link CompositeInputFormat} can run the join. */
-				conf.set("mapred.join.expr", joinStatement);
-				
-				if (join.equals("override")) {
-					/** The override join does not pass TupleWritable objects to its {@link Mapper},
-					 *  instead a single object of the type of the {@link InputFormat} value class is passed.
-					 *  If all of the input tables do not have the same value class, it is unclear what the behavior is.
-					 */
-					conf.setMapOutputValueClass(Text.class);
-					conf.setMapperClass(IdentityMapper.class);
-					conf.setReducerClass(IdentityReducer.class);
-				}
-				try {
-					/** Send the job to the framework. */
-					RunningJob rj = launch(conf);
-					jobs.add(rj);
-
-					if (isSuccessFul(rj)!=0) {
-						LOG.error( "error running join " + joinStatement);
-						failCount++;
+					if (join.equals("override")) {
+						/** The override join does not pass TupleWritable objects to its {@link Mapper},
+						 *  instead a single object of the type of the {@link InputFormat} value class is passed.
+						 *  If all of the input tables do not have the same value class, it is unclear what the behavior is.
+						 */
+						conf.setMapOutputValueClass(Text.class);
+						conf.setMapperClass(IdentityMapper.class);
+						conf.setReducerClass(IdentityReducer.class);
 					}
-				} catch( Throwable e) {
-					LOG.error( "Job " + join + " failed ", e);
-					failCount++;
-				}
+					/** Choose the join strategy, a merge join stores the join expression in the config so that the {@link CompositeInputFormat} can run the join. */
+					final JoinPlanner.Plan plan = PlannedJoin.configure(conf, join, tables, isSorted());
+					if (verbose && plan.getStrategy()==JoinPlanner.Strategy.MERGE) {
+						LOG.info( "The Join statement for " + join + " is " + conf.get("mapred.join.expr"));
+					}
+					graph.add(join, conf);
+			  }
 		  }
+		  /** Send the jobs to the framework. */
+		  final int failCount = launch(graph);
+		  
 		  /** Emit the counters for the jobs. */
-		  for( RunningJob rj : jobs) {
-			  outputJobCounters(rj);
+		  for( JobGraph.Job job : graph.getJobs()) {
+			  if (job.getRunningJob()!=null) {
+				  outputJobCounters(job.getRunningJob());
+			  }
 		  }
 		  return failCount;
 	  }
 
+	/** Configure a single outer join, producing the inner, outer and override results as the named outputs of {@link MultiJoinMapper}.
+	 * The join is a {@link MultiJoinRecordReader multi} join, an outer join whose tuples mark the override rows.
+	 * 
+	 * @param baseConf The common configuration for the job
+	 * @param outputDirectoryBaseName The output directory name, the output will be in outputDirectoryBaseName.all
+	 * @return The job configuration
+	 * @throws IOException if the join statement can not be constructed
+	 */
+	protected JobConf singlePassConf(JobConf baseConf, Path outputDirectoryBaseName) throws IOException {
+		final JobConf conf = new JobConf(baseConf);
+		conf.setJobName("singlePass");
+		FileOutputFormat.setOutputPath(conf, outputDirectoryBaseName.suffix(".all"));
+		deleteOutputIf(conf);
+		conf.setMapperClass(MultiJoinMapper.class);
+		MultiJoinMapper.addNamedOutputs(conf);
+		final JoinPlanner.Plan plan = PlannedJoin.configure(conf, MultiJoinRecordReader.OP, tables, isSorted());
+		if (verbose && plan.getStrategy()==JoinPlanner.Strategy.MERGE) {
+			LOG.info( "The Join statement for the single pass is " + conf.get("mapred.join.expr"));
+		}
+		return conf;
+	}
 			
 	/** If there were any exceptions the job did not succeed.
 	 * 
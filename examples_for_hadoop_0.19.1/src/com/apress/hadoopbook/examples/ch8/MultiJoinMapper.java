@@ -0,0 +1,111 @@
+package com.apress.hadoopbook.examples.ch8;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.join.MultiJoinRecordReader;
+import org.apache.hadoop.mapred.join.TupleWritable;
+import org.apache.hadoop.mapred.lib.MultipleOutputs;
+
+/** Produce the inner, outer and override join results from a single {@link MultiJoinRecordReader multi} join scan.
+ *
+ * The multi join passes the outer join tuples, with one more position than there are data sets.
+ * The inner and outer results are written as {@link DuplicateKeyIndicatingIdentityMapper} would write them for an inner or outer join,
+ * to the named outputs {@link #INNER} and {@link #OUTER}.
+ * The override result is written to the named output {@link #OVERRIDE}, as the key and the value of the rightmost data set that has the key,
+ * for the tuples whose last position, the override marker, is true. The join sets the marker from the position of each data set's value
+ * among the values of the key, so a data set with duplicate rows does not repeat the override values.
+ *
+ * @author Jason
+ *
+ */
+class MultiJoinMapper extends DuplicateKeyIndicatingIdentityMapper {
+	/** The named output for the inner join, the tuples with a value for every data set. */
+	static final String INNER = "inner";
+	/** The named output for the outer join, all of the tuples. */
+	static final String OUTER = "outer";
+	/** The named output for the override join, the rightmost value. */
+	static final String OVERRIDE = "override";
+
+	MultipleOutputs mos;
+	DuplicateKeyIndicatingWriter innerWriter;
+
+	Text overrideValue = new Text();
+
+	/** Add the three named outputs to <code>conf</code>.
+	 *
+	 * @param conf The job
+	 */
+	static void addNamedOutputs(JobConf conf) {
+		MultipleOutputs.addNamedOutput(conf, INNER, TextOutputFormat.class, Text.class, Text.class);
+		MultipleOutputs.addNamedOutput(conf, OUTER, TextOutputFormat.class, Text.class, Text.class);
+		MultipleOutputs.addNamedOutput(conf, OVERRIDE, TextOutputFormat.class, Text.class, Text.class);
+	}
+
+	@Override
+	public void configure(JobConf job) {
+		super.configure(job);
+		innerWriter = new DuplicateKeyIndicatingWriter(job);
+		mos = new MultipleOutputs(job);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void map(Text key, TupleWritable value,
+			OutputCollector<Text, Text> output, Reporter reporter)
+			throws IOException {
+		try {
+			savedReporter = reporter;
+			/** The last position is the override marker. */
+			final int max = value.size() - 1;
+			transFormTupleToOutputString(key, value, max, reporter);
+			final String transformed = sb.toString();
+
+			/** Every data set has a value, this tuple is part of the inner join. */
+			boolean all = true;
+			int rightmost = -1;
+			for( int i = 0; i < max; i++) {
+				if (value.has(i)) {
+					rightmost = i;
+				} else {
+					all = false;
+				}
+			}
+			if (all) {
+				innerWriter.collect(key, transformed, mos.getCollector(INNER, reporter));
+			}
+			writer.collect(key, transformed, mos.getCollector(OUTER, reporter));
+
+			if (rightmost!=-1 && ((BooleanWritable) value.get(max)).get()) {
+				overrideValue.set(value.get(rightmost).toString());
+				mos.getCollector(OVERRIDE, reporter).collect(key, overrideValue);
+			}
+		} catch (Throwable e) {
+			reporter.incrCounter("Exceptions", "MapExceptionsTotal", 1);
+			MapSideJoinExample.LOG.error( "Failed to handle record for " + key, e);
+		}
+	}
+
+	@Override
+	public void close()
+	{
+		try {
+			innerWriter.close();
+		} catch (IOException e) {
+			MapSideJoinExample.LOG.error("Close failed ", e);
+			savedReporter.incrCounter("Exceptions", "MapExceptionsTotal", 1);
+		}
+		super.close();
+		try {
+			mos.close();
+		} catch (IOException e) {
+			MapSideJoinExample.LOG.error("Close failed ", e);
+			savedReporter.incrCounter("Exceptions", "MapExceptionsTotal", 1);
+		}
+	}
+}
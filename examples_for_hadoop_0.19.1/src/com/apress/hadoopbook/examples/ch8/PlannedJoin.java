@@ -0,0 +1,218 @@
+package com.apress.hadoopbook.examples.ch8;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileInputFormat;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.join.CompositeInputFormat;
+import org.apache.hadoop.mapred.join.MultiJoinRecordReader;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.apache.log4j.Logger;
+
+import com.apress.hadoopbook.utils.JoinPlanner;
+
+/** Configure a join of a set of tables with the strategy {@link JoinPlanner} chooses.
+ *
+ * The job must already have its output path and the mapper that a map side join would run, the tuple mapper, which is passed
+ * a {@link org.apache.hadoop.mapred.join.TupleWritable} for inner and outer joins and the value of the rightmost table for override joins.
+ * <ul>
+ * <li>{@link JoinPlanner.Strategy#MERGE} sets <code>mapred.join.expr</code> and {@link CompositeInputFormat}, the tuple mapper runs as the mapper.</li>
+ * <li>{@link JoinPlanner.Strategy#BROADCAST} builds the broadcast file of the small tables, and {@link BroadcastJoinMapper} reads the
+ * largest table and runs the tuple mapper for each joined record. The job is map only.</li>
+ * <li>{@link JoinPlanner.Strategy#REDUCE_SIDE} reads every table through {@link TaggedJoinInputFormat}, and {@link TaggedJoinReducer}
+ * runs the tuple mapper for the joined values of each key. The job runs {@link #REDUCE_TASKS} reduces, default 1.
+ * If <code>mapred.join.keycomparator</code> is set, the keys are sorted and grouped by it through a {@link JoinKeySortComparator},
+ * and partitioned by {@link #PARTITIONER}, which must send the keys the join comparator considers equal to the same reduce.
+ * Without that partitioner the join runs a single reduce.</li>
+ * </ul>
+ * The keys and values of the broadcast and reduce side joins are converted to {@link Text}.
+ *
+ * @author Jason
+ *
+ */
+public class PlannedJoin {
+	static Logger LOG = Logger.getLogger(PlannedJoin.class);
+
+	/** The configuration key for the join operator, inner, outer, override or multi. */
+	public static final String OP = "examples.join.op";
+	/** The configuration key for the mapper that is passed the joined tuples. */
+	public static final String TUPLE_MAPPER = "examples.join.tuple.mapper.class";
+	/** The configuration key for the number of tables, each table is stored in {@link #TABLE} suffixed with its position. */
+	public static final String TABLES = "examples.join.tables";
+	/** The prefix of the configuration key for a table, the value is the input format class name, a comma and the path. */
+	public static final String TABLE = "examples.join.table.";
+	/** The configuration key for the position of the table a broadcast join streams. */
+	public static final String STREAMED = "examples.join.streamed";
+	/** The configuration key for the number of reduces of a reduce side join. */
+	public static final String REDUCE_TASKS = "examples.join.reduce.tasks";
+	/** The configuration key for the partitioner of a reduce side join that is consistent with <code>mapred.join.keycomparator</code>. */
+	public static final String PARTITIONER = "examples.join.partitioner.class";
+
+	/** A table of the join, a path and the input format that reads it. */
+	@SuppressWarnings("unchecked")
+	public static class Table {
+		final Class<? extends InputFormat> inputFormat;
+		final Path path;
+
+		/**
+		 * @param inputFormat The input format
+		 * @param path The file or directory
+		 */
+		public Table(final Class<? extends InputFormat> inputFormat, final Path path) {
+			this.inputFormat = inputFormat;
+			this.path = path;
+		}
+
+		/** @return the input format */
+		public Class<? extends InputFormat> getInputFormat() {
+			return inputFormat;
+		}
+
+		/** @return the path */
+		public Path getPath() {
+			return path;
+		}
+
+		/** @return the {@link CompositeInputFormat#compose(Class, String)} specification of the table */
+		public String compose() {
+			return CompositeInputFormat.compose(inputFormat, path.toString());
+		}
+
+		/** A job configuration that reads just this table.
+		 *
+		 * @param conf The job
+		 * @return A copy of <code>conf</code> with the input format and input path of this table
+		 */
+		public JobConf readConf(final JobConf conf) {
+			final JobConf tableConf = new JobConf(conf);
+			tableConf.setInputFormat(inputFormat);
+			FileInputFormat.setInputPaths(tableConf, path);
+			return tableConf;
+		}
+
+		@Override
+		public String toString() {
+			return inputFormat.getName() + "," + path;
+		}
+	}
+
+	/** Store the tables in the configuration.
+	 *
+	 * @param conf The job
+	 * @param tables The tables in join order
+	 */
+	public static void setTables(final JobConf conf, final List<Table> tables) {
+		conf.setInt(TABLES, tables.size());
+		for (int i = 0; i < tables.size(); i++) {
+			conf.set(TABLE + i, tables.get(i).toString());
+		}
+	}
+
+	/** Read the tables stored by {@link #setTables(JobConf, List)}.
+	 *
+	 * @param conf The job
+	 * @return The tables in join order
+	 * @throws IOException if a table can not be parsed, or its input format can not be loaded
+	 */
+	@SuppressWarnings("unchecked")
+	public static List<Table> getTables(final JobConf conf) throws IOException {
+		final int count = conf.getInt(TABLES, 0);
+		final ArrayList<Table> tables = new ArrayList<Table>(count);
+		for (int i = 0; i < count; i++) {
+			final String spec = conf.get(TABLE + i);
+			final int comma = spec == null ? -1 : spec.indexOf(',');
+			if (comma == -1) {
+				throw new IOException("Unable to parse table " + i + " from " + spec);
+			}
+			final Class<? extends InputFormat> inputFormat;
+			try {
+				inputFormat = conf.getClassByName(spec.substring(0, comma)).asSubclass(InputFormat.class);
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Unable to load the input format " + spec.substring(0, comma), e);
+			} catch (ClassCastException e) {
+				throw new IOException(spec.substring(0, comma) + " does not implement InputFormat", e);
+			}
+			tables.add(new Table(inputFormat, new Path(spec.substring(comma + 1))));
+		}
+		return tables;
+	}
+
+	/** Plan the join and configure <code>conf</code> to run it.
+	 *
+	 * @param conf The job, with its output path and tuple mapper set
+	 * @param op The join operator, inner, outer, override or {@link MultiJoinRecordReader#OP multi}, which is planned as an outer join
+	 * @param tables The tables in join order
+	 * @param sorted True if the tables are sorted by the join comparator and partitioned identically
+	 * @return The plan
+	 * @throws IOException if a table does not exist, or the broadcast file can not be built
+	 */
+	@SuppressWarnings("unchecked")
+	public static JoinPlanner.Plan configure(final JobConf conf, final String op, final List<Table> tables, final boolean sorted) throws IOException {
+		final ArrayList<Path> paths = new ArrayList<Path>();
+		for (Table table : tables) {
+			paths.add(table.getPath());
+		}
+		final JoinPlanner.Plan plan = JoinPlanner.plan(conf, op, paths, sorted);
+		if (plan.getStrategy() == JoinPlanner.Strategy.MERGE) {
+			final StringBuilder sb = new StringBuilder(op).append('(');
+			for (Table table : tables) {
+				sb.append(table.compose()).append(',');
+			}
+			sb.setLength(sb.length() - 1);
+			sb.append(')');
+			conf.set("mapred.join.expr", sb.toString());
+			if (op.equals(MultiJoinRecordReader.OP)) {
+				MultiJoinRecordReader.define(conf);
+			}
+			conf.setInputFormat(CompositeInputFormat.class);
+			return plan;
+		}
+		conf.set(OP, op);
+		conf.setClass(TUPLE_MAPPER, conf.getMapperClass(), Mapper.class);
+		setTables(conf, tables);
+		if (plan.getStrategy() == JoinPlanner.Strategy.BROADCAST) {
+			final int streamed = plan.getStreamed();
+			conf.setInt(STREAMED, streamed);
+			final Table large = tables.get(streamed);
+			conf.setInputFormat(large.getInputFormat());
+			FileInputFormat.setInputPaths(conf, large.getPath());
+			conf.setMapperClass(BroadcastJoinMapper.class);
+			conf.setNumReduceTasks(0);
+			final Path output = FileOutputFormat.getOutputPath(conf);
+			final FileSystem fs = output.getFileSystem(conf);
+			final Path broadcast = output.suffix("." + System.currentTimeMillis() + ".broadcast").makeQualified(fs);
+			BroadcastJoinMapper.build(conf, tables, streamed, broadcast);
+			fs.deleteOnExit(broadcast);
+			BroadcastJoinMapper.addToCache(conf, broadcast);
+		} else {
+			conf.setInputFormat(TaggedJoinInputFormat.class);
+			conf.setMapperClass(IdentityMapper.class);
+			conf.setMapOutputKeyClass(Text.class);
+			conf.setMapOutputValueClass(TaggedText.class);
+			conf.setReducerClass(TaggedJoinReducer.class);
+			conf.setNumReduceTasks(conf.getInt(REDUCE_TASKS, 1));
+			/** Sort and group the keys as the merge join would have. */
+			if (conf.get("mapred.join.keycomparator") != null) {
+				conf.setOutputKeyComparatorClass(JoinKeySortComparator.class);
+				final Class<? extends Partitioner> partitioner = conf.getClass(PARTITIONER, null, Partitioner.class);
+				if (partitioner != null) {
+					conf.setPartitionerClass(partitioner);
+				} else if (conf.getNumReduceTasks() > 1) {
+					/** The hash of the key bytes may split keys the join comparator considers equal. */
+					LOG.warn("No " + PARTITIONER + " is set for the join comparator " + conf.get("mapred.join.keycomparator") + ", running 1 reduce");
+					conf.setNumReduceTasks(1);
+				}
+			}
+		}
+		return plan;
+	}
+}
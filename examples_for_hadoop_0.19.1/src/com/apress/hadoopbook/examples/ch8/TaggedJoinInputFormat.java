@@ -0,0 +1,156 @@
+package com.apress.hadoopbook.examples.ch8;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/** Read every table of a reduce side join, each through its own input format, and tag each value with the position of its table.
+ *
+ * The tables are those stored by {@link PlannedJoin#setTables(JobConf, List)}. Each split of a table is wrapped in a
+ * {@link TaggedSplit} that carries the position, and the keys and values are converted to {@link Text}.
+ * Unlike {@link org.apache.hadoop.mapred.lib.MultipleInputs}, a path may appear more than once, so a table can be joined with itself.
+ *
+ * @author Jason
+ *
+ */
+public class TaggedJoinInputFormat implements InputFormat<Text, TaggedText> {
+
+	/** A split of one table, and the position of the table in the join. */
+	public static class TaggedSplit implements InputSplit {
+		int tag;
+		InputSplit split;
+
+		/** For deserialization. */
+		public TaggedSplit() {
+		}
+
+		TaggedSplit(final int tag, final InputSplit split) {
+			this.tag = tag;
+			this.split = split;
+		}
+
+		/** @return the position of the table in the join */
+		public int getTag() {
+			return tag;
+		}
+
+		/** @return the split of the table */
+		public InputSplit getSplit() {
+			return split;
+		}
+
+		public long getLength() throws IOException {
+			return split.getLength();
+		}
+
+		public String[] getLocations() throws IOException {
+			return split.getLocations();
+		}
+
+		public void write(DataOutput out) throws IOException {
+			WritableUtils.writeVInt(out, tag);
+			Text.writeString(out, split.getClass().getName());
+			split.write(out);
+		}
+
+		public void readFields(DataInput in) throws IOException {
+			tag = WritableUtils.readVInt(in);
+			final String splitClass = Text.readString(in);
+			try {
+				split = (InputSplit) ReflectionUtils.newInstance(Class.forName(splitClass), null);
+			} catch (ClassNotFoundException e) {
+				throw new IOException("Unable to load the split class " + splitClass, e);
+			}
+			split.readFields(in);
+		}
+	}
+
+	/** The splits of each table, in table order. */
+	@SuppressWarnings("unchecked")
+	public InputSplit[] getSplits(JobConf job, int numSplits) throws IOException {
+		final List<PlannedJoin.Table> tables = PlannedJoin.getTables(job);
+		final ArrayList<InputSplit> splits = new ArrayList<InputSplit>();
+		for (int i = 0; i < tables.size(); i++) {
+			final JobConf tableConf = tables.get(i).readConf(job);
+			final InputFormat format = ReflectionUtils.newInstance(tables.get(i).getInputFormat(), tableConf);
+			for (InputSplit split : format.getSplits(tableConf, Math.max(1, numSplits / tables.size()))) {
+				splits.add(new TaggedSplit(i, split));
+			}
+		}
+		return splits.toArray(new InputSplit[splits.size()]);
+	}
+
+	@SuppressWarnings("unchecked")
+	public RecordReader<Text, TaggedText> getRecordReader(InputSplit split, JobConf job, Reporter reporter) throws IOException {
+		final TaggedSplit tagged = (TaggedSplit) split;
+		final PlannedJoin.Table table = PlannedJoin.getTables(job).get(tagged.getTag());
+		final JobConf tableConf = table.readConf(job);
+		final InputFormat format = ReflectionUtils.newInstance(table.getInputFormat(), tableConf);
+		return new TaggingRecordReader(tagged.getTag(), format.getRecordReader(tagged.getSplit(), tableConf, reporter));
+	}
+
+	/** Convert the records of a table to {@link Text} keys and tagged values. */
+	static class TaggingRecordReader implements RecordReader<Text, TaggedText> {
+		final int tag;
+		final RecordReader<Object, Object> reader;
+		final Object key;
+		final Object value;
+		final Text text = new Text();
+
+		TaggingRecordReader(final int tag, final RecordReader<Object, Object> reader) {
+			this.tag = tag;
+			this.reader = reader;
+			this.key = reader.createKey();
+			this.value = reader.createValue();
+		}
+
+		public boolean next(Text outputKey, TaggedText outputValue) throws IOException {
+			if (!reader.next(key, value)) {
+				return false;
+			}
+			if (key instanceof Text) {
+				outputKey.set((Text) key);
+			} else {
+				outputKey.set(key.toString());
+			}
+			if (value instanceof Text) {
+				outputValue.set(tag, (Text) value);
+			} else {
+				text.set(value.toString());
+				outputValue.set(tag, text);
+			}
+			return true;
+		}
+
+		public Text createKey() {
+			return new Text();
+		}
+
+		public TaggedText createValue() {
+			return new TaggedText();
+		}
+
+		public long getPos() throws IOException {
+			return reader.getPos();
+		}
+
+		public float getProgress() throws IOException {
+			return reader.getProgress();
+		}
+
+		public void close() throws IOException {
+			reader.close();
+		}
+	}
+}
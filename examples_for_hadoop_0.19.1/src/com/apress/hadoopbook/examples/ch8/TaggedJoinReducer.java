@@ -0,0 +1,84 @@
+package com.apress.hadoopbook.examples.ch8;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.log4j.Logger;
+
+import com.apress.hadoopbook.utils.BatchedCounters;
+import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
+import com.apress.hadoopbook.utils.KeyGroupBuffer;
+
+/** The reduce of a reduce side join, the values of each key are gathered by table and passed to the tuple mapper by a {@link JoinTupleEmitter}.
+ *
+ * The values of each table are held in a {@link KeyGroupBuffer}, so a hot key spills to local disk rather than exhausting the heap.
+ *
+ * @author Jason
+ *
+ */
+public class TaggedJoinReducer extends ExamplesMapReduceBase implements Reducer<Text, TaggedText, Text, Text> {
+	protected static Logger LOG = Logger.getLogger(TaggedJoinReducer.class);
+
+	/** The values of each table for the current key. */
+	KeyGroupBuffer<Text>[] buffers;
+	JoinTupleEmitter.Values[] groups;
+	JoinTupleEmitter emitter;
+
+	/** The counters, registered in {@link #configure(JobConf)}. */
+	BatchedCounters.Handle keys;
+	BatchedCounters.Handle joined;
+
+	@SuppressWarnings("unchecked")
+	@Override
+	public void configure(JobConf job) {
+		super.configure(job);
+		keys = counters.register("TaggedJoinReducer", "Keys");
+		joined = counters.register("TaggedJoinReducer", "Joined Records");
+		final int size = job.getInt(PlannedJoin.TABLES, 0);
+		buffers = new KeyGroupBuffer[size];
+		groups = new JoinTupleEmitter.Values[size];
+		for (int i = 0; i < size; i++) {
+			buffers[i] = new KeyGroupBuffer<Text>(job, Text.class);
+			groups[i] = new JoinTupleEmitter.BufferValues(buffers[i]);
+		}
+		emitter = new JoinTupleEmitter(job, size);
+	}
+
+	public void reduce(Text key, Iterator<TaggedText> values, OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+		try {
+			counters.record(reporter);
+			counters.incr(keys);
+			for (KeyGroupBuffer<Text> buffer : buffers) {
+				buffer.clear();
+			}
+			while (values.hasNext()) {
+				final TaggedText value = values.next();
+				buffers[value.getTag()].add(value.getValue());
+			}
+			counters.incr(joined, emitter.emit(key, groups, output, reporter));
+		} catch (Throwable e) {
+			throwsIOExcepction(reporter, "TaggedJoinReducer", e);
+		}
+	}
+
+	@Override
+	public void close() throws IOException {
+		try {
+			if (emitter != null) {
+				emitter.close();
+			}
+			if (buffers != null) {
+				for (KeyGroupBuffer<Text> buffer : buffers) {
+					buffer.close();
+				}
+			}
+		} finally {
+			super.close();
+		}
+	}
+}
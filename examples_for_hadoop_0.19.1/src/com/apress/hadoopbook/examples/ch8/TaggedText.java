@@ -0,0 +1,54 @@
+package com.apress.hadoopbook.examples.ch8;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/** A {@link Text} value tagged with the position in the join of the table it came from.
+ *
+ * @author Jason
+ *
+ */
+public class TaggedText implements Writable {
+	int tag;
+	final Text value = new Text();
+
+	/** @return the position of the table in the join */
+	public int getTag() {
+		return tag;
+	}
+
+	/** @return the value, owned by this object */
+	public Text getValue() {
+		return value;
+	}
+
+	/** Set the tag and a copy of the value.
+	 *
+	 * @param tag The position of the table in the join
+	 * @param value The value
+	 */
+	public void set(final int tag, final Text value) {
+		this.tag = tag;
+		this.value.set(value);
+	}
+
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVInt(out, tag);
+		value.write(out);
+	}
+
+	public void readFields(DataInput in) throws IOException {
+		tag = WritableUtils.readVInt(in);
+		value.readFields(in);
+	}
+
+	@Override
+	public String toString() {
+		return tag + "\t" + value;
+	}
+}
@@ -1,13 +1,14 @@
 package com.apress.hadoopbook.examples.ch9;
 
-import java.net.Inet4Address;
-import java.net.InetAddress;
-import java.net.UnknownHostException;
-
 import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.util.ReflectionUtils;
 
 public abstract class AbstractKeyHelper<K> implements KeyHelper<K>, Configurable {
+	/** The configuration key for the class of the {@link KeyHelper} used by the ch9 mappers, reducer and partitioner.
+	 * The helper also determines the key class passed between them, see {@link KeyHelper#newRaw()}.
+	 */
+	public static final String RANGE_KEY_HELPER = "range.key.helper";
 	/** Saved configuration. Used for constructing key objects. */
 	Configuration conf;
 	/** The beingRange or search request key. */
@@ -133,8 +134,68 @@ public abstract class AbstractKeyHelper<K> implements KeyHelper<K>, Configurable
 		isValid = true;
 		hasEndRange = false;
 	}
+	/** Construct the key helper named by {@link #RANGE_KEY_HELPER}, the default is {@link TextKeyHelperWithSeparators}.
+	 * 
+	 * @param <K> The key class the helper packs and unpacks, the caller must know this matches the job.
+	 * @param conf The configuration to look up the class in and to configure the helper with.
+	 * @return A configured key helper.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K> KeyHelper<K> newKeyHelper(final Configuration conf) {
+		return ReflectionUtils.newInstance(conf.getClass(RANGE_KEY_HELPER, TextKeyHelperWithSeparators.class,
+				KeyHelper.class),conf);
+	}
+	
+	/** Construct the key helper named by {@link #RANGE_KEY_HELPER} if it handles spanned keys,
+	 * otherwise construct a {@link PartitionedTextKeyHelperWithSeparators}.
+	 * 
+	 * @param <K> The key class the helper packs and unpacks, the caller must know this matches the job.
+	 * @param conf The configuration to look up the class in and to configure the helper with.
+	 * @return A configured key helper that can handle spanned keys.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <K> PartitionedKeyHelper<K> newPartitionedKeyHelper(final Configuration conf) {
+		final KeyHelper<K> helper = newKeyHelper(conf);
+		if (helper instanceof PartitionedKeyHelper) {
+			return (PartitionedKeyHelper<K>) helper;
+		}
+		return (PartitionedKeyHelper<K>) new PartitionedTextKeyHelperWithSeparators(conf);
+	}
+	
+	/** Copy the key held by <code>from</code> into <code>to</code>, this allows keys to be moved between transport types.
+	 * The real range is copied if both helpers are {@link PartitionedKeyHelper} instances.
+	 * 
+	 * @param from The helper holding the key
+	 * @param to The helper to set
+	 * @return true if <code>from</code> held a valid key
+	 */
+	public static boolean copy(final KeyHelper<?> from, final KeyHelper<?> to) {
+		to.reset();
+		if (!from.isValid()) {
+			return false;
+		}
+		if (from.isSearchRequest()) {
+			to.setSearchRequest(from.getSearchRequest());
+			return true;
+		}
+		to.setBeginRange(from.getBeginRange());
+		to.setEndRange(from.getEndRange());
+		if (to instanceof PartitionedKeyHelper) {
+			final PartitionedKeyHelper<?> partitionedTo = (PartitionedKeyHelper<?>) to;
+			if (from instanceof PartitionedKeyHelper && ((PartitionedKeyHelper<?>) from).isHasRealRange()) {
+				partitionedTo.setRealRangeBegin(((PartitionedKeyHelper<?>) from).getRealRangeBegin());
+				partitionedTo.setRealRangeEnd(((PartitionedKeyHelper<?>) from).getRealRangeEnd());
+			} else {
+				partitionedTo.setHasRealRange(false);
+			}
+		}
+		return true;
+	}
+	
 	/** Take an input String either a 8 digit hex number or a IPv4 3 dot octet set
-	 * and return the 32bit value it represents in a long
+	 * and return the 32bit value it represents in a long.
+	 * 
+	 * This never consults the resolver, host names are rejected, see {@link HostnameResolver} for the explicit opt in.
 	 * 
 	 * @param ipAddress The string containing an ip address
 	 * @return the numeric value of the address or -1 for parse failure.
@@ -146,27 +207,100 @@ public abstract class AbstractKeyHelper<K> implements KeyHelper<K>, Configurable
 				return Long.parseLong(ipAddress,16);
 			} catch( NumberFormatException ignore) {}
 		}
-		InetAddress []addresses = null;
-		UnknownHostException badHost = null;
-		try {
-			addresses = InetAddress.getAllByName(ipAddress);
-		} catch( UnknownHostException e ) {
-			badHost = e;
+		return parseDottedQuad(ipAddress);
+	}
+
+	/** Take bytes, such as the backing array of a {@link org.apache.hadoop.io.Text}, that hold either a 7 or 8 digit hex number
+	 * or a IPv4 dotted quad and return the 32bit value they represent in a long.
+	 * 
+	 * @param bytes The bytes
+	 * @param start The index of the first byte of the address
+	 * @param length The number of bytes in the address
+	 * @return the numeric value of the address or -1 for parse failure.
+	 * @see #addrToLong(String)
+	 */
+	public static long addrToLong(final byte[] bytes, final int start, final int length) {
+		if (length==7||length==8) {/** Could be a hex address */
+			long address = 0;
+			int i = start;
+			for (final int end = start + length; i < end; i++) {
+				final int nibble = HexAddressCodec.VALUES[bytes[i] & 0xff];
+				if (nibble < 0) {
+					break;
+				}
+				address = (address << 4) | nibble;
+			}
+			if (i == start + length) {
+				return address;
+			}
+		}
+		return parseDottedQuad(bytes, start, length);
+	}
+
+	/** Parse a strict IPv4 dotted quad, 4 decimal octets of 1 to 3 digits, each at most 255, separated by '.'.
+	 * 
+	 * @param ipAddress The characters to parse, the whole sequence must be the address
+	 * @return the numeric value of the address or -1 if <code>ipAddress</code> is not a dotted quad.
+	 */
+	public static long parseDottedQuad(final CharSequence ipAddress) {
+		final int length = ipAddress.length();
+		long address = 0;
+		int octet = 0;
+		int digits = 0;
+		int dots = 0;
+		for (int i = 0; i < length; i++) {
+			final char c = ipAddress.charAt(i);
+			if (c >= '0' && c <= '9') {
+				octet = octet * 10 + (c - '0');
+				if (++digits > 3 || octet > 255) {
+					return -1;
+				}
+			} else if (c == '.' && digits > 0 && ++dots <= 3) {
+				address = (address << 8) | octet;
+				octet = 0;
+				digits = 0;
+			} else {
+				return -1;
+			}
+		}
+		if (dots != 3 || digits == 0) {
+			return -1;
+		}
+		return (address << 8) | octet;
+	}
+
+	/** Parse a strict IPv4 dotted quad from bytes, such as the backing array of a {@link org.apache.hadoop.io.Text}.
+	 * 
+	 * @param bytes The bytes
+	 * @param start The index of the first byte of the address
+	 * @param length The number of bytes in the address
+	 * @return the numeric value of the address or -1 if the bytes are not a dotted quad.
+	 * @see #parseDottedQuad(CharSequence)
+	 */
+	public static long parseDottedQuad(final byte[] bytes, final int start, final int length) {
+		long address = 0;
+		int octet = 0;
+		int digits = 0;
+		int dots = 0;
+		for (int i = start, end = start + length; i < end; i++) {
+			final int c = bytes[i];
+			if (c >= '0' && c <= '9') {
+				octet = octet * 10 + (c - '0');
+				if (++digits > 3 || octet > 255) {
+					return -1;
+				}
+			} else if (c == '.' && digits > 0 && ++dots <= 3) {
+				address = (address << 8) | octet;
+				octet = 0;
+				digits = 0;
+			} else {
+				return -1;
+			}
 		}
-		if (badHost!=null || addresses.length!=1 || !(addresses[0] instanceof Inet4Address)) {
+		if (dots != 3 || digits == 0) {
 			return -1;
 		}
-		byte[] addr = ((Inet4Address) addresses[0]).getAddress();
-		long a = (long) (addr[0] & 0xff);
-		long b = (long) (addr[1] & 0xff);
-		long c = (long) (addr[2] & 0xff);
-		long d = (long) (addr[3] & 0xff);
-		long address = d;
-		address |= ((c <<  8) & 0xFF00);
-		address |= ((b << 16) & 0xFF0000);
-		address |= ((a << 24) & 0xFF000000);
-		address &= 0xFFFFFFFF;
-		return address;
+		return (address << 8) | octet;
 	}
 
 	
@@ -1,126 +1,301 @@
 /**
- * 
+ *
  */
 package com.apress.hadoopbook.examples.ch9;
 
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.Arrays;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.Reporter;
-import com.sun.jmx.remote.internal.ArrayQueue;
 
+/** The search space ranges that may still contain the search requests the reducer has not seen yet.
+ *
+ * The reduce keys arrive ordered by the range begin, not by the range end, so a short range may arrive after a
+ * long range and must expire before it. The ranges are held in a binary min heap ordered by end, so {@link #deactivate(long)}
+ * only has to look at the root, and each expired range costs O(log n) to remove.
+ *
+ * The heap is a set of parallel primitive arrays, the begin, the end and the offset and length of the value in {@link #arena}.
+ * No per range objects are created, and the arrays are grown by doubling and never shrunk.
+ *
+ * The values are kept as UTF-8 bytes appended to a single byte array, so a hit can be written by copying bytes
+ * into the output {@link Text}. The arena is reset in bulk whenever the active set empties. If the active set never empties,
+ * the arena is compacted to the live values when it fills, rather than grown, once at least half of it is garbage.
+ *
+ * The number of active ranges is recorded after every activation, and {@link #reportGauges(Reporter, String)} reports the
+ * max and the percentiles as counters. Counters are summed across tasks, so the gauges are only meaningful per task.
+ */
 class ActiveRanges {
-	public static class Range<V> {
-		long end;
-		long begin;
-		V value;
-		Range( long begin, final long end, final V value) {
-			this.begin = begin;
-			this.end = end;
-			this.value = value;
-		}
-		V getValue() {
-			return value;
-		}
-		void setEnd( long end ) {
-			this.end = end;
-		}	
-
-		void setBegin( long begin ) {
-			this.begin = begin;
-		}
-		void setValue( V value ) {
-			this.value = value;
-		}
-		void set( long begin, long end, V value ) {
-			this.begin = begin;
-			this.end = end;
-			this.value = value;
-		}
-		public long getEnd() {
-			return end;
-		}
-		public long getBegin() {
-			// TODO Auto-generated method stub
-			return begin;
-		}
-	};
+	/** The starting size of the heap, this is a guess, the gauges will tell us how to tune this. */
+	static final int INITIAL_CAPACITY = 1024;
 
-	/** Keep up to 100 pairs around. This is a guess for the start, the counters will tell us
-	 * how to tune this.
-	 * The locking and waiting functions are overkill, all we need are the fixed size queue
-	 * that doesn't allocate and deallocate for each add/remove.
-	 */
-	ArrayBlockingQueue<ActiveRanges.Range<String>> pairPool = new ArrayBlockingQueue<ActiveRanges.Range<String>>(100);
+	/** The percentiles reported by {@link #reportGauges(Reporter, String)}. */
+	static final int[] PERCENTILES = { 50, 90, 99 };
 
-	/** This queue is unbounded. Lazy picking up an internal class rather than implementing one. */
-	ArrayQueue<ActiveRanges.Range<String>> activeRanges = 
-		new ArrayQueue<ActiveRanges.Range<String>>(1000);
+	/** The range begin for each heap position. */
+	long[] begins = new long[INITIAL_CAPACITY];
+	/** The range end for each heap position, this is the heap ordering. */
+	long[] ends = new long[INITIAL_CAPACITY];
+	/** The offset in {@link #arena} of the value for each heap position. */
+	int[] offsets = new int[INITIAL_CAPACITY];
+	/** The length of the value for each heap position. */
+	int[] lengths = new int[INITIAL_CAPACITY];
+	/** The number of active ranges. */
+	int size = 0;
 
-	public void deactivate(long end) {
-		while (!activeRanges.isEmpty()) {
+	/** The value bytes, appended in activation order. */
+	byte[] arena = new byte[INITIAL_CAPACITY * 64];
+	/** The number of bytes of {@link #arena} in use, live or not. */
+	int arenaUsed = 0;
+	/** The number of bytes of {@link #arena} that belong to active ranges. */
+	int arenaLive = 0;
 
-			ActiveRanges.Range<String> pair = activeRanges.get(0);
-
-			/** If this range is no longer valid, remove it, and put the end object back in the pool. */
-			if (pair.getEnd() < end) {
-				activeRanges.remove(0);
-				pairPool.add(pair);
-			} else {
-				return;
-			}
+	/** The number of activations that saw each active range count, indexed by the count. */
+	long[] sizeHistogram = new long[INITIAL_CAPACITY + 1];
+	/** The largest active range count seen. */
+	int maxSize = 0;
 
+	/** Remove all of the ranges that end before <code>end</code>.
+	 *
+	 * @param end The search request, ranges with an end less than this are removed.
+	 */
+	public void deactivate(long end) {
+		while (size > 0 && ends[0] < end) {
+			removeRoot();
 		}
 	}
 
 	public int size() {
-		return activeRanges.size();
+		return size;
 	}
 
 	public boolean isEmpty() {
-		return activeRanges.isEmpty();
+		return size == 0;
 	}
 
-	public ActiveRanges.Range<String> get(int i) {
-		return activeRanges.get(i);
+	/** @return the begin of the <code>i</code>th active range, in heap order. */
+	public long getBegin(int i) {
+		return begins[i];
 	}
 
-	public void activate( final Reporter reporter, final String tag, KeyHelper<Text> helper, final String value ) {
-		ActiveRanges.Range<String> pair = pairPool.poll();
+	/** @return the end of the <code>i</code>th active range, in heap order. */
+	public long getEnd(int i) {
+		return ends[i];
+	}
+
+	/** The value bytes of the active ranges, see {@link #getValueOffset(int)} and {@link #getValueLength(int)}.
+	 * The array may change on the next {@link #activate(long, long, byte[], int, int)}.
+	 * 
+	 * @return the arena holding the values.
+	 */
+	public byte[] getValueBytes() {
+		return arena;
+	}
+
+	/** @return the offset in {@link #getValueBytes()} of the value of the <code>i</code>th active range, in heap order. */
+	public int getValueOffset(int i) {
+		return offsets[i];
+	}
+
+	/** @return the length of the value of the <code>i</code>th active range, in heap order. */
+	public int getValueLength(int i) {
+		return lengths[i];
+	}
+
+	/** Decode the value of the <code>i</code>th active range, in heap order, this allocates, it is for logging and tests.
+	 * 
+	 * @return the value as a String
+	 */
+	public String getValue(int i) {
+		try {
+			return Text.decode(arena, offsets[i], lengths[i]);
+		} catch (java.nio.charset.CharacterCodingException e) {
+			throw new IllegalStateException("Active range value is not UTF-8", e);
+		}
+	}
+
+	/** Add the range in <code>helper</code> to the active ranges.
+	 * If <code>helper</code> is a {@link PartitionedKeyHelper} with a real range, the real range is used.
+	 *
+	 * @param helper The helper holding the search space range.
+	 * @param value The value to associate with the range, the bytes are copied
+	 */
+	public void activate( KeyHelper<?> helper, final Text value ) {
 		long begin;
 		long end;
-		if (helper instanceof PartitionedTextKeyHelperWithSeparators) {
-			begin = ((PartitionedTextKeyHelperWithSeparators)helper).getRealRangeBegin();
-			end = ((PartitionedTextKeyHelperWithSeparators)helper).getRealRangeEnd();
+		if (helper instanceof PartitionedKeyHelper && ((PartitionedKeyHelper<?>)helper).isHasRealRange()) {
+			begin = ((PartitionedKeyHelper<?>)helper).getRealRangeBegin();
+			end = ((PartitionedKeyHelper<?>)helper).getRealRangeEnd();
 		} else {
 			begin = helper.getBeginRange();
 			end = helper.getEndRange();
 		}
-		if (pair==null) {
-			pair = new ActiveRanges.Range<String>( begin, end, value);
-		} else {
-			pair.set( begin, end, value);
+		activate(begin, end, value.getBytes(), 0, value.getLength());
+	}
+
+	/** Add a range to the active ranges, this encodes <code>value</code>, it is for tests.
+	 *
+	 * @param begin The first address of the range
+	 * @param end The last address of the range
+	 * @param value The value to associate with the range
+	 */
+	public void activate( final long begin, final long end, final String value ) {
+		final Text encoded = new Text(value);
+		activate(begin, end, encoded.getBytes(), 0, encoded.getLength());
+	}
+
+	/** Add a range to the active ranges.
+	 *
+	 * @param begin The first address of the range
+	 * @param end The last address of the range
+	 * @param value The bytes of the value to associate with the range, they are copied into the arena
+	 * @param valueOffset The offset of the value in <code>value</code>
+	 * @param valueLength The length of the value
+	 */
+	public void activate( final long begin, final long end, final byte[] value, final int valueOffset, final int valueLength ) {
+		if (size == ends.length) {
+			final int capacity = size * 2;
+			begins = Arrays.copyOf(begins, capacity);
+			ends = Arrays.copyOf(ends, capacity);
+			offsets = Arrays.copyOf(offsets, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			sizeHistogram = Arrays.copyOf(sizeHistogram, capacity + 1);
 		}
-		if (pair.getBegin()==0) {
-			int i = 0;
-			i++;
+		if (arenaUsed + valueLength > arena.length) {
+			reserve(valueLength);
 		}
-		try { /** There is no capacity method, this is the only way to find out if it is full. */
-			activeRanges.add( pair );
-		} catch( ArrayIndexOutOfBoundsException needToResize ) {
-			reporter.incrCounter(tag, "Resize Active Ranges", 1);
-			activeRanges.resize( activeRanges.size() + 1000);
-			activeRanges.add( pair );
+		final int offset = arenaUsed;
+		System.arraycopy(value, valueOffset, arena, offset, valueLength);
+		arenaUsed += valueLength;
+		arenaLive += valueLength;
+
+		/** Sift the new range up from the bottom of the heap. */
+		int i = size++;
+		while (i > 0) {
+			final int parent = (i - 1) >>> 1;
+			if (ends[parent] <= end) {
+				break;
+			}
+			move(parent, i);
+			i = parent;
 		}
-		reporter.incrCounter(tag, "Range Histogram: " + activeRanges.size(), 1);
-	}
+		set(i, begin, end, offset, valueLength);
 
+		sizeHistogram[size]++;
+		if (size > maxSize) {
+			maxSize = size;
+		}
+	}
 
+	/** Remove all of the active ranges, the gauges are kept. */
 	public void clear() {
-		int oldSize = activeRanges.size();
-		activeRanges.clear();
-		if (oldSize>1000) {
-			activeRanges.resize(1000);
+		size = 0;
+		arenaUsed = 0;
+		arenaLive = 0;
+	}
+
+	/** @return the largest number of ranges that have been active at once. */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	/** The active range count at or below which <code>percentile</code> percent of the activations fell.
+	 *
+	 * @param percentile The percentile, 0 to 100
+	 * @return The active range count, 0 if nothing has been activated.
+	 */
+	public int getSizePercentile(final int percentile) {
+		long total = 0;
+		for (int i = 1; i <= maxSize; i++) {
+			total += sizeHistogram[i];
 		}
+		final long wanted = (total * percentile + 99) / 100;
+		long seen = 0;
+		for (int i = 1; i <= maxSize; i++) {
+			seen += sizeHistogram[i];
+			if (seen >= wanted) {
+				return i;
+			}
+		}
+		return maxSize;
+	}
+
+	/** Report the max and the percentiles of the active range count as counters in the group <code>tag</code>.
+	 * This is intended to be called once per task, from the close method.
+	 *
+	 * @param reporter The reporter to use
+	 * @param tag The counter group
+	 */
+	public void reportGauges(final Reporter reporter, final String tag) {
+		reporter.incrCounter(tag, "Range Histogram: max", maxSize);
+		for (int percentile : PERCENTILES) {
+			reporter.incrCounter(tag, "Range Histogram: p" + percentile, getSizePercentile(percentile));
+		}
+	}
+
+	/** Remove the range with the smallest end, and sift the last range down from the root. */
+	void removeRoot() {
+		arenaLive -= lengths[0];
+		final int last = --size;
+		if (last == 0) {
+			/** Nothing is active, the whole arena is garbage. */
+			arenaUsed = 0;
+			arenaLive = 0;
+			return;
+		}
+		final long begin = begins[last];
+		final long end = ends[last];
+		final int offset = offsets[last];
+		final int length = lengths[last];
+		int i = 0;
+		int child;
+		while ((child = 2 * i + 1) < last) {
+			if (child + 1 < last && ends[child + 1] < ends[child]) {
+				child++;
+			}
+			if (end <= ends[child]) {
+				break;
+			}
+			move(child, i);
+			i = child;
+		}
+		set(i, begin, end, offset, length);
+	}
+
+	/** Make room for <code>needed</code> more bytes in the arena, by compacting the live values if at least half of the arena is garbage,
+	 * otherwise by growing it.
+	 * 
+	 * @param needed The number of bytes about to be appended
+	 */
+	void reserve(final int needed) {
+		final int required = arenaLive + needed;
+		final byte[] to = required * 2 <= arena.length ? new byte[arena.length] : new byte[Math.max(arena.length * 2, required)];
+		if (arenaLive == arenaUsed) {
+			/** Nothing to compact, this is a plain grow. */
+			System.arraycopy(arena, 0, to, 0, arenaUsed);
+		} else {
+			int used = 0;
+			for (int i = 0; i < size; i++) {
+				System.arraycopy(arena, offsets[i], to, used, lengths[i]);
+				offsets[i] = used;
+				used += lengths[i];
+			}
+			arenaUsed = used;
+		}
+		arena = to;
+	}
+
+	/** Copy the range at heap position <code>from</code> to heap position <code>to</code>. */
+	private void move(final int from, final int to) {
+		begins[to] = begins[from];
+		ends[to] = ends[from];
+		offsets[to] = offsets[from];
+		lengths[to] = lengths[from];
+	}
+
+	private void set(final int i, final long begin, final long end, final int offset, final int length) {
+		begins[i] = begin;
+		ends[i] = end;
+		offsets[i] = offset;
+		lengths[i] = length;
 	}
-}
\ No newline at end of file
+}
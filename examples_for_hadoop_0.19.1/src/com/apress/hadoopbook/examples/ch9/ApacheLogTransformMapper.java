@@ -4,15 +4,17 @@
 package com.apress.hadoopbook.examples.ch9;
 
 import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.CharacterCodingException;
 
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
-import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.log4j.Logger;
 
+import com.apress.hadoopbook.utils.BatchedCounters;
 import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
 
 /** For the brute force log file processing example pass through keys that are already in the correct form
@@ -20,88 +22,146 @@ import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
  * and transform these into search request style key value pairs.
  * 
  * The key helper defaults to {@link TextKeyHelperWithSeparators} and the configuration key <code>range.key.helper</code> is used
- * to lookup the key helper.
+ * to lookup the key helper. The output key class is the key class of the helper, see {@link KeyHelper#newRaw()}.
+ * If the output keys are not {@link Text}, the keys that are already prepared are parsed with a {@link PartitionedTextKeyHelperWithSeparators}
+ * and converted.
+ * 
+ * The addresses are parsed without the resolver, a line that starts with a host name is counted as a bad address.
+ * Set {@link HostnameResolver#RESOLVE_HOSTNAMES} to true to resolve host names through a {@link HostnameResolver} cache.
+ * The log line is scanned and the address parsed once, directly from the {@link Text} bytes, only a host name that must be
+ * resolved is decoded to a String.
  * 
  * @author Jason
  *
+ * @param <K> The output key class
  */
-public class ApacheLogTransformMapper extends
-		ExamplesMapReduceBase implements Mapper<Text, Text, Text, Text> {
+public class ApacheLogTransformMapper<K> extends
+		ExamplesMapReduceBase implements Mapper<Text, Text, K, Text> {
 	
 	protected static Logger LOG = Logger.getLogger(ApacheLogTransformMapper.class);
 	
-	Text outputKey = new Text();
+	K outputKey;
 	Text outputValue = new Text();
 	
-	/** Used for parsing log file lines. */
-	StringBuilder sb = new StringBuilder();
+	/** Used to re-assemble log file lines. */
+	Text logLine = new Text();
+	
+	/** The separator the input format split the log lines on, <code>key.value.separator.in.input.line</code>. */
+	byte[] keyValueSeparator;
+	
+	/** True if the input format split the log lines on the space after the address, so the key is the address. */
+	boolean keyIsAddress;
 	
 		/** The key helper, this could be shared by all maps in the chain if we put them all in the same file
 	 * For clarity of code each is in a separate file. There are some interesting optimizations
 	 * that could be done if they shared variables.
 	 */
-	TextKeyHelperWithSeparators helper;
+	KeyHelper<K> helper;
+	
+	/** The helper for recognizing input keys that are already prepared, this is {@link #helper} if the output keys are {@link Text}. */
+	TextKeyHelperWithSeparators inputHelper;
+	
+	/** The host name cache, null unless host name resolution is enabled. */
+	HostnameResolver resolver;
 	
+	/** The longest leading field that may be an address, xxx.xxx.xxx.xxx = 15 chars, or a host name if {@link #resolver} is set. */
+	int maxAddressLength = 15;
+	
+	/** The counters, registered in {@link #configure(JobConf)}. */
+	BatchedCounters.Handle totalInput;
+	BatchedCounters.Handle alreadyPreparedKeys;
+	BatchedCounters.Handle logLines;
+	BatchedCounters.Handle validLogLines;
+	BatchedCounters.Handle badLogLines;
+	BatchedCounters.Handle badIpv4Address;
+
 	@Override
 	public void configure(JobConf conf) {
 		super.configure(conf);
-		helper = ReflectionUtils.newInstance(conf.getClass("range.key.helper", TextKeyHelperWithSeparators.class,
-                TextKeyHelperWithSeparators.class),conf); 
-			
+		totalInput = counters.register("ApacheLogTransformMapper", "TOTAL INPUT");
+		alreadyPreparedKeys = counters.register("ApacheLogTransformMapper", "ALREADY PREPARED KEYS");
+		logLines = counters.register("ApacheLogTransformMapper", "LOG LINES");
+		validLogLines = counters.register("ApacheLogTransformMapper", "VALID LOG LINES");
+		badLogLines = counters.register("ApacheLogTransformMapper", "BAD LOG LINES");
+		badIpv4Address = counters.register("ApacheLogTransformMapper", "Bad IPv4 ADDRESS");
+		helper = AbstractKeyHelper.newKeyHelper(conf);
+		outputKey = helper.newRaw();
+		if (helper instanceof TextKeyHelperWithSeparators) {
+			inputHelper = (TextKeyHelperWithSeparators) helper;
+		} else {
+			inputHelper = new PartitionedTextKeyHelperWithSeparators(conf);
+		}
+		final String separator = conf.get("key.value.separator.in.input.line", "\t");
+		keyIsAddress = separator.equals(" ");
+		try {
+			keyValueSeparator = separator.getBytes("UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException("UTF-8 is not supported", e);
+		}
+		resolver = HostnameResolver.newResolver(conf);
+		if (resolver!=null) {
+			LOG.info("Host names in the log lines will be resolved, caching up to " + conf.getInt(HostnameResolver.CACHE_SIZE, HostnameResolver.DEFAULT_CACHE_SIZE) + " names");
+			maxAddressLength = 255;
+		}
 		
 	}
 
+	@SuppressWarnings("unchecked")
 	@Override
-	public void map(Text key, Text value, OutputCollector<Text, Text> output,
+	public void map(Text key, Text value, OutputCollector<K, Text> output,
 			Reporter reporter) throws IOException {
 		try {
 			
-			reporter.incrCounter("ApacheLogTransformMapper", "TOTAL INPUT", 1);
+			counters.record(reporter);
+			counters.incr(totalInput);
 			
-			if (helper.getFromRaw(key)) {
-				reporter.incrCounter("ApacheLogTransformMapper", "ALREADY PREPARED KEYS", 1);
-				if (LOG.isDebugEnabled()) { LOG.debug("complete key passed forward untouched [" + key + "]"); }
-				output.collect( key, value );
+			if (inputHelper.getFromRaw(key)) {
+				counters.incr(alreadyPreparedKeys);
+				if (inputHelper==helper) {
+					if (LOG.isDebugEnabled()) { LOG.debug("complete key passed forward untouched [" + key + "]"); }
+					output.collect( (K) key, value );
+					return;
+				}
+				AbstractKeyHelper.copy(inputHelper, helper);
+				helper.setToRaw(outputKey);
+				if (LOG.isDebugEnabled()) { LOG.debug( "Prepared key converts from [" + key + "] to [" + outputKey + "]"); }
+				output.collect( outputKey, value );
 				return;
 			}
 			if (LOG.isDebugEnabled()) { LOG.debug("Working on [" + key + "]"); }
-			reporter.incrCounter("ApacheLogTransformMapper", "LOG LINES", 1);
-			String logLine = key.toString();
-			String keyValueSeparator = conf.get("key.value.separator.in.input.line", "\t");
-			String ipAddress;
+			counters.incr(logLines);
 			/** The IP address in the standard log file entry is the first field, with a trailing space to separate
 			 * it from the next field.
 			 */
-			if (keyValueSeparator.length()==1 && keyValueSeparator.charAt(0)==' ') {
-				/** The key and value are already parsed out. */
-				ipAddress = logLine;
-				if (parseAddressIntoKey(ipAddress, outputKey, reporter)) {
-					reporter.incrCounter("ApacheLogTransformMapper", "VALID LOG LINES", 1);	
+			if (keyIsAddress) {
+				/** The key and value are already parsed out, the key is the address. */
+				if (addressIntoKey(parseAddress(key.getBytes(), 0, key.getLength(), reporter), outputKey, reporter)) {
+					counters.incr(validLogLines);	
 					if (LOG.isDebugEnabled()) { LOG.debug( "Key transforms from [" + key + "] to [" + outputKey + "]"); }
 					output.collect(outputKey, value);
 					return;
 				}
 			} else {
 				/** For paranoia sake, re-assemble the log line and split it ourselves on the first space. */
-				sb.setLength(0);
-				sb.append(logLine);
-				sb.append( keyValueSeparator);
-				sb.append( value.toString());
-				logLine = sb.toString();
+				logLine.set(key.getBytes(), 0, key.getLength());
+				logLine.append(keyValueSeparator, 0, keyValueSeparator.length);
+				logLine.append(value.getBytes(), 0, value.getLength());
+				final byte[] bytes = logLine.getBytes();
+				final int length = logLine.getLength();
 				
-				int indexOfSpace = logLine.indexOf(' ');
-				if (indexOfSpace< 7 || indexOfSpace > 15) { /** xxx.xxx.xxx.xxx = 15 chars, 1.1.1.1 = 7 chars */
+				/** Only the first maxAddressLength + 1 bytes can hold the space after an address. */
+				int indexOfSpace = 0;
+				for (final int limit = Math.min(length, maxAddressLength + 1); indexOfSpace < limit && bytes[indexOfSpace] != ' '; indexOfSpace++) {
+				}
+				if (indexOfSpace==length || indexOfSpace< 7 || indexOfSpace > maxAddressLength) { /** xxx.xxx.xxx.xxx = 15 chars, 1.1.1.1 = 7 chars */
 					if (LOG.isDebugEnabled()) { LOG.debug("Log line does not start with an ip address [" + logLine + "]" ); }
-					reporter.incrCounter("ApacheLogTransformMapper", "BAD LOG LINES", 1);
+					counters.incr(badLogLines);
 					return;
 				}
 				
-				ipAddress = logLine.substring(0,indexOfSpace);
-				logLine = logLine.substring(indexOfSpace+1);
-				
-				if (parseAddressIntoKey(ipAddress, outputKey, reporter)) {
-					outputValue.set( logLine );
-					reporter.incrCounter("ApacheLogTransformMapper", "VALID LOG LINES", 1);
+				if (addressIntoKey(parseAddress(bytes, 0, indexOfSpace, reporter), outputKey, reporter)) {
+					outputValue.set(bytes, indexOfSpace + 1, length - indexOfSpace - 1);
+					counters.incr(validLogLines);
 					if (LOG.isDebugEnabled()) { LOG.debug( "Key transforms from [" + key + "] to [" + outputKey + "]"); }
 					output.collect( outputKey, outputValue );
 					return;
@@ -113,16 +173,32 @@ public class ApacheLogTransformMapper extends
 		
 	}
 
-	/** Take an IP address in some format and convert it to an unsigned 32 bit int, and store it in <code>outputKey</code>
-	 * @param ipAddress The string to look in
-	 * @param outputKey The {@link Text} object to store the result in
+	/** Convert an IP address in hex or dotted quad form, or a host name if {@link #resolver} is set, to an unsigned 32 bit int.
+	 * @param bytes The UTF-8 bytes to look in
+	 * @param start The index of the first byte of the address
+	 * @param length The number of bytes in the address
+	 * @param reporter The {@link Reporter} object to use for the resolver counters.
+	 * @return the address or -1 if the bytes are not an address.
+	 * @throws CharacterCodingException if a host name to resolve is not valid UTF-8
+	 */
+	protected long parseAddress( final byte[] bytes, final int start, final int length, final Reporter reporter) throws CharacterCodingException {
+		final long address = AbstractKeyHelper.addrToLong(bytes, start, length);
+		if (address>=0 || resolver==null) {
+			return address;
+		}
+		return resolver.resolve(Text.decode(bytes, start, length), counters.wrap(reporter));
+	}
+
+	/** Store <code>address</code> as a search request in <code>outputKey</code>.
+	 * @param address The address, negative if the parse failed
+	 * @param outputKey The key object to store the result in
 	 * @param reporter The {@link Reporter} object to use to report failures.
-	 * @return true if the address was converted successfully.
+	 * @return true if the address was valid.
 	 */
-	protected boolean parseAddressIntoKey( final String ipAddress, final Text outputKey, final Reporter reporter) {
-		long address = AbstractKeyHelper.addrToLong(ipAddress);
-		if (address<0 || (address&0xffffffff)!=0) {
-			reporter.incrCounter("ApacheLogTransformMapper", "Bad IPv4 ADDRESS", 1);
+	protected boolean addressIntoKey( final long address, final K outputKey, final Reporter reporter) {
+		if (address<0 || address>0xffffffffL) {
+			counters.incr(badIpv4Address);
+			return false;
 		}
 		helper.setSearchRequest(address);
 		helper.setToRaw(outputKey);
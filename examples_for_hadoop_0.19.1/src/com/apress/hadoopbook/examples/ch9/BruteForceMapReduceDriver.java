@@ -4,11 +4,14 @@
 package com.apress.hadoopbook.examples.ch9;
 
 import java.io.IOException;
+import java.net.URISyntaxException;
 
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.filecache.DistributedCache;
+import org.apache.hadoop.fs.FileSystem;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.FileInputFormat;
@@ -23,8 +26,28 @@ import org.apache.hadoop.util.ToolRunner;
 import org.apache.log4j.Logger;
 
 import com.apress.hadoopbook.utils.MainProgrameShell;
+import com.apress.hadoopbook.utils.Utils;
 
 /**
+ * Join the search request keys built from log file lines with the search space ranges that contain them.
+ * 
+ * By default the search space records are passed in as regular inputs, and everything is shuffled to
+ * {@link ReducerForStandardComparator}. With <code>--mapOnly</code> the <code>--searchSpace</code> inputs are built into a
+ * {@link SearchSpaceIndex} that is passed to every map via the {@link DistributedCache}, and the join is done by
+ * {@link SearchSpaceIndexJoinMapper} with no reduce phase at all.
+ * 
+ * With more than one reduce, {@link SimpleIPRangePartitioner} partitions the address space. By default each reduce gets an equal span of addresses,
+ * with <code>--balancePartitions</code> the inputs are sampled by {@link PartitionBoundarySampler} and the spans are sized so that the reduces get a similar load.
+ * A single address can not be split across spans, with <code>--saltHotAddresses</code> the sample is also used to find the addresses
+ * that are too heavy for one reduce, and their requests are salted across several reduces by {@link HotAddresses}.
+ * The ranges that contain the hot addresses are replicated to every reduce, so the search space must be given with <code>--searchSpace</code>.
+ * 
+ * By default the reduce output is passed through {@link TranslateBackToIPMapper} to convert the hex addresses to dotted quads,
+ * with <code>--fusedOutput</code> {@link FusedOutputReducer} writes the dotted quads directly.
+ * 
+ * The key class passed between the maps and to the reduce is the key class of the <code>range.key.helper</code>,
+ * use <code>-D range.key.helper=com.apress.hadoopbook.examples.ch9.IPRangeKeyHelper</code> for binary {@link IPRangeKeyWritable} keys.
+ * 
  * @author Jason
  *
  */
@@ -32,6 +55,16 @@ public class BruteForceMapReduceDriver extends MainProgrameShell {
 
 	String[] inputs;
 	String output;
+	/** The search space inputs, these are regular inputs unless {@link #mapOnly} is set. */
+	String[] searchSpaces;
+	/** Do the join in the map via a search space index in the distributed cache. */
+	boolean mapOnly = false;
+	/** Sample the inputs to compute partition boundaries when there is more than one reduce. */
+	boolean balancePartitions = false;
+	/** Write the dotted quad output directly from the reducer, rather than via {@link TranslateBackToIPMapper}. */
+	boolean fusedOutput = false;
+	/** Salt the search requests for the hottest addresses across several reduces when there is more than one reduce. */
+	boolean saltHotAddresses = false;
 	private Logger LOG = Logger.getLogger(BruteForceMapReduceDriver.class);
 	
 	
@@ -49,6 +82,22 @@ public class BruteForceMapReduceDriver extends MainProgrameShell {
 				.hasArg()
 				.isRequired()
 			    .create("o") );
+		options.addOption( OptionBuilder.withLongOpt("searchSpace")
+				.withDescription("add a search space input path")
+				.hasArgs()
+			    .create("s") );
+		options.addOption( OptionBuilder.withLongOpt("mapOnly")
+				.withDescription("join in the map against an index of the search space inputs, with no reduce")
+			    .create("m") );
+		options.addOption( OptionBuilder.withLongOpt("balancePartitions")
+				.withDescription("sample the inputs to compute partition boundaries that balance the reduces")
+			    .create("b") );
+		options.addOption( OptionBuilder.withLongOpt("fusedOutput")
+				.withDescription("write the dotted quad output directly from the reducer, without the translating map")
+			    .create("f") );
+		options.addOption( OptionBuilder.withLongOpt("saltHotAddresses")
+				.withDescription("sample the inputs and spread the search requests of addresses too heavy for one reduce over several reduces, requires --searchSpace")
+			    .create("salt") );
 		return options;	
 	}
 	  
@@ -58,14 +107,21 @@ public class BruteForceMapReduceDriver extends MainProgrameShell {
 	/* (non-Javadoc)
 	 * @see com.apress.hadoopbook.utils.MainProgrameShell#customSetup(org.apache.hadoop.mapred.JobConf)
 	 */
+	@SuppressWarnings("unchecked")
 	@Override
 	protected void customSetup(JobConf conf) throws IOException {
 		// TODO Auto-generated method stub
 		super.customSetup(conf);
 		conf.setJobName("BruteForceRangeMapReduce");
+		if (mapOnly) {
+			setupMapOnly(conf);
+			return;
+		}
 		if (conf.getNumReduceTasks()!=1) {
 			/** If more that one reduce is to be run, the spanning partitioner must be used. */
-			conf.setClass("range.key.helper", PartitionedTextKeyHelperWithSeparators.class, KeyHelper.class);
+			if (!PartitionedKeyHelper.class.isAssignableFrom(conf.getClass(AbstractKeyHelper.RANGE_KEY_HELPER, TextKeyHelperWithSeparators.class))) {
+				conf.setClass(AbstractKeyHelper.RANGE_KEY_HELPER, PartitionedTextKeyHelperWithSeparators.class, KeyHelper.class);
+			}
 		} else {
 			/** Num reduces is 1, anything special? */
 		}
@@ -77,36 +133,246 @@ public class BruteForceMapReduceDriver extends MainProgrameShell {
 			}
 			FileInputFormat.addInputPaths(conf, input);
 		}
+		if (searchSpaces!=null) {
+			for( String searchSpace : searchSpaces) {
+				if (verbose) {
+					LOG.info("Adding search space input path " + searchSpace);
+				}
+				FileInputFormat.addInputPaths(conf, searchSpace);
+			}
+		}
 		if (verbose) {
 			LOG.info( "Setting output path " + output);
 		}
 		FileOutputFormat.setOutputPath(conf, new Path(output));
 		conf.setOutputFormat(TextOutputFormat.class);
+		if (conf.getNumReduceTasks()>1) {
+			conf.setPartitionerClass(SimpleIPRangePartitioner.class);
+			if (balancePartitions || saltHotAddresses) {
+				final PartitionBoundarySampler sampler = sampleInputs(conf);
+				if (balancePartitions) {
+					setupPartitionBoundaries(conf, sampler);
+				}
+				if (saltHotAddresses) {
+					setupHotAddresses(conf, sampler);
+				}
+			}
+		}
 		
+		final Class keyClass = getKeyClass(conf);
 		JobConf dummyConf = new JobConf(false);
-		ChainMapper.addMapper(conf, ApacheLogTransformMapper.class,
-				Text.class, Text.class, Text.class, Text.class,
+		ChainMapper.addMapper(conf, (Class) ApacheLogTransformMapper.class,
+				Text.class, Text.class, keyClass, Text.class,
 				false,
 				dummyConf);
 		dummyConf.clear();
-		ChainMapper.addMapper(conf, KeyValidatingMapper.class,
-				Text.class, Text.class, Text.class, Text.class,
+		ChainMapper.addMapper(conf, (Class) KeyValidatingMapper.class,
+				keyClass, Text.class, keyClass, Text.class,
 				false,
 				dummyConf);
 
 		dummyConf.clear();
 		if (conf.getNumReduceTasks()>1) {
 			/** Add in the map that takes incoming search space records and spans them across the partitions */
-			ChainMapper.addMapper(conf, RangePartitionTransformingMapper.class,
-					Text.class, Text.class, Text.class, Text.class, false, dummyConf);
+			ChainMapper.addMapper(conf, (Class) RangePartitionTransformingMapper.class,
+					keyClass, Text.class, keyClass, Text.class, false, dummyConf);
 			dummyConf.clear();
 		}
-		ChainReducer.setReducer(conf, ReducerForStandardComparator.class, Text.class, Text.class, Text.class, Text.class, false, dummyConf);
+		if (fusedOutput) {
+			ChainReducer.setReducer(conf, (Class) FusedOutputReducer.class, keyClass, Text.class, Text.class, Text.class, false, dummyConf);
+			return;
+		}
+		ChainReducer.setReducer(conf, (Class) ReducerForStandardComparator.class, keyClass, Text.class, Text.class, Text.class, false, dummyConf);
 		dummyConf.clear();
 		ChainReducer.addMapper(conf, TranslateBackToIPMapper.class, Text.class, Text.class, Text.class, Text.class, false, dummyConf);
 	
 	}
 
+	/** Set up the map only join.
+	 * 
+	 * The search space inputs are read here, sorted and written to an index file next to the output directory.
+	 * If {@link SearchSpaceIndexJoinMapper#MAPPED_INDEX} is true the index is written in the {@link MappedRangeIndex} format.
+	 * The index file is passed to the tasks via the {@link DistributedCache} and is deleted when this program exits.
+	 * The chain is {@link ApacheLogTransformMapper}, {@link KeyValidatingMapper}, {@link SearchSpaceIndexJoinMapper}
+	 * and {@link TranslateBackToIPMapper}, with no reduce.
+	 * 
+	 * @param conf The job to configure
+	 * @throws IOException if the search space index can not be built
+	 */
+	@SuppressWarnings("unchecked")
+	protected void setupMapOnly(JobConf conf) throws IOException {
+		if (searchSpaces==null || searchSpaces.length==0) {
+			throw new IllegalArgumentException("--mapOnly requires at least one --searchSpace input");
+		}
+		conf.setNumReduceTasks(0);
+		conf.setInputFormat( KeyValueTextInputFormat.class);
+		for( String input : inputs) {
+			if (verbose) {
+				LOG.info("Adding input path " + input);
+			}
+			FileInputFormat.addInputPaths(conf, input);
+		}
+		if (verbose) {
+			LOG.info( "Setting output path " + output);
+		}
+		final Path outputPath = new Path(output);
+		FileOutputFormat.setOutputPath(conf, outputPath);
+		conf.setOutputFormat(TextOutputFormat.class);
+
+		final Path[] searchSpacePaths = new Path[searchSpaces.length];
+		for (int i = 0; i < searchSpaces.length; i++) {
+			searchSpacePaths[i] = new Path(searchSpaces[i]);
+		}
+		final FileSystem fs = outputPath.getFileSystem(conf);
+		final boolean mapped = conf.getBoolean(SearchSpaceIndexJoinMapper.MAPPED_INDEX, false);
+		final Path indexPath = outputPath.suffix("." + System.currentTimeMillis() + (mapped ? ".rangeindex" : ".searchspace")).makeQualified(fs);
+		final int ranges = mapped ? MappedRangeIndex.build(searchSpacePaths, indexPath, conf) : SearchSpaceIndex.build(searchSpacePaths, indexPath, conf);
+		fs.deleteOnExit(indexPath);
+		if (verbose) {
+			LOG.info("Built search space index " + indexPath + " with " + ranges + " ranges");
+		}
+		addToCache(conf, indexPath);
+		conf.set(SearchSpaceIndexJoinMapper.INDEX_PATH, indexPath.toString());
+
+		final Class keyClass = getKeyClass(conf);
+		JobConf dummyConf = new JobConf(false);
+		ChainMapper.addMapper(conf, (Class) ApacheLogTransformMapper.class,
+				Text.class, Text.class, keyClass, Text.class,
+				false,
+				dummyConf);
+		dummyConf.clear();
+		ChainMapper.addMapper(conf, (Class) KeyValidatingMapper.class,
+				keyClass, Text.class, keyClass, Text.class,
+				false,
+				dummyConf);
+		dummyConf.clear();
+		ChainMapper.addMapper(conf, (Class) SearchSpaceIndexJoinMapper.class,
+				keyClass, Text.class, Text.class, Text.class,
+				false,
+				dummyConf);
+		dummyConf.clear();
+		ChainMapper.addMapper(conf, TranslateBackToIPMapper.class,
+				Text.class, Text.class, Text.class, Text.class,
+				false,
+				dummyConf);
+	}
+
+	/** Sample the inputs for {@link #setupPartitionBoundaries(JobConf, PartitionBoundarySampler)} and {@link #setupHotAddresses(JobConf, PartitionBoundarySampler)}.
+	 * The search space inputs are read in full, the other inputs are sampled by {@link PartitionBoundarySampler#sample(JobConf)}
+	 * using a copy of the job that only has those inputs.
+	 * 
+	 * @param conf The job, the inputs must already be set
+	 * @return The sampler
+	 * @throws IOException if the inputs can not be sampled
+	 */
+	protected PartitionBoundarySampler sampleInputs(JobConf conf) throws IOException {
+		final PartitionBoundarySampler sampler = new PartitionBoundarySampler(conf);
+		final JobConf sampleConf = new JobConf(conf);
+		FileInputFormat.setInputPaths(sampleConf, inputs[0]);
+		for (int i = 1; i < inputs.length; i++) {
+			FileInputFormat.addInputPaths(sampleConf, inputs[i]);
+		}
+		final int sampled = sampler.sample(sampleConf);
+		if (searchSpaces!=null) {
+			final Path[] searchSpacePaths = new Path[searchSpaces.length];
+			for (int i = 0; i < searchSpaces.length; i++) {
+				searchSpacePaths[i] = new Path(searchSpaces[i]);
+			}
+			sampler.addSearchSpace(searchSpacePaths, conf);
+		}
+		LOG.info("Sampled " + sampled + " records, " + sampler.getRequestCount() + " search requests and " + sampler.getSpaceCount() + " search space ranges");
+		return sampler;
+	}
+
+	/** Write a partition boundaries file next to the output directory and pass it to the tasks via the {@link DistributedCache}.
+	 * The estimated load of each partition is logged, and is in the second column of the boundaries file.
+	 * 
+	 * @param conf The job to configure
+	 * @param sampler The sample of the inputs
+	 * @throws IOException if the file can not be written
+	 */
+	protected void setupPartitionBoundaries(JobConf conf, PartitionBoundarySampler sampler) throws IOException {
+		final int numPartitions = conf.getNumReduceTasks();
+		final long[] ends = sampler.computeBoundaries(numPartitions);
+		final double[] loads = sampler.estimateLoads(ends);
+		for (int i = 0; i < ends.length; i++) {
+			LOG.info(String.format("Partition %d ends at %08x, estimated sample load %.1f", i, ends[i], loads[i]));
+		}
+		final Path outputPath = new Path(output);
+		final FileSystem fs = outputPath.getFileSystem(conf);
+		final Path boundariesPath = outputPath.suffix("." + System.currentTimeMillis() + ".partitions").makeQualified(fs);
+		PartitionBoundarySampler.writeBoundaries(boundariesPath, conf, ends, loads);
+		fs.deleteOnExit(boundariesPath);
+		addToCache(conf, boundariesPath);
+		conf.set(SimpleIPRangePartitioner.PARTITION_FILE, boundariesPath.toString());
+	}
+
+	/** Find the hot addresses in the sample, write them with the search space ranges that contain them to a file next to the output
+	 * directory and pass it to the tasks via the {@link DistributedCache}. The number of hot addresses and the fan-out of each is logged.
+	 * Nothing is salted if there are no <code>--searchSpace</code> inputs, as the ranges of the hot addresses could not all be found.
+	 * 
+	 * @param conf The job to configure
+	 * @param sampler The sample of the inputs
+	 * @throws IOException if the search space can not be read or the file can not be written
+	 */
+	protected void setupHotAddresses(JobConf conf, PartitionBoundarySampler sampler) throws IOException {
+		if (searchSpaces==null || searchSpaces.length==0) {
+			LOG.warn("--saltHotAddresses requires the search space to be given with --searchSpace, no addresses will be salted");
+			return;
+		}
+		final int numPartitions = conf.getNumReduceTasks();
+		final HotAddresses hot = sampler.findHotAddresses(numPartitions, conf.getFloat(HotAddresses.HOT_SHARE, 0.5f), conf.getInt(HotAddresses.MAX_FANOUT, 0));
+		if (hot.size()==0) {
+			LOG.info("No address is too heavy for one of the " + numPartitions + " reduces, no addresses will be salted");
+			return;
+		}
+		final Path[] searchSpacePaths = new Path[searchSpaces.length];
+		for (int i = 0; i < searchSpaces.length; i++) {
+			searchSpacePaths[i] = new Path(searchSpaces[i]);
+		}
+		final int ranges = hot.addRanges(searchSpacePaths, conf);
+		LOG.info("Salting the search requests of " + hot.size() + " hot addresses, replicating " + ranges + " search space ranges");
+		for (int i = 0; i < hot.size(); i++) {
+			LOG.info(String.format("Hot address %08x, %.1f%% of the sampled requests, salted across %d reduces, contained by %d ranges",
+					hot.getAddress(i), 100.0 * hot.getSampled(i) / sampler.getRequestCount(), hot.getFanout(i), hot.getRanges(i).size()));
+		}
+		final Path outputPath = new Path(output);
+		final FileSystem fs = outputPath.getFileSystem(conf);
+		final Path hotPath = outputPath.suffix("." + System.currentTimeMillis() + ".hot").makeQualified(fs);
+		hot.write(hotPath, conf);
+		fs.deleteOnExit(hotPath);
+		addToCache(conf, hotPath);
+		conf.set(HotAddresses.HOT_FILE, hotPath.toString());
+	}
+
+	/** Add a file built by this driver to the {@link DistributedCache}, with a symlink of the same name.
+	 * 
+	 * @param conf The job to configure
+	 * @param path The file to add
+	 * @throws IOException if the path can not be made into a cache URI
+	 */
+	protected void addToCache(JobConf conf, Path path) throws IOException {
+		try {
+			DistributedCache.addCacheFile(Utils.addSymLinkFragment(path), conf);
+		} catch (URISyntaxException e) {
+			throw new IOException("Unable to add " + path + " to the distributed cache", e);
+		}
+		DistributedCache.createSymlink(conf);
+	}
+
+	/** The key class that the chain passes between the maps and to the reduce, this is the key class of the <code>range.key.helper</code>.
+	 * 
+	 * @param conf The configuration with the helper class set
+	 * @return The key class
+	 */
+	protected Class<?> getKeyClass(JobConf conf) {
+		final Class<?> keyClass = AbstractKeyHelper.newKeyHelper(conf).newRaw().getClass();
+		if (verbose) {
+			LOG.info("Using key class " + keyClass.getName());
+		}
+		return keyClass;
+	}
+
 	/* (non-Javadoc)
 	 * @see com.apress.hadoopbook.utils.MainProgrameShell#isSuccessFul(org.apache.hadoop.mapred.RunningJob)
 	 */
@@ -125,6 +391,21 @@ public class BruteForceMapReduceDriver extends MainProgrameShell {
 		if (commandLine.hasOption('o')) {
 			output = commandLine.getOptionValue('o');
 		}
+		if (commandLine.hasOption('s')) {
+			searchSpaces = commandLine.getOptionValues('s');
+		}
+		if (commandLine.hasOption('m')) {
+			mapOnly = true;
+		}
+		if (commandLine.hasOption('b')) {
+			balancePartitions = true;
+		}
+		if (commandLine.hasOption('f')) {
+			fusedOutput = true;
+		}
+		if (commandLine.hasOption("salt")) {
+			saltHotAddresses = true;
+		}
 	}
 	
 	/**
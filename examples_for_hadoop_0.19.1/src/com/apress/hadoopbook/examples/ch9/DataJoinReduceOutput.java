@@ -6,7 +6,6 @@ import java.util.ArrayList;
 import org.apache.commons.cli.CommandLine;
 import org.apache.commons.cli.OptionBuilder;
 import org.apache.commons.cli.Options;
-import org.apache.commons.lang.StringUtils;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.FileStatus;
 import org.apache.hadoop.fs.FileSystem;
@@ -18,9 +17,12 @@ import org.apache.hadoop.mapred.FileOutputFormat;
 import org.apache.hadoop.mapred.InputFormat;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.KeyValueTextInputFormat;
-import org.apache.hadoop.mapred.join.CompositeInputFormat;
+import org.apache.hadoop.mapred.Partitioner;
 import org.apache.hadoop.util.ToolRunner;
 
+import com.apress.hadoopbook.examples.ch8.PlannedJoin;
+import com.apress.hadoopbook.utils.JoinPartitioning;
+import com.apress.hadoopbook.utils.JoinPlanner;
 import com.apress.hadoopbook.utils.MainProgrameShell;
 
 
@@ -30,6 +32,13 @@ public class DataJoinReduceOutput extends MainProgrameShell {
 	protected String output;
 	/** Given a set of directories, each of which contains part-XXXX files
 	 * merge sort the output into a single file.
+	 * 
+	 * Directories prepared by {@link com.apress.hadoopbook.examples.ch8.JoinDatasetPreparer JoinDatasetPreparer} are joined as single tables,
+	 * part N of each with part N of the others, after checking that they are partitioned identically and sorted with the join comparator.
+	 * 
+	 * The join strategy is chosen by {@link JoinPlanner} through {@link PlannedJoin}. Prepared inputs, and directories of part files, which
+	 * this driver has always taken to be the sorted output of a job, are merge joined. An input that is a plain file is not known to be sorted,
+	 * and the join runs in the reduce.
 	 * @see com.apress.hadoopbook.utils.MainProgrameShell#customSetup(org.apache.hadoop.mapred.JobConf)
 	 */
 	@SuppressWarnings("unchecked")
@@ -37,35 +46,55 @@ public class DataJoinReduceOutput extends MainProgrameShell {
 	protected void customSetup(JobConf conf) throws IOException {
 		// TODO Auto-generated method stub
 		super.customSetup(conf);
-		ArrayList<String> tables = new ArrayList<String>();
+		conf.setClass("mapred.join.keycomparator", FastIPv4TextComparator.class, WritableComparator.class);
+		/** A reduce side join partitions the keys by address, as the comparator compares them. */
+		conf.setClass(PlannedJoin.PARTITIONER, IPv4TextPartitioner.class, Partitioner.class);
+		ArrayList<PlannedJoin.Table> tables = new ArrayList<PlannedJoin.Table>();
+		ArrayList<Path> paths = new ArrayList<Path>();
+		for( String input : inputs ) {
+			String []parts = input.split(":");
+			paths.add(new Path(parts.length==2 && conf.getClass(parts[0],null,InputFormat.class)!=null ? parts[1] : input));
+		}
+		/** Null unless the inputs were prepared, in which case each input directory is one table. */
+		final JoinPartitioning prepared = JoinPartitioning.verify(conf, paths, conf.getClass("mapred.join.keycomparator", null));
 		for( String input : inputs ) {
 			String []parts = input.split(":");
 			if (parts.length==2) {
 				Class<? extends InputFormat> candidateInputFormat = conf.getClass(parts[0],null,InputFormat.class);
 				if (candidateInputFormat!=null) {
-					addFiles(conf,candidateInputFormat, parts[1], tables);
+					addFiles(conf,candidateInputFormat, parts[1], tables, prepared!=null);
 					continue;
 				}
 			}
-			addFiles(conf, KeyValueTextInputFormat.class,input, tables);
+			addFiles(conf, KeyValueTextInputFormat.class,input, tables, prepared!=null);
+		}
+		
+		/** Plain files are not known to be sorted. */
+		boolean sorted = prepared!=null;
+		if (!sorted) {
+			sorted = true;
+			for (Path path : paths) {
+				final FileSystem fs = path.getFileSystem(conf);
+				if (fs.exists(path) && !fs.getFileStatus(path).isDir()) {
+					sorted = false;
+				}
+			}
 		}
 		
 		FileOutputFormat.setOutputPath(conf, new Path(output));
-		conf.set("mapred.join.expr", "outer(" + StringUtils.join(tables, ",") + ")");
 		conf.setNumReduceTasks(0);
 		conf.setMapperClass(DataJoinMergeMapper.class);
 		conf.setOutputKeyClass(Text.class);
 		conf.setOutputValueClass(Text.class);
-		conf.setInputFormat(CompositeInputFormat.class);
 		//conf.setOutputKeyComparatorClass(IPv4TextComparator.class);
-		conf.setClass("mapred.join.keycomparator", IPv4TextComparator.class, WritableComparator.class);
 		conf.setJarByClass(DataJoinMergeMapper.class);
+		PlannedJoin.configure(conf, "outer", tables, sorted);
 		
 	}
 
 	
 	@SuppressWarnings("unchecked")
-	void addFiles(JobConf conf, Class<? extends InputFormat> inputFormat,	String path, ArrayList<String> tables) throws IOException {
+	void addFiles(JobConf conf, Class<? extends InputFormat> inputFormat,	String path, ArrayList<PlannedJoin.Table> tables, boolean prepared) throws IOException {
 		Path inputPath = new Path(path);
 		FileSystem fs = inputPath.getFileSystem(conf);
 		if (!fs.exists(inputPath)) {
@@ -73,10 +102,10 @@ public class DataJoinReduceOutput extends MainProgrameShell {
 			return;
 		}
 		FileStatus status = fs.getFileStatus(inputPath);
-		if (!status.isDir()) {
-			String composed = CompositeInputFormat.compose(inputFormat, path); 
-			if (verbose) { System.err.println( "Adding input " + composed); }
-			tables.add(composed);
+		if (!status.isDir() || prepared) {
+			PlannedJoin.Table table = new PlannedJoin.Table(inputFormat, inputPath);
+			if (verbose) { System.err.println( "Adding input " + table.compose()); }
+			tables.add(table);
 			return;
 		}
 		FileStatus[] statai = fs.listStatus(inputPath, new PathFilter() {
@@ -94,9 +123,9 @@ public class DataJoinReduceOutput extends MainProgrameShell {
 			return;
 		}
 		for( FileStatus status1 : statai) {
-			String composed = CompositeInputFormat.compose(inputFormat, status1.getPath().toString()); 
-			if (verbose) { System.err.println( "Adding input " + composed); }
-			tables.add(composed);
+			PlannedJoin.Table table = new PlannedJoin.Table(inputFormat, status1.getPath());
+			if (verbose) { System.err.println( "Adding input " + table.compose()); }
+			tables.add(table);
 		}
 	}
 
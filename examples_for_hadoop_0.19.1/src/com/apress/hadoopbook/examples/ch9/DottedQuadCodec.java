@@ -0,0 +1,47 @@
+package com.apress.hadoopbook.examples.ch9;
+
+/** Table driven conversion of 32 bit addresses to the IPv4 dotted quad form used in the final ch9 output.
+ *
+ * The decimal digits of each of the 256 octet values are computed once, so writing an address is 4 table lookups and
+ * some byte copies into the caller's buffer, with no {@link java.util.Formatter} and no allocation.
+ * The output is exactly what <code>String.format("%d.%d.%d.%d", a, b, c, d)</code> produces.
+ *
+ * @author Jason
+ *
+ */
+public final class DottedQuadCodec {
+	/** The longest dotted quad, xxx.xxx.xxx.xxx. */
+	public static final int MAX_LENGTH = 15;
+
+	/** The decimal digits of each octet value. */
+	static final byte[][] OCTETS = new byte[256][];
+	static {
+		for (int i = 0; i < OCTETS.length; i++) {
+			OCTETS[i] = Integer.toString(i).getBytes();
+		}
+	}
+
+	private DottedQuadCodec() {
+	}
+
+	/** Write <code>address</code> as a dotted quad starting at <code>start</code>.
+	 *
+	 * @param address The address, only the low 32 bits are used
+	 * @param bytes The byte array, which must have at least <code>start + {@link #MAX_LENGTH}</code> bytes
+	 * @param start The index for the first digit
+	 * @return The index after the last digit.
+	 */
+	public static int pack(final long address, final byte[] bytes, final int start) {
+		int index = start;
+		for (int shift = 24; shift >= 0; shift -= 8) {
+			final byte[] octet = OCTETS[(int) (address >>> shift) & 0xff];
+			for (int i = 0; i < octet.length; i++) {
+				bytes[index++] = octet[i];
+			}
+			if (shift != 0) {
+				bytes[index++] = '.';
+			}
+		}
+		return index;
+	}
+}
@@ -0,0 +1,115 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.MapFile;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.log4j.Logger;
+
+/** Look up addresses in the elementary interval index written by {@link ElementaryIntervalIndexDriver}.
+ *
+ * The index is a directory of {@link MapFile} parts, one per reduce. The intervals do not overlap, so a lookup is a binary search
+ * for the part, then {@link MapFile.Reader#getClosest(org.apache.hadoop.io.WritableComparable, org.apache.hadoop.io.Writable, boolean)}
+ * for the last interval that begins at or before the address. The address is covered if it is at or before the end of that interval,
+ * and the interval value holds every range that covers it.
+ *
+ * The parts may come from a range partitioned job, where each part holds a contiguous slice of the address space,
+ * or from a single reduce. Empty parts are skipped. The instances are not thread safe, the result of the last lookup is held in the object.
+ *
+ * @author Jason
+ *
+ */
+public class ElementaryIntervalIndex {
+	/** Our logger. */
+	static Logger LOG = Logger.getLogger(ElementaryIntervalIndex.class);
+
+	/** The readers for the non empty parts, sorted by first key. */
+	MapFile.Reader[] readers;
+	/** The first interval begin in each of {@link #readers}. */
+	long[] firstKeys;
+
+	LongWritable key = new LongWritable();
+	/** The interval found by the last {@link #lookup(long)}. */
+	ElementaryIntervalWritable interval = new ElementaryIntervalWritable();
+
+	/** Open the index in <code>dir</code>.
+	 *
+	 * @param dir The output directory of the index job
+	 * @param conf The configuration to use for file system access
+	 * @throws IOException
+	 */
+	public ElementaryIntervalIndex(final Path dir, final Configuration conf) throws IOException {
+		final FileSystem fs = dir.getFileSystem(conf);
+		final MapFile.Reader[] all = MapFileOutputFormat.getReaders(fs, dir, conf);
+		final long[] allFirstKeys = new long[all.length];
+		int count = 0;
+		for (MapFile.Reader reader : all) {
+			if (!reader.next(key, interval)) {
+				reader.close();
+				continue;
+			}
+			reader.reset();
+			/** Insert in first key order, the part names are in partition order which is address order, but a custom partitioner need not be. */
+			int i = count++;
+			while (i > 0 && allFirstKeys[i - 1] > key.get()) {
+				all[i] = all[i - 1];
+				allFirstKeys[i] = allFirstKeys[i - 1];
+				i--;
+			}
+			all[i] = reader;
+			allFirstKeys[i] = key.get();
+		}
+		readers = new MapFile.Reader[count];
+		System.arraycopy(all, 0, readers, 0, count);
+		firstKeys = new long[count];
+		System.arraycopy(allFirstKeys, 0, firstKeys, 0, count);
+		if (LOG.isDebugEnabled()) { LOG.debug("Opened " + count + " non empty parts of " + all.length + " in " + dir); }
+	}
+
+	/** Find the interval containing <code>address</code>.
+	 *
+	 * @param address The address to look up
+	 * @return the interval, which is reused by the next lookup, or null if no range covers the address.
+	 * @throws IOException
+	 */
+	public ElementaryIntervalWritable lookup(final long address) throws IOException {
+		/** Find the last part that starts at or before the address. */
+		int low = 0;
+		int high = firstKeys.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (firstKeys[mid] <= address) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		if (low == 0) {
+			return null;
+		}
+		key.set(address);
+		if (readers[low - 1].getClosest(key, interval, true) == null) {
+			return null;
+		}
+		if (interval.getEnd() < address) {
+			return null;
+		}
+		return interval;
+	}
+
+	/** @return the number of non empty parts in the index. */
+	public int getPartCount() {
+		return readers.length;
+	}
+
+	/** Close all of the part readers. */
+	public void close() throws IOException {
+		for (MapFile.Reader reader : readers) {
+			reader.close();
+		}
+	}
+}
@@ -0,0 +1,94 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.KeyValueTextInputFormat;
+import org.apache.hadoop.mapred.MapFileOutputFormat;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.mapred.lib.ChainMapper;
+import org.apache.hadoop.util.ToolRunner;
+
+/**
+ * Build an elementary interval index of a search space, see {@link ElementaryIntervalReducer}.
+ * The search space files are the usual <code>begin:end\towner</code> records, and the output is a directory of {@link org.apache.hadoop.io.MapFile}
+ * parts, keyed by the {@link LongWritable} first address of each interval, with an {@link ElementaryIntervalWritable} value holding
+ * the end of the interval and every range that covers it. {@link ElementaryIntervalIndex} reads the output.
+ *
+ * Arguments are handled as in {@link IPRangePartitionerDriver}, all arguments but the last are inputs, the last is the output directory.
+ * If more than one reduce is requested via -D mapred.reduce.tasks=N, the ranges are spanned across the partitions by
+ * {@link RangePartitionTransformingMapper} and {@link SimpleIPRangePartitioner}, and each part covers one slice of the address space.
+ *
+ * When the job finishes the number of intervals and the maximum overlap depth are printed.
+ *
+ * @author Jason
+ *
+ */
+public class ElementaryIntervalIndexDriver extends IPRangePartitionerDriver {
+
+	/** The chain is {@link KeyValidatingMapper}, then {@link RangePartitionTransformingMapper} if there is more than 1 reduce,
+	 * and the reducer is {@link ElementaryIntervalReducer}, writing with {@link MapFileOutputFormat}.
+	 *
+	 * @see com.apress.hadoopbook.examples.ch9.IPRangePartitionerDriver#customSetup(org.apache.hadoop.mapred.JobConf)
+	 */
+	@SuppressWarnings("unchecked")
+	@Override
+	protected void customSetup(JobConf conf) throws IOException {
+		super.customSetup(conf);
+		conf.setJobName("ElementaryIntervalIndex");
+		if (conf.getNumReduceTasks()>1) {
+			/** If more that one reduce is to be run, the spanning partitioner must be used. */
+			if (!PartitionedKeyHelper.class.isAssignableFrom(conf.getClass(AbstractKeyHelper.RANGE_KEY_HELPER, TextKeyHelperWithSeparators.class))) {
+				conf.setClass(AbstractKeyHelper.RANGE_KEY_HELPER, PartitionedTextKeyHelperWithSeparators.class, KeyHelper.class);
+			}
+		}
+		final Class keyClass = AbstractKeyHelper.newKeyHelper(conf).newRaw().getClass();
+		JobConf dummyConf = new JobConf(false);
+		ChainMapper.addMapper(conf, (Class) KeyValidatingMapper.class,
+				Text.class, Text.class, keyClass, Text.class,
+				false,
+				dummyConf);
+		dummyConf.clear();
+		if (conf.getNumReduceTasks()>1) {
+			ChainMapper.addMapper(conf, (Class) RangePartitionTransformingMapper.class,
+					keyClass, Text.class, keyClass, Text.class, false, dummyConf);
+		}
+		conf.setMapOutputKeyClass(keyClass);
+		conf.setMapOutputValueClass(Text.class);
+		conf.setReducerClass(ElementaryIntervalReducer.class);
+		conf.setOutputKeyClass(LongWritable.class);
+		conf.setOutputValueClass(ElementaryIntervalWritable.class);
+		conf.setOutputFormat(MapFileOutputFormat.class);
+	}
+
+	/** Print the interval count and the maximum overlap depth over all of the partitions.
+	 *
+	 * @see com.apress.hadoopbook.utils.MainProgrameShell#isSuccessFul(org.apache.hadoop.mapred.RunningJob)
+	 */
+	@Override
+	protected int isSuccessFul(RunningJob rj) throws IOException {
+		final int ret = super.isSuccessFul(rj);
+		if (ret!=0) {
+			return ret;
+		}
+		final Counters.Group group = rj.getCounters().getGroup(ElementaryIntervalReducer.COUNTER_GROUP);
+		long maxDepth = 0;
+		for (Counters.Counter counter : group) {
+			if (counter.getName().startsWith(ElementaryIntervalReducer.MAX_DEPTH_PREFIX)) {
+				maxDepth = Math.max(maxDepth, counter.getCounter());
+			}
+		}
+		System.out.println( "Elementary intervals: " + group.getCounter(ElementaryIntervalReducer.INTERVALS)
+				+ ", maximum overlap depth: " + maxDepth);
+		return 0;
+	}
+
+	public static void main( String [] args ) throws Exception {
+		int res = ToolRunner.run(new Configuration(), new ElementaryIntervalIndexDriver(), args );
+		System.exit(res);
+	}
+}
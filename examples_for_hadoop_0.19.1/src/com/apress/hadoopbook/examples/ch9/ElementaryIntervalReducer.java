@@ -0,0 +1,233 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+
+import com.apress.hadoopbook.utils.BatchedCounters;
+import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
+
+/** Cut the search space into elementary intervals, runs of addresses that are covered by exactly the same set of ranges.
+ *
+ * The search space keys arrive sorted by range begin. The reducer sweeps through the address space keeping the ranges
+ * that cover the sweep position in an {@link ActiveRanges} heap. When the next range begins, or the range with the smallest
+ * end expires, the set of covering ranges changes, and the interval from the last change is output, keyed by its first address.
+ * Addresses not covered by any range produce no interval. After the last key, {@link #close()} flushes the rest of the active ranges.
+ *
+ * If the search space is spread over several reduces by {@link RangePartitionTransformingMapper}, each reduce sweeps only the
+ * clipped part of each range that falls in its partition, so the partitions produce disjoint intervals, and the real range is
+ * what is stored in the interval. The value bytes held in the {@link ActiveRanges} arena are the real end, 8 bytes, followed by the owner.
+ *
+ * The counter group {@link #COUNTER_GROUP} has the number of intervals, and <code>Max Overlap Depth Partition N</code> holds the largest
+ * number of ranges covering a single interval in each partition. Counters are summed across tasks, so the depth is per partition.
+ *
+ * @author Jason
+ *
+ * @param <K> The key class of the helper
+ */
+public class ElementaryIntervalReducer<K> extends ExamplesMapReduceBase implements Reducer<K, Text, LongWritable, ElementaryIntervalWritable> {
+	/** The counter group. */
+	public static final String COUNTER_GROUP = "ElementaryIntervals";
+	/** The counter name for the number of intervals. */
+	public static final String INTERVALS = "INTERVALS";
+	/** The prefix of the per partition counter names for the maximum overlap depth. */
+	public static final String MAX_DEPTH_PREFIX = "Max Overlap Depth Partition ";
+	/** The last address plus 1, the final sweep limit. */
+	static final long ADDRESS_SPACE_END = 0x100000000L;
+	/** The number of bytes in front of the owner in the arena values, the real range end. */
+	static final int REAL_END_LENGTH = 8;
+
+	/** The key helper. */
+	KeyHelper<K> helper;
+
+	/** The ranges covering the sweep position, begin is the real begin, end is the end clipped to this partition. */
+	ActiveRanges activeRanges = new ActiveRanges();
+	/** The first address that has not been output in an interval yet. */
+	long cursor = 0;
+	/** The largest number of ranges covering an interval. */
+	int maxDepth = 0;
+
+	LongWritable outputKey = new LongWritable();
+	ElementaryIntervalWritable outputValue = new ElementaryIntervalWritable();
+	/** The active range positions in begin, end order, for the interval being output. */
+	int[] order = new int[ActiveRanges.INITIAL_CAPACITY];
+	/** The real end and owner bytes of the range being activated. */
+	byte[] valueScratch = new byte[REAL_END_LENGTH + 64];
+
+	/** Saved for {@link #close()}, which outputs the intervals left after the last key. */
+	OutputCollector<LongWritable, ElementaryIntervalWritable> lastOutput;
+	Reporter lastReporter;
+
+	/** The counter name for this partition's maximum depth. */
+	String maxDepthCounter;
+
+	/** The counters, registered in {@link #configure(JobConf)}. */
+	BatchedCounters.Handle intervals;
+	BatchedCounters.Handle badKeys;
+	BatchedCounters.Handle spaceKeys;
+	BatchedCounters.Handle spaceValues;
+	BatchedCounters.Handle requestKeys;
+
+	@Override
+	public void configure(JobConf job) {
+		super.configure(job);
+		intervals = counters.register(COUNTER_GROUP, INTERVALS);
+		badKeys = counters.register(COUNTER_GROUP, "BAD KEYS");
+		spaceKeys = counters.register(COUNTER_GROUP, "SPACE KEYS");
+		spaceValues = counters.register(COUNTER_GROUP, "SPACE VALUES");
+		requestKeys = counters.register(COUNTER_GROUP, "IGNORED REQUEST KEYS");
+		helper = AbstractKeyHelper.newKeyHelper(conf);
+		maxDepthCounter = MAX_DEPTH_PREFIX + conf.getInt("mapred.task.partition", 0);
+	}
+
+	/** Output the intervals that end before the range in <code>key</code> begins, then add the range to the active set.
+	 *
+	 * @see org.apache.hadoop.mapred.Reducer#reduce(java.lang.Object, java.util.Iterator, org.apache.hadoop.mapred.OutputCollector, org.apache.hadoop.mapred.Reporter)
+	 */
+	@Override
+	public void reduce(K key, Iterator<Text> values,
+			OutputCollector<LongWritable, ElementaryIntervalWritable> output, Reporter reporter)
+	throws IOException {
+		try {
+			lastOutput = output;
+			lastReporter = reporter;
+			counters.record(reporter);
+			if (!helper.getFromRaw(key)) {
+				counters.incr(badKeys);
+				return;
+			}
+			if (!helper.isSearchSpace()) {
+				counters.incr(requestKeys);
+				return;
+			}
+			counters.incr(spaceKeys);
+			final long begin = helper.getBeginRange();
+			final long end = helper.getEndRange();
+			long realBegin = begin;
+			long realEnd = end;
+			if (helper instanceof PartitionedKeyHelper && ((PartitionedKeyHelper<?>)helper).isHasRealRange()) {
+				realBegin = ((PartitionedKeyHelper<?>)helper).getRealRangeBegin();
+				realEnd = ((PartitionedKeyHelper<?>)helper).getRealRangeEnd();
+			}
+
+			advanceTo(begin, output);
+			while (values.hasNext()) {
+				final Text value = values.next();
+				counters.incr(spaceValues);
+				final int length = REAL_END_LENGTH + value.getLength();
+				if (length > valueScratch.length) {
+					valueScratch = new byte[Math.max(length, valueScratch.length * 2)];
+				}
+				putLong(realEnd, valueScratch, 0);
+				System.arraycopy(value.getBytes(), 0, valueScratch, REAL_END_LENGTH, value.getLength());
+				activeRanges.activate(realBegin, end, valueScratch, 0, length);
+			}
+		} catch( Throwable e ) {
+			throwsIOExcepction(reporter, "ElementaryIntervalReducer failed", e);
+		}
+	}
+
+	/** Output the intervals left in the active set and report the maximum depth.
+	 *
+	 * @see com.apress.hadoopbook.utils.ExamplesMapReduceBase#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (lastOutput != null) {
+			advanceTo(ADDRESS_SPACE_END, lastOutput);
+			lastReporter.incrCounter(COUNTER_GROUP, maxDepthCounter, maxDepth);
+		}
+		super.close();
+	}
+
+	/** Output every interval that ends before <code>limit</code>, and move {@link #cursor} to <code>limit</code>.
+	 * The active set only changes when a range expires or a range begins, so an interval ends at the smallest
+	 * active end, or just before <code>limit</code>, whichever is first.
+	 *
+	 * @param limit The begin of the next range, or {@link #ADDRESS_SPACE_END}
+	 * @param output The collector for the intervals
+	 * @throws IOException
+	 */
+	void advanceTo(final long limit, final OutputCollector<LongWritable, ElementaryIntervalWritable> output) throws IOException {
+		while (!activeRanges.isEmpty()) {
+			final long minEnd = activeRanges.getEnd(0);
+			if (minEnd >= limit) {
+				if (cursor < limit) {
+					emit(cursor, limit - 1, output);
+				}
+				cursor = limit;
+				return;
+			}
+			emit(cursor, minEnd, output);
+			cursor = minEnd + 1;
+			activeRanges.deactivate(cursor);
+		}
+		cursor = limit;
+	}
+
+	/** Output the interval from <code>begin</code> through <code>end</code>, covered by all of the active ranges.
+	 * The covering ranges are written in real begin, real end order so the output does not depend on the heap layout.
+	 */
+	void emit(final long begin, final long end, final OutputCollector<LongWritable, ElementaryIntervalWritable> output) throws IOException {
+		final int depth = activeRanges.size();
+		if (depth > order.length) {
+			order = new int[Math.max(depth, order.length * 2)];
+		}
+		final byte[] arena = activeRanges.getValueBytes();
+		/** The depth is usually small, an insertion sort of the positions is enough. */
+		for (int i = 0; i < depth; i++) {
+			final long rangeBegin = activeRanges.getBegin(i);
+			final long rangeEnd = getLong(arena, activeRanges.getValueOffset(i));
+			int j = i;
+			while (j > 0) {
+				final int previous = order[j - 1];
+				final long previousBegin = activeRanges.getBegin(previous);
+				if (previousBegin < rangeBegin
+						|| (previousBegin == rangeBegin && getLong(arena, activeRanges.getValueOffset(previous)) <= rangeEnd)) {
+					break;
+				}
+				order[j] = previous;
+				j--;
+			}
+			order[j] = i;
+		}
+		outputValue.reset(end);
+		for (int i = 0; i < depth; i++) {
+			final int hit = order[i];
+			final int offset = activeRanges.getValueOffset(hit);
+			outputValue.add(activeRanges.getBegin(hit), getLong(arena, offset), arena,
+					offset + REAL_END_LENGTH, activeRanges.getValueLength(hit) - REAL_END_LENGTH);
+		}
+		if (depth > maxDepth) {
+			maxDepth = depth;
+		}
+		outputKey.set(begin);
+		output.collect(outputKey, outputValue);
+		counters.incr(intervals);
+	}
+
+	/** @return the largest number of ranges that have covered a single interval. */
+	public int getMaxDepth() {
+		return maxDepth;
+	}
+
+	static void putLong(final long value, final byte[] bytes, final int offset) {
+		for (int i = 0; i < 8; i++) {
+			bytes[offset + i] = (byte) (value >>> (56 - 8 * i));
+		}
+	}
+
+	static long getLong(final byte[] bytes, final int offset) {
+		long value = 0;
+		for (int i = 0; i < 8; i++) {
+			value = (value << 8) | (bytes[offset + i] & 0xffL);
+		}
+		return value;
+	}
+}
@@ -0,0 +1,137 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
+
+/** The value of an elementary interval in the index built by {@link ElementaryIntervalIndexDriver}, the key is the first
+ * address of the interval as a {@link org.apache.hadoop.io.LongWritable}.
+ *
+ * An elementary interval is a run of addresses that are all covered by exactly the same set of search space ranges.
+ * The value holds the last address of the interval, and the begin, end and owner of each covering range, sorted by begin and end.
+ * The arrays are reused by {@link #readFields(DataInput)}, so one instance can be passed to a reader for every lookup.
+ *
+ * @author Jason
+ *
+ */
+public class ElementaryIntervalWritable implements Writable {
+	/** The last address of the interval. */
+	long end;
+	/** The number of covering ranges. */
+	int depth;
+	/** The begin of each covering range. */
+	long[] rangeBegins = new long[4];
+	/** The end of each covering range. */
+	long[] rangeEnds = new long[4];
+	/** The owner of each covering range. */
+	Text[] owners = new Text[0];
+
+	/** Empty the interval.
+	 *
+	 * @param end The last address of the interval
+	 */
+	public void reset(final long end) {
+		this.end = end;
+		depth = 0;
+	}
+
+	/** Add a covering range.
+	 *
+	 * @param begin The begin of the range
+	 * @param rangeEnd The end of the range
+	 * @param owner The bytes of the owner
+	 * @param offset The offset of the owner in <code>owner</code>
+	 * @param length The length of the owner
+	 */
+	public void add(final long begin, final long rangeEnd, final byte[] owner, final int offset, final int length) {
+		ensureCapacity(depth + 1);
+		rangeBegins[depth] = begin;
+		rangeEnds[depth] = rangeEnd;
+		owners[depth].set(owner, offset, length);
+		depth++;
+	}
+
+	/** @return the last address of the interval */
+	public long getEnd() {
+		return end;
+	}
+
+	/** @return the number of ranges that cover the interval */
+	public int getDepth() {
+		return depth;
+	}
+
+	/** @return the begin of the <code>i</code>th covering range */
+	public long getRangeBegin(final int i) {
+		return rangeBegins[i];
+	}
+
+	/** @return the end of the <code>i</code>th covering range */
+	public long getRangeEnd(final int i) {
+		return rangeEnds[i];
+	}
+
+	/** @return the owner of the <code>i</code>th covering range, the object is reused */
+	public Text getOwner(final int i) {
+		return owners[i];
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.hadoop.io.Writable#write(java.io.DataOutput)
+	 */
+	@Override
+	public void write(DataOutput out) throws IOException {
+		WritableUtils.writeVLong(out, end);
+		WritableUtils.writeVInt(out, depth);
+		for (int i = 0; i < depth; i++) {
+			WritableUtils.writeVLong(out, rangeBegins[i]);
+			WritableUtils.writeVLong(out, rangeEnds[i]);
+			owners[i].write(out);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.hadoop.io.Writable#readFields(java.io.DataInput)
+	 */
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		end = WritableUtils.readVLong(in);
+		final int count = WritableUtils.readVInt(in);
+		ensureCapacity(count);
+		for (int i = 0; i < count; i++) {
+			rangeBegins[i] = WritableUtils.readVLong(in);
+			rangeEnds[i] = WritableUtils.readVLong(in);
+			owners[i].readFields(in);
+		}
+		depth = count;
+	}
+
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format("%08x", end));
+		for (int i = 0; i < depth; i++) {
+			sb.append(String.format("\t%08x:%08x\t", rangeBegins[i], rangeEnds[i])).append(owners[i]);
+		}
+		return sb.toString();
+	}
+
+	private void ensureCapacity(final int capacity) {
+		if (capacity > rangeBegins.length) {
+			final int size = Math.max(capacity, rangeBegins.length * 2);
+			rangeBegins = Arrays.copyOf(rangeBegins, size);
+			rangeEnds = Arrays.copyOf(rangeEnds, size);
+		}
+		if (capacity > owners.length) {
+			final int oldLength = owners.length;
+			owners = Arrays.copyOf(owners, rangeBegins.length);
+			for (int i = oldLength; i < owners.length; i++) {
+				owners[i] = new Text();
+			}
+		}
+	}
+}
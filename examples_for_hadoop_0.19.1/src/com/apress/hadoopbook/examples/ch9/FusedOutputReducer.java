@@ -0,0 +1,46 @@
+/**
+ * 
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+
+/** A {@link ReducerForStandardComparator} that writes the final <code>ip\tbegin\tend</code> dotted quad keys directly,
+ * replacing the {@link ReducerForStandardComparator} and {@link TranslateBackToIPMapper} pair in the reduce chain.
+ * 
+ * The base reducer formats each hit as hex strings that {@link TranslateBackToIPMapper} splits, parses and formats again.
+ * There may be many hits per input record, so this reducer builds the key from the address and the range with {@link DottedQuadCodec},
+ * and the value is copied from the {@link ActiveRanges} arena as in the base class. The output is byte for byte the output of the chain.
+ * 
+ * Selected by <code>--fusedOutput</code> in {@link BruteForceMapReduceDriver}.
+ * 
+ * @author Jason
+ *
+ * @param <K> The key class of the helper
+ */
+public class FusedOutputReducer<K> extends ReducerForStandardComparator<K> {
+
+	/** The key bytes, room for 3 dotted quads and 2 tabs. */
+	byte[] quadScratch = new byte[3 * DottedQuadCodec.MAX_LENGTH + 2];
+
+	/** Output the search request address, the range, the range owner and the log line, in the final form.
+	 * 
+	 * @see com.apress.hadoopbook.examples.ch9.ReducerForStandardComparator#handleHit(java.lang.Object, org.apache.hadoop.mapred.OutputCollector, org.apache.hadoop.mapred.Reporter, org.apache.hadoop.io.Text, int)
+	 */
+	@Override
+	protected void handleHit(K key, OutputCollector<Text, Text> output,
+			Reporter reporter, Text value, int hit) throws IOException {
+		int length = DottedQuadCodec.pack(helper.getSearchRequest(), quadScratch, 0);
+		quadScratch[length++] = '\t';
+		length = DottedQuadCodec.pack(hitRanges.getBegin(hit), quadScratch, length);
+		quadScratch[length++] = '\t';
+		length = DottedQuadCodec.pack(hitRanges.getEnd(hit), quadScratch, length);
+		outputKey.set(quadScratch, 0, length);
+		setHitValue(value, hit);
+		output.collect(outputKey, outputValue);
+	}
+}
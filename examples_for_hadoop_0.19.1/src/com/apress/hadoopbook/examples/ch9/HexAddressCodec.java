@@ -0,0 +1,67 @@
+package com.apress.hadoopbook.examples.ch9;
+
+/** Table driven conversion between 32 bit addresses and the 8 character hex form used in the ch9 text keys.
+ *
+ * The key helpers run these conversions several times for every record in the chain, so they work directly on the
+ * {@link org.apache.hadoop.io.Text} backing byte array and allocate nothing.
+ * The output is lower case, zero padded, exactly what <code>String.format("%08x", address)</code> produces.
+ * Both upper and lower case are accepted on input.
+ *
+ * @author Jason
+ *
+ */
+public final class HexAddressCodec {
+	/** The number of hex digits in an address. */
+	public static final int ADDRESS_LENGTH = 8;
+
+	/** The lower case hex digits, indexed by nibble value. */
+	static final byte[] DIGITS = { '0', '1', '2', '3', '4', '5', '6', '7', '8', '9', 'a', 'b', 'c', 'd', 'e', 'f' };
+
+	/** The nibble value of each byte, or -1 if the byte is not a hex digit. */
+	static final byte[] VALUES = new byte[256];
+	static {
+		java.util.Arrays.fill(VALUES, (byte) -1);
+		for (int i = 0; i < 10; i++) {
+			VALUES['0' + i] = (byte) i;
+		}
+		for (int i = 0; i < 6; i++) {
+			VALUES['a' + i] = (byte) (10 + i);
+			VALUES['A' + i] = (byte) (10 + i);
+		}
+	}
+
+	private HexAddressCodec() {
+	}
+
+	/** Convert the {@link #ADDRESS_LENGTH} hex digits starting at <code>start</code> into an address.
+	 *
+	 * @param bytes The byte array, which must have at least <code>start + 8</code> bytes
+	 * @param start The index of the first digit
+	 * @return The address, or -1 if any of the bytes is not a hex digit.
+	 */
+	public static long unpack(final byte[] bytes, final int start) {
+		long address = 0;
+		int bad = 0;
+		for (int i = start, end = start + ADDRESS_LENGTH; i < end; i++) {
+			final int nibble = VALUES[bytes[i] & 0xff];
+			bad |= nibble;	/** Only -1 has the sign bit set. */
+			address = (address << 4) | (nibble & 0xf);
+		}
+		return bad < 0 ? -1 : address;
+	}
+
+	/** Write <code>address</code> as {@link #ADDRESS_LENGTH} lower case hex digits starting at <code>start</code>.
+	 *
+	 * @param address The address, only the low 32 bits are used
+	 * @param bytes The byte array, which must have at least <code>start + 8</code> bytes
+	 * @param start The index for the first digit
+	 * @return The index after the last digit.
+	 */
+	public static int pack(final long address, final byte[] bytes, final int start) {
+		int shift = 28;
+		for (int i = start, end = start + ADDRESS_LENGTH; i < end; i++, shift -= 4) {
+			bytes[i] = DIGITS[(int) (address >>> shift) & 0xf];
+		}
+		return start + ADDRESS_LENGTH;
+	}
+}
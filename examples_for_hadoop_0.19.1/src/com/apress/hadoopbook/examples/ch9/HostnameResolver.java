@@ -0,0 +1,111 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Reporter;
+
+/** Resolve host names found in log lines to IPv4 addresses, with a bounded least recently used cache.
+ *
+ * {@link AbstractKeyHelper#addrToLong(String)} never calls the resolver, a lookup is a blocking network call inside a map task.
+ * Resolution is only done if the configuration key {@link #RESOLVE_HOSTNAMES} is true, and every result, including failures,
+ * is cached so each distinct name is looked up once per task until it is evicted.
+ * The cache hits, misses and failures are reported in the counter group {@link #COUNTER_GROUP}.
+ *
+ * @author Jason
+ *
+ */
+public class HostnameResolver {
+	/** The configuration key that enables host name resolution, the default is false. */
+	public static final String RESOLVE_HOSTNAMES = "examples.ch9.resolve.hostnames";
+	/** The configuration key for the maximum number of names in the cache. */
+	public static final String CACHE_SIZE = "examples.ch9.resolve.cache.size";
+	/** The default maximum number of names in the cache. */
+	public static final int DEFAULT_CACHE_SIZE = 10000;
+	/** The counter group. */
+	public static final String COUNTER_GROUP = "HostnameResolver";
+
+	/** The cache, in access order so the eldest entry is the least recently used. */
+	final Map<String,Long> cache;
+
+	/** Construct a resolver if host name resolution is enabled in <code>conf</code>.
+	 *
+	 * @param conf The configuration
+	 * @return A resolver, or null if {@link #RESOLVE_HOSTNAMES} is not true.
+	 */
+	public static HostnameResolver newResolver(final Configuration conf) {
+		if (!conf.getBoolean(RESOLVE_HOSTNAMES, false)) {
+			return null;
+		}
+		return new HostnameResolver(conf.getInt(CACHE_SIZE, DEFAULT_CACHE_SIZE));
+	}
+
+	/**
+	 * @param maxSize The maximum number of names to cache
+	 */
+	@SuppressWarnings("serial")
+	public HostnameResolver(final int maxSize) {
+		if (maxSize < 1) {
+			throw new IllegalArgumentException("The host name cache size must be positive, not " + maxSize);
+		}
+		cache = new LinkedHashMap<String,Long>(Math.min(maxSize, 1024), 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String,Long> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/** Return the IPv4 address of <code>hostName</code>, from the cache if possible.
+	 *
+	 * @param hostName The name to resolve
+	 * @param reporter The reporter for the cache counters, may be null
+	 * @return the numeric value of the address or -1 if the name does not resolve to exactly one IPv4 address.
+	 */
+	public long resolve(final String hostName, final Reporter reporter) {
+		final Long cached = cache.get(hostName);
+		if (cached != null) {
+			if (reporter != null) {
+				reporter.incrCounter(COUNTER_GROUP, "CACHE HITS", 1);
+			}
+			return cached.longValue();
+		}
+		final long address = lookup(hostName);
+		cache.put(hostName, address);
+		if (reporter != null) {
+			reporter.incrCounter(COUNTER_GROUP, "CACHE MISSES", 1);
+			if (address < 0) {
+				reporter.incrCounter(COUNTER_GROUP, "UNRESOLVED", 1);
+			}
+		}
+		return address;
+	}
+
+	/** @return the number of names in the cache. */
+	public int size() {
+		return cache.size();
+	}
+
+	/** Ask the resolver for the address of <code>hostName</code>, this is the only place the network is touched.
+	 *
+	 * @param hostName The name to resolve
+	 * @return the numeric value of the address or -1 if the name does not resolve to exactly one IPv4 address.
+	 */
+	protected long lookup(final String hostName) {
+		InetAddress[] addresses;
+		try {
+			addresses = InetAddress.getAllByName(hostName);
+		} catch (UnknownHostException e) {
+			return -1;
+		}
+		if (addresses.length != 1 || !(addresses[0] instanceof Inet4Address)) {
+			return -1;
+		}
+		final byte[] addr = addresses[0].getAddress();
+		return ((addr[0] & 0xffL) << 24) | ((addr[1] & 0xffL) << 16) | ((addr[2] & 0xffL) << 8) | (addr[3] & 0xffL);
+	}
+}
@@ -0,0 +1,264 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.log4j.Logger;
+
+import com.apress.hadoopbook.utils.Utils;
+
+/** The search request addresses that are too heavy for a single reduce, such as a crawler that makes up a large part of the log,
+ * and the search space ranges that contain each of them.
+ *
+ * {@link PartitionBoundarySampler#findHotAddresses(int, float, int)} picks the hot addresses from the sample, and gives each
+ * a fan-out, the number of reduces its requests are salted across. {@link SimpleIPRangePartitioner} sends the requests for a hot
+ * address to its own partition or one of the partitions that follow it, chosen by a hash of the log line.
+ * Rather than shuffle extra copies of the search space ranges to those partitions, the ranges that contain each hot address
+ * are read from the <code>--searchSpace</code> inputs by {@link #addRanges(Path[], Configuration)} and replicated to every reduce
+ * in this file through the {@link org.apache.hadoop.filecache.DistributedCache}. {@link ReducerForStandardComparator} joins the
+ * requests for a hot address against these ranges, which are exactly the ranges that would be active for the address,
+ * so the output rows are the same as the unsalted join.
+ *
+ * The file is written one hot address per line as <code>address\tfanout\tsampledRequests\trangeCount</code>, followed by
+ * <code>rangeCount</code> lines of <code>begin\tend\towner</code>, with the addresses in the 8 digit hex form.
+ *
+ * @author Jason
+ *
+ */
+public class HotAddresses {
+	/** Our logger. */
+	static Logger LOG = Logger.getLogger(HotAddresses.class);
+
+	/** The configuration key for the path of the hot address file.
+	 * The file name portion is looked up in the distributed cache, if it is not there the path is read directly.
+	 */
+	public static final String HOT_FILE = "examples.ch9.hot.addresses.file";
+	/** The configuration key for the fraction of a partition's share of the sample above which an address is hot, default 0.5. */
+	public static final String HOT_SHARE = "examples.ch9.hot.share";
+	/** The configuration key for the most reduces a hot address is salted across, default 0, the number of reduces. */
+	public static final String MAX_FANOUT = "examples.ch9.hot.max.fanout";
+
+	/** The hot addresses, ascending, the first {@link #count} are valid. */
+	long[] addresses = new long[16];
+	/** The number of partitions the requests for each hot address are salted across. */
+	int[] fanouts = new int[16];
+	/** The number of sampled requests for each hot address. */
+	int[] sampled = new int[16];
+	/** The search space ranges that contain each hot address. */
+	ActiveRanges[] ranges = new ActiveRanges[16];
+	int count;
+
+	/** Add a hot address, the addresses must be added in ascending order.
+	 *
+	 * @param address The search request address
+	 * @param fanout The number of partitions to salt its requests across
+	 * @param sampledRequests The number of sampled requests for the address
+	 */
+	public void add(final long address, final int fanout, final int sampledRequests) {
+		if (count > 0 && address <= addresses[count - 1]) {
+			throw new IllegalArgumentException(String.format("Hot address %08x is not after %08x", address, addresses[count - 1]));
+		}
+		if (count == addresses.length) {
+			addresses = Arrays.copyOf(addresses, count * 2);
+			fanouts = Arrays.copyOf(fanouts, count * 2);
+			sampled = Arrays.copyOf(sampled, count * 2);
+			ranges = Arrays.copyOf(ranges, count * 2);
+		}
+		addresses[count] = address;
+		fanouts[count] = fanout;
+		sampled[count] = sampledRequests;
+		ranges[count++] = new ActiveRanges();
+	}
+
+	/** @return the number of hot addresses. */
+	public int size() {
+		return count;
+	}
+
+	/** @return the <code>hot</code>th address. */
+	public long getAddress(final int hot) {
+		return addresses[hot];
+	}
+
+	/** @return the number of partitions the requests for the <code>hot</code>th address are salted across. */
+	public int getFanout(final int hot) {
+		return fanouts[hot];
+	}
+
+	/** @return the number of sampled requests for the <code>hot</code>th address. */
+	public int getSampled(final int hot) {
+		return sampled[hot];
+	}
+
+	/** @return the search space ranges that contain the <code>hot</code>th address. */
+	ActiveRanges getRanges(final int hot) {
+		return ranges[hot];
+	}
+
+	/** Find a hot address.
+	 *
+	 * @param address The search request address
+	 * @return the index of the address, or -1 if it is not hot
+	 */
+	public int indexOf(final long address) {
+		final int index = Arrays.binarySearch(addresses, 0, count, address);
+		return index < 0 ? -1 : index;
+	}
+
+	/** Choose the partition for a request for the <code>hot</code>th address, one of the <code>fanout</code> partitions starting at <code>home</code>.
+	 *
+	 * @param hot The index of the hot address
+	 * @param home The partition the address falls in
+	 * @param value The log line, hashed to pick the salt
+	 * @param numPartitions The number of partitions
+	 * @return The partition
+	 */
+	public int partition(final int hot, final int home, final Text value, final int numPartitions) {
+		final int salt = (WritableComparator.hashBytes(value.getBytes(), value.getLength()) & Integer.MAX_VALUE) % fanouts[hot];
+		return (home + salt) % numPartitions;
+	}
+
+	/** Add every search space range that contains a hot address to the ranges of that address.
+	 *
+	 * @param paths The search space files or directories, these must hold every search space range of the job
+	 * @param conf The configuration to use
+	 * @return The number of ranges added, a range that contains several hot addresses is counted once for each
+	 * @throws IOException
+	 */
+	public int addRanges(final Path[] paths, final Configuration conf) throws IOException {
+		final ArrayList<SearchSpaceIndex.Entry> entries = new ArrayList<SearchSpaceIndex.Entry>();
+		for (Path path : paths) {
+			SearchSpaceIndex.readEntries(path, conf, entries);
+		}
+		int added = 0;
+		final Text owner = new Text();
+		for (SearchSpaceIndex.Entry entry : entries) {
+			int hot = Arrays.binarySearch(addresses, 0, count, entry.begin);
+			if (hot < 0) {
+				hot = -hot - 1;
+			}
+			for (; hot < count && addresses[hot] <= entry.end; hot++) {
+				owner.set(entry.owner);
+				ranges[hot].activate(entry.begin, entry.end, owner.getBytes(), 0, owner.getLength());
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/** Write the hot address file.
+	 *
+	 * @param path The file to write
+	 * @param conf The configuration to use
+	 * @throws IOException
+	 */
+	public void write(final Path path, final Configuration conf) throws IOException {
+		FSDataOutputStream out = null;
+		try {
+			out = path.getFileSystem(conf).create(path);
+			final Writer writer = new OutputStreamWriter(out, "UTF-8");
+			for (int hot = 0; hot < count; hot++) {
+				final ActiveRanges hotRanges = ranges[hot];
+				writer.write(String.format("%08x\t%d\t%d\t%d\n", addresses[hot], fanouts[hot], sampled[hot], hotRanges.size()));
+				for (int i = 0; i < hotRanges.size(); i++) {
+					writer.write(String.format("%08x\t%08x\t%s\n", hotRanges.getBegin(i), hotRanges.getEnd(i), hotRanges.getValue(i)));
+				}
+			}
+			writer.flush();
+		} finally {
+			Utils.closeIf(out);
+		}
+	}
+
+	/** Read a hot address file written by {@link #write(Path, Configuration)}.
+	 *
+	 * @param path The file to read
+	 * @param conf The configuration to use
+	 * @return The hot addresses and their ranges
+	 * @throws IOException if the file can not be read or is not in the expected form
+	 */
+	public static HotAddresses read(final Path path, final Configuration conf) throws IOException {
+		final HotAddresses hotAddresses = new HotAddresses();
+		final FileSystem fs = path.getFileSystem(conf);
+		final Text owner = new Text();
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(fs.open(path), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.length() == 0) {
+					continue;
+				}
+				final String[] fields = line.split("\t");
+				if (fields.length != 4) {
+					throw new IOException("Invalid hot address [" + line + "] in " + path);
+				}
+				final int rangeCount;
+				try {
+					hotAddresses.add(Long.parseLong(fields[0], 16), Integer.parseInt(fields[1]), Integer.parseInt(fields[2]));
+					rangeCount = Integer.parseInt(fields[3]);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid hot address [" + line + "] in " + path, e);
+				} catch (IllegalArgumentException e) {
+					throw new IOException("Invalid hot address [" + line + "] in " + path, e);
+				}
+				final ActiveRanges hotRanges = hotAddresses.ranges[hotAddresses.count - 1];
+				for (int i = 0; i < rangeCount; i++) {
+					final String range = in.readLine();
+					final String[] rangeFields = range == null ? null : range.split("\t", 3);
+					if (rangeFields == null || rangeFields.length != 3) {
+						throw new IOException("Missing or invalid range " + i + " of " + rangeCount + " for hot address " + fields[0] + " in " + path);
+					}
+					owner.set(rangeFields[2]);
+					try {
+						hotRanges.activate(Long.parseLong(rangeFields[0], 16), Long.parseLong(rangeFields[1], 16), owner.getBytes(), 0, owner.getLength());
+					} catch (NumberFormatException e) {
+						throw new IOException("Invalid range [" + range + "] in " + path, e);
+					}
+				}
+			}
+		} finally {
+			Utils.closeIf(in);
+		}
+		return hotAddresses;
+	}
+
+	/** Load the hot address file named by {@link #HOT_FILE}, from the distributed cache if it is there.
+	 *
+	 * @param conf The job
+	 * @return The hot addresses, or null if {@link #HOT_FILE} is not set
+	 * @throws IllegalArgumentException if the file can not be read
+	 */
+	public static HotAddresses load(final JobConf conf) {
+		final String hotFile = conf.get(HOT_FILE);
+		if (hotFile == null) {
+			return null;
+		}
+		try {
+			Path path = Utils.findItemInCache(new Path(hotFile).getName(), conf);
+			if (path == null) {
+				path = new Path(hotFile);
+			}
+			final HotAddresses hotAddresses = read(path, conf);
+			LOG.info("Loaded " + hotAddresses.size() + " hot addresses from " + path);
+			return hotAddresses;
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to load the hot addresses " + hotFile, e);
+		}
+	}
+}
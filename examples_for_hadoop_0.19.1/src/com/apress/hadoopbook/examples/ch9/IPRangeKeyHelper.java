@@ -0,0 +1,135 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import org.apache.hadoop.conf.Configuration;
+
+/** The {@link KeyHelper} for {@link IPRangeKeyWritable} keys.
+ * -D range.key.helper=com.apress.hadoopbook.examples.ch9.IPRangeKeyHelper
+ *
+ * The binary key always carries the real range, a search space key that has not been spanned has a real range equal to its range.
+ * When a key is unpacked, {@link #isHasRealRange()} is only true if the real range differs from the range, which matches
+ * the behavior of {@link PartitionedTextKeyHelperWithSeparators} for the 2 address and 4 address text forms.
+ *
+ * @author Jason
+ *
+ */
+public class IPRangeKeyHelper extends AbstractKeyHelper<IPRangeKeyWritable> implements PartitionedKeyHelper<IPRangeKeyWritable> {
+	protected long realRangeBegin;
+	protected long realRangeEnd;
+	protected boolean hasRealRange = false;
+
+	/** Nop for reflection
+	 *
+	 */
+	public IPRangeKeyHelper() {
+		super();
+	}
+
+	public IPRangeKeyHelper(Configuration conf) {
+		super(conf);
+	}
+
+	/* (non-Javadoc)
+	 * @see com.apress.hadoopbook.examples.ch9.KeyHelper#getFromRaw(java.lang.Object)
+	 */
+	@Override
+	public boolean getFromRaw(IPRangeKeyWritable raw) {
+		isValid = false;
+		hasRealRange = false;
+		if (raw.isSearchRequest()) {
+			setSearchRequest(raw.getBegin());
+			return true;
+		}
+		if (!raw.isSearchSpace() || raw.getBegin() > raw.getEnd()) {
+			return false;
+		}
+		setBeginRange(raw.getBegin());
+		setEndRange(raw.getEnd());
+		if (raw.getRealBegin() != raw.getBegin() || raw.getRealEnd() != raw.getEnd()) {
+			setRealRangeBegin(raw.getRealBegin());
+			setRealRangeEnd(raw.getRealEnd());
+		}
+		return true;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.apress.hadoopbook.examples.ch9.KeyHelper#setToRaw(java.lang.Object)
+	 */
+	@Override
+	public void setToRaw(IPRangeKeyWritable raw) {
+		if (!isValid) {
+			return;
+		}
+		if (!hasEndRange) {
+			raw.setSearchRequest(beginRangeOrKey);
+		} else if (hasRealRange) {
+			raw.setSearchSpace(beginRangeOrKey, endRange, realRangeBegin, realRangeEnd);
+		} else {
+			raw.setSearchSpace(beginRangeOrKey, endRange, beginRangeOrKey, endRange);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.apress.hadoopbook.examples.ch9.KeyHelper#newRaw()
+	 */
+	@Override
+	public IPRangeKeyWritable newRaw() {
+		return new IPRangeKeyWritable();
+	}
+
+	/**
+	 * @return the realRangeBegin
+	 */
+	public long getRealRangeBegin() {
+		return realRangeBegin;
+	}
+
+	/**
+	 * @param realRangeBegin the realRangeBegin to set
+	 */
+	public void setRealRangeBegin(long realRangeBegin) {
+		setHasRealRange(true);
+		this.realRangeBegin = realRangeBegin;
+	}
+
+	/**
+	 * @return the realRangeEnd
+	 */
+	public long getRealRangeEnd() {
+		return realRangeEnd;
+	}
+
+	/**
+	 * @param realRangeEnd the realRangeEnd to set
+	 */
+	public void setRealRangeEnd(long realRangeEnd) {
+		this.realRangeEnd = realRangeEnd;
+		setHasRealRange(true);
+	}
+
+	/**
+	 * @return the hasRealRange
+	 */
+	public boolean isHasRealRange() {
+		return hasRealRange;
+	}
+
+	/**
+	 * @param hasRealRange the hasRealRange to set
+	 */
+	public void setHasRealRange(boolean hasRealRange) {
+		this.hasRealRange = hasRealRange;
+	}
+
+	public String toString() {
+		if (!isValid) {
+			return "";
+		}
+		if (!hasEndRange) {
+			return String.format("%08x;", beginRangeOrKey);
+		}
+		if (hasRealRange) {
+			return String.format("%08x:%08x:%08x:%08x", beginRangeOrKey, endRange, realRangeBegin, realRangeEnd);
+		}
+		return String.format("%08x:%08x", beginRangeOrKey, endRange);
+	}
+}
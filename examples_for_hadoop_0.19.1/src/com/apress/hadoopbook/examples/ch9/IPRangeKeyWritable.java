@@ -0,0 +1,232 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+
+/** A fixed width binary key for the ch9 range join, an alternative to the hex {@link org.apache.hadoop.io.Text} keys
+ * built by {@link TextKeyHelperWithSeparators} and {@link PartitionedTextKeyHelperWithSeparators}.
+ *
+ * The serialized form is the begin address as an unsigned 32 bit big endian int and a one byte kind tag,
+ * {@link #REQUEST_SIZE} bytes. A search space key follows this with the end, real begin and real end addresses,
+ * also as unsigned 32 bit ints, for {@link #SPACE_SIZE} bytes. The widths are fixed for each kind, so the
+ * search request keys, which are the vast majority, are half the size of the 9 byte text form, and the spanned search space
+ * keys are half the size of the 35 byte text form.
+ *
+ * The layout is chosen so that the serialized bytes sort in the same order as the text keys:
+ * by begin address, search space keys before search requests on the same address, then by end, real begin and real end.
+ * The registered {@link Comparator} simply compares the bytes, no deserialization or hex parsing is needed in the sort.
+ *
+ * Use <code>-D range.key.helper=com.apress.hadoopbook.examples.ch9.IPRangeKeyHelper</code> to run the ch9 jobs with this key.
+ *
+ * @author Jason
+ *
+ */
+public class IPRangeKeyWritable implements WritableComparable<IPRangeKeyWritable> {
+	/** The kind tag for a search space key, this must be less than {@link #SEARCH_REQUEST}. */
+	public static final byte SEARCH_SPACE = 0;
+	/** The kind tag for a search request key. */
+	public static final byte SEARCH_REQUEST = 1;
+	/** The serialized size of a search request key, the begin address and the kind tag. */
+	public static final int REQUEST_SIZE = 5;
+	/** The serialized size of a search space key. */
+	public static final int SPACE_SIZE = 17;
+	/** The offset of the kind tag in the serialized form. */
+	static final int KIND_OFFSET = 4;
+
+	/** The begin of the range, or the search request address. */
+	long begin;
+	/** The end of the range. */
+	long end;
+	/** The begin of the original range, before it was spanned across partitions. */
+	long realBegin;
+	/** The end of the original range, before it was spanned across partitions. */
+	long realEnd;
+	/** One of {@link #SEARCH_SPACE} or {@link #SEARCH_REQUEST}. */
+	byte kind = SEARCH_REQUEST;
+
+	/** Nop for reflection */
+	public IPRangeKeyWritable() {
+	}
+
+	/** Set this key to a search request for <code>address</code>.
+	 * @param address The address to search for
+	 */
+	public void setSearchRequest(final long address) {
+		kind = SEARCH_REQUEST;
+		begin = address;
+		end = 0;
+		realBegin = 0;
+		realEnd = 0;
+	}
+
+	/** Set this key to a search space key.
+	 * @param begin The begin of the range in this partition
+	 * @param end The end of the range in this partition
+	 * @param realBegin The begin of the original range
+	 * @param realEnd The end of the original range
+	 */
+	public void setSearchSpace(final long begin, final long end, final long realBegin, final long realEnd) {
+		kind = SEARCH_SPACE;
+		this.begin = begin;
+		this.end = end;
+		this.realBegin = realBegin;
+		this.realEnd = realEnd;
+	}
+
+	/**
+	 * @return the begin address, or the search request address
+	 */
+	public long getBegin() {
+		return begin;
+	}
+
+	/**
+	 * @return the end address
+	 */
+	public long getEnd() {
+		return end;
+	}
+
+	/**
+	 * @return the real begin address
+	 */
+	public long getRealBegin() {
+		return realBegin;
+	}
+
+	/**
+	 * @return the real end address
+	 */
+	public long getRealEnd() {
+		return realEnd;
+	}
+
+	/**
+	 * @return the kind tag
+	 */
+	public byte getKind() {
+		return kind;
+	}
+
+	/**
+	 * @return true if this is a search request key
+	 */
+	public boolean isSearchRequest() {
+		return kind == SEARCH_REQUEST;
+	}
+
+	/**
+	 * @return true if this is a search space key
+	 */
+	public boolean isSearchSpace() {
+		return kind == SEARCH_SPACE;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.hadoop.io.Writable#readFields(java.io.DataInput)
+	 */
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		begin = in.readInt() & 0xffffffffL;
+		kind = in.readByte();
+		if (kind == SEARCH_REQUEST) {
+			end = 0;
+			realBegin = 0;
+			realEnd = 0;
+			return;
+		}
+		end = in.readInt() & 0xffffffffL;
+		realBegin = in.readInt() & 0xffffffffL;
+		realEnd = in.readInt() & 0xffffffffL;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.apache.hadoop.io.Writable#write(java.io.DataOutput)
+	 */
+	@Override
+	public void write(DataOutput out) throws IOException {
+		out.writeInt((int) begin);
+		out.writeByte(kind);
+		if (kind == SEARCH_REQUEST) {
+			return;
+		}
+		out.writeInt((int) end);
+		out.writeInt((int) realBegin);
+		out.writeInt((int) realEnd);
+	}
+
+	/** Compare in the same order as the serialized bytes.
+	 * @see java.lang.Comparable#compareTo(java.lang.Object)
+	 */
+	@Override
+	public int compareTo(IPRangeKeyWritable o) {
+		if (begin != o.begin) {
+			return begin < o.begin ? -1 : 1;
+		}
+		if (kind != o.kind) {
+			return kind < o.kind ? -1 : 1;
+		}
+		if (end != o.end) {
+			return end < o.end ? -1 : 1;
+		}
+		if (realBegin != o.realBegin) {
+			return realBegin < o.realBegin ? -1 : 1;
+		}
+		if (realEnd != o.realEnd) {
+			return realEnd < o.realEnd ? -1 : 1;
+		}
+		return 0;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof IPRangeKeyWritable)) {
+			return false;
+		}
+		return compareTo((IPRangeKeyWritable) obj) == 0;
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (begin * 31 + end) * 31 + (int) (realBegin ^ realEnd) + kind;
+	}
+
+	/** The same form the partitioned text keys use, with ';' marking a search request. */
+	public String toString() {
+		if (kind == SEARCH_REQUEST) {
+			return String.format("%08x;", begin);
+		}
+		return String.format("%08x:%08x:%08x:%08x", begin, end, realBegin, realEnd);
+	}
+
+	/** The raw comparator, as all of the fields are fixed width unsigned big endian values, a byte comparison
+	 * gives the same result as {@link IPRangeKeyWritable#compareTo(IPRangeKeyWritable)}.
+	 * The begin address and kind are compared first, only if they are equal and the keys are search space keys
+	 * are the remaining addresses compared.
+	 */
+	public static class Comparator extends WritableComparator {
+		public Comparator() {
+			super(IPRangeKeyWritable.class);
+		}
+
+		/* (non-Javadoc)
+		 * @see org.apache.hadoop.io.WritableComparator#compare(byte[], int, int, byte[], int, int)
+		 */
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			final int result = compareBytes(b1, s1, REQUEST_SIZE, b2, s2, REQUEST_SIZE);
+			if (result != 0 || b1[s1 + KIND_OFFSET] == SEARCH_REQUEST) {
+				return result;
+			}
+			return compareBytes(b1, s1 + REQUEST_SIZE, SPACE_SIZE - REQUEST_SIZE, b2, s2 + REQUEST_SIZE, SPACE_SIZE - REQUEST_SIZE);
+		}
+	}
+
+	static {
+		WritableComparator.define(IPRangeKeyWritable.class, new Comparator());
+	}
+}
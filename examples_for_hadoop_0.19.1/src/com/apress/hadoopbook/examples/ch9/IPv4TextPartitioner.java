@@ -0,0 +1,25 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+
+/** Partition {@link Text} IPv4 address keys by the value of the address, so keys that {@link IPv4TextComparator} considers equal,
+ * such as <code>10.0.0.1</code> and <code>010.000.000.001</code>, go to the same reduce.
+ * The {@link org.apache.hadoop.mapred.lib.HashPartitioner} hashes the key bytes, which differ for those keys.
+ * Malformed keys all unpack to -1, and all go to the same reduce, as they are all equal for the comparator.
+ *
+ * @author Jason
+ *
+ * @param <V> The value class
+ */
+public class IPv4TextPartitioner<V> implements Partitioner<Text, V> {
+	public void configure(JobConf job) {
+	}
+
+	public int getPartition(Text key, V value, int numPartitions) {
+		final long address = FastIPv4TextComparator.unpackFast(key.getBytes(), 0, key.getLength());
+		final int hash = (int) (address ^ (address >>> 32));
+		return (hash & Integer.MAX_VALUE) % numPartitions;
+	}
+}
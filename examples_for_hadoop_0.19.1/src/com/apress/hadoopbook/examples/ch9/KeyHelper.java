@@ -28,6 +28,12 @@ public interface KeyHelper<K> {
 	 */
 	public void setToRaw(K raw);
 	
+	/** Construct an empty key object of the type this helper packs and unpacks.
+	 * This is used to find the key class for a job, and to build output key objects.
+	 * @return a new key object.
+	 */
+	public K newRaw();
+	
 	/** Is the key a search request key
 	 * @return true if the key is a key to search for.
 	 */
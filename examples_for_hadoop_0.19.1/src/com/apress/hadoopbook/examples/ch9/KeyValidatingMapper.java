@@ -10,9 +10,9 @@ import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
-import org.apache.hadoop.util.ReflectionUtils;
 import org.apache.log4j.Logger;
 
+import com.apress.hadoopbook.utils.BatchedCounters;
 import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
 
 /** Perform simple validation on the keys.
@@ -22,26 +22,43 @@ import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
  * 
  * @author Jason
  *
+ * @param <K> The key class of the helper
  */
- class KeyValidatingMapper extends ExamplesMapReduceBase
-					implements Mapper<Text, Text, Text, Text> {
+ class KeyValidatingMapper<K> extends ExamplesMapReduceBase
+					implements Mapper<K, Text, K, Text> {
 	
 	 public static Logger LOG = Logger.getLogger(KeyValidatingMapper.class);
 	/** The key helper, this could be shared by all maps in the chain if we put them all in the same file
 	 * For clarity of code each is in a separate file. There are some interesting optimizations
 	 * that could be done if they shared variables.
 	 */
-	TextKeyHelperWithSeparators helper;
+	KeyHelper<K> helper;
 	
-	Text outputKey = new Text();
+	K outputKey;
 	Text outputValue = new Text();
 	
 		
+	/** The counters, registered in {@link #configure(JobConf)}. */
+	BatchedCounters.Handle invalidKeys;
+	BatchedCounters.Handle totalSearch;
+	BatchedCounters.Handle searchOutOfRange;
+	BatchedCounters.Handle totalSpace;
+	BatchedCounters.Handle spaceBeginOutOfRange;
+	BatchedCounters.Handle spaceEndOutOfRange;
+	BatchedCounters.Handle spaceOutOfOrder;
+
 	@Override
 	public void configure(JobConf job){
 		super.configure(job);
-		helper =  ReflectionUtils.newInstance(conf.getClass("range.key.helper", TextKeyHelperWithSeparators.class,
-                TextKeyHelperWithSeparators.class),conf); 
+		invalidKeys = counters.register("KeyvalidatingMapper", "INVALID KEYS");
+		totalSearch = counters.register("KeyValidatingMapper", "TOTAL SEARCH");
+		searchOutOfRange = counters.register("KeyValidatingMapper", "SEARCH OUT OF RANGE");
+		totalSpace = counters.register("KeyValidatingMapper", "TOTAL SPACE");
+		spaceBeginOutOfRange = counters.register("KeyValidatingMapper", "SPACE BEGIN OUT OF RANGE");
+		spaceEndOutOfRange = counters.register("KeyValidatingMapper", "SPACE END OUT OF RANGE");
+		spaceOutOfOrder = counters.register("KeyValidatingMapper", "SPACE OUT OF ORDER");
+		helper = AbstractKeyHelper.newKeyHelper(conf);
+		outputKey = helper.newRaw();
 	}
 
 
@@ -50,33 +67,34 @@ import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
 	 * @see org.apache.hadoop.mapred.Mapper#map(java.lang.Object, java.lang.Object, org.apache.hadoop.mapred.OutputCollector, org.apache.hadoop.mapred.Reporter)
 	 */
 	@Override
-	public void map(Text key, Text value, OutputCollector<Text, Text> output,
+	public void map(K key, Text value, OutputCollector<K, Text> output,
 			Reporter reporter) throws IOException {
 		try {
+			counters.record(reporter);
 			if (!helper.getFromRaw(key)) {
-				reporter.incrCounter("KeyvalidatingMapper", "INVALID KEYS", 1);
+				counters.incr(invalidKeys);
 				return;
 			}
 			if (helper.isSearchRequest()) {
-				reporter.incrCounter("KeyValidatingMapper", "TOTAL SEARCH", 1);
+				counters.incr(totalSearch);
 
 				if (helper.getSearchRequest()<0 || helper.getSearchRequest()>4294967296L) {
 					if (LOG.isDebugEnabled()) { LOG.debug("Search Key out of range [" + key + "]"); }
-					reporter.incrCounter("KeyValidatingMapper", "SEARCH OUT OF RANGE", 1);
+					counters.incr(searchOutOfRange);
 					return;
 				}
 				output.collect( key, value);
 				return;
 
 			} else {
-				reporter.incrCounter("KeyValidatingMapper", "TOTAL SPACE", 1);
+				counters.incr(totalSpace);
 
 				if (helper.getBeginRange()<0||helper.getBeginRange()>4294967296L) {
-					reporter.incrCounter("KeyValidatingMapper", "SPACE BEGIN OUT OF RANGE", 1);
+					counters.incr(spaceBeginOutOfRange);
 					return;
 				}
 				if (helper.getEndRange()<0||helper.getEndRange()>4294967296L) {
-					reporter.incrCounter("KeyValidatingMapper", "SPACE END OUT OF RANGE", 1);
+					counters.incr(spaceEndOutOfRange);
 					return;
 				}
 
@@ -86,7 +104,7 @@ import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
 					return;
 
 				} else {
-					reporter.incrCounter("KeyValidatingMapper", "SPACE OUT OF ORDER", 1);
+					counters.incr(spaceOutOfOrder);
 					long tmp = helper.getBeginRange();
 					helper.setBeginRange(helper.getEndRange());
 					helper.setEndRange(tmp);
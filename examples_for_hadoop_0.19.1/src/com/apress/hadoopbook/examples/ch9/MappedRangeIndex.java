@@ -0,0 +1,362 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import com.apress.hadoopbook.utils.Utils;
+
+/** A compact binary form of the search space that is memory mapped rather than parsed, so opening it costs page cache, not heap,
+ * and every task on a node shares the same pages.
+ *
+ * The file is big endian, as written by {@link java.io.DataOutputStream}:
+ * <ul>
+ * <li>The header, 6 ints, {@link #MAGIC}, the range count <i>n</i>, the owner count <i>m</i>, the length of the owner block,
+ * the elementary interval count <i>c</i> and the total length of the hit lists <i>h</i>.</li>
+ * <li>The begin column, <i>n</i> unsigned ints, sorted ascending, ties by end then owner.</li>
+ * <li>The end column, <i>n</i> unsigned ints.</li>
+ * <li>The owner column, <i>n</i> ints, the index of the owner of each range in the dictionary.</li>
+ * <li>The interval bounds, <i>c</i> unsigned ints, the first address of each elementary interval, as {@link SearchSpaceIndex.HitLists} cuts them.</li>
+ * <li>The list offsets, <i>c</i> + 1 ints, the hit list of interval <i>k</i> is the entries from offset <i>k</i> to offset <i>k</i> + 1 of the lists.</li>
+ * <li>The hit lists, <i>h</i> ints, the indices of the ranges covering each interval, ascending.</li>
+ * <li>The dictionary offsets, <i>m</i> + 1 ints, owner <i>i</i> is the bytes from offset <i>i</i> to offset <i>i</i> + 1 of the owner block.</li>
+ * <li>The owner block, the UTF-8 bytes of each distinct owner, once.</li>
+ * </ul>
+ *
+ * The reader holds {@link IntBuffer} views of the columns and searches them in place, no per range objects are created.
+ * A lookup binary searches the interval bounds and reads the hit list of the interval, O(log n + hits), however wide the ranges are.
+ * A single mapping is limited to 2GB, some tens of millions of ranges, fewer if the ranges overlap deeply.
+ *
+ * The instances are not thread safe, the hits of the last {@link #lookup(long)} are held in the object.
+ *
+ * @author Jason
+ *
+ */
+public class MappedRangeIndex implements RangeLookup {
+	/** Our logger. */
+	static Logger LOG = Logger.getLogger(MappedRangeIndex.class);
+
+	/** The first int of the file, <code>RIX2</code>. */
+	public static final int MAGIC = 0x52495832;
+	/** The number of bytes in the header. */
+	static final int HEADER_LENGTH = 24;
+
+	/** The mapped file. */
+	final MappedByteBuffer buffer;
+	/** The number of ranges. */
+	final int size;
+	final IntBuffer begins;
+	final IntBuffer ends;
+	final IntBuffer ownerIds;
+	/** The number of elementary intervals. */
+	final int intervalCount;
+	final IntBuffer bounds;
+	final IntBuffer listStarts;
+	final IntBuffer lists;
+	final IntBuffer ownerOffsets;
+	/** A view of the owner block, positioned for each owner read. */
+	final ByteBuffer owners;
+
+	/** The offset in {@link #lists} of the ranges found by the last {@link #lookup(long)} call. */
+	int hitOffset;
+	/** The bytes of the last owner read. */
+	byte[] ownerScratch = new byte[64];
+	/** The local copy made by {@link #open(Path, Configuration)}, deleted by {@link #close()}, null if the index was mapped in place. */
+	File copy;
+
+	/** Map <code>file</code>.
+	 *
+	 * @param file The local index file
+	 * @throws IOException if the file can not be mapped or is not an index
+	 */
+	public MappedRangeIndex(final File file) throws IOException {
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			final FileChannel channel = raf.getChannel();
+			/** The mapping stays valid after the channel is closed. */
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} finally {
+			raf.close();
+		}
+		if (buffer.limit() < HEADER_LENGTH || buffer.getInt(0) != MAGIC) {
+			throw new IOException(file + " is not a range index file");
+		}
+		size = buffer.getInt(4);
+		final int ownerCount = buffer.getInt(8);
+		final int ownerBytes = buffer.getInt(12);
+		intervalCount = buffer.getInt(16);
+		final int listLength = buffer.getInt(20);
+		final long expected = HEADER_LENGTH + 12L * size + 4L * (2 * intervalCount + 1) + 4L * listLength + 4L * (ownerCount + 1) + ownerBytes;
+		if (expected != buffer.limit()) {
+			throw new IOException(file + " is " + buffer.limit() + " bytes, the header describes " + expected + " bytes");
+		}
+		int position = HEADER_LENGTH;
+		begins = column(position, size);
+		position += 4 * size;
+		ends = column(position, size);
+		position += 4 * size;
+		ownerIds = column(position, size);
+		position += 4 * size;
+		bounds = column(position, intervalCount);
+		position += 4 * intervalCount;
+		listStarts = column(position, intervalCount + 1);
+		position += 4 * (intervalCount + 1);
+		lists = column(position, listLength);
+		position += 4 * listLength;
+		ownerOffsets = column(position, ownerCount + 1);
+		position += 4 * (ownerCount + 1);
+		buffer.position(position);
+		owners = buffer.slice();
+		buffer.position(0);
+	}
+
+	/** Map the index at <code>path</code>. A file that is not on the local file system is copied to a local temporary file first,
+	 * which {@link #close()} deletes.
+	 *
+	 * @param path The index file, usually a localized file from the distributed cache
+	 * @param conf The configuration to use for file system access
+	 * @return the mapped index
+	 * @throws IOException
+	 */
+	public static MappedRangeIndex open(final Path path, final Configuration conf) throws IOException {
+		final FileSystem fs = path.getFileSystem(conf);
+		if ("file".equals(fs.getUri().getScheme())) {
+			return new MappedRangeIndex(new File(fs.makeQualified(path).toUri().getPath()));
+		}
+		final File local = File.createTempFile(path.getName(), ".local");
+		LOG.warn("The range index " + path + " is not local, copying it to " + local);
+		boolean mapped = false;
+		try {
+			fs.copyToLocalFile(path, new Path(local.getAbsolutePath()));
+			final MappedRangeIndex index = new MappedRangeIndex(local);
+			index.copy = local;
+			mapped = true;
+			return index;
+		} finally {
+			if (!mapped && !local.delete()) {
+				LOG.warn("Unable to delete the local copy " + local + " of the range index " + path);
+			}
+		}
+	}
+
+	/** Delete the local copy of the index, if {@link #open(Path, Configuration)} made one. The index must not be used after this.
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() throws IOException {
+		if (copy != null) {
+			if (!copy.delete()) {
+				LOG.warn("Unable to delete the local copy " + copy + " of the range index");
+			}
+			copy = null;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.apress.hadoopbook.examples.ch9.RangeLookup#size()
+	 */
+	public int size() {
+		return size;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.apress.hadoopbook.examples.ch9.RangeLookup#lookup(long)
+	 */
+	public int lookup(final long address) {
+		/** Find the first interval that starts after the address, the one before it contains the address. */
+		int low = 0;
+		int high = intervalCount;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if ((bounds.get(mid) & 0xffffffffL) <= address) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		if (low == 0) {
+			hitOffset = 0;
+			return 0;
+		}
+		/** The list is in index order, as {@link SearchSpaceIndex} reports the hits. */
+		hitOffset = listStarts.get(low - 1);
+		return listStarts.get(low) - hitOffset;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.apress.hadoopbook.examples.ch9.RangeLookup#getHitBegin(int)
+	 */
+	public long getHitBegin(final int hit) {
+		return begins.get(lists.get(hitOffset + hit)) & 0xffffffffL;
+	}
+
+	/* (non-Javadoc)
+	 * @see com.apress.hadoopbook.examples.ch9.RangeLookup#getHitEnd(int)
+	 */
+	public long getHitEnd(final int hit) {
+		return ends.get(lists.get(hitOffset + hit)) & 0xffffffffL;
+	}
+
+	/** This decodes the owner, prefer {@link #getHitOwner(int, Text)}.
+	 *
+	 * @see com.apress.hadoopbook.examples.ch9.RangeLookup#getHitOwner(int)
+	 */
+	public String getHitOwner(final int hit) {
+		final int length = readOwner(hit);
+		try {
+			return Text.decode(ownerScratch, 0, length);
+		} catch (java.nio.charset.CharacterCodingException e) {
+			throw new IllegalStateException("Range index owner is not UTF-8", e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see com.apress.hadoopbook.examples.ch9.RangeLookup#getHitOwner(int, org.apache.hadoop.io.Text)
+	 */
+	public void getHitOwner(final int hit, final Text owner) {
+		final int length = readOwner(hit);
+		owner.set(ownerScratch, 0, length);
+	}
+
+	/** Copy the owner bytes of the <code>hit</code>th range into {@link #ownerScratch}.
+	 *
+	 * @return the length of the owner
+	 */
+	int readOwner(final int hit) {
+		final int owner = ownerIds.get(lists.get(hitOffset + hit));
+		final int offset = ownerOffsets.get(owner);
+		final int length = ownerOffsets.get(owner + 1) - offset;
+		if (length > ownerScratch.length) {
+			ownerScratch = new byte[Math.max(length, ownerScratch.length * 2)];
+		}
+		owners.position(offset);
+		owners.get(ownerScratch, 0, length);
+		return length;
+	}
+
+	private IntBuffer column(final int position, final int count) {
+		buffer.position(position);
+		final ByteBuffer slice = buffer.slice();
+		slice.limit(4 * count);
+		return slice.asIntBuffer();
+	}
+
+	/** Build a range index file from a set of search space inputs.
+	 *
+	 * @param inputs The search space files or directories, in any of the forms {@link SearchSpaceIndex#readEntries(Path, Configuration, List)} accepts
+	 * @param indexFile The file to write
+	 * @param conf The configuration to use for file system access and key parsing
+	 * @return The number of ranges written
+	 * @throws IOException
+	 */
+	public static int build(final Path[] inputs, final Path indexFile, final Configuration conf) throws IOException {
+		final ArrayList<SearchSpaceIndex.Entry> entries = new ArrayList<SearchSpaceIndex.Entry>();
+		int invalid = 0;
+		for (Path input : inputs) {
+			invalid += SearchSpaceIndex.readEntries(input, conf, entries);
+		}
+		if (invalid>0) {
+			LOG.warn("Skipped " + invalid + " invalid search space records");
+		}
+		Collections.sort(entries);
+		write(entries, indexFile, conf);
+		return entries.size();
+	}
+
+	/** Write <code>entries</code>, which must be sorted, as a range index file.
+	 *
+	 * @param entries The sorted ranges
+	 * @param indexFile The file to write
+	 * @param conf The configuration to use for file system access
+	 * @throws IOException
+	 */
+	static void write(final List<SearchSpaceIndex.Entry> entries, final Path indexFile, final Configuration conf) throws IOException {
+		final int size = entries.size();
+		/** Build the owner dictionary. */
+		final Map<String,Integer> dictionary = new HashMap<String,Integer>();
+		final List<byte[]> ownerBytes = new ArrayList<byte[]>();
+		final int[] ownerIds = new int[size];
+		long blockLength = 0;
+		for (int i = 0; i < size; i++) {
+			final String owner = entries.get(i).owner;
+			Integer id = dictionary.get(owner);
+			if (id == null) {
+				id = ownerBytes.size();
+				dictionary.put(owner, id);
+				final Text encoded = new Text(owner);
+				final byte[] bytes = new byte[encoded.getLength()];
+				System.arraycopy(encoded.getBytes(), 0, bytes, 0, bytes.length);
+				ownerBytes.add(bytes);
+				blockLength += bytes.length;
+			}
+			ownerIds[i] = id;
+		}
+		final long[] begins = new long[size];
+		final long[] ends = new long[size];
+		for (int i = 0; i < size; i++) {
+			begins[i] = entries.get(i).begin;
+			ends[i] = entries.get(i).end;
+		}
+		final SearchSpaceIndex.HitLists hitLists = new SearchSpaceIndex.HitLists(begins, ends, size);
+		final long fileLength = HEADER_LENGTH + 12L * size + 4L * (2 * hitLists.count + 1) + 4L * hitLists.length() + 4L * (ownerBytes.size() + 1) + blockLength;
+		if (fileLength > Integer.MAX_VALUE) {
+			throw new IOException("The range index would be " + fileLength + " bytes, more than can be mapped at once");
+		}
+
+		FSDataOutputStream out = null;
+		try {
+			out = indexFile.getFileSystem(conf).create(indexFile);
+			out.writeInt(MAGIC);
+			out.writeInt(size);
+			out.writeInt(ownerBytes.size());
+			out.writeInt((int) blockLength);
+			out.writeInt(hitLists.count);
+			out.writeInt(hitLists.length());
+			for (int i = 0; i < size; i++) {
+				out.writeInt((int) begins[i]);
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt((int) ends[i]);
+			}
+			for (int i = 0; i < size; i++) {
+				out.writeInt(ownerIds[i]);
+			}
+			for (int k = 0; k < hitLists.count; k++) {
+				out.writeInt((int) hitLists.bounds[k]);
+			}
+			for (int k = 0; k <= hitLists.count; k++) {
+				out.writeInt(hitLists.starts[k]);
+			}
+			for (int i = 0; i < hitLists.length(); i++) {
+				out.writeInt(hitLists.indices[i]);
+			}
+			int offset = 0;
+			for (byte[] bytes : ownerBytes) {
+				out.writeInt(offset);
+				offset += bytes.length;
+			}
+			out.writeInt(offset);
+			for (byte[] bytes : ownerBytes) {
+				out.write(bytes);
+			}
+		} finally {
+			Utils.closeIf(out);
+		}
+	}
+}
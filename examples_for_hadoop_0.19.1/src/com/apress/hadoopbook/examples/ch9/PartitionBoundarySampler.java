@@ -0,0 +1,443 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.InputFormat;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.log4j.Logger;
+
+import com.apress.hadoopbook.utils.Utils;
+
+/** Compute partition boundaries for {@link SimpleIPRangePartitioner} from a sample of the job input, in the spirit of
+ * {@link org.apache.hadoop.mapred.lib.InputSampler}, so that the reduces get a similar share of the work when the traffic
+ * is clustered in a few parts of the address space.
+ *
+ * Each sampled search request costs 1, and each search space range costs {@link #SPACE_WEIGHT}.
+ * The boundaries are first placed at the weighted quantiles of the sample. A search space range that crosses a boundary
+ * is replicated into the next partition by {@link SimpleIPRangePartitioner#spanSpaceKeys(PartitionedKeyHelper, Object, Text, org.apache.hadoop.mapred.OutputCollector, Reporter)},
+ * so each boundary is then moved, within {@link #BOUNDARY_SLACK} of a partition's share of the weight, to the sampled address that splits the fewest ranges.
+ *
+ * The boundaries are written one per line as <code>partitionEnd\testimatedLoad</code>, with the end in the 8 digit hex form,
+ * and are loaded by {@link SimpleIPRangePartitioner#configure(JobConf)} when {@link SimpleIPRangePartitioner#PARTITION_FILE} is set.
+ * The estimated load is the sampled weight that will land in the partition, including the replicated ranges.
+ *
+ * A single address can not be split by a boundary, so {@link #findHotAddresses(int, float, int)} picks out the addresses
+ * that are too heavy for one reduce, to be salted across several reduces by {@link HotAddresses}.
+ *
+ * @author Jason
+ *
+ */
+public class PartitionBoundarySampler {
+	/** Our logger. */
+	static Logger LOG = Logger.getLogger(PartitionBoundarySampler.class);
+
+	/** The configuration key for the maximum number of search requests to sample, default 100000. */
+	public static final String SAMPLE_SIZE = "examples.ch9.partition.sample.size";
+	/** The configuration key for the probability that a record is kept in the sample, default 0.1. */
+	public static final String SAMPLE_FREQUENCY = "examples.ch9.partition.sample.frequency";
+	/** The configuration key for the maximum number of input splits to read, default 100. */
+	public static final String SAMPLE_SPLITS = "examples.ch9.partition.sample.splits";
+	/** The configuration key for the cost of a search space range relative to a search request, default 1.0. */
+	public static final String SPACE_WEIGHT = "examples.ch9.partition.space.weight";
+	/** The configuration key for the fraction of a partition's share that a boundary may move to avoid splitting ranges, default 0.1. */
+	public static final String BOUNDARY_SLACK = "examples.ch9.partition.boundary.slack";
+
+	/** The fewest sampled requests that can make an address hot, so that a small sample does not salt noise. */
+	static final int MIN_HOT_SAMPLES = 10;
+
+	/** The last address in the IPv4 space, the end of the last partition. */
+	static final long LAST_ADDRESS = 4294967295L;
+
+	/** The sampled search request addresses, the first {@link #requestCount} are valid. */
+	long[] requests = new long[1024];
+	int requestCount;
+	/** The sampled search space ranges, the first {@link #spaceCount} are valid. */
+	long[] spaceBegins = new long[1024];
+	long[] spaceEnds = new long[1024];
+	int spaceCount;
+
+	/** The cost of a search space range relative to a search request. */
+	float spaceWeight;
+	/** The fraction of a partition's share that a boundary may be moved. */
+	float slack;
+
+	/** Used to classify the sampled records. */
+	final TextKeyHelperWithSeparators helper;
+
+	/** Construct an empty sampler, the weights are taken from <code>conf</code>.
+	 * @param conf The configuration
+	 */
+	public PartitionBoundarySampler(final Configuration conf) {
+		helper = new TextKeyHelperWithSeparators(conf);
+		spaceWeight = conf.getFloat(SPACE_WEIGHT, 1.0f);
+		slack = conf.getFloat(BOUNDARY_SLACK, 0.1f);
+	}
+
+	/** Add a search request address to the sample. */
+	public void addRequest(final long address) {
+		if (requestCount == requests.length) {
+			requests = Arrays.copyOf(requests, requests.length * 2);
+		}
+		requests[requestCount++] = address;
+	}
+
+	/** Add a search space range to the sample. */
+	public void addSpace(final long begin, final long end) {
+		if (spaceCount == spaceBegins.length) {
+			spaceBegins = Arrays.copyOf(spaceBegins, spaceBegins.length * 2);
+			spaceEnds = Arrays.copyOf(spaceEnds, spaceEnds.length * 2);
+		}
+		spaceBegins[spaceCount] = begin;
+		spaceEnds[spaceCount++] = end;
+	}
+
+	/** @return the number of sampled search requests. */
+	public int getRequestCount() {
+		return requestCount;
+	}
+
+	/** @return the number of sampled search space ranges. */
+	public int getSpaceCount() {
+		return spaceCount;
+	}
+
+	/** Classify an input record the way {@link ApacheLogTransformMapper} does and add it to the sample.
+	 * Prepared keys are added as requests or ranges, anything else is treated as a log line that starts with an address.
+	 *
+	 * @param key The record key
+	 * @return true if the record was added.
+	 */
+	public boolean add(final Text key) {
+		if (helper.getFromRaw(key)) {
+			if (helper.isSearchSpace()) {
+				addSpace(helper.getBeginRange(), helper.getEndRange());
+			} else {
+				addRequest(helper.getSearchRequest());
+			}
+			return true;
+		}
+		final String line = key.toString();
+		final int indexOfSpace = line.indexOf(' ');
+		final long address = AbstractKeyHelper.addrToLong(indexOfSpace < 0 ? line : line.substring(0, indexOfSpace));
+		if (address < 0 || address > LAST_ADDRESS) {
+			return false;
+		}
+		addRequest(address);
+		return true;
+	}
+
+	/** Sample the input of <code>job</code>, which must produce {@link Text} keys.
+	 *
+	 * Up to {@link #SAMPLE_SPLITS} splits, evenly spaced through the split list, are read and each record is kept with probability {@link #SAMPLE_FREQUENCY}
+	 * until {@link #SAMPLE_SIZE} records have been kept.
+	 *
+	 * @param job The job, with the input paths and input format set
+	 * @return The number of records kept
+	 * @throws IOException
+	 */
+	@SuppressWarnings("unchecked")
+	public int sample(final JobConf job) throws IOException {
+		final int sampleSize = job.getInt(SAMPLE_SIZE, 100000);
+		final float frequency = job.getFloat(SAMPLE_FREQUENCY, 0.1f);
+		final int maxSplits = job.getInt(SAMPLE_SPLITS, 100);
+		final InputFormat<Text, Text> inputFormat = job.getInputFormat();
+		final InputSplit[] splits = inputFormat.getSplits(job, job.getNumMapTasks());
+		final int splitsToSample = Math.min(maxSplits, splits.length);
+		final int perSplit = Math.max(1, sampleSize / Math.max(1, splitsToSample));
+		final Random random = new Random(0x5eed);	/** A fixed seed, so the same input gives the same boundaries. */
+		int kept = 0;
+		for (int i = 0; i < splitsToSample && kept < sampleSize; i++) {
+			final InputSplit split = splits[(int) ((long) i * splits.length / splitsToSample)];
+			final RecordReader<Text, Text> reader = inputFormat.getRecordReader(split, job, Reporter.NULL);
+			try {
+				final Text key = reader.createKey();
+				final Text value = reader.createValue();
+				int keptFromSplit = 0;
+				while (keptFromSplit < perSplit && kept < sampleSize && reader.next(key, value)) {
+					if (random.nextFloat() < frequency && add(key)) {
+						keptFromSplit++;
+						kept++;
+					}
+				}
+			} finally {
+				reader.close();
+			}
+		}
+		return kept;
+	}
+
+	/** Add every range in the search space files, which are expected to be small enough to read in full.
+	 *
+	 * @param paths The search space files or directories
+	 * @param conf The configuration to use
+	 * @return The number of ranges added
+	 * @throws IOException
+	 */
+	public int addSearchSpace(final Path[] paths, final Configuration conf) throws IOException {
+		final ArrayList<SearchSpaceIndex.Entry> entries = new ArrayList<SearchSpaceIndex.Entry>();
+		for (Path path : paths) {
+			SearchSpaceIndex.readEntries(path, conf, entries);
+		}
+		for (SearchSpaceIndex.Entry entry : entries) {
+			addSpace(entry.begin, entry.end);
+		}
+		return entries.size();
+	}
+
+	/** The number of sampled ranges that a boundary at <code>end</code> would split, ranges that begin at or before
+	 * the boundary and end after it. <code>sortedBegins</code> and <code>sortedEnds</code> must be sorted.
+	 */
+	static int crossing(final long end, final long[] sortedBegins, final long[] sortedEnds) {
+		return upperBound(sortedBegins, end) - upperBound(sortedEnds, end);
+	}
+
+	/** @return the number of elements of the sorted array <code>values</code> that are less than or equal to <code>value</code>. */
+	static int upperBound(final long[] values, final long value) {
+		int low = 0;
+		int high = values.length;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (values[mid] <= value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/** Compute the partition ends for <code>numPartitions</code> partitions.
+	 *
+	 * @param numPartitions The number of partitions, the number of reduces
+	 * @return The last address of each partition, ascending, the last is always 255.255.255.255.
+	 */
+	public long[] computeBoundaries(final int numPartitions) {
+		final long[] ends = new long[numPartitions];
+		ends[numPartitions - 1] = LAST_ADDRESS;
+		if (numPartitions == 1) {
+			return ends;
+		}
+		final long[] sortedRequests = Arrays.copyOf(requests, requestCount);
+		Arrays.sort(sortedRequests);
+		final long[] sortedBegins = Arrays.copyOf(spaceBegins, spaceCount);
+		Arrays.sort(sortedBegins);
+		final long[] sortedEnds = Arrays.copyOf(spaceEnds, spaceCount);
+		Arrays.sort(sortedEnds);
+
+		/** Merge the weighted points into distinct addresses with the cumulative weight at or below each address. */
+		final long[] addresses = new long[requestCount + spaceCount];
+		final double[] cumulative = new double[requestCount + spaceCount];
+		int distinct = 0;
+		double total = 0;
+		for (int r = 0, s = 0; r < requestCount || s < spaceCount;) {
+			final long address;
+			if (s >= spaceCount || (r < requestCount && sortedRequests[r] <= sortedBegins[s])) {
+				address = sortedRequests[r++];
+				total += 1;
+			} else {
+				address = sortedBegins[s++];
+				total += spaceWeight;
+			}
+			if (distinct > 0 && addresses[distinct - 1] == address) {
+				cumulative[distinct - 1] = total;
+			} else {
+				addresses[distinct] = address;
+				cumulative[distinct++] = total;
+			}
+		}
+
+		final double share = total / numPartitions;
+		long previous = -1;
+		for (int k = 1; k < numPartitions; k++) {
+			final double goal = share * k;
+			/** The first address that reaches the goal is always a candidate, as are the addresses within the slack either side of the goal. */
+			final int first = Math.min(firstAtOrAbove(cumulative, distinct, goal), distinct - 1);
+			int best = -1;
+			int bestCrossing = Integer.MAX_VALUE;
+			double bestDistance = Double.MAX_VALUE;
+			for (int i = firstAtOrAbove(cumulative, distinct, goal - slack * share); i < distinct && (i <= first || cumulative[i] <= goal + slack * share); i++) {
+				if (addresses[i] <= previous || addresses[i] >= LAST_ADDRESS) {
+					continue;
+				}
+				final int crossing = crossing(addresses[i], sortedBegins, sortedEnds);
+				final double distance = Math.abs(cumulative[i] - goal);
+				if (crossing < bestCrossing || (crossing == bestCrossing && distance < bestDistance)) {
+					best = i;
+					bestCrossing = crossing;
+					bestDistance = distance;
+				}
+			}
+			final long end;
+			if (best >= 0) {
+				end = addresses[best];
+			} else {
+				/** Not enough distinct sample points, split the remaining space evenly. */
+				end = previous + (LAST_ADDRESS - previous) / (numPartitions - k + 1);
+			}
+			ends[k - 1] = end;
+			previous = end;
+		}
+		return ends;
+	}
+
+	/** @return the index of the first of the <code>count</code> ascending <code>values</code> that is at or above <code>value</code>, or <code>count</code> if there is none. */
+	static int firstAtOrAbove(final double[] values, final int count, final double value) {
+		int low = 0;
+		int high = count;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (values[mid] < value) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/** Find the sampled search request addresses that carry more than <code>hotShare</code> of a partition's share of the sampled weight.
+	 * Each is given the fan-out that brings the share of each of its partitions back under <code>hotShare</code>, limited to
+	 * <code>maxFanout</code>. The search space ranges are not added, see {@link HotAddresses#addRanges(Path[], Configuration)}.
+	 *
+	 * @param numPartitions The number of partitions, the number of reduces
+	 * @param hotShare The fraction of a partition's share above which an address is hot
+	 * @param maxFanout The most partitions an address is salted across, 0 for <code>numPartitions</code>
+	 * @return The hot addresses, empty if there is only one partition
+	 */
+	public HotAddresses findHotAddresses(final int numPartitions, final float hotShare, final int maxFanout) {
+		final HotAddresses hot = new HotAddresses();
+		final int fanoutLimit = maxFanout > 0 ? Math.min(maxFanout, numPartitions) : numPartitions;
+		if (fanoutLimit < 2 || requestCount == 0) {
+			return hot;
+		}
+		final double limit = hotShare * (requestCount + spaceCount * (double) spaceWeight) / numPartitions;
+		final long[] sortedRequests = Arrays.copyOf(requests, requestCount);
+		Arrays.sort(sortedRequests);
+		for (int i = 0; i < requestCount;) {
+			int run = i + 1;
+			while (run < requestCount && sortedRequests[run] == sortedRequests[i]) {
+				run++;
+			}
+			final int samples = run - i;
+			if (samples >= MIN_HOT_SAMPLES && samples > limit) {
+				hot.add(sortedRequests[i], (int) Math.min(fanoutLimit, Math.ceil(samples / limit)), samples);
+			}
+			i = run;
+		}
+		return hot;
+	}
+
+	/** Estimate the sampled weight that lands in each partition, including the ranges that are replicated into more than one partition.
+	 *
+	 * @param ends The partition ends
+	 * @return The estimated weight for each partition
+	 */
+	public double[] estimateLoads(final long[] ends) {
+		final double[] loads = new double[ends.length];
+		for (int i = 0; i < requestCount; i++) {
+			loads[partitionFor(ends, requests[i])] += 1;
+		}
+		for (int i = 0; i < spaceCount; i++) {
+			final int last = partitionFor(ends, spaceEnds[i]);
+			for (int p = partitionFor(ends, spaceBegins[i]); p <= last; p++) {
+				loads[p] += spaceWeight;
+			}
+		}
+		return loads;
+	}
+
+	/** @return the partition that <code>address</code> falls in, the first partition whose end is at or after the address. */
+	static int partitionFor(final long[] ends, final long address) {
+		int low = 0;
+		int high = ends.length - 1;
+		while (low < high) {
+			final int mid = (low + high) >>> 1;
+			if (ends[mid] < address) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+
+	/** Write a boundaries file.
+	 *
+	 * @param path The file to write
+	 * @param conf The configuration to use
+	 * @param ends The partition ends
+	 * @param loads The estimated loads, may be null
+	 * @throws IOException
+	 */
+	public static void writeBoundaries(final Path path, final Configuration conf, final long[] ends, final double[] loads) throws IOException {
+		FSDataOutputStream out = null;
+		try {
+			out = path.getFileSystem(conf).create(path);
+			final Writer writer = new OutputStreamWriter(out, "UTF-8");
+			for (int i = 0; i < ends.length; i++) {
+				writer.write(String.format("%08x\t%.1f\n", ends[i], loads == null ? 0.0 : loads[i]));
+			}
+			writer.flush();
+		} finally {
+			Utils.closeIf(out);
+		}
+	}
+
+	/** Read a boundaries file written by {@link #writeBoundaries(Path, Configuration, long[], double[])}.
+	 *
+	 * @param path The file to read
+	 * @param conf The configuration to use
+	 * @return The partition ends
+	 * @throws IOException if the file can not be read or the ends are not ascending and do not finish at 255.255.255.255
+	 */
+	public static long[] readBoundaries(final Path path, final Configuration conf) throws IOException {
+		final FileSystem fs = path.getFileSystem(conf);
+		long[] ends = new long[16];
+		int count = 0;
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(fs.open(path), "UTF-8"));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (line.length() == 0) {
+					continue;
+				}
+				final int tab = line.indexOf('\t');
+				final long end;
+				try {
+					end = Long.parseLong(tab < 0 ? line : line.substring(0, tab), 16);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid partition boundary [" + line + "] in " + path, e);
+				}
+				if (count > 0 && end <= ends[count - 1]) {
+					throw new IOException(String.format("Partition boundary %08x in %s is not after %08x", end, path, ends[count - 1]));
+				}
+				if (count == ends.length) {
+					ends = Arrays.copyOf(ends, ends.length * 2);
+				}
+				ends[count++] = end;
+			}
+		} finally {
+			Utils.closeIf(in);
+		}
+		if (count == 0 || ends[count - 1] != LAST_ADDRESS) {
+			throw new IOException("The partition boundaries in " + path + " do not end at ffffffff");
+		}
+		return Arrays.copyOf(ends, count);
+	}
+}
@@ -0,0 +1,43 @@
+package com.apress.hadoopbook.examples.ch9;
+
+/** A {@link KeyHelper} for search space keys that have been spanned across partitions by
+ * {@link SimpleIPRangePartitioner#spanSpaceKeys(PartitionedKeyHelper, Object, org.apache.hadoop.io.Text, org.apache.hadoop.mapred.OutputCollector, org.apache.hadoop.mapred.Reporter)}.
+ *
+ * A spanned key carries the portion of the range that falls in one partition as the begin and end range,
+ * and the original range of the search space record as the real range.
+ *
+ * @author Jason
+ *
+ * @param <K>
+ */
+public interface PartitionedKeyHelper<K> extends KeyHelper<K> {
+	/**
+	 * @return the begin address of the original search space record.
+	 */
+	public long getRealRangeBegin();
+
+	/** Set the begin address of the original search space record, this marks the key as having a real range.
+	 * @param realRangeBegin
+	 */
+	public void setRealRangeBegin(long realRangeBegin);
+
+	/**
+	 * @return the end address of the original search space record.
+	 */
+	public long getRealRangeEnd();
+
+	/** Set the end address of the original search space record, this marks the key as having a real range.
+	 * @param realRangeEnd
+	 */
+	public void setRealRangeEnd(long realRangeEnd);
+
+	/**
+	 * @return true if the real range values are valid for this key.
+	 */
+	public boolean isHasRealRange();
+
+	/**
+	 * @param hasRealRange true if the real range values are valid for this key.
+	 */
+	public void setHasRealRange(boolean hasRealRange);
+}
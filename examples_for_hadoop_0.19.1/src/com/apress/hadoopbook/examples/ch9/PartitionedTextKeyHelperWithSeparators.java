@@ -11,7 +11,7 @@ import org.apache.hadoop.io.Text;
  * @author Jason
  *
  */
-public class PartitionedTextKeyHelperWithSeparators extends TextKeyHelperWithSeparators {
+public class PartitionedTextKeyHelperWithSeparators extends TextKeyHelperWithSeparators implements PartitionedKeyHelper<Text> {
 	
 	protected long realRangeBegin;
 	protected long realRangeEnd;
@@ -162,27 +162,17 @@ public class PartitionedTextKeyHelperWithSeparators extends TextKeyHelperWithSep
 	}
 
 	
-	/** convert 8 bytes of hex characters into a long.
-	 * This could be much simpler if we were willing to build a 256 element table for each hex byte. 
+	/** convert 8 bytes of hex characters into a long, via the {@link HexAddressCodec} lookup table.
 	 * @param rawBytes The byte array, which must have at least be <code>start + 8</code> bytes in length
 	 * @param start The start point.
 	 * @return
 	 */
 	public static long unpack(byte[] rawBytes, int start) {
-		final long a = Character.digit( rawBytes[start]  , 16 );
-		final long b = Character.digit( rawBytes[start+1], 16 );
-		final long c = Character.digit( rawBytes[start+2], 16 );
-		final long d = Character.digit( rawBytes[start+3], 16 );
-		final long e = Character.digit( rawBytes[start+4], 16 );
-		final long f = Character.digit( rawBytes[start+5], 16 );
-		final long g = Character.digit( rawBytes[start+6], 16 );
-		final long h = Character.digit( rawBytes[start+7], 16 );
-		if (a < 0 || b < 0 || c < 0	|| d < 0
-				|| e < 0 ||	f < 0 || g < 0 || h < 0
-				) {
+		final long address = HexAddressCodec.unpack(rawBytes, start);
+		if (address < 0) {
 			throw new NumberFormatException( "Unable to parse " + new String( rawBytes) + " as a hexadecimal number");
 		}
-		return a << 28 | b << 24 | c << 20 | d << 16 | e << 12 | f << 8 | g << 4 | h;
+		return address;
 	}
 
 	/** Verify that the byte sequence starting at <code>start is identical to the rangeSeparator.
@@ -215,6 +205,17 @@ public class PartitionedTextKeyHelperWithSeparators extends TextKeyHelperWithSep
 			super.setToRaw(raw);
 			return;
 		}
+		if (rangeSeparatorByteLength==1) {
+			int length = HexAddressCodec.pack(beginRangeOrKey, rawScratch, 0);
+			rawScratch[length++] = rangeSeparatorByte;
+			length = HexAddressCodec.pack(endRange, rawScratch, length);
+			rawScratch[length++] = rangeSeparatorByte;
+			length = HexAddressCodec.pack(realRangeBegin, rawScratch, length);
+			rawScratch[length++] = rangeSeparatorByte;
+			length = HexAddressCodec.pack(realRangeEnd, rawScratch, length);
+			raw.set(rawScratch, 0, length);
+			return;
+		}
 		Formatter fmt = keyFormatter.get();
 		fmt.flush();
 		StringBuilder sb = keyBuilder.get();
@@ -0,0 +1,42 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.Closeable;
+
+import org.apache.hadoop.io.Text;
+
+/** A read only set of search space ranges that can be searched for the ranges containing an address.
+ *
+ * The hits of the last {@link #lookup(long)} are held in the object, so the implementations are not thread safe.
+ * {@link SearchSpaceIndex} parses the ranges onto the heap, {@link MappedRangeIndex} reads them from a memory mapped file.
+ * {@link #close()} releases any files the lookup holds.
+ *
+ * @author Jason
+ *
+ */
+public interface RangeLookup extends Closeable {
+	/** @return the number of ranges. */
+	public int size();
+
+	/** Find all of the ranges that contain <code>address</code>.
+	 *
+	 * @param address The address to look up
+	 * @return the number of ranges that contain the address, ordered by begin then end.
+	 */
+	public int lookup(long address);
+
+	/** @return the begin address of the <code>hit</code>th range found by the last {@link #lookup(long)}. */
+	public long getHitBegin(int hit);
+
+	/** @return the end address of the <code>hit</code>th range found by the last {@link #lookup(long)}. */
+	public long getHitEnd(int hit);
+
+	/** @return the owner of the <code>hit</code>th range found by the last {@link #lookup(long)}. */
+	public String getHitOwner(int hit);
+
+	/** Set <code>owner</code> to the owner of the <code>hit</code>th range found by the last {@link #lookup(long)}.
+	 *
+	 * @param hit The hit
+	 * @param owner The Text to set
+	 */
+	public void getHitOwner(int hit, Text owner);
+}
@@ -8,19 +8,30 @@ import org.apache.hadoop.mapred.Mapper;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
 
+import com.apress.hadoopbook.utils.BatchedCounters;
 import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
 
-/** A mapper that handles producing a set of keys that span all of the partitions that the range of an incoming search space key covers. */
-public class RangePartitionTransformingMapper extends ExamplesMapReduceBase implements Mapper<Text,Text,Text,Text>{
+/** A mapper that handles producing a set of keys that span all of the partitions that the range of an incoming search space key covers.
+ * 
+ * The key helper is the <code>range.key.helper</code> if it is a {@link PartitionedKeyHelper}, otherwise {@link PartitionedTextKeyHelperWithSeparators}.
+ * 
+ * @param <K> The key class of the helper
+ */
+public class RangePartitionTransformingMapper<K> extends ExamplesMapReduceBase implements Mapper<K,Text,K,Text>{
 	/** The key parsing helper for handling keys that may have a span range and a real range. */
-	PartitionedTextKeyHelperWithSeparators helper;
+	PartitionedKeyHelper<K> helper;
 	/** New keys are generated and this object is used for their construction. */
-	Text outputKey = new Text();
-	/** The partitioner actually has the {@link SimpleIPRangePartitioner#spanSpaceKeys(PartitionedTextKeyHelperWithSeparators, Text, Text, OutputCollector, Reporter)} method.
+	K outputKey;
+	/** The partitioner actually has the {@link SimpleIPRangePartitioner#spanSpaceKeys(PartitionedKeyHelper, Object, Text, OutputCollector, Reporter)} method.
 	 * 
 	 */
-	SimpleIPRangePartitioner partitioner;
+	SimpleIPRangePartitioner<K> partitioner;
 	
+	/** The counters, registered in {@link #configure(JobConf)}. */
+	BatchedCounters.Handle inputKeys;
+	BatchedCounters.Handle invalidKeys;
+	BatchedCounters.Handle requestKeys;
+
 	/** For each incoming key that is a search space key, output N key each output key covers the area that the input key covers
 	 * in the range of the each partition.
 	 * 
@@ -35,21 +46,22 @@ public class RangePartitionTransformingMapper extends ExamplesMapReduceBase impl
 	 * </ul>
 	 */
 	@Override
-	public void map(Text key, Text value,
-			OutputCollector<Text, Text> output, Reporter reporter)
+	public void map(K key, Text value,
+			OutputCollector<K, Text> output, Reporter reporter)
 			throws IOException {
 		try {
-			reporter.incrCounter("RangePartitionTransformingMapper", "INPUT KEYS", 1);
+			counters.record(reporter);
+			counters.incr(inputKeys);
 			if (!helper.getFromRaw(key)) {
-				reporter.incrCounter("RangePartitionTransformingMapper", "Invalid Keys", 1);
+				counters.incr(invalidKeys);
 				return;
 			}
 			if (helper.isSearchRequest()) {
 				output.collect(key, value);
-				reporter.incrCounter("RangePartitionTransformingMapper", "Request Keys", 1);
+				counters.incr(requestKeys);
 				return;
 			}
-			partitioner.spanSpaceKeys(helper, outputKey, value, output, reporter);
+			partitioner.spanSpaceKeys(helper, outputKey, value, output, counters.wrap(reporter));
 		} catch( Throwable e) {
 			throwsIOExcepction( reporter, "RangePartitionTransformingMapper", e);
 		}
@@ -63,8 +75,12 @@ public class RangePartitionTransformingMapper extends ExamplesMapReduceBase impl
 	@Override
 	public void configure(JobConf job) {
 		super.configure(job);
-		helper = new PartitionedTextKeyHelperWithSeparators(conf);
-		partitioner = new SimpleIPRangePartitioner();
+		inputKeys = counters.register("RangePartitionTransformingMapper", "INPUT KEYS");
+		invalidKeys = counters.register("RangePartitionTransformingMapper", "Invalid Keys");
+		requestKeys = counters.register("RangePartitionTransformingMapper", "Request Keys");
+		helper = AbstractKeyHelper.newPartitionedKeyHelper(conf);
+		outputKey = helper.newRaw();
+		partitioner = new SimpleIPRangePartitioner<K>();
 		partitioner.configure(conf);
 	}
 
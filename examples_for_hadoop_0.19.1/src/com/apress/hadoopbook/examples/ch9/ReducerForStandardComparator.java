@@ -4,7 +4,6 @@
 package com.apress.hadoopbook.examples.ch9;
 
 import java.io.IOException;
-import java.util.Formatter;
 import java.util.Iterator;
 
 import org.apache.hadoop.io.Text;
@@ -12,80 +11,123 @@ import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reducer;
 import org.apache.hadoop.mapred.Reporter;
-import org.apache.hadoop.util.ReflectionUtils;
 
-import com.apress.hadoopbook.examples.ch9.ActiveRanges.Range;
+import com.apress.hadoopbook.utils.BatchedCounters;
 import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
 
 /** Simple reducer for merging keys with ranges.
  * 
  * The key helper defaults to {@link TextKeyHelperWithSeparators} and the configuration key <code>range.key.helper</code> is used
  * to lookup the key helper.
+ * 
+ * If {@link HotAddresses#HOT_FILE} is set, the search requests for a hot address may arrive at any of the reduces it is salted across,
+ * outside of the address span of the partition, so they are joined against the ranges in the {@link HotAddresses} file rather than
+ * the active ranges. Those are the ranges that would be active for the address, so the output is the same.
  * @author Jason
  *
+ * @param <K> The key class of the helper
  */
-public class ReducerForStandardComparator extends ExamplesMapReduceBase implements Reducer<Text, Text, Text, Text> {
+public class ReducerForStandardComparator<K> extends ExamplesMapReduceBase implements Reducer<K, Text, Text, Text> {
 
 	/** The end helper, this could be shared by all maps in the chain if we put them all in the same file
 	 * For clarity of code each is in a separate file. There are some interesting optimizations
 	 * that could be done if they shared variables.
 	 */
-	TextKeyHelperWithSeparators helper;
+	KeyHelper<K> helper;
 
 	Text outputKey = new Text();
 	Text outputValue = new Text();
 
+	/** Saved for {@link #close()}, the task may not see any keys. */
+	Reporter lastReporter;
+
+	/** The counter name for the records this reduce receives, so the balance of the partitions can be checked. */
+	String partitionCounter;
+
+	/** The counters, registered in {@link #configure(JobConf)}. */
+	BatchedCounters.Handle totalKeys;
+	BatchedCounters.Handle badKeys;
+	BatchedCounters.Handle spaceKeys;
+	BatchedCounters.Handle spaceValues;
+	BatchedCounters.Handle partitionBalance;
+	BatchedCounters.Handle saltedRequests;
+
+	/** The addresses salted across several reduces, null if there are none. */
+	HotAddresses hotAddresses;
+
 	@Override
 	public void configure(JobConf job){
 		super.configure(job);
-		helper =  ReflectionUtils.newInstance(conf.getClass("range.key.helper", TextKeyHelperWithSeparators.class,
-                TextKeyHelperWithSeparators.class),conf); 
+		totalKeys = counters.register("ReducerForStandardComparator", "TOTAL KEYS");
+		badKeys = counters.register("ReducerForStandardComparator", "BAD KEYS");
+		spaceKeys = counters.register("ReducerForStandardComparator", "SPACE KEYS");
+		spaceValues = counters.register("ReducerForStandardComparator", "SPACE VALUES");
+		helper = AbstractKeyHelper.newKeyHelper(conf);
+		partitionCounter = "Partition " + conf.getInt("mapred.task.partition", 0);
+		partitionBalance = counters.register("PartitionBalance", partitionCounter);
+		saltedRequests = counters.register("ReducerForStandardComparator", "SALTED REQUESTS");
+		hotAddresses = HotAddresses.load(conf);
 	}
 
 
 
 	/** Keep track of the active ranges in a way that minimizes object churn. */
 	ActiveRanges activeRanges = new ActiveRanges();
+	/** The ranges the current search request hits, {@link #activeRanges} or the ranges of a hot address. */
+	ActiveRanges hitRanges = activeRanges;
 
 
 	@Override
-	public void reduce(Text key, Iterator<Text> values,
+	public void reduce(K key, Iterator<Text> values,
 			OutputCollector<Text, Text> output, Reporter reporter)
 	throws IOException {
 		try {
-			reporter.incrCounter("ReducerForStandardComparator", "TOTAL KEYS", 1);
+			lastReporter = reporter;
+			counters.record(reporter);
+			counters.incr(totalKeys);
 			if (!helper.getFromRaw(key)) {
-				reporter.incrCounter("ReducerForStandardComparator", "BAD KEYS", 1);
+				counters.incr(badKeys);
 				return;
 			}
 
 			if (helper.isSearchSpace()) {
-				reporter.incrCounter("ReducerForStandardComparator", "SPACE KEYS", 1);
+				counters.incr(spaceKeys);
 
 				/** For simplicity, put all of the values in. */
 				while (values.hasNext()) {
 					final Text value = values.next();
-					reporter.incrCounter("ReducerForStandardComparator", "SPACE VALUES", 1);
-					activeRanges.activate( reporter, "ReducerForStandardComparator", helper, value.toString());
+					counters.incr(spaceValues);
+					counters.incr(partitionBalance);
+					activeRanges.activate( helper, value);
 				}
 				return;
 			}
 
 			if (helper.isSearchRequest()) {
-				/** First, lets prune the activeRanges. */
 				final long searchRequest = helper.getSearchRequest();
-				activeRanges.deactivate(searchRequest);
+				final int hot = hotAddresses==null ? -1 : hotAddresses.indexOf(searchRequest);
+				if (hot>=0) {
+					/** A salted request, the active ranges may not cover it, the hot address file has the ranges that contain it. */
+					hitRanges = hotAddresses.getRanges(hot);
+				} else {
+					/** First, lets prune the activeRanges. */
+					activeRanges.deactivate(searchRequest);
+					hitRanges = activeRanges;
+				}
 
-				/** Because the ranges are removed when their end is less than end,
-				 * and because keys are always sorted after the begin of a range
+				/** Because the ranges are removed when their end is less than the search request,
+				 * and because search request keys always sort after the begin of a range,
 				 * all active ranges are now 'hits' for this search request.
 				 */
-				int max = activeRanges.size();
+				int max = hitRanges.size();
 				while (values.hasNext()) {
 					final Text value = values.next();
+					counters.incr(partitionBalance);
+					if (hot>=0) {
+						counters.incr(saltedRequests);
+					}
 					for (int i = 0; i < max; i++) {
-						ActiveRanges.Range<String> hit = activeRanges.get(i);
-						handleHit( key, output, reporter, value, hit);
+						handleHit( key, output, reporter, value, i);
 					}
 				}
 
@@ -98,19 +140,50 @@ public class ReducerForStandardComparator extends ExamplesMapReduceBase implemen
 
 	}
 
-	StringBuilder sb = new StringBuilder();
-	Formatter fmt = new Formatter(sb);
-	protected void handleHit(Text key,
-			OutputCollector<Text, Text> output, Reporter reporter, Text value, Range<String> hit) throws IOException {
+	/** Report the active range gauges for this task.
+	 * 
+	 * @see com.apress.hadoopbook.utils.ExamplesMapReduceBase#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		if (lastReporter!=null) {
+			activeRanges.reportGauges(lastReporter, "ReducerForStandardComparator");
+		}
+		super.close();
+	}
+
+	/** The key bytes, room for 3 hex addresses and 2 tabs. */
+	byte[] keyScratch = new byte[3 * HexAddressCodec.ADDRESS_LENGTH + 2];
+
+	/** The tab between the range owner and the log line. */
+	static final byte[] TAB = { '\t' };
+
+	/** Output the search request address, the range, the range owner and the log line.
+	 * The search request is taken from {@link #helper}, which must hold the parsed <code>key</code>.
+	 * <code>hit</code> is the position of the range in {@link #hitRanges}.
+	 */
+	protected void handleHit(K key,
+			OutputCollector<Text, Text> output, Reporter reporter, Text value, int hit) throws IOException {
 		/** For this version we leave the end alone. */
-		sb.setLength(0);
-		fmt.format( "%s\t%s", hit.getValue(), value.toString());
-		fmt.flush();
-		outputValue.set(sb.toString());
-		sb.setLength(0);
-		fmt.format("%8.8s\t%08x\t%08x", key.toString(), hit.getBegin(), hit.getEnd()); fmt.flush();	/** Loose the suffix */
-		outputKey.set(sb.toString());
+		setHitValue(value, hit);
+		int length = HexAddressCodec.pack(helper.getSearchRequest(), keyScratch, 0);
+		keyScratch[length++] = '\t';
+		length = HexAddressCodec.pack(hitRanges.getBegin(hit), keyScratch, length);
+		keyScratch[length++] = '\t';
+		length = HexAddressCodec.pack(hitRanges.getEnd(hit), keyScratch, length);
+		outputKey.set(keyScratch, 0, length);
 		output.collect( outputKey, outputValue );
+	}
+
+	/** Set {@link #outputValue} to the range owner, a tab and the log line, by copying the bytes from the {@link ActiveRanges} arena.
+	 * 
+	 * @param value The log line
+	 * @param hit The position of the range in {@link #hitRanges}
+	 */
+	protected void setHitValue(Text value, int hit) {
+		outputValue.set(hitRanges.getValueBytes(), hitRanges.getValueOffset(hit), hitRanges.getValueLength(hit));
+		outputValue.append(TAB, 0, 1);
+		outputValue.append(value.getBytes(), 0, value.getLength());
 
 
 	}
@@ -0,0 +1,369 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.TreeSet;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.log4j.Logger;
+
+import com.apress.hadoopbook.utils.Utils;
+
+/** A sorted, read only index of search space ranges, small enough to be handed to every map task via the
+ * {@link org.apache.hadoop.filecache.DistributedCache}.
+ *
+ * The on disk form is the same <code>begin:end\towner</code> text the ch9 key helpers read, sorted by begin and then end,
+ * so the file can be examined by hand, or fed back in to the reduce side join.
+ *
+ * In memory the ranges are held as parallel primitive arrays. The search space ranges may overlap, and a wide range,
+ * such as a supernet or <code>0.0.0.0/0</code>, may cover most of the others, so the index also holds the {@link HitLists},
+ * the elementary intervals of the ranges, each with the list of ranges that cover it. A lookup binary searches for the
+ * interval that contains the address and reads its list, O(log n + hits), however wide the ranges are.
+ * Each range is listed once for every interval it covers, so the lists grow with the overlap depth of the search space.
+ *
+ * The instances are not thread safe, the hits of the last {@link #lookup(long)} are held in the object.
+ */
+public class SearchSpaceIndex implements RangeLookup {
+	/** Our logger. */
+	static Logger LOG = Logger.getLogger(SearchSpaceIndex.class);
+
+	/** The begin addresses, sorted ascending. */
+	long[] begins;
+	/** The end addresses, in the same order as {@link #begins}. */
+	long[] ends;
+	/** The elementary intervals and the ranges covering each. */
+	HitLists hitLists;
+	/** The owner value for each range. */
+	String[] owners;
+	/** The number of ranges in the index. */
+	int size;
+
+	/** The offset in {@link HitLists#indices} of the ranges found by the last {@link #lookup(long)} call. */
+	int hitOffset;
+	/** The number of ranges found by the last {@link #lookup(long)} call. */
+	int hitCount;
+
+	/** Only used while building or loading the index, to allow a simple sort. */
+	static class Entry implements Comparable<Entry> {
+		final long begin;
+		final long end;
+		final String owner;
+		Entry( final long begin, final long end, final String owner ) {
+			this.begin = begin;
+			this.end = end;
+			this.owner = owner;
+		}
+		@Override
+		public int compareTo(Entry o) {
+			if (begin!=o.begin) {
+				return begin < o.begin ? -1 : 1;
+			}
+			if (end!=o.end) {
+				return end < o.end ? -1 : 1;
+			}
+			return owner.compareTo(o.owner);
+		}
+	}
+
+	/** The elementary intervals of a sorted set of ranges, the runs of addresses covered by exactly the same ranges,
+	 * as {@link ElementaryIntervalReducer} cuts them, held as columns rather than records.
+	 *
+	 * Interval <i>k</i> runs from {@link #bounds}[<i>k</i>] up to the next bound, or to the last address for the last interval,
+	 * and is covered by the ranges {@link #indices}[{@link #starts}[<i>k</i>]] up to {@link #indices}[{@link #starts}[<i>k</i> + 1]],
+	 * in ascending index order. An interval with an empty list is a gap between ranges.
+	 * The bounds are all addresses, an interval is never started at the address after the last address.
+	 */
+	static class HitLists {
+		/** The first address of each interval, ascending. */
+		final long[] bounds;
+		/** The offset in {@link #indices} of the list of each interval, with a final entry for the end of the last list. */
+		final int[] starts;
+		/** The range indices of all of the lists. */
+		final int[] indices;
+		/** The number of intervals. */
+		final int count;
+
+		/** Sweep the ranges, starting an interval wherever a range begins or the address after a range ends.
+		 *
+		 * @param begins The range begins, sorted ascending
+		 * @param ends The range ends, in the same order as <code>begins</code>
+		 * @param size The number of ranges
+		 * @throws IllegalArgumentException if the lists hold more than {@link Integer#MAX_VALUE} entries
+		 */
+		HitLists( final long[] begins, final long[] ends, final int size ) {
+			/** The range indices in the order the ranges expire. */
+			final Integer[] byEnd = new Integer[size];
+			for (int i = 0; i < size; i++) {
+				byEnd[i] = i;
+			}
+			Arrays.sort(byEnd, new Comparator<Integer>() {
+				public int compare(Integer o1, Integer o2) {
+					final long end1 = ends[o1];
+					final long end2 = ends[o2];
+					return end1 < end2 ? -1 : end1 == end2 ? 0 : 1;
+				}
+			});
+			long[] bounds = new long[2 * size];
+			int[] starts = new int[2 * size + 1];
+			int[] indices = new int[Math.max(16, size)];
+			int count = 0;
+			int length = 0;
+			final TreeSet<Integer> active = new TreeSet<Integer>();
+			int nextBegin = 0;
+			int nextEnd = 0;
+			while (nextBegin < size || nextEnd < size) {
+				long bound = nextEnd < size ? ends[byEnd[nextEnd]] + 1 : Long.MAX_VALUE;
+				if (nextBegin < size) {
+					bound = Math.min(bound, begins[nextBegin]);
+				}
+				if (bound > LAST_ADDRESS) {
+					/** Only ranges reaching the last address are left, they never expire. */
+					break;
+				}
+				while (nextEnd < size && ends[byEnd[nextEnd]] + 1 == bound) {
+					active.remove(byEnd[nextEnd++]);
+				}
+				while (nextBegin < size && begins[nextBegin] == bound) {
+					active.add(nextBegin++);
+				}
+				if (length + active.size() > indices.length) {
+					final long grown = Math.max((long) length + active.size(), 2L * indices.length);
+					if (grown > Integer.MAX_VALUE) {
+						throw new IllegalArgumentException("The search space overlaps too deeply to index, more than " + Integer.MAX_VALUE + " hit list entries");
+					}
+					indices = Arrays.copyOf(indices, (int) grown);
+				}
+				bounds[count] = bound;
+				starts[count++] = length;
+				for (Integer index : active) {
+					indices[length++] = index;
+				}
+			}
+			starts[count] = length;
+			this.bounds = bounds;
+			this.starts = starts;
+			this.indices = indices;
+			this.count = count;
+		}
+
+		/** @return the interval that contains <code>address</code>, or -1 if the address is before the first range. */
+		int find( final long address ) {
+			/** Find the first interval that starts after the address, the one before it contains the address. */
+			int low = 0;
+			int high = count;
+			while (low < high) {
+				final int mid = (low + high) >>> 1;
+				if (bounds[mid] <= address) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			return low - 1;
+		}
+
+		/** @return the number of entries in all of the lists. */
+		int length() {
+			return starts[count];
+		}
+	}
+
+	/** The last IPv4 address. */
+	static final long LAST_ADDRESS = 0xffffffffL;
+
+	/** Construct an empty index, use {@link #load(Path, Configuration)} to populate it. */
+	public SearchSpaceIndex() {
+		setEntries(Collections.<Entry>emptyList());
+	}
+
+	/** @return the number of ranges in the index. */
+	public int size() {
+		return size;
+	}
+
+	/** Find all of the ranges that contain <code>address</code>.
+	 *
+	 * @param address The address to look up
+	 * @return the number of ranges that contain the address, use {@link #getHitBegin(int)}, {@link #getHitEnd(int)} and {@link #getHitOwner(int)} to examine them.
+	 */
+	public int lookup( final long address ) {
+		final int interval = hitLists.find(address);
+		if (interval < 0) {
+			hitOffset = 0;
+			hitCount = 0;
+			return 0;
+		}
+		/** The list is already in ascending begin index order. */
+		hitOffset = hitLists.starts[interval];
+		hitCount = hitLists.starts[interval + 1] - hitOffset;
+		return hitCount;
+	}
+
+	/** @return the begin address of the <code>hit</code>th range found by the last {@link #lookup(long)}. */
+	public long getHitBegin( final int hit ) {
+		return begins[hitLists.indices[hitOffset + hit]];
+	}
+
+	/** @return the end address of the <code>hit</code>th range found by the last {@link #lookup(long)}. */
+	public long getHitEnd( final int hit ) {
+		return ends[hitLists.indices[hitOffset + hit]];
+	}
+
+	/** @return the owner of the <code>hit</code>th range found by the last {@link #lookup(long)}. */
+	public String getHitOwner( final int hit ) {
+		return owners[hitLists.indices[hitOffset + hit]];
+	}
+
+	/* (non-Javadoc)
+	 * @see com.apress.hadoopbook.examples.ch9.RangeLookup#getHitOwner(int, org.apache.hadoop.io.Text)
+	 */
+	public void getHitOwner( final int hit, final Text owner ) {
+		owner.set(owners[hitLists.indices[hitOffset + hit]]);
+	}
+
+	/** The ranges are on the heap, there is nothing to release.
+	 *
+	 * @see java.io.Closeable#close()
+	 */
+	public void close() {
+	}
+
+	/** Replace the contents of the index with <code>entries</code>, which must be sorted.
+	 *
+	 * @param entries The sorted ranges.
+	 */
+	void setEntries( final List<Entry> entries ) {
+		size = entries.size();
+		begins = new long[size];
+		ends = new long[size];
+		owners = new String[size];
+		for (int i = 0; i < size; i++) {
+			final Entry entry = entries.get(i);
+			begins[i] = entry.begin;
+			ends[i] = entry.end;
+			owners[i] = entry.owner;
+		}
+		hitLists = new HitLists(begins, ends, size);
+		hitOffset = 0;
+		hitCount = 0;
+	}
+
+	/** Read the search space records in <code>path</code>, which may be a file or a directory of files.
+	 *
+	 * Each line is <code>begin:end\towner</code>, in any of the forms that {@link TextKeyHelperWithSeparators} accepts.
+	 * Lines that are not valid search space records are logged and skipped.
+	 *
+	 * @param path The file or directory to read
+	 * @param conf The configuration to use for file system access and key parsing
+	 * @param entries The list to add the ranges to
+	 * @return the number of lines that could not be parsed.
+	 * @throws IOException
+	 */
+	static int readEntries( final Path path, final Configuration conf, final List<Entry> entries ) throws IOException {
+		final FileSystem fs = path.getFileSystem(conf);
+		final FileStatus status = fs.getFileStatus(path);
+		int invalid = 0;
+		if (status.isDir()) {
+			final FileStatus[] children = fs.listStatus(path);
+			if (children!=null) {
+				for (FileStatus child : children) {
+					if (!child.getPath().getName().startsWith("_")) {
+						invalid += readEntries(child.getPath(), conf, entries);
+					}
+				}
+			}
+			return invalid;
+		}
+		final TextKeyHelperWithSeparators helper = new TextKeyHelperWithSeparators(conf);
+		final Text key = new Text();
+		BufferedReader in = null;
+		try {
+			in = new BufferedReader(new InputStreamReader(fs.open(path), "UTF-8"));
+			String line;
+			while ((line = in.readLine())!=null) {
+				final int tab = line.indexOf('\t');
+				key.set(tab < 0 ? line : line.substring(0, tab));
+				if (!helper.getFromRaw(key) || !helper.isSearchSpace()) {
+					if (LOG.isDebugEnabled()) { LOG.debug("Skipping invalid search space line [" + line + "] in " + path); }
+					invalid++;
+					continue;
+				}
+				entries.add(new Entry(helper.getBeginRange(), helper.getEndRange(), tab < 0 ? "" : line.substring(tab+1)));
+			}
+		} finally {
+			Utils.closeIf(in);
+		}
+		return invalid;
+	}
+
+	/** Load an index written by {@link #build(Path[], Path, Configuration)}.
+	 * The records are sorted again, so any search space file may be loaded.
+	 *
+	 * @param path The index file, usually a local file from the distributed cache
+	 * @param conf The configuration to use
+	 * @throws IOException
+	 */
+	public void load( final Path path, final Configuration conf ) throws IOException {
+		final ArrayList<Entry> entries = new ArrayList<Entry>();
+		final int invalid = readEntries(path, conf, entries);
+		if (invalid>0) {
+			LOG.warn(invalid + " invalid search space records in index " + path);
+		}
+		Collections.sort(entries);
+		setEntries(entries);
+	}
+
+	/** Build a sorted index file from a set of search space inputs.
+	 *
+	 * @param inputs The search space files or directories
+	 * @param indexFile The file to write the sorted ranges to
+	 * @param conf The configuration to use for file system access and key parsing
+	 * @return The number of ranges written
+	 * @throws IOException
+	 */
+	public static int build( final Path[] inputs, final Path indexFile, final Configuration conf ) throws IOException {
+		final ArrayList<Entry> entries = new ArrayList<Entry>();
+		int invalid = 0;
+		for (Path input : inputs) {
+			invalid += readEntries(input, conf, entries);
+		}
+		if (invalid>0) {
+			LOG.warn("Skipped " + invalid + " invalid search space records");
+		}
+		Collections.sort(entries);
+
+		final TextKeyHelperWithSeparators helper = new TextKeyHelperWithSeparators(conf);
+		final Text key = new Text();
+		FSDataOutputStream out = null;
+		try {
+			out = indexFile.getFileSystem(conf).create(indexFile);
+			final Writer writer = new OutputStreamWriter(out, "UTF-8");
+			for (Entry entry : entries) {
+				helper.setBeginRange(entry.begin);
+				helper.setEndRange(entry.end);
+				helper.setToRaw(key);
+				writer.write(key.toString());
+				writer.write('\t');
+				writer.write(entry.owner);
+				writer.write('\n');
+			}
+			writer.flush();
+		} finally {
+			Utils.closeIf(out);
+		}
+		return entries.size();
+	}
+}
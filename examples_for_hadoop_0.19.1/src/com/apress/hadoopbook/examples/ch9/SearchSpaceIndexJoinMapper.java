@@ -0,0 +1,161 @@
+package com.apress.hadoopbook.examples.ch9;
+
+import java.io.IOException;
+import java.util.Formatter;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.log4j.Logger;
+
+import com.apress.hadoopbook.utils.BatchedCounters;
+import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
+import com.apress.hadoopbook.utils.Utils;
+
+/** Map side replacement for {@link ReducerForStandardComparator}.
+ *
+ * The search space is loaded from a {@link SearchSpaceIndex} passed via the {@link org.apache.hadoop.filecache.DistributedCache}
+ * and each search request key is looked up directly, so neither the log lines nor the search space have to pass through the shuffle.
+ *
+ * The output is the same as the output of {@link ReducerForStandardComparator#handleHit(Object, OutputCollector, Reporter, Text, int)},
+ * so {@link TranslateBackToIPMapper} can be chained after this mapper to produce the final <code>ip\tbegin\tend\towner\tlogline</code> records.
+ *
+ * The configuration key {@link #INDEX_PATH} holds the path of the index, the file name portion is looked up in the cache.
+ * If the index is not in the cache, as happens with the LocalJobRunner, the index is read directly from the path.
+ * If {@link #MAPPED_INDEX} is true the index is a {@link MappedRangeIndex} file, which is memory mapped instead of parsed onto the heap.
+ * The key helper defaults to {@link TextKeyHelperWithSeparators} and the configuration key <code>range.key.helper</code> is used
+ * to lookup the key helper.
+ * 
+ * @param <K> The key class of the helper
+ */
+public class SearchSpaceIndexJoinMapper<K> extends ExamplesMapReduceBase implements Mapper<K, Text, Text, Text> {
+
+	protected static Logger LOG = Logger.getLogger(SearchSpaceIndexJoinMapper.class);
+
+	/** The configuration key for the path of the search space index that was added to the distributed cache. */
+	public static final String INDEX_PATH = "examples.ch9.search.space.index.path";
+
+	/** The configuration key that selects the memory mapped {@link MappedRangeIndex} format for the index, the default is false,
+	 * the text {@link SearchSpaceIndex} format.
+	 */
+	public static final String MAPPED_INDEX = "examples.ch9.search.space.index.mapped";
+
+	/** The key helper, used to parse the incoming search request keys. */
+	KeyHelper<K> helper;
+
+	/** The search space, loaded or mapped in {@link #configure(JobConf)}. */
+	RangeLookup index;
+
+	Text outputKey = new Text();
+	Text outputValue = new Text();
+
+	StringBuilder sb = new StringBuilder();
+	Formatter fmt = new Formatter(sb);
+
+	/** The counters, registered in {@link #configure(JobConf)}. */
+	BatchedCounters.Handle totalKeys;
+	BatchedCounters.Handle badKeys;
+	BatchedCounters.Handle spaceKeys;
+	BatchedCounters.Handle misses;
+	BatchedCounters.Handle hits;
+
+	/** Locate the index in the distributed cache and load it.
+	 *
+	 * @see com.apress.hadoopbook.utils.ExamplesMapReduceBase#configure(org.apache.hadoop.mapred.JobConf)
+	 */
+	@Override
+	public void configure(JobConf job) {
+		super.configure(job);
+		totalKeys = counters.register("SearchSpaceIndexJoinMapper", "TOTAL KEYS");
+		badKeys = counters.register("SearchSpaceIndexJoinMapper", "BAD KEYS");
+		spaceKeys = counters.register("SearchSpaceIndexJoinMapper", "SPACE KEYS");
+		misses = counters.register("SearchSpaceIndexJoinMapper", "MISSES");
+		hits = counters.register("SearchSpaceIndexJoinMapper", "HITS");
+		helper = AbstractKeyHelper.newKeyHelper(conf);
+		final String indexName = conf.get(INDEX_PATH);
+		if (indexName==null) {
+			throw new IllegalArgumentException("No search space index path set in " + INDEX_PATH);
+		}
+		try {
+			Path indexPath = Utils.findItemInCache(new Path(indexName).getName(), conf);
+			if (indexPath==null) {
+				LOG.warn("The search space index " + indexName + " is not in the distributed cache, reading it directly");
+				indexPath = new Path(indexName);
+			}
+			final long start = System.currentTimeMillis();
+			if (conf.getBoolean(MAPPED_INDEX, false)) {
+				index = MappedRangeIndex.open(indexPath, conf);
+			} else {
+				final SearchSpaceIndex loaded = new SearchSpaceIndex();
+				loaded.load(indexPath, conf);
+				index = loaded;
+			}
+			LOG.info("Opened " + index.size() + " search space ranges from " + indexPath + " in " + (System.currentTimeMillis() - start) + " msec");
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to load the search space index " + indexName, e);
+		}
+	}
+
+	/** Look up each search request key in the index and output a record for every range that contains it.
+	 * Search space keys in the input are counted and dropped, they are already in the index.
+	 *
+	 * @see org.apache.hadoop.mapred.Mapper#map(java.lang.Object, java.lang.Object, org.apache.hadoop.mapred.OutputCollector, org.apache.hadoop.mapred.Reporter)
+	 */
+	@Override
+	public void map(K key, Text value, OutputCollector<Text, Text> output,
+			Reporter reporter) throws IOException {
+		try {
+			counters.record(reporter);
+			counters.incr(totalKeys);
+			if (!helper.getFromRaw(key)) {
+				counters.incr(badKeys);
+				return;
+			}
+			if (helper.isSearchSpace()) {
+				counters.incr(spaceKeys);
+				return;
+			}
+			final int hitCount = index.lookup(helper.getSearchRequest());
+			if (hitCount==0) {
+				counters.incr(misses);
+				return;
+			}
+			for (int i = 0; i < hitCount; i++) {
+				handleHit(output, value, i);
+			}
+			counters.incr(hits, hitCount);
+		} catch( Throwable e ) {
+			throwsIOExcepction(reporter, "SearchSpaceIndexJoinMapper failed", e);
+		}
+	}
+
+	/** Release the index, which deletes any local copy of a mapped index.
+	 *
+	 * @see com.apress.hadoopbook.utils.ExamplesMapReduceBase#close()
+	 */
+	@Override
+	public void close() throws IOException {
+		try {
+			super.close();
+		} finally {
+			if (index!=null) {
+				index.close();
+			}
+		}
+	}
+
+	/** Output the <code>hit</code>th range of the last lookup in the same form as {@link ReducerForStandardComparator}. */
+	protected void handleHit(OutputCollector<Text, Text> output, Text value, int hit) throws IOException {
+		sb.setLength(0);
+		fmt.format( "%s\t%s", index.getHitOwner(hit), value.toString());
+		fmt.flush();
+		outputValue.set(sb.toString());
+		sb.setLength(0);
+		fmt.format("%08x\t%08x\t%08x", helper.getSearchRequest(), index.getHitBegin(hit), index.getHitEnd(hit)); fmt.flush();
+		outputKey.set(sb.toString());
+		output.collect( outputKey, outputValue );
+	}
+}
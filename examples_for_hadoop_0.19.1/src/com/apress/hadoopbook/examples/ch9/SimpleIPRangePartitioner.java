@@ -9,6 +9,7 @@ import java.util.NavigableMap;
 import java.util.TreeMap;
 import java.util.Map.Entry;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
@@ -16,6 +17,8 @@ import org.apache.hadoop.mapred.Partitioner;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.log4j.Logger;
 
+import com.apress.hadoopbook.utils.Utils;
+
 /** This class will partition the full IPV4 range into spans so that the number of spans is the number of partitions N
  * and each span covers roughly 1/Nth of the IPV4 address space, and the spans are contiguous.
  * As a partitioner it accepts search request and search space keys, the values are ignored.
@@ -46,23 +49,36 @@ import org.apache.log4j.Logger;
  * </ul>
  * 
 
+ * If {@link HotAddresses#HOT_FILE} is set, the search requests for a hot address are salted across the partitions the
+ * {@link HotAddresses} chooses, the search space keys are not affected.
+ * 
  * This class also acts as a {@link Partitioner} for range span keys and incoming ip address keys.
+ * The key helper is the <code>range.key.helper</code> if it is a {@link PartitionedKeyHelper}, otherwise {@link PartitionedTextKeyHelperWithSeparators}.
  * 
  * @author Jason
  *
+ * @param <K> The key class of the helper
  */
-public class SimpleIPRangePartitioner   implements Partitioner<Text, Text> {
+public class SimpleIPRangePartitioner<K>   implements Partitioner<K, Text> {
 	/** Our logger. */
 	static Logger LOG = Logger.getLogger(SimpleIPRangePartitioner.class);
+	
+	/** The configuration key for the path of a partition boundaries file written by {@link PartitionBoundarySampler}.
+	 * The file name portion is looked up in the distributed cache, if it is not there the path is read directly.
+	 * If this is not set the address space is split evenly.
+	 */
+	public static final String PARTITION_FILE = "examples.ch9.partition.boundaries.file";
 
 	JobConf conf;
-	PartitionedTextKeyHelperWithSeparators helper;
+	PartitionedKeyHelper<K> helper;
 	/** There are at most a few hundred ranges here, they could be easily handled. In the interests of minimizing code complexity
 	 * a collection is used, with all of the object churn overhead that entails.
 	 */
 	TreeMap<Long,Integer> ranges;
+	/** The addresses whose search requests are salted across several partitions, null if there are none. */
+	HotAddresses hotAddresses;
 	@Override
-	public int getPartition(final Text key, final Text value, final int numPartitions) {
+	public int getPartition(final K key, final Text value, final int numPartitions) {
 		if (!(helper.getFromRaw(key) && helper.isValid())) {
 			throw new IllegalArgumentException("key " + key + " can not be parsed as a network range set");
 		}
@@ -82,6 +98,13 @@ public class SimpleIPRangePartitioner   implements Partitioner<Text, Text> {
 		/** Stored as a variable for debugging ease */
 		final int realPartition = partition.getValue();
 		
+		if (hotAddresses!=null && helper.isSearchRequest()) {
+			final int hot = hotAddresses.indexOf(begin);
+			if (hot>=0) {
+				return hotAddresses.partition(hot, realPartition, value, numPartitions);
+			}
+		}
+		
 		assert (helper.isSearchSpace() ? partition.getKey() >= helper.getEndRange() : true) : String.format( "search space range end %08x exceeds partition limit %0x8", helper.getEndRange(), partition.getKey());
 		
 		return realPartition;
@@ -89,6 +112,7 @@ public class SimpleIPRangePartitioner   implements Partitioner<Text, Text> {
 	}
 
 	/** This method builds the span table based on the number of paritiones extracted from the configuration via {@link JobConf#getNumReduceTasks()}
+	 * If {@link #PARTITION_FILE} is set, the partition ends are loaded from that file, otherwise the address space is split evenly.
 	 * 
 	 * @see Partitioner#configure(JobConf)
 	 */
@@ -96,11 +120,17 @@ public class SimpleIPRangePartitioner   implements Partitioner<Text, Text> {
 	public void configure(JobConf job) {
 		conf = job;
 		/** Now that we have a conf object we can initialize the helper and build ranges, using the number of reduces. */
-		helper = new PartitionedTextKeyHelperWithSeparators(conf);
+		helper = AbstractKeyHelper.newPartitionedKeyHelper(conf);
 		
 		final int numPartitions = conf.getNumReduceTasks();
 		
 		ranges = new TreeMap<Long,Integer>();
+		hotAddresses = HotAddresses.load(conf);
+		
+		final String partitionFile = conf.get(PARTITION_FILE);
+		if (partitionFile!=null && loadBoundaries(partitionFile, numPartitions)) {
+			return;
+		}
 		
 		long rangeSpan = 4294967296L / numPartitions;
 		
@@ -122,22 +152,49 @@ public class SimpleIPRangePartitioner   implements Partitioner<Text, Text> {
 		}
 	}
 	
+	/** Fill {@link #ranges} from a partition boundaries file.
+	 * 
+	 * @param partitionFile The path of the file, the file name portion is looked up in the distributed cache first
+	 * @param numPartitions The number of partitions, this must match the number of ends in the file
+	 * @return true if the boundaries were loaded, false if the file is for a different number of partitions, as happens with the LocalJobRunner which only runs 1 reduce.
+	 */
+	protected boolean loadBoundaries(final String partitionFile, final int numPartitions) {
+		final long[] ends;
+		try {
+			Path path = Utils.findItemInCache(new Path(partitionFile).getName(), conf);
+			if (path==null) {
+				path = new Path(partitionFile);
+			}
+			ends = PartitionBoundarySampler.readBoundaries(path, conf);
+		} catch (IOException e) {
+			throw new IllegalArgumentException("Unable to load the partition boundaries " + partitionFile, e);
+		}
+		if (ends.length!=numPartitions) {
+			LOG.warn("The partition boundaries " + partitionFile + " have " + ends.length + " partitions, the job has " + numPartitions + ", splitting the address space evenly");
+			return false;
+		}
+		for (int partition = 0; partition < ends.length; partition++) {
+			ranges.put(ends[partition], partition);
+		}
+		return true;
+	}
+	
 	/** This method is the work house used to generate spanning keys for a search space item. *
 	 * 
 	 * For each input key, which is taken from <code>outsideHelper</code> a spanning key will be generated for each partition
 	 * that overlaps with the range of the key.
 	 * 
-	 * @param outsideHelper The {@link PartitionedTextKeyHelperWithSeparators} that contains the parsed key object}
-	 * @param forConstructedKeys {@link Text} object to use for constructing the spanning keys.
+	 * @param outsideHelper The {@link PartitionedKeyHelper} that contains the parsed key object, this may be for a different key class than <code>K</code>
+	 * @param forConstructedKeys The key object to use for constructing the spanning keys.
 	 * @param value {@link Text} object to output with each spanning key.
 	 * @param output {@link OutputCollector} to use for writing the spanning keys to.
 	 * @param reporter {@link Reporter} object to use for counters and errors.
 	 * @return the number of keys output.
 	 * @throws IOException
 	 */
-	public int spanSpaceKeys( PartitionedTextKeyHelperWithSeparators outsideHelper, 
-			Text forConstructedKeys, final Text value, 
-			final OutputCollector<Text, Text> output, Reporter reporter) throws IOException {
+	public int spanSpaceKeys( PartitionedKeyHelper<?> outsideHelper, 
+			K forConstructedKeys, final Text value, 
+			final OutputCollector<K, Text> output, Reporter reporter) throws IOException {
 
 		/** If the key isn't valid bail. */
 		if (!outsideHelper.isValid()) {
@@ -189,7 +246,7 @@ public class SimpleIPRangePartitioner   implements Partitioner<Text, Text> {
 
 			/** If the newly adjusted beginRange is past the end of our key's range, there will be no more keys output. so finish up */
 			if (helper.getBeginRange()>helper.getRealRangeEnd()) {
-				helper.isValid = false;
+				helper.reset();
 				break; /** Done no more ranges spanned. We could just return count from here, but this way there is only one valid exit point */
 			}
 
@@ -231,10 +288,29 @@ public class SimpleIPRangePartitioner   implements Partitioner<Text, Text> {
 			helper.setToRaw(forConstructedKeys);
 			output.collect(forConstructedKeys,value);
 			helper.setBeginRange(helper.getEndRange()+1); // One past the last record output
-			reporter.incrCounter("KeySpanning", "Partition " + span.getValue(), 1);
+			reporter.incrCounter("KeySpanning", partitionCounterName(span.getValue()), 1);
 
 		}
 		reporter.incrCounter("KeySpanning", "OUTPUT KEYS", count);
 		return count;
 	}
+
+	/** The counter names for the partitions, built once rather than for each spanned key. */
+	String[] partitionCounterNames = new String[0];
+
+	/** Return the <code>KeySpanning</code> counter name for <code>partition</code>.
+	 * 
+	 * @param partition The partition number
+	 * @return <code>"Partition " + partition</code>
+	 */
+	protected String partitionCounterName(final int partition) {
+		if (partition >= partitionCounterNames.length) {
+			final String[] names = new String[partition + 1];
+			for (int i = 0; i < names.length; i++) {
+				names[i] = i < partitionCounterNames.length ? partitionCounterNames[i] : "Partition " + i;
+			}
+			partitionCounterNames = names;
+		}
+		return partitionCounterNames[partition];
+	}
 }
@@ -21,7 +21,19 @@ public class TextKeyHelperWithSeparators extends AbstractKeyHelper<Text> {
 	/** The suffix appended to a search request to force sorting order. */
 	char searchRequestSuffix;
 	/** The length of a hex encoded address. */
-	final int addressLen = 8;
+	final int addressLen = HexAddressCodec.ADDRESS_LENGTH;
+	/** True if both separators are single byte characters in UTF-8, so the keys can be handled as bytes by {@link HexAddressCodec}. */
+	boolean singleByteSeparators;
+	/** {@link #rangeSeparator} as a byte, only valid if {@link #singleByteSeparators}. */
+	byte rangeSeparatorByte;
+	/** {@link #searchRequestSuffix} as a byte, only valid if {@link #singleByteSeparators}. */
+	byte searchRequestSuffixByte;
+	/** Used for the brute force parse of keys that are not in hex form. */
+	Pattern rangeSeparatorPattern;
+	/** Scratch space for building keys in {@link #setToRaw(Text)}, large enough for a 4 address partitioned key.
+	 * The helper objects hold the key state and are not thread safe in any case, so this is not thread local.
+	 */
+	final byte[] rawScratch = new byte[HexAddressCodec.ADDRESS_LENGTH * 4 + 3];
 	protected static Logger LOG = Logger.getLogger(TextKeyHelperWithSeparators.class);
 	
 	public static boolean isLegalSeparator(char c) {
@@ -87,6 +99,10 @@ public class TextKeyHelperWithSeparators extends AbstractKeyHelper<Text> {
 					"[" + searchRequestSuffix + "] " +
 					" must not be one of 0-9a-z" );
 		}
+		singleByteSeparators = rangeSeparator < 0x80 && searchRequestSuffix < 0x80;
+		rangeSeparatorByte = (byte) rangeSeparator;
+		searchRequestSuffixByte = (byte) searchRequestSuffix;
+		rangeSeparatorPattern = Pattern.compile(Pattern.quote(""+rangeSeparator));
 	}
 
 	/**
@@ -110,18 +126,58 @@ public class TextKeyHelperWithSeparators extends AbstractKeyHelper<Text> {
 	 * If the same of the string representation of <code>raw</code> does not fit those constraints.
 	 * the method will return false, and {@link #isValid()} will also return false.
 	 * 
+	 * The hex forms are decoded directly from the bytes of <code>raw</code>, anything else goes through {@link #getFromString(String)}.
+	 * 
 	 * @see com.apress.hadoopbook.examples.ch9.KeyHelper#getFromRaw(java.lang.Object)
 	 */
 	@Override
 	public boolean getFromRaw(Text raw) {
 		isValid = false;
 		hasEndRange = false;
-		String rawText = raw.toString();
+		if (singleByteSeparators) {
+			final int rawByteLength = raw.getLength();
+			final byte[] rawBytes = raw.getBytes();	/** Only up to rawByteLength are valid. */
+			if (rawByteLength==addressLen+1 && rawBytes[addressLen]==searchRequestSuffixByte) {
+				final long searchRequest = HexAddressCodec.unpack(rawBytes, 0);
+				if (searchRequest>=0) {
+					beginRangeOrKey = searchRequest;
+					isValid = true;
+					return true;
+				}
+			} else if (rawByteLength==addressLen*2+1 && rawBytes[addressLen]==rangeSeparatorByte) {
+				final long beginRange = HexAddressCodec.unpack(rawBytes, 0);
+				final long endRange = HexAddressCodec.unpack(rawBytes, addressLen+1);
+				if (beginRange>=0 && endRange>=0) {
+					beginRangeOrKey = beginRange;
+					this.endRange = endRange;
+					/** Verify that the begin range is less or equal to the end */
+					if (beginRangeOrKey>endRange) {
+						if (LOG.isDebugEnabled()) { LOG.debug("key [" + raw + "] begin > end " + beginRangeOrKey + " " + endRange); }
+						return false;
+					}
+					hasEndRange = true;
+					isValid = true;
+					return true;
+				}
+			}
+			/** Not pure hex, let the string parser have a go, it handles the other address forms. */
+		}
+		return getFromString(raw.toString());
+	}
+
+	/** The string based parse, for keys that are not in the hex form or when the separators are multi byte characters.
+	 * 
+	 * @param rawText The key as a string
+	 * @return true if the key is valid
+	 */
+	protected boolean getFromString(final String rawText) {
+		isValid = false;
+		hasEndRange = false;
 		if (rawText.length()==(addressLen+1) && rawText.charAt(addressLen)==searchRequestSuffix) {
 			String searchRequest = rawText.substring(0, addressLen);
 			beginRangeOrKey = addrToLong(searchRequest);
 			if(beginRangeOrKey<0) {
-				LOG.error(String.format("Failed to parse %s from %s as a hex number", searchRequest, raw));
+				LOG.error(String.format("Failed to parse %s from %s as a hex number", searchRequest, rawText));
 				return false;
 			}
 		} else if (rawText.length()==(addressLen*2+1) && rawText.charAt(addressLen)==rangeSeparator) {
@@ -131,7 +187,7 @@ public class TextKeyHelperWithSeparators extends AbstractKeyHelper<Text> {
 			final String endRangeString = rawText.substring(addressLen+1,addressLen*2+1);
 			endRange = addrToLong(endRangeString);
 			if(beginRangeOrKey<0 || endRange<0) {
-				LOG.error(String.format("Failed to parse one of  %s, %s from %s as a hex number", beginRange, endRangeString, raw));
+				LOG.error(String.format("Failed to parse one of  %s, %s from %s as a hex number", beginRange, endRangeString, rawText));
 				return false;
 			}
 			
@@ -144,7 +200,7 @@ public class TextKeyHelperWithSeparators extends AbstractKeyHelper<Text> {
 		} else {
 			/** Give it a brute force try, just in case a 3 dot octet set was passed in
 			 */
-			String [] parts = rawText.split(Pattern.quote(""+rangeSeparator));
+			String [] parts = rangeSeparatorPattern.split(rawText);
 			if (parts.length==1 || parts.length==2) {
 				beginRangeOrKey = addrToLong(parts[0]);
 				if (parts.length==2) {
@@ -188,7 +244,8 @@ public class TextKeyHelperWithSeparators extends AbstractKeyHelper<Text> {
 		}
 	};
 	
-	/* (non-Javadoc)
+	/** Pack the key into <code>raw</code>, directly as bytes via {@link HexAddressCodec} when the separators are single byte characters.
+	 * 
 	 * @see com.apress.hadoopbook.examples.ch9.KeyHelper#setToRaw(java.lang.Object)
 	 */
 	@Override
@@ -196,6 +253,17 @@ public class TextKeyHelperWithSeparators extends AbstractKeyHelper<Text> {
 		if (!isValid) {
 			return;
 		}
+		if (singleByteSeparators) {
+			int length = HexAddressCodec.pack(beginRangeOrKey, rawScratch, 0);
+			if (hasEndRange) {
+				rawScratch[length++] = rangeSeparatorByte;
+				length = HexAddressCodec.pack(endRange, rawScratch, length);
+			} else {
+				rawScratch[length++] = searchRequestSuffixByte;
+			}
+			raw.set(rawScratch, 0, length);
+			return;
+		}
 		Formatter fmt = keyFormatter.get();
 		fmt.flush();
 		StringBuilder sb = keyBuilder.get();
@@ -209,6 +277,13 @@ public class TextKeyHelperWithSeparators extends AbstractKeyHelper<Text> {
 		fmt.flush();
 		raw.set(sb.toString());
 	}
+	/* (non-Javadoc)
+	 * @see com.apress.hadoopbook.examples.ch9.KeyHelper#newRaw()
+	 */
+	@Override
+	public Text newRaw() {
+		return new Text();
+	}
 	public String toString() {
 		if(!isValid) {
 			return "";
@@ -13,6 +13,7 @@ import org.apache.hadoop.mapred.OutputCollector;
 import org.apache.hadoop.mapred.Reporter;
 import org.apache.log4j.Logger;
 
+import com.apress.hadoopbook.utils.BatchedCounters;
 import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
 
 /** Perform simple validation on the keys.
@@ -27,9 +28,17 @@ import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
 
 	 Text outputKey = new Text();
 
+	 /** The counters, registered in {@link #configure(JobConf)}. */
+	 BatchedCounters.Handle totalInput;
+	 BatchedCounters.Handle invalidKeys;
+	 BatchedCounters.Handle totalOutput;
+
 	 @Override
 	 public void configure(JobConf job){
 		 super.configure(job);
+	 	totalInput = counters.register("TranslateBackToIPMapper", "TOTAL INPUT");
+	 	invalidKeys = counters.register("TranslateBackToIPMapper", "INVALID KEYS");
+	 	totalOutput = counters.register("TranslateBackToIPMapper", "TOTAL OUTPUT");
 	 }
 
 	 StringBuilder sb = new StringBuilder();
@@ -42,10 +51,11 @@ import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
 	 public void map(Text key, Text value, OutputCollector<Text, Text> output,
 			 Reporter reporter) throws IOException {
 		 try {
-			 reporter.incrCounter("TranslateBackToIPMapper", "TOTAL INPUT", 1);
+			 counters.record(reporter);
+			 counters.incr(totalInput);
 			 String[] parts = key.toString().split("\t");
 			 if (parts.length!=3) {
-				 reporter.incrCounter("TranslateBackToIPMapper", "INVALID KEYS", 1);
+				 counters.incr(invalidKeys);
 				 return;
 			 }
 			 long address = Long.parseLong(parts[0],16);
@@ -58,7 +68,7 @@ import com.apress.hadoopbook.utils.ExamplesMapReduceBase;
 			 sb.append('\t');
 			 unpack(rangeEnd);
 			 outputKey.set(sb.toString());
-			 reporter.incrCounter("TranslateBackToIPMapper", "TOTAL OUTPUT", 1);
+			 counters.incr(totalOutput);
 			 output.collect( outputKey, value );
 
 
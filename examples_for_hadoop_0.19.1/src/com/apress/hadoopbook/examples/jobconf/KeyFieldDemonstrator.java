@@ -9,9 +9,13 @@ import java.io.IOException;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.OptionBuilder;
+import org.apache.commons.cli.Options;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
@@ -30,6 +34,9 @@ import com.apress.hadoopbook.utils.MainProgrameShell;
 /** This class provides a working demonstration of what data is actually used when the {@link KeyFieldBasedPartitioner} and {@link KeyFieldBasedComparator} actually used.
  * It will probably only run from within an IDE such as eclipse, with the fatal errors for illegal accesses disabled.
  * 
+ * With <code>-nk</code> the job sorts with {@link NormalizedKeyFieldSort} instead, so there are no comparator events,
+ * and the partitioner is passed the original keys.
+ * 
  * @author Jason
  *
  */
@@ -127,7 +134,31 @@ public class KeyFieldDemonstrator extends MainProgrameShell {
 
 	String keySpec;
 	String partitionerSpec;
+	/** Sort on normalized keys, from -nk. */
+	boolean normalizedKeys = false;
 	
+	/** Add the --normalizedKeys option.
+	 *
+	 * @see MainProgrameShell#buildGeneralOptions(Options options)
+	 */
+	@SuppressWarnings("static-access")
+	@Override
+	protected Options buildGeneralOptions(Options options) {
+		options = super.buildGeneralOptions(options);
+		options.addOption( OptionBuilder.withLongOpt("normalizedKeys")
+				.withDescription("Sort the keys as normalized byte strings encoded once per record, instead of with the key field comparator.")
+				.create("nk") );
+		return options;
+	}
+
+	@Override
+	protected void processGeneralOptions(JobConf conf, CommandLine commandLine) {
+		super.processGeneralOptions(conf, commandLine);
+		if (commandLine.hasOption("nk")) {
+			normalizedKeys = true;
+		}
+	}
+
 
 	/* (non-Javadoc)
 	 * @see com.apress.hadoopbook.utils.MainProgrameShell#customSetup(org.apache.hadoop.mapred.JobConf)
@@ -159,7 +190,10 @@ public class KeyFieldDemonstrator extends MainProgrameShell {
 		FileInputFormat.setInputPaths(conf, new Path( tmpIn.toString() ));
 		FileOutputFormat.setOutputPath(conf, new Path( tmpOut.toString() ));
 
-		
+		if (normalizedKeys) {
+			/** Last, so that the key classes and the partitioner are the ones the job actually uses. */
+			NormalizedKeyFieldSort.setupJob(conf);
+		}
 	
 	}
 	
@@ -184,30 +218,45 @@ public class KeyFieldDemonstrator extends MainProgrameShell {
 		return true;
 	}
 
+	/** The options added before the arguments of each run, from the command line. */
+	static String[] leadingOptions = new String[0];
+
+	/** The arguments for a run, after {@link #leadingOptions}. */
+	static String[] withOptions(String... args) {
+		final List<String> all = new ArrayList<String>(Arrays.asList(leadingOptions));
+		all.addAll(Arrays.asList(args));
+		return all.toArray(new String[all.size()]);
+	}
+
 	/**
-	 * @param args
+	 * @param args [-nk] [outputLine comparatorSpec partitionerSpec]
 	 * @throws Exception 
 	 */
 	public static void main(String[] args) throws Exception {
+		if (args.length>0 && args[0].equals("-nk")) {
+			/** Pass -nk on to each of the runs. */
+			leadingOptions = new String[] { "-nk" };
+			args = Arrays.copyOfRange(args, 1, args.length);
+		}
 		int res;
 		if (args.length==3) {
-			res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(args[0]), new String[] { "-logLev", "ERROR", "-tsr", "FAILED", args[1], args[2] }); if (res!=0) {System.err.println("Job exit code is " + res);	}
+			res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(args[0]), withOptions( "-logLev", "ERROR", "-tsr", "FAILED", args[1], args[2] )); if (res!=0) {System.err.println("Job exit code is " + res);	}
 		} else {/** run a set of standard tests. */
 		
-		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), new String[] { "-k 1,1", "-k1,1" }); if (res!=0) {System.err.println("Job exit code is " + res);	}
-		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), new String[] { "-k 1,2", "-k1,2" }); if (res!=0) {System.err.println("Job exit code is " + res);	}
-		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), new String[] { "-k 1,3", "-k1,3" }); if (res!=0) {System.err.println("Job exit code is " + res);	}
+		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), withOptions( "-k 1,1", "-k1,1" )); if (res!=0) {System.err.println("Job exit code is " + res);	}
+		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), withOptions( "-k 1,2", "-k1,2" )); if (res!=0) {System.err.println("Job exit code is " + res);	}
+		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), withOptions( "-k 1,3", "-k1,3" )); if (res!=0) {System.err.println("Job exit code is " + res);	}
 		
-		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), new String[] { "-k 2,2", "-k2,2" }); if (res!=0) {System.err.println("Job exit code is " + res);	}
-		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), new String[] { "-k 2,3", "-k2,3" }); if (res!=0) {System.err.println("Job exit code is " + res);	}
-		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), new String[] { "-k 2,4", "-k2,4" }); if (res!=0) {System.err.println("Job exit code is " + res);	}
+		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), withOptions( "-k 2,2", "-k2,2" )); if (res!=0) {System.err.println("Job exit code is " + res);	}
+		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), withOptions( "-k 2,3", "-k2,3" )); if (res!=0) {System.err.println("Job exit code is " + res);	}
+		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), withOptions( "-k 2,4", "-k2,4" )); if (res!=0) {System.err.println("Job exit code is " + res);	}
 		
-		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), new String[] { "-k 2.1,2.2", "-k2.1,2.2" }); if (res!=0) {System.err.println("Job exit code is " + res);	}
-		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), new String[] { "-k 2.2,3.2", "-k2.2,3.2" }); if (res!=0) {System.err.println("Job exit code is " + res);	}
-		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), new String[] { "-k 2.0,4.0", "-k2.0,4.0" }); if (res!=0) {System.err.println("Job exit code is " + res);	}
+		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), withOptions( "-k 2.1,2.2", "-k2.1,2.2" )); if (res!=0) {System.err.println("Job exit code is " + res);	}
+		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), withOptions( "-k 2.2,3.2", "-k2.2,3.2" )); if (res!=0) {System.err.println("Job exit code is " + res);	}
+		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator(), withOptions( "-k 2.0,4.0", "-k2.0,4.0" )); if (res!=0) {System.err.println("Job exit code is " + res);	}
 		
-		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator("01234 6789 abc defg"), new String[] { "-k2.2,3.4r", "-k2.2,3.4r" }); if (res!=0) {System.err.println("Job exit code is " + res);	}
-		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator("01234 6789 abc"), new String[] { "-k1.2,2.3", "-k1.2,2.3" }); if (res!=0) {System.err.println("Job exit code is " + res);	}
+		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator("01234 6789 abc defg"), withOptions( "-k2.2,3.4r", "-k2.2,3.4r" )); if (res!=0) {System.err.println("Job exit code is " + res);	}
+		res = ToolRunner.run(new Configuration(), new KeyFieldDemonstrator("01234 6789 abc"), withOptions( "-k1.2,2.3", "-k1.2,2.3" )); if (res!=0) {System.err.println("Job exit code is " + res);	}
 		
 		}
 		for( KeyFieldEvent event : events) {
@@ -0,0 +1,258 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.jobconf;
+
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Mapper;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.Reducer;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.apache.hadoop.mapred.lib.KeyFieldBasedComparator;
+import org.apache.hadoop.mapred.lib.NormalizedKeyFieldEncoder;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/** Sort a job's {@link Text} map output keys by their key field specification, <code>-k</code> options as used by
+ * {@link KeyFieldBasedComparator}, with plain byte comparisons.
+ *
+ * {@link #setupJob(JobConf)} wraps the job's mapper, combiner and reducer. The mapper's output keys are encoded
+ * once by a {@link NormalizedKeyFieldEncoder} into {@link BytesWritable} keys, which the framework sorts with the
+ * {@link BytesWritable} raw comparator. Keys are grouped and partitioned by the normalized prefix,
+ * so the keys that the key field specification considers equal reach the same <code>reduce</code> call,
+ * and the reducer and the combiner are passed the original {@link Text} key, the first key of the group.
+ * A partitioner or a value grouping comparator the job already has for its {@link Text} keys is kept, and is
+ * passed the original key, which is copied out of the encoded key for each call.
+ *
+ * Parsing the key fields, including the numeric fields, is done once per map output record
+ * instead of twice per comparison.
+ *
+ * @author Jason
+ *
+ */
+public class NormalizedKeyFieldSort {
+	static final Log LOG = LogFactory.getLog(NormalizedKeyFieldSort.class);
+
+	/** The configuration key for the job's own mapper class. */
+	public static final String MAPPER_CLASS = "examples.jobconf.normalized.mapper.class";
+	/** The configuration key for the job's own combiner class. */
+	public static final String COMBINER_CLASS = "examples.jobconf.normalized.combiner.class";
+	/** The configuration key for the job's own reducer class. */
+	public static final String REDUCER_CLASS = "examples.jobconf.normalized.reducer.class";
+	/** The configuration key for the job's own partitioner class, if it is not the {@link HashPartitioner}. */
+	public static final String PARTITIONER_CLASS = "examples.jobconf.normalized.partitioner.class";
+	/** The configuration key for the job's own value grouping comparator class, if it set one. */
+	public static final String GROUPING_COMPARATOR_CLASS = "examples.jobconf.normalized.grouping.comparator.class";
+
+	/** Rewrite the job so that its map output keys are sorted as normalized keys.
+	 *
+	 * The key field specification and separator are the ones already set for {@link KeyFieldBasedComparator},
+	 * {@link JobConf#setKeyFieldComparatorOptions(String)} and <code>map.output.key.field.separator</code>.
+	 * Any output key comparator set for the {@link Text} keys is replaced, the sort is the key field specification.
+	 * A partitioner other than the {@link HashPartitioner} and a value grouping comparator are wrapped and passed the original keys.
+	 * As with the {@link KeyFieldBasedComparator} sort, the grouping comparator must only group keys that are adjacent in the
+	 * order of the key field specification.
+	 *
+	 * @param conf The job, with its mapper, reducer, any combiner, partitioner and value grouping comparator already set.
+	 * @throws IllegalArgumentException if the map output key class is not {@link Text}.
+	 */
+	@SuppressWarnings("unchecked")
+	public static void setupJob(JobConf conf) {
+		if (conf.getMapOutputKeyClass() != Text.class) {
+			throw new IllegalArgumentException("Normalized key field sorting requires Text map output keys, not " + conf.getMapOutputKeyClass());
+		}
+		conf.setClass(MAPPER_CLASS, conf.getMapperClass(), Mapper.class);
+		conf.setMapperClass(NormalizingMapper.class);
+		if (conf.getCombinerClass() != null) {
+			conf.setClass(COMBINER_CLASS, conf.getCombinerClass(), Reducer.class);
+			conf.setCombinerClass(NormalizedKeyCombiner.class);
+		}
+		conf.setClass(REDUCER_CLASS, conf.getReducerClass(), Reducer.class);
+		conf.setReducerClass(NormalizedKeyReducer.class);
+		conf.setMapOutputKeyClass(BytesWritable.class);
+		final Class<? extends RawComparator> groupingClass = conf.getClass("mapred.output.value.groupfn.class", null, RawComparator.class);
+		if (groupingClass != null) {
+			conf.setClass(GROUPING_COMPARATOR_CLASS, groupingClass, RawComparator.class);
+		}
+		if (conf.getPartitionerClass() != HashPartitioner.class) {
+			conf.setClass(PARTITIONER_CLASS, conf.getPartitionerClass(), Partitioner.class);
+		}
+		conf.setOutputKeyComparatorClass(BytesWritable.Comparator.class);
+		conf.setOutputValueGroupingComparator(PrefixGroupingComparator.class);
+		conf.setPartitionerClass(PrefixPartitioner.class);
+		LOG.info("Sorting on normalized keys for the key field options " + conf.getKeyFieldComparatorOption());
+	}
+
+	/** Encode each {@link Text} key the wrapped collector is passed, and collect the encoded key. */
+	static class EncodingCollector<V> implements OutputCollector<Text, V> {
+		final NormalizedKeyFieldEncoder encoder = new NormalizedKeyFieldEncoder();
+		final BytesWritable encodedKey = new BytesWritable();
+		OutputCollector<BytesWritable, V> output;
+
+		/** The encoded key is serialized by the framework before <code>collect</code> returns, so it is reused. */
+		public void collect(Text key, V value) throws IOException {
+			encoder.encode(key, encodedKey);
+			output.collect(encodedKey, value);
+		}
+	}
+
+	/** Run the job's mapper, {@link #MAPPER_CLASS}, and encode its output keys. */
+	public static class NormalizingMapper<K, V, VO> implements Mapper<K, V, BytesWritable, VO> {
+		Mapper<K, V, Text, VO> mapper;
+		EncodingCollector<VO> collector = new EncodingCollector<VO>();
+
+		@SuppressWarnings("unchecked")
+		public void configure(JobConf job) {
+			collector.encoder.configure(job);
+			mapper = ReflectionUtils.newInstance(job.getClass(MAPPER_CLASS, null, Mapper.class), job);
+		}
+
+		public void map(K key, V value, OutputCollector<BytesWritable, VO> output, Reporter reporter) throws IOException {
+			collector.output = output;
+			mapper.map(key, value, collector, reporter);
+		}
+
+		public void close() throws IOException {
+			mapper.close();
+		}
+	}
+
+	/** Run the job's reducer, {@link #REDUCER_CLASS}, with the original key of each group. */
+	public static class NormalizedKeyReducer<V, KO, VO> implements Reducer<BytesWritable, V, KO, VO> {
+		Reducer<Text, V, KO, VO> reducer;
+		Text key = new Text();
+
+		@SuppressWarnings("unchecked")
+		public void configure(JobConf job) {
+			reducer = ReflectionUtils.newInstance(job.getClass(REDUCER_CLASS, null, Reducer.class), job);
+		}
+
+		public void reduce(BytesWritable encodedKey, Iterator<V> values, OutputCollector<KO, VO> output, Reporter reporter) throws IOException {
+			NormalizedKeyFieldEncoder.decode(encodedKey, key);
+			reducer.reduce(key, values, output, reporter);
+		}
+
+		public void close() throws IOException {
+			reducer.close();
+		}
+	}
+
+	/** Run the job's combiner, {@link #COMBINER_CLASS}, with the original key of each group, and encode its output keys. */
+	public static class NormalizedKeyCombiner<V> implements Reducer<BytesWritable, V, BytesWritable, V> {
+		Reducer<Text, V, Text, V> combiner;
+		EncodingCollector<V> collector = new EncodingCollector<V>();
+		Text key = new Text();
+
+		@SuppressWarnings("unchecked")
+		public void configure(JobConf job) {
+			collector.encoder.configure(job);
+			combiner = ReflectionUtils.newInstance(job.getClass(COMBINER_CLASS, null, Reducer.class), job);
+		}
+
+		public void reduce(BytesWritable encodedKey, Iterator<V> values, OutputCollector<BytesWritable, V> output, Reporter reporter) throws IOException {
+			NormalizedKeyFieldEncoder.decode(encodedKey, key);
+			collector.output = output;
+			combiner.reduce(key, values, collector, reporter);
+		}
+
+		public void close() throws IOException {
+			combiner.close();
+		}
+	}
+
+	/** Group encoded keys by their normalized prefix, which is equal exactly when the key field specification considers the keys equal,
+	 * or with the job's own grouping comparator, {@link #GROUPING_COMPARATOR_CLASS}, on the original keys.
+	 */
+	public static class PrefixGroupingComparator extends WritableComparator implements Configurable {
+		Configuration conf;
+		/** The job's grouping comparator, null to group by the prefix. */
+		RawComparator<Text> grouping;
+		Text key1 = new Text();
+		Text key2 = new Text();
+
+		public PrefixGroupingComparator() {
+			super(BytesWritable.class);
+		}
+
+		@SuppressWarnings("unchecked")
+		public void setConf(Configuration conf) {
+			this.conf = conf;
+			final Class<? extends RawComparator> groupingClass = conf.getClass(GROUPING_COMPARATOR_CLASS, null, RawComparator.class);
+			grouping = groupingClass == null ? null : ReflectionUtils.newInstance(groupingClass, conf);
+		}
+
+		public Configuration getConf() {
+			return conf;
+		}
+
+		/** The serialized {@link BytesWritable} has a 4 byte length before the encoded key. */
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			if (grouping != null) {
+				decode(b1, s1 + 4, l1 - 4, key1);
+				decode(b2, s2 + 4, l2 - 4, key2);
+				return grouping.compare(key1, key2);
+			}
+			return compareBytes(b1, s1 + 4, NormalizedKeyFieldEncoder.prefixLength(b1, s1 + 4, l1 - 4),
+					b2, s2 + 4, NormalizedKeyFieldEncoder.prefixLength(b2, s2 + 4, l2 - 4));
+		}
+
+		/** The reduce task groups with this form. */
+		@SuppressWarnings("unchecked")
+		@Override
+		public int compare(WritableComparable a, WritableComparable b) {
+			final BytesWritable k1 = (BytesWritable) a;
+			final BytesWritable k2 = (BytesWritable) b;
+			if (grouping != null) {
+				NormalizedKeyFieldEncoder.decode(k1, key1);
+				NormalizedKeyFieldEncoder.decode(k2, key2);
+				return grouping.compare(key1, key2);
+			}
+			return compareBytes(k1.getBytes(), 0, NormalizedKeyFieldEncoder.prefixLength(k1.getBytes(), 0, k1.getLength()),
+					k2.getBytes(), 0, NormalizedKeyFieldEncoder.prefixLength(k2.getBytes(), 0, k2.getLength()));
+		}
+
+		/** Copy the original key out of the encoded key in <code>b</code> from <code>s</code> for <code>l</code> bytes. */
+		static void decode(byte[] b, int s, int l, Text key) {
+			final int prefixLength = NormalizedKeyFieldEncoder.prefixLength(b, s, l);
+			key.set(b, s + prefixLength, l - prefixLength - NormalizedKeyFieldEncoder.TRAILER_LENGTH);
+		}
+	}
+
+	/** Partition encoded keys by the hash of their normalized prefix, so each group goes to a single reduce,
+	 * or with the job's own partitioner, {@link #PARTITIONER_CLASS}, on the original key.
+	 */
+	public static class PrefixPartitioner<V> implements Partitioner<BytesWritable, V> {
+		/** The job's partitioner, null to partition by the prefix. */
+		Partitioner<Text, V> partitioner;
+		Text key = new Text();
+
+		@SuppressWarnings("unchecked")
+		public void configure(JobConf job) {
+			final Class<? extends Partitioner> partitionerClass = job.getClass(PARTITIONER_CLASS, null, Partitioner.class);
+			partitioner = partitionerClass == null ? null : ReflectionUtils.newInstance(partitionerClass, job);
+		}
+
+		public int getPartition(BytesWritable key, V value, int numReduceTasks) {
+			if (partitioner != null) {
+				NormalizedKeyFieldEncoder.decode(key, this.key);
+				return partitioner.getPartition(this.key, value, numReduceTasks);
+			}
+			final int hash = WritableComparator.hashBytes(key.getBytes(), NormalizedKeyFieldEncoder.prefixLength(key.getBytes(), 0, key.getLength()));
+			return (hash & Integer.MAX_VALUE) % numReduceTasks;
+		}
+	}
+}
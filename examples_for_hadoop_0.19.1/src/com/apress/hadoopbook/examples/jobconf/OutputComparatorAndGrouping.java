@@ -4,6 +4,8 @@
 package com.apress.hadoopbook.examples.jobconf;
 
 import java.io.IOException;
+import java.nio.charset.CharacterCodingException;
+import java.util.Arrays;
 import java.util.Formatter;
 import java.util.Iterator;
 import java.util.Random;
@@ -12,6 +14,7 @@ import java.util.regex.Pattern;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.apache.hadoop.conf.Configurable;
 import org.apache.hadoop.conf.Configuration;
 import org.apache.hadoop.conf.Configured;
 import org.apache.hadoop.fs.FSDataOutputStream;
@@ -21,6 +24,7 @@ import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.WritableComparable;
 import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapred.FileInputFormat;
 import org.apache.hadoop.mapred.FileSplit;
 import org.apache.hadoop.mapred.JobClient;
@@ -53,6 +57,9 @@ import org.apache.hadoop.util.ToolRunner;
  * The MapOutputComparator is the standard comparator that uses the entire key for sorting, which ensures that we will see the keys in order.
  * 
  * The input data is in a random order to ensure that the sort demonstration works by design rather than by accident.
+ * 
+ * With a leading <code>-normalizedKeys</code> argument the keys are sorted by {@link NormalizedKeyFieldSort}, as encoded byte strings,
+ * and the partitioner and the grouping comparator are passed the original keys.
  * @author Jason
  *
  */
@@ -84,11 +91,28 @@ public class OutputComparatorAndGrouping extends Configured implements Tool {
 	 *  This particular class extracts a numerical field from the keys,
 	 *  and if the resulting integer quotient is equal after division by the {@link #groupingFactor},
 	 *  the keys are considered equal. 
+	 *
+	 *  The field is the last whole number in the key, that has a leading white space character before it or is the only item in the key,
+	 *  as the regular expression <code>(?:^|\s)(-?[0-9]+)$</code> would find it. Rather than decoding the key to a String and running
+	 *  a {@link Matcher}, the UTF-8 bytes are scanned backwards from the end of the key, so no objects are created per comparison.
+	 *  Both the raw byte form and the object form, which is what the 0.19 reduce task uses for grouping, take the same path.
+	 *
+	 *  The grouping factor is read from the configuration key {@link #GROUPING_FACTOR}, the framework passes the {@link JobConf}
+	 *  to {@link #setConf(Configuration)} when it constructs the comparator.
 	 * 
 	 * @author Jason
 	 *
 	 */
-	static class ValueGroupingComparator extends WritableComparator {
+	static class ValueGroupingComparator extends WritableComparator implements Configurable {
+
+		/** The configuration key for the grouping factor. */
+		public static final String GROUPING_FACTOR = "examples.jobconf.grouping.factor";
+
+		/** The default grouping factor. */
+		public static final int DEFAULT_GROUPING_FACTOR = 5;
+
+		/** Returned by {@link #trailingNumber(byte[], int, int)} if the key has no trailing number. */
+		static final long NO_NUMBER = Long.MIN_VALUE;
 
 		/** Framework required constructors. */
 		public ValueGroupingComparator() {
@@ -110,7 +134,25 @@ public class OutputComparatorAndGrouping extends Configured implements Tool {
 		 /** Use this as the divisor to determine the quotient of a key's specified numeric field.
 		  * 20/5 = 4, 21/5 = 4, 24/5 = 4, 25/5 = 5.
 		  */
-		int groupingFactor = 5;
+		int groupingFactor = DEFAULT_GROUPING_FACTOR;
+
+		/** The configuration passed to {@link #setConf(Configuration)}. */
+		Configuration conf;
+
+		/** Pick up the {@link #GROUPING_FACTOR}.
+		 * @see org.apache.hadoop.conf.Configurable#setConf(org.apache.hadoop.conf.Configuration)
+		 */
+		public void setConf(Configuration conf) {
+			this.conf = conf;
+			groupingFactor = conf.getInt(GROUPING_FACTOR, DEFAULT_GROUPING_FACTOR);
+			if (groupingFactor < 1) {
+				throw new IllegalArgumentException("The grouping factor " + GROUPING_FACTOR + " must be at least 1, not " + groupingFactor);
+			}
+		}
+
+		public Configuration getConf() {
+			return conf;
+		}
 		
 		/** Group the keys by the grouping factor. in this case for our numeric field
 		 * value 0->4 is in the first group, 5-9 in the second group and so on.
@@ -130,20 +172,90 @@ public class OutputComparatorAndGrouping extends Configured implements Tool {
 			return 0;
 		}
 
-		/** Look for the last whole number in the key, that has a leading space before it or is the only item in the key. */
-		static Pattern valueGroupingPattern = Pattern.compile( "(?:^|\\s)(-?[0-9]+)$");
-		
-		/** Used to ensure that the matching is thread safe. This is probably overkill. */
-		static ThreadLocal<Matcher> localMatcher = new ThreadLocal<Matcher>() {
-			@Override
-			/** Create an initial matcher object for our pattern {@link #valueGroupingPattern}.
-			 * @return a {@link Matcher} object that can be used for searching for {@link #valueGroupingPattern}.
-			 */
-			protected Matcher initialValue() {
-				return valueGroupingPattern.matcher("");
+		/** Find the trailing number in the UTF-8 bytes of a key, the last run of digits, with an optional leading minus sign,
+		 * that is at the start of the key or follows a white space character. As with <code>$</code> in a regular expression,
+		 * a single line terminator at the very end of the key is ignored.
+		 *
+		 * @param b The bytes of the key
+		 * @param s The start of the key in <code>b</code>
+		 * @param l The length of the key
+		 * @return The number, or {@link #NO_NUMBER} if there is none.
+		 * @throws NumberFormatException if the number does not fit in an int, as {@link Integer#parseInt(String)} would.
+		 */
+		static long trailingNumber( final byte[] b, final int s, final int l ) {
+			int end = s + l;
+			/** Drop one final line terminator: \n, \r, \r\n, U+0085, U+2028 or U+2029. */
+			if (end > s) {
+				final byte last = b[end - 1];
+				if (last == '\n') {
+					end--;
+					if (end > s && b[end - 1] == '\r') {
+						end--;
+					}
+				} else if (last == '\r') {
+					end--;
+				} else if (end - s >= 2 && last == (byte) 0x85 && b[end - 2] == (byte) 0xc2) {
+					end -= 2;
+				} else if (end - s >= 3 && (last == (byte) 0xa8 || last == (byte) 0xa9) && b[end - 2] == (byte) 0x80 && b[end - 3] == (byte) 0xe2) {
+					end -= 3;
+				}
 			}
-		};
-		
+			int i = end;
+			while (i > s && b[i - 1] >= '0' && b[i - 1] <= '9') {
+				i--;
+			}
+			if (i == end) {
+				return NO_NUMBER;
+			}
+			final int digits = i;
+			boolean negative = false;
+			if (i > s && b[i - 1] == '-') {
+				negative = true;
+				i--;
+			}
+			if (i > s && !isWhiteSpace(b[i - 1])) {
+				return NO_NUMBER;
+			}
+			long value = 0;
+			for (int j = digits; j < end; j++) {
+				value = value * 10 + (b[j] - '0');
+				if (value > 0x80000000L) {
+					throw new NumberFormatException("Trailing number in grouping key does not fit in an int");
+				}
+			}
+			if (negative) {
+				value = -value;
+			}
+			if (value > Integer.MAX_VALUE) {
+				throw new NumberFormatException("Trailing number in grouping key does not fit in an int");
+			}
+			return value;
+		}
+
+		/** Decode a key for logging. */
+		static String keyString( final byte[] b, final int s, final int l ) {
+			try {
+				return Text.decode(b, s, l);
+			} catch (CharacterCodingException e) {
+				return "(not UTF-8)";
+			}
+		}
+
+		/** The characters matched by <code>\s</code>. */
+		static boolean isWhiteSpace( final byte c ) {
+			return c == ' ' || c == '\t' || c == '\n' || c == 0x0b || c == '\f' || c == '\r';
+		}
+
+		/** Compare the serialized keys, a vint length followed by the UTF-8 bytes.
+		 * @see org.apache.hadoop.io.WritableComparator#compare(byte[], int, int, byte[], int, int)
+		 */
+		@Override
+		public int compare(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
+			final int n1 = WritableUtils.decodeVIntSize(b1[s1]);
+			final int n2 = WritableUtils.decodeVIntSize(b2[s2]);
+			return compareKeys(b1, s1 + n1, l1 - n1, b2, s2 + n2, l2 - n2);
+		}
+
 		/** If the keys are of the form 'something space number' we will use the number to group the keys.
 		 * If not, then the natural ordering will be used.
 		 * 
@@ -152,39 +264,47 @@ public class OutputComparatorAndGrouping extends Configured implements Tool {
 		 * @param o1 The left hand side key object to compare. This should be of type Text
 		 * @param o2 The right hand side key object to compare. This should be of type Text
 		 */
+		@SuppressWarnings("unchecked")
 		@Override
 		public int compare(Object o1, Object o2) {
 			
 			/** If the keys are not text objects use the natural comparator. */
 			if (!(o1 instanceof Text && o2 instanceof Text) ) {
 				LOG.error( "Can't compare grouping keys, wrong type " + o1.getClass().getName() + ", " + o2.getClass().getName());
-				return super.compare( o1, o2);
+				return super.compare( (WritableComparable) o1, (WritableComparable) o2);
 			}
-			String left = ((Text) o1).toString();
-			String right = ((Text) o2).toString();
-			
+			final Text left = (Text) o1;
+			final Text right = (Text) o2;
+			return compareKeys(left.getBytes(), 0, left.getLength(), right.getBytes(), 0, right.getLength());
+		}
+
+		/** Route the typed form to {@link #compare(Object, Object)}, so the grouping applies whichever overload the caller binds to.
+		 * @see org.apache.hadoop.io.WritableComparator#compare(org.apache.hadoop.io.WritableComparable, org.apache.hadoop.io.WritableComparable)
+		 */
+		@SuppressWarnings("unchecked")
+		@Override
+		public int compare(WritableComparable a, WritableComparable b) {
+			return compare((Object) a, (Object) b);
+		}
+
+		/** Compare the UTF-8 bytes of two keys by the group of their trailing numbers, or by the bytes if either has no trailing number. */
+		int compareKeys(byte[] b1, int s1, int l1, byte[] b2, int s2, int l2) {
 			/** Extract the number portion of the keys (the second and last field if the fields are space separated. */
-			Matcher matcher = localMatcher.get();
-			
-			matcher.reset( left );
-			if (!matcher.find()) {
+			final long leftNumber = trailingNumber(b1, s1, l1);
+			if (leftNumber == NO_NUMBER) {
 				/** The key doesn't match our key pattern, use the natural comparator.*/
-				LOG.error( "Can't find trailing index in key o1 " + left);
-				return super.compare(o1, o2);
+				LOG.error( "Can't find trailing index in key o1 " + keyString(b1, s1, l1));
+				return compareBytes(b1, s1, l1, b2, s2, l2);
 			}
-			int leftNumber = Integer.parseInt(matcher.group(1));
-			
-			matcher.reset( right );
-			if (!matcher.find()) {
+			final long rightNumber = trailingNumber(b2, s2, l2);
+			if (rightNumber == NO_NUMBER) {
 				/** The key doesn't match our key pattern, use the natural comparator.*/
-				LOG.error( "Can't find trailing index in key o2 " + right);
-				return super.compare( o1, o2);
+				LOG.error( "Can't find trailing index in key o2 " + keyString(b2, s2, l2));
+				return compareBytes(b1, s1, l1, b2, s2, l2);
 			}
-			int rightNumber = Integer.parseInt(matcher.group(1));
 			
 			/** Call the grouping comparator with the numbers. */
-			return compareGroups( leftNumber, rightNumber );
-			
+			return compareGroups( (int) leftNumber, (int) rightNumber );
 		}
 		
 	}
@@ -272,8 +392,13 @@ public class OutputComparatorAndGrouping extends Configured implements Tool {
 	 * @see org.apache.hadoop.util.Tool#run(java.lang.String[])
 	 */
 	  public int run(String[] args) throws Exception {
+	    /** The optional leading flag to sort on normalized keys. */
+	    final boolean normalizedKeys = args.length > 0 && args[0].equals("-normalizedKeys");
+	    if (normalizedKeys) {
+	    	args = Arrays.copyOfRange(args, 1, args.length);
+	    }
 	    if (args.length < 2) {
-	      System.err.println("Usage: OutputComparatorAndGrouping startInt countInt. StartInt must be > countInt/2");
+	      System.err.println("Usage: OutputComparatorAndGrouping [-normalizedKeys] startInt countInt. StartInt must be > countInt/2");
 	      ToolRunner.printGenericCommandUsage(System.err);
 	      return -1;
 	    }
@@ -355,6 +480,11 @@ public class OutputComparatorAndGrouping extends Configured implements Tool {
 	     */
 	    job.setOutputValueGroupingComparator(ValueGroupingComparator.class);
 	    
+	    if (normalizedKeys) {
+	    	/** The whole key is the sort key, the partitioner and the grouping comparator set above are kept. */
+	    	NormalizedKeyFieldSort.setupJob(job);
+	    }
+	    
 	    /** Send the job to the framework. */
 	    launch(job);
 	    
@@ -0,0 +1,236 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableComparator;
+
+/** A compact multi map from raw key bytes to the values of several tables, for the small side of a broadcast join.
+ *
+ * Keys and values are copied into a single byte arena, and the keys are found through an open addressing table of arena offsets,
+ * probed linearly, with the key hashes held alongside so that most probes do not touch the arena. A table of a few million entries
+ * is a few arrays rather than millions of objects, so it costs little more heap than the bytes it holds and adds nothing for the
+ * garbage collector to trace.
+ *
+ * A key entry in the arena is the key length, the key bytes, and the first and last value offsets of each table.
+ * A value entry is the offset of the next value of the same key and table, the value length and the value bytes.
+ * The values of a key and table are returned in the order they were added. Offsets are ints and {@link #NONE} ends a list,
+ * so the arena is limited to 2gb.
+ *
+ * @author Jason
+ *
+ */
+public class ArenaHashTable {
+	/** The offset that marks the end of a value list, or a missing key. */
+	public static final int NONE = -1;
+
+	/** The number of tables each key has value lists for. */
+	final int tables;
+	/** The arena of key and value entries. */
+	byte[] arena;
+	/** The number of bytes of {@link #arena} in use. */
+	int used = 0;
+	/** The arena offset of the key entry in each slot, {@link #NONE} if the slot is empty. */
+	int[] slots;
+	/** The hash of the key in each slot. */
+	int[] hashes;
+	/** The number of keys. */
+	int keys = 0;
+	/** The number of values. */
+	long values = 0;
+
+	/**
+	 * @param tables The number of tables each key has values for
+	 * @param expectedKeys The number of keys expected, the table grows past this
+	 * @param arenaBytes The initial size of the arena, it grows as needed
+	 */
+	public ArenaHashTable(final int tables, final int expectedKeys, final int arenaBytes) {
+		this.tables = tables;
+		this.arena = new byte[Math.max(arenaBytes, 64)];
+		int capacity = 16;
+		while (capacity < expectedKeys * 2) {
+			capacity <<= 1;
+		}
+		allocateSlots(capacity);
+	}
+
+	void allocateSlots(final int capacity) {
+		slots = new int[capacity];
+		hashes = new int[capacity];
+		Arrays.fill(slots, NONE);
+	}
+
+	/** @return the number of distinct keys */
+	public int size() {
+		return keys;
+	}
+
+	/** @return the number of values */
+	public long getValueCount() {
+		return values;
+	}
+
+	/** @return the bytes of heap held by the arena and the slot arrays */
+	public long getMemoryBytes() {
+		return arena.length + 8L * slots.length;
+	}
+
+	/** @return the arena, the value bytes returned by {@link #valueStart(int)} are in this array, which is replaced as the arena grows */
+	public byte[] getArena() {
+		return arena;
+	}
+
+	/** Spread the bits of the key hash, so that keys that differ only in the high bits use different slots. */
+	static int hash(final byte[] key, final int length) {
+		final int h = WritableComparator.hashBytes(key, length);
+		return h ^ (h >>> 16);
+	}
+
+	/** Find the slot for <code>key</code>, either its slot or the empty slot it would go in. */
+	int slot(final byte[] key, final int length, final int hash) {
+		final int mask = slots.length - 1;
+		int slot = hash & mask;
+		while (slots[slot] != NONE) {
+			if (hashes[slot] == hash && keyEquals(slots[slot], key, length)) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	boolean keyEquals(final int entry, final byte[] key, final int length) {
+		return readInt(entry) == length && WritableComparator.compareBytes(arena, entry + 4, length, key, 0, length) == 0;
+	}
+
+	/** Add a value for a key.
+	 *
+	 * @param key The key bytes, from offset 0
+	 * @param keyLength The key length
+	 * @param table The table the value belongs to
+	 * @param value The value bytes, from offset 0
+	 * @param valueLength The value length
+	 */
+	public void add(final byte[] key, final int keyLength, final int table, final byte[] value, final int valueLength) {
+		final int hash = hash(key, keyLength);
+		int slot = slot(key, keyLength, hash);
+		int entry = slots[slot];
+		if (entry == NONE) {
+			if ((keys + 1) * 2 > slots.length) {
+				grow();
+				slot = slot(key, keyLength, hash);
+			}
+			entry = allocate(4 + keyLength + 8 * tables);
+			writeInt(entry, keyLength);
+			System.arraycopy(key, 0, arena, entry + 4, keyLength);
+			for (int i = 0; i < tables; i++) {
+				writeInt(entry + 4 + keyLength + 8 * i, NONE);
+				writeInt(entry + 8 + keyLength + 8 * i, NONE);
+			}
+			slots[slot] = entry;
+			hashes[slot] = hash;
+			keys++;
+		}
+		final int valueEntry = allocate(8 + valueLength);
+		writeInt(valueEntry, NONE);
+		writeInt(valueEntry + 4, valueLength);
+		System.arraycopy(value, 0, arena, valueEntry + 8, valueLength);
+		final int lists = entry + 4 + readInt(entry) + 8 * table;
+		final int last = readInt(lists + 4);
+		if (last == NONE) {
+			writeInt(lists, valueEntry);
+		} else {
+			writeInt(last, valueEntry);
+		}
+		writeInt(lists + 4, valueEntry);
+		values++;
+	}
+
+	/** Double the slot arrays and reinsert the keys. */
+	void grow() {
+		final int[] oldSlots = slots;
+		final int[] oldHashes = hashes;
+		allocateSlots(oldSlots.length * 2);
+		final int mask = slots.length - 1;
+		for (int i = 0; i < oldSlots.length; i++) {
+			if (oldSlots[i] != NONE) {
+				int slot = oldHashes[i] & mask;
+				while (slots[slot] != NONE) {
+					slot = (slot + 1) & mask;
+				}
+				slots[slot] = oldSlots[i];
+				hashes[slot] = oldHashes[i];
+			}
+		}
+	}
+
+	/** Reserve <code>bytes</code> of the arena, doubling it if required, and return the offset. */
+	int allocate(final int bytes) {
+		if (used + bytes > arena.length) {
+			long capacity = arena.length;
+			while (used + bytes > capacity) {
+				capacity *= 2;
+			}
+			if (capacity > Integer.MAX_VALUE) {
+				if (used + (long) bytes > Integer.MAX_VALUE) {
+					throw new IllegalStateException("The arena can not hold more than 2gb");
+				}
+				capacity = Integer.MAX_VALUE;
+			}
+			final byte[] larger = new byte[(int) capacity];
+			System.arraycopy(arena, 0, larger, 0, used);
+			arena = larger;
+		}
+		final int offset = used;
+		used += bytes;
+		return offset;
+	}
+
+	/** Find a key.
+	 *
+	 * @param key The key bytes, from offset 0
+	 * @param keyLength The key length
+	 * @return The key entry, or {@link #NONE} if the key is not present
+	 */
+	public int find(final byte[] key, final int keyLength) {
+		return slots[slot(key, keyLength, hash(key, keyLength))];
+	}
+
+	/** The first value of a key for a table.
+	 *
+	 * @param entry A key entry from {@link #find(byte[], int)}
+	 * @param table The table
+	 * @return The value entry, or {@link #NONE} if the key has no values in the table
+	 */
+	public int first(final int entry, final int table) {
+		return readInt(entry + 4 + readInt(entry) + 8 * table);
+	}
+
+	/** @return the value entry after <code>value</code> for the same key and table, or {@link #NONE} */
+	public int next(final int value) {
+		return readInt(value);
+	}
+
+	/** @return the offset in {@link #getArena()} of the bytes of <code>value</code> */
+	public int valueStart(final int value) {
+		return value + 8;
+	}
+
+	/** @return the length of <code>value</code> */
+	public int valueLength(final int value) {
+		return readInt(value + 4);
+	}
+
+	int readInt(final int offset) {
+		return WritableComparator.readInt(arena, offset);
+	}
+
+	void writeInt(final int offset, final int value) {
+		arena[offset] = (byte) (value >>> 24);
+		arena[offset + 1] = (byte) (value >>> 16);
+		arena[offset + 2] = (byte) (value >>> 8);
+		arena[offset + 3] = (byte) value;
+	}
+}
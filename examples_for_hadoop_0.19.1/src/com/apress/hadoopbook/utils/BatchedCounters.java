@@ -0,0 +1,220 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.mapred.Counters.Counter;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.Reporter;
+
+/** Accumulate counter increments locally and pass them to the {@link Reporter} in batches.
+ *
+ * Each {@link Reporter#incrCounter(String, String, long)} call looks up the group and counter by name, and hot paths
+ * often build the name for each record as well. Here the counters are registered once, usually in the configure method,
+ * and the returned {@link Handle} indexes a local <code>long</code> slot. {@link #record(Reporter)} is called once per record,
+ * and every {@link #FLUSH_RECORDS} records the non zero slots are passed to the reporter and cleared.
+ * The owner must call {@link #flush()} when it closes, {@link ExamplesMapReduceBase#close()} does this, so the totals are exact.
+ *
+ * Code that takes a {@link Reporter}, such as a partitioner helper, can be given {@link #wrap(Reporter)}, which batches the
+ * named counter increments through the same slots.
+ *
+ * @author Jason
+ *
+ */
+public class BatchedCounters {
+	/** The configuration key for the number of records between flushes. */
+	public static final String FLUSH_RECORDS = "examples.counters.flush.records";
+	/** The default number of records between flushes. */
+	public static final int DEFAULT_FLUSH_RECORDS = 1000;
+
+	/** A registered counter. */
+	public static final class Handle {
+		final String group;
+		final String name;
+		final Enum<?> key;
+		final int slot;
+
+		Handle(final String group, final String name, final Enum<?> key, final int slot) {
+			this.group = group;
+			this.name = name;
+			this.key = key;
+			this.slot = slot;
+		}
+
+		public String toString() {
+			return key != null ? key.toString() : group + ":" + name;
+		}
+	}
+
+	/** The registered counters, indexed by slot. */
+	List<Handle> handles = new ArrayList<Handle>();
+	/** The unreported increments, indexed by slot. */
+	long[] deltas = new long[16];
+	/** The named counters, by group then name. */
+	Map<String, Map<String, Handle>> byName = new HashMap<String, Map<String, Handle>>();
+	/** The enum counters. */
+	Map<Enum<?>, Handle> byEnum = new HashMap<Enum<?>, Handle>();
+
+	/** The number of records between flushes. */
+	final int flushRecords;
+	/** The number of records since the last flush. */
+	int records = 0;
+	/** The reporter from the most recent {@link #record(Reporter)}, used by {@link #flush()}. */
+	Reporter reporter;
+	/** The batching wrapper for {@link #reporter}. */
+	Reporter wrapper;
+	/** The reporter {@link #wrapper} delegates to. */
+	Reporter wrapped;
+
+	/**
+	 * @param conf The configuration to read {@link #FLUSH_RECORDS} from
+	 */
+	public BatchedCounters(final Configuration conf) {
+		this(conf.getInt(FLUSH_RECORDS, DEFAULT_FLUSH_RECORDS));
+	}
+
+	/**
+	 * @param flushRecords The number of records between flushes, 1 passes every increment through at the end of the record
+	 */
+	public BatchedCounters(final int flushRecords) {
+		if (flushRecords < 1) {
+			throw new IllegalArgumentException("The counter flush interval must be at least 1 record, not " + flushRecords);
+		}
+		this.flushRecords = flushRecords;
+	}
+
+	/** Register the counter <code>name</code> in <code>group</code>, registering the same counter twice returns the same handle.
+	 *
+	 * @param group The counter group
+	 * @param name The counter name
+	 * @return The handle to pass to {@link #incr(Handle)}
+	 */
+	public Handle register(final String group, final String name) {
+		Map<String, Handle> groupHandles = byName.get(group);
+		if (groupHandles == null) {
+			groupHandles = new HashMap<String, Handle>();
+			byName.put(group, groupHandles);
+		}
+		Handle handle = groupHandles.get(name);
+		if (handle == null) {
+			handle = newHandle(group, name, null);
+			groupHandles.put(name, handle);
+		}
+		return handle;
+	}
+
+	/** Register the enum counter <code>key</code>, registering the same counter twice returns the same handle.
+	 *
+	 * @param key The counter
+	 * @return The handle to pass to {@link #incr(Handle)}
+	 */
+	public Handle register(final Enum<?> key) {
+		Handle handle = byEnum.get(key);
+		if (handle == null) {
+			handle = newHandle(null, null, key);
+			byEnum.put(key, handle);
+		}
+		return handle;
+	}
+
+	/** Add 1 to the counter. */
+	public void incr(final Handle handle) {
+		deltas[handle.slot]++;
+	}
+
+	/** Add <code>amount</code> to the counter. */
+	public void incr(final Handle handle, final long amount) {
+		deltas[handle.slot] += amount;
+	}
+
+	/** Note the start of a record, flushing if {@link #FLUSH_RECORDS} records have passed since the last flush.
+	 *
+	 * @param reporter The reporter for this record, it is saved for {@link #flush()}
+	 */
+	public void record(final Reporter reporter) {
+		this.reporter = reporter;
+		if (++records >= flushRecords) {
+			flush();
+		}
+	}
+
+	/** Pass the accumulated increments to the last reporter seen by {@link #record(Reporter)} or {@link #wrap(Reporter)}.
+	 * Nothing is done if no reporter has been seen, which means no record has been counted either.
+	 */
+	public void flush() {
+		records = 0;
+		if (reporter == null) {
+			return;
+		}
+		for (int i = 0, size = handles.size(); i < size; i++) {
+			final long delta = deltas[i];
+			if (delta == 0) {
+				continue;
+			}
+			deltas[i] = 0;
+			final Handle handle = handles.get(i);
+			if (handle.key != null) {
+				reporter.incrCounter(handle.key, delta);
+			} else {
+				reporter.incrCounter(handle.group, handle.name, delta);
+			}
+		}
+	}
+
+	/** Return a {@link Reporter} whose counter increments go through this batch, everything else goes to <code>reporter</code>.
+	 * The wrapper is reused as long as <code>reporter</code> does not change.
+	 *
+	 * @param reporter The reporter to wrap, it is saved for {@link #flush()}
+	 * @return The batching reporter
+	 */
+	public Reporter wrap(final Reporter reporter) {
+		this.reporter = reporter;
+		if (wrapped != reporter) {
+			wrapped = reporter;
+			wrapper = new Reporter() {
+				@SuppressWarnings("unchecked")
+				public void incrCounter(Enum key, long amount) {
+					incr(register(key), amount);
+				}
+
+				public void incrCounter(String group, String counter, long amount) {
+					incr(register(group, counter), amount);
+				}
+
+				public Counter getCounter(String group, String name) {
+					flush();
+					return reporter.getCounter(group, name);
+				}
+
+				public InputSplit getInputSplit() throws UnsupportedOperationException {
+					return reporter.getInputSplit();
+				}
+
+				public void setStatus(String status) {
+					reporter.setStatus(status);
+				}
+
+				public void progress() {
+					reporter.progress();
+				}
+			};
+		}
+		return wrapper;
+	}
+
+	private Handle newHandle(final String group, final String name, final Enum<?> key) {
+		final Handle handle = new Handle(group, name, key, handles.size());
+		handles.add(handle);
+		if (handle.slot == deltas.length) {
+			deltas = Arrays.copyOf(deltas, deltas.length * 2);
+		}
+		return handle;
+	}
+}
@@ -58,6 +58,13 @@ public class ExamplesMapReduceBase extends MapReduceBase {
 		List<Path>  nonClassPathArchives;
 		List<Path>  nonClassPathFiles;
 
+		/** The batched counters, register the per record counters in the configure method and call
+		 * {@link BatchedCounters#record(Reporter)} at the start of each record.
+		 * The increments are passed to the reporter every {@link BatchedCounters#FLUSH_RECORDS} records, in {@link #close()}
+		 * and in {@link #throwsIOExcepction(Reporter, String, Throwable)}.
+		 */
+		protected BatchedCounters counters;
+
 		
 		/** Our standard config method, really should refactor much of this into a base class.
 		 * 
@@ -72,6 +79,7 @@ public class ExamplesMapReduceBase extends MapReduceBase {
 			}
 			super.configure(job);
 			conf = job;
+			counters = new BatchedCounters(conf);
 
 			taskName = conf.getJobName();
 			taskId = TaskAttemptID.forName(conf.get("mapred.task.id"));
@@ -93,13 +101,16 @@ public class ExamplesMapReduceBase extends MapReduceBase {
 		}
 
 		
-		/** Just record the event
+		/** Flush the batched counters.
 		 * @see org.apache.hadoop.mapred.MapReduceBase#close()
 		 */
 		@Override
 		public void close() throws IOException
 		{
 			super.close();
+			if (counters!=null) {
+				counters.flush();
+			}
 
 		}
 
@@ -126,6 +137,9 @@ public class ExamplesMapReduceBase extends MapReduceBase {
 		 */
 		public void throwsIOExcepction( Reporter reporter, String message, Throwable e) throws IOException {
 		
+			if (counters!=null) {	/** The task is about to fail, report what has been counted. */
+				counters.flush();
+			}
 			if (reporter!=null) {
 				reporter.incrCounter(taskName, getType() + "ExceptionsTotal", 1);
 				reporter.incrCounter(taskName, getType() + "Exceptions." + e.getClass().getName(), 1);
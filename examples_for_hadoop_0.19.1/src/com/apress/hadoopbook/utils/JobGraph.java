@@ -0,0 +1,288 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedList;
+import java.util.List;
+
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.log4j.Logger;
+
+/** A set of jobs and the jobs each one depends on, run with as many independent jobs in flight at once as allowed.
+ *
+ * Jobs are added with {@link #add(String, JobConf, Job...)}, naming jobs already in the graph as their dependencies,
+ * so the graph can not have cycles. {@link #run(int)} submits each job through {@link JobClient#submitJob(JobConf)}
+ * once all of its dependencies have succeeded, and polls the running jobs. On the first failure the running jobs are killed
+ * and no further jobs are submitted.
+ *
+ * {@link #report(PrintStream)} prints the wall time of each job and the critical path, the chain of dependent jobs with the
+ * largest total wall time, which is the lower bound on the graph's run time however many jobs are run at once.
+ *
+ * @author Jason
+ *
+ */
+public class JobGraph {
+	static Logger LOG = Logger.getLogger(JobGraph.class);
+
+	/** The default time between polls of the running jobs, in milliseconds. */
+	public static final long DEFAULT_POLL_INTERVAL = 1000;
+
+	/** The states a job passes through. */
+	public enum State { WAITING, RUNNING, SUCCEEDED, FAILED, KILLED, NOT_RUN }
+
+	/** A job in the graph. */
+	public static class Job {
+		final String name;
+		final JobConf conf;
+		final List<Job> dependencies;
+		State state = State.WAITING;
+		RunningJob runningJob;
+		long startTime;
+		long endTime;
+
+		Job(final String name, final JobConf conf, final List<Job> dependencies) {
+			this.name = name;
+			this.conf = conf;
+			this.dependencies = dependencies;
+		}
+
+		/** @return the name the job was added with */
+		public String getName() {
+			return name;
+		}
+
+		/** @return the job's configuration */
+		public JobConf getConf() {
+			return conf;
+		}
+
+		/** @return the job's state */
+		public State getState() {
+			return state;
+		}
+
+		/** @return the {@link RunningJob} for the job, null if it was never submitted */
+		public RunningJob getRunningJob() {
+			return runningJob;
+		}
+
+		/** @return the time from submission to completion in milliseconds, 0 if the job was not run */
+		public long getWallTime() {
+			return runningJob == null ? 0 : endTime - startTime;
+		}
+
+		boolean isReady() {
+			for (Job dependency : dependencies) {
+				if (dependency.state != State.SUCCEEDED) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	/** The jobs, in the order they were added. */
+	final List<Job> jobs = new ArrayList<Job>();
+	/** The time between polls of the running jobs, in milliseconds. */
+	long pollInterval = DEFAULT_POLL_INTERVAL;
+	/** The time {@link #run(int)} started and finished. */
+	long startTime;
+	long endTime;
+
+	/** Add a job to the graph.
+	 *
+	 * @param name The name used in the report
+	 * @param conf The job configuration, submitted as is
+	 * @param dependsOn The jobs, already in this graph, that must succeed before this job is submitted
+	 * @return The job, for use as a dependency of later jobs
+	 * @throws IllegalArgumentException if a dependency is not in this graph
+	 */
+	public Job add(final String name, final JobConf conf, final Job... dependsOn) {
+		for (Job dependency : dependsOn) {
+			if (!jobs.contains(dependency)) {
+				throw new IllegalArgumentException("Job " + name + " depends on " + dependency.name + " which is not in the graph");
+			}
+		}
+		Job job = new Job(name, conf, Arrays.asList(dependsOn));
+		jobs.add(job);
+		return job;
+	}
+
+	/** @return the jobs, in the order they were added */
+	public List<Job> getJobs() {
+		return jobs;
+	}
+
+	/** @param pollInterval the time between polls of the running jobs, in milliseconds */
+	public void setPollInterval(long pollInterval) {
+		this.pollInterval = pollInterval;
+	}
+
+	/** Decide if a completed job succeeded. Override to examine the counters as well.
+	 *
+	 * @param rj The completed job
+	 * @return true if the job succeeded
+	 * @throws IOException
+	 */
+	protected boolean isSuccessful(final RunningJob rj) throws IOException {
+		return rj.isSuccessful();
+	}
+
+	/** Submit a job to the framework.
+	 *
+	 * Each job gets its own {@link JobClient}, the local job runner sets up the job output with the configuration of the client.
+	 *
+	 * @param job The job to submit
+	 * @return The running job
+	 * @throws IOException if the job can not be submitted
+	 */
+	protected RunningJob submit(final Job job) throws IOException {
+		return new JobClient(job.conf).submitJob(job.conf);
+	}
+
+	/** Run the jobs, submitting each job when its dependencies have succeeded, with at most <code>maxConcurrent</code> jobs running at once.
+	 *
+	 * @param maxConcurrent The most jobs to have running at once, at least 1
+	 * @return true if every job succeeded
+	 * @throws InterruptedException if interrupted while waiting on the running jobs, the running jobs are killed
+	 */
+	public boolean run(final int maxConcurrent) throws InterruptedException {
+		startTime = System.currentTimeMillis();
+		LinkedList<Job> waiting = new LinkedList<Job>(jobs);
+		List<Job> running = new ArrayList<Job>();
+		boolean failed = false;
+		try {
+			while (!failed && (!waiting.isEmpty() || !running.isEmpty())) {
+				/** Submit the ready jobs, in the order they were added, up to the limit. */
+				for (int i = 0; i < waiting.size() && running.size() < Math.max(1, maxConcurrent); ) {
+					Job job = waiting.get(i);
+					if (!job.isReady()) {
+						i++;
+						continue;
+					}
+					waiting.remove(i);
+					job.startTime = System.currentTimeMillis();
+					try {
+						job.runningJob = submit(job);
+						job.state = State.RUNNING;
+						running.add(job);
+						LOG.info("Submitted job " + job.name + " as " + job.runningJob.getID());
+					} catch (IOException e) {
+						LOG.error("Unable to submit job " + job.name, e);
+						job.endTime = System.currentTimeMillis();
+						job.state = State.FAILED;
+						failed = true;
+						break;
+					}
+				}
+				if (failed) {
+					break;
+				}
+				if (running.isEmpty()) {
+					/** Nothing running and nothing can be submitted, the graph is stuck. Cannot happen as dependencies must be added first. */
+					LOG.error("No job can be submitted, " + waiting.size() + " jobs are waiting");
+					failed = true;
+					break;
+				}
+				Thread.sleep(pollInterval);
+				for (int i = 0; i < running.size(); ) {
+					Job job = running.get(i);
+					try {
+						if (!job.runningJob.isComplete()) {
+							i++;
+							continue;
+						}
+						job.endTime = System.currentTimeMillis();
+						job.state = isSuccessful(job.runningJob) ? State.SUCCEEDED : State.FAILED;
+					} catch (IOException e) {
+						LOG.error("Unable to get the status of job " + job.name, e);
+						job.endTime = System.currentTimeMillis();
+						job.state = State.FAILED;
+					}
+					running.remove(i);
+					LOG.info("Job " + job.name + " " + job.state + " after " + job.getWallTime() + "ms");
+					if (job.state == State.FAILED) {
+						failed = true;
+						break;
+					}
+				}
+			}
+		} finally {
+			/** Fail fast, kill anything still running, and nothing else will be submitted. */
+			for (Job job : running) {
+				if (job.state == State.RUNNING) {
+					try {
+						LOG.warn("Killing job " + job.name);
+						job.runningJob.killJob();
+					} catch (IOException e) {
+						LOG.error("Unable to kill job " + job.name, e);
+					}
+					job.endTime = System.currentTimeMillis();
+					job.state = State.KILLED;
+				}
+			}
+			for (Job job : waiting) {
+				job.state = State.NOT_RUN;
+			}
+			endTime = System.currentTimeMillis();
+		}
+		return !failed;
+	}
+
+	/** Find the chain of dependent jobs with the largest total wall time.
+	 *
+	 * @return The jobs on the critical path, first job first
+	 */
+	public List<Job> criticalPath() {
+		/** Jobs are added after their dependencies, so one pass in order computes the longest chain ending at each job. */
+		long[] length = new long[jobs.size()];
+		Job[] previous = new Job[jobs.size()];
+		int last = -1;
+		for (int i = 0; i < jobs.size(); i++) {
+			Job job = jobs.get(i);
+			for (Job dependency : job.dependencies) {
+				int d = jobs.indexOf(dependency);
+				if (previous[i] == null || length[d] > length[jobs.indexOf(previous[i])]) {
+					previous[i] = dependency;
+				}
+			}
+			length[i] = job.getWallTime() + (previous[i] == null ? 0 : length[jobs.indexOf(previous[i])]);
+			if (last == -1 || length[i] > length[last]) {
+				last = i;
+			}
+		}
+		LinkedList<Job> path = new LinkedList<Job>();
+		for (Job job = last == -1 ? null : jobs.get(last); job != null; job = previous[jobs.indexOf(job)]) {
+			path.addFirst(job);
+		}
+		return path;
+	}
+
+	/** Print the state and wall time of each job, the graph's wall time and the critical path.
+	 *
+	 * @param out The stream to print to
+	 */
+	public void report(final PrintStream out) {
+		out.println("Job graph of " + jobs.size() + " jobs ran in " + (endTime - startTime) + "ms");
+		for (Job job : jobs) {
+			out.println("\t" + job.name + "\t" + job.state + "\t" + job.getWallTime() + "ms");
+		}
+		StringBuilder sb = new StringBuilder();
+		long total = 0;
+		for (Job job : criticalPath()) {
+			if (sb.length() > 0) {
+				sb.append(" -> ");
+			}
+			sb.append(job.name);
+			total += job.getWallTime();
+		}
+		out.println("Critical path " + total + "ms: " + sb);
+	}
+}
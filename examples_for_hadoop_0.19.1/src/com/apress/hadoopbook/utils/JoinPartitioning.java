@@ -0,0 +1,235 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.Properties;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.PathFilter;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.log4j.Logger;
+
+/** The partitioning of a data set prepared for map side joins, stored in a {@link #METADATA_NAME} file in the data set directory.
+ *
+ * A map side join through {@link org.apache.hadoop.mapred.join.CompositeInputFormat} pairs part N of each input,
+ * so it is only correct when every input was partitioned by the same partitioner into the same number of parts,
+ * and each part was sorted with the comparator the join uses. The preparing job records the partitioner class,
+ * the key comparator class and the number of parts, and the join drivers call {@link #verify(Configuration, Collection, Class)}
+ * to refuse inputs that do not match.
+ *
+ * The file name starts with an underscore so the {@link org.apache.hadoop.mapred.FileInputFormat} classes ignore it.
+ *
+ * @author Jason
+ *
+ */
+public class JoinPartitioning {
+	static Logger LOG = Logger.getLogger(JoinPartitioning.class);
+
+	/** The name of the metadata file in a prepared data set directory. */
+	public static final String METADATA_NAME = "_join_partitioning";
+
+	/** Accept the part-NNNNN files of a job output directory. */
+	public static final PathFilter PART_FILES = new PathFilter() {
+		public boolean accept(Path path) {
+			return path.getName().matches("^part-[0-9]+$");
+		}
+	};
+
+	final String partitioner;
+	final String comparator;
+	final int parts;
+
+	/**
+	 * @param partitioner The partitioner class name
+	 * @param comparator The key comparator class name
+	 * @param parts The number of part files
+	 */
+	public JoinPartitioning(final String partitioner, final String comparator, final int parts) {
+		this.partitioner = partitioner;
+		this.comparator = comparator;
+		this.parts = parts;
+	}
+
+	/** The partitioning a job produces, with its partitioner and output key comparator.
+	 *
+	 * @param conf The job
+	 * @param parts The number of part files the job wrote
+	 * @return The partitioning
+	 */
+	@SuppressWarnings("unchecked")
+	public static JoinPartitioning forJob(final JobConf conf, final int parts) {
+		final Class<?> comparator = conf.getClass("mapred.output.key.comparator.class", null, RawComparator.class);
+		return new JoinPartitioning(conf.getPartitionerClass().getName(),
+				(comparator != null ? comparator : registeredComparator((Class<? extends WritableComparable>) conf.getMapOutputKeyClass())).getName(), parts);
+	}
+
+	/** The class of the comparator {@link WritableComparator#get(Class)} returns for <code>keyClass</code>, which the framework and the joins use by default.
+	 * Key classes register their comparators when they are initialized, so <code>keyClass</code> is initialized first.
+	 *
+	 * @param keyClass The key class
+	 * @return The comparator class
+	 */
+	@SuppressWarnings("unchecked")
+	public static Class<?> registeredComparator(final Class<? extends WritableComparable> keyClass) {
+		try {
+			Class.forName(keyClass.getName(), true, keyClass.getClassLoader());
+		} catch (ClassNotFoundException e) {
+			throw new IllegalArgumentException("Unable to initialize " + keyClass, e);
+		}
+		return WritableComparator.get(keyClass).getClass();
+	}
+
+	/** @return the partitioner class name */
+	public String getPartitioner() {
+		return partitioner;
+	}
+
+	/** @return the key comparator class name */
+	public String getComparator() {
+		return comparator;
+	}
+
+	/** @return the number of part files */
+	public int getParts() {
+		return parts;
+	}
+
+	/** Count the part-NNNNN files in <code>dir</code>.
+	 *
+	 * @param conf The configuration for file system access
+	 * @param dir The directory
+	 * @return the number of part files
+	 * @throws IOException
+	 */
+	public static int countParts(final Configuration conf, final Path dir) throws IOException {
+		FileStatus[] parts = dir.getFileSystem(conf).listStatus(dir, PART_FILES);
+		return parts == null ? 0 : parts.length;
+	}
+
+	/** Write the metadata file to <code>dir</code>.
+	 *
+	 * @param conf The configuration for file system access
+	 * @param dir The prepared data set directory
+	 * @throws IOException
+	 */
+	public void write(final Configuration conf, final Path dir) throws IOException {
+		Properties properties = new Properties();
+		properties.setProperty("partitioner", partitioner);
+		properties.setProperty("comparator", comparator);
+		properties.setProperty("parts", Integer.toString(parts));
+		OutputStream out = dir.getFileSystem(conf).create(new Path(dir, METADATA_NAME), true);
+		try {
+			properties.store(out, "Map side join partitioning");
+		} finally {
+			Utils.closeIf(out);
+		}
+	}
+
+	/** Read the metadata file of <code>dir</code>.
+	 *
+	 * @param conf The configuration for file system access
+	 * @param dir The data set, a directory or a file
+	 * @return The partitioning, or null if <code>dir</code> has no metadata file
+	 * @throws IOException if the metadata file can not be read or is incomplete
+	 */
+	public static JoinPartitioning read(final Configuration conf, final Path dir) throws IOException {
+		final Path metadata = new Path(dir, METADATA_NAME);
+		final FileSystem fs = dir.getFileSystem(conf);
+		if (!fs.exists(dir) || !fs.getFileStatus(dir).isDir() || !fs.exists(metadata)) {
+			return null;
+		}
+		Properties properties = new Properties();
+		InputStream in = fs.open(metadata);
+		try {
+			properties.load(in);
+		} finally {
+			Utils.closeIf(in);
+		}
+		final String partitioner = properties.getProperty("partitioner");
+		final String comparator = properties.getProperty("comparator");
+		final String parts = properties.getProperty("parts");
+		if (partitioner == null || comparator == null || parts == null) {
+			throw new IOException("Incomplete join partitioning metadata in " + metadata);
+		}
+		try {
+			return new JoinPartitioning(partitioner, comparator, Integer.parseInt(parts));
+		} catch (NumberFormatException e) {
+			throw new IOException("Bad part count " + parts + " in " + metadata);
+		}
+	}
+
+	/** Check that the inputs of a map side join were prepared identically.
+	 *
+	 * If no input has a metadata file, the inputs are assumed to have been arranged by hand and null is returned.
+	 * Otherwise every input must have a metadata file with the same partitioner and part count, a comparator of class
+	 * <code>joinComparator</code>, and the recorded number of part files.
+	 *
+	 * @param conf The configuration for file system access
+	 * @param inputs The input data sets
+	 * @param joinComparator The class of the comparator the join will use
+	 * @return The common partitioning, or null if no input has metadata
+	 * @throws IOException if the inputs are not prepared identically
+	 */
+	public static JoinPartitioning verify(final Configuration conf, final Collection<Path> inputs, final Class<?> joinComparator) throws IOException {
+		JoinPartitioning common = null;
+		Path first = null;
+		int without = 0;
+		for (Path input : inputs) {
+			JoinPartitioning partitioning = read(conf, input);
+			if (partitioning == null) {
+				without++;
+				continue;
+			}
+			if (common == null) {
+				common = partitioning;
+				first = input;
+				if (!common.comparator.equals(joinComparator.getName())) {
+					throw new IOException("Input " + input + " was sorted with " + common.comparator + " but the join compares keys with " + joinComparator.getName());
+				}
+			} else if (!common.equals(partitioning)) {
+				throw new IOException("Input " + input + " is partitioned as " + partitioning + " but " + first + " is partitioned as " + common);
+			}
+			final int found = countParts(conf, input);
+			if (found != partitioning.parts) {
+				throw new IOException("Input " + input + " has " + found + " part files, the metadata records " + partitioning.parts);
+			}
+		}
+		if (common != null && without > 0) {
+			throw new IOException(without + " of the " + inputs.size() + " inputs have no " + METADATA_NAME + " file, all inputs must be prepared the same way");
+		}
+		if (common != null) {
+			LOG.info("The join inputs are partitioned as " + common);
+		}
+		return common;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof JoinPartitioning)) {
+			return false;
+		}
+		JoinPartitioning other = (JoinPartitioning) obj;
+		return partitioner.equals(other.partitioner) && comparator.equals(other.comparator) && parts == other.parts;
+	}
+
+	@Override
+	public int hashCode() {
+		return partitioner.hashCode() ^ comparator.hashCode() ^ parts;
+	}
+
+	@Override
+	public String toString() {
+		return parts + " parts by " + partitioner + " sorted by " + comparator;
+	}
+}
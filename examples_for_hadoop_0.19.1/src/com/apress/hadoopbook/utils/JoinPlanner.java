@@ -0,0 +1,180 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import java.io.IOException;
+import java.util.List;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.log4j.Logger;
+
+/** Choose how a join of several inputs is run, from the sizes of the inputs and whether they are sorted and partitioned alike.
+ *
+ * <ul>
+ * <li>{@link Strategy#BROADCAST} An inner join where every input but the largest together fit under {@link #BROADCAST_BYTES}.
+ * Outer and override joins are only broadcast when forced, as a broadcast join only outputs the keys of the largest input.
+ * The small inputs are shipped to every map through the {@link org.apache.hadoop.filecache.DistributedCache} and held in memory,
+ * and the largest input is streamed through the maps with no sort and no shuffle. This is chosen before a merge join,
+ * as a merge join runs one map per part, which starves a large input of parallelism.</li>
+ * <li>{@link Strategy#MERGE} A map side merge join through {@link org.apache.hadoop.mapred.join.CompositeInputFormat},
+ * which requires the inputs to be sorted by the join comparator and partitioned identically.</li>
+ * <li>{@link Strategy#REDUCE_SIDE} The inputs are tagged with their position in the join and the values of each key are
+ * joined in the reduce. This works for any inputs and is the slowest, as every input passes through the shuffle.</li>
+ * </ul>
+ *
+ * The caller decides whether the inputs are sorted, usually because {@link JoinPartitioning#verify(Configuration, java.util.Collection, Class)}
+ * found matching metadata. {@link #STRATEGY} forces a strategy, and the sizes are the summed {@link FileStatus} lengths of the
+ * files of each input, ignoring names that start with _ or . as the input formats do.
+ *
+ * @author Jason
+ *
+ */
+public class JoinPlanner {
+	static Logger LOG = Logger.getLogger(JoinPlanner.class);
+
+	/** The configuration key that forces a strategy, one of the {@link Strategy} names. */
+	public static final String STRATEGY = "examples.join.strategy";
+	/** The configuration key for the largest number of bytes of input, other than the largest input, that is broadcast. */
+	public static final String BROADCAST_BYTES = "examples.join.broadcast.bytes";
+	/** The default broadcast limit, 16mb, the small inputs are held in the heap of every map. */
+	public static final long DEFAULT_BROADCAST_BYTES = 16L * 1024 * 1024;
+
+	/** The ways a join can be run. */
+	public enum Strategy {
+		BROADCAST, MERGE, REDUCE_SIDE
+	}
+
+	/** The chosen strategy and the reason for it. */
+	public static class Plan {
+		final Strategy strategy;
+		final String reason;
+		final long[] sizes;
+		final int streamed;
+
+		/**
+		 * @param strategy The strategy
+		 * @param reason Why the strategy was chosen
+		 * @param sizes The size of each input in bytes
+		 * @param streamed The position of the largest input, the one a broadcast join streams
+		 */
+		public Plan(final Strategy strategy, final String reason, final long[] sizes, final int streamed) {
+			this.strategy = strategy;
+			this.reason = reason;
+			this.sizes = sizes;
+			this.streamed = streamed;
+		}
+
+		/** @return the strategy */
+		public Strategy getStrategy() {
+			return strategy;
+		}
+
+		/** @return why the strategy was chosen */
+		public String getReason() {
+			return reason;
+		}
+
+		/** @return the size of each input in bytes */
+		public long[] getSizes() {
+			return sizes;
+		}
+
+		/** @return the position of the largest input */
+		public int getStreamed() {
+			return streamed;
+		}
+
+		@Override
+		public String toString() {
+			return strategy + ", " + reason;
+		}
+	}
+
+	/** Sum the lengths of the files of <code>path</code>, descending into directories.
+	 *
+	 * @param conf The configuration for file system access
+	 * @param path A file or a directory
+	 * @return The size in bytes
+	 * @throws IOException if the path does not exist
+	 */
+	public static long size(final Configuration conf, final Path path) throws IOException {
+		final FileSystem fs = path.getFileSystem(conf);
+		return size(fs, fs.getFileStatus(path));
+	}
+
+	static long size(final FileSystem fs, final FileStatus status) throws IOException {
+		if (!status.isDir()) {
+			return status.getLen();
+		}
+		long total = 0;
+		final FileStatus[] children = fs.listStatus(status.getPath());
+		if (children != null) {
+			for (FileStatus child : children) {
+				final String name = child.getPath().getName();
+				if (!name.startsWith("_") && !name.startsWith(".")) {
+					total += size(fs, child);
+				}
+			}
+		}
+		return total;
+	}
+
+	/** Choose the strategy for a join and log why.
+	 *
+	 * @param conf The configuration, for {@link #STRATEGY}, {@link #BROADCAST_BYTES} and file system access
+	 * @param op The join operator, inner, outer, override, or multi which is planned as outer
+	 * @param inputs The inputs, in join order
+	 * @param sorted True if the inputs are sorted by the join comparator and partitioned identically
+	 * @return The plan
+	 * @throws IOException if an input does not exist, or the forced strategy is unknown
+	 */
+	public static Plan plan(final Configuration conf, final String op, final List<Path> inputs, final boolean sorted) throws IOException {
+		final long[] sizes = new long[inputs.size()];
+		int streamed = 0;
+		long total = 0;
+		for (int i = 0; i < sizes.length; i++) {
+			sizes[i] = size(conf, inputs.get(i));
+			total += sizes[i];
+			if (sizes[i] > sizes[streamed]) {
+				streamed = i;
+			}
+		}
+		final long small = total - sizes[streamed];
+		final long limit = conf.getLong(BROADCAST_BYTES, DEFAULT_BROADCAST_BYTES);
+
+		final String forced = conf.get(STRATEGY);
+		final Plan plan;
+		if (forced != null) {
+			final Strategy strategy;
+			try {
+				strategy = Strategy.valueOf(forced);
+			} catch (IllegalArgumentException e) {
+				throw new IOException("Unknown join strategy " + forced + " in " + STRATEGY);
+			}
+			if (strategy == Strategy.BROADCAST && !op.equals("inner")) {
+				LOG.warn("A broadcast " + op + " join is forced, the keys that are only in the broadcast inputs will not be output");
+			}
+			if (strategy == Strategy.MERGE && !sorted) {
+				LOG.warn("A merge join is forced, but the inputs are not known to be sorted and partitioned identically");
+			}
+			plan = new Plan(strategy, "forced by " + STRATEGY, sizes, streamed);
+		} else if (op.equals("inner") && sizes.length > 1 && small <= limit) {
+			plan = new Plan(Strategy.BROADCAST, String.format("the inputs other than %s total %d bytes, within the broadcast limit of %d, and %s (%d bytes) is streamed",
+					inputs.get(streamed), small, limit, inputs.get(streamed), sizes[streamed]), sizes, streamed);
+		} else {
+			final String noBroadcast = op.equals("inner") ? String.format("the inputs other than the largest total %d bytes, over the broadcast limit of %d", small, limit)
+					: "only inner joins are broadcast unless forced";
+			if (sorted) {
+				plan = new Plan(Strategy.MERGE, noBroadcast + ", and the inputs are sorted and partitioned identically", sizes, streamed);
+			} else {
+				plan = new Plan(Strategy.REDUCE_SIDE, noBroadcast + ", and the inputs are not known to be sorted and partitioned identically", sizes, streamed);
+			}
+		}
+		LOG.info("The " + op + " join of " + inputs.size() + " inputs, " + total + " bytes, runs as " + plan);
+		return plan;
+	}
+}
@@ -0,0 +1,208 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.SequenceFile;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.log4j.Logger;
+
+/** Hold the values of one key group so that they can be counted and then replayed, in a bounded amount of memory.
+ *
+ * Values are serialized into an in memory buffer. When the buffer passes {@link #BUFFER_BYTES} bytes its contents are appended
+ * to a {@link SequenceFile} in a local temporary directory and the buffer is emptied, so a hot key with millions of values
+ * costs disk rather than heap. {@link #rewind()} starts a replay, which reads the spilled values and then the buffered values
+ * in the order they were added, as many times as required. {@link #clear()} starts the next group, reusing the buffer.
+ *
+ * The owner must call {@link #close()} so that the spill file is removed.
+ *
+ * @author Jason
+ *
+ * @param <V> The value type
+ */
+public class KeyGroupBuffer<V extends Writable> {
+	static Logger LOG = Logger.getLogger(KeyGroupBuffer.class);
+
+	/** The configuration key for the number of bytes of values held in memory before spilling. */
+	public static final String BUFFER_BYTES = "examples.keygroup.buffer.bytes";
+	/** The default number of bytes of values held in memory, 1mb. */
+	public static final int DEFAULT_BUFFER_BYTES = 1024 * 1024;
+	/** The configuration key for the directory spill files are created in, the default is <code>java.io.tmpdir</code>, the task's temporary directory. */
+	public static final String SPILL_DIR = "examples.keygroup.spill.dir";
+
+	final Configuration conf;
+	final Class<V> valueClass;
+	final int bufferBytes;
+	/** The serialized values that have not been spilled. */
+	final DataOutputBuffer buffer = new DataOutputBuffer();
+	/** Used to replay {@link #buffer}. */
+	final DataInputBuffer input = new DataInputBuffer();
+	/** Used to copy the buffered values to the spill file. */
+	V scratch;
+
+	/** The number of values in the group. */
+	long count = 0;
+	/** The number of values in the spill file. */
+	long spilled = 0;
+	/** The total number of values spilled over the life of the buffer. */
+	long totalSpilled = 0;
+
+	FileSystem localFs;
+	Path spillFile;
+	SequenceFile.Writer spillWriter;
+	SequenceFile.Reader spillReader;
+	/** True once {@link #rewind()} has been called for the group, no more values may be added. */
+	boolean replaying = false;
+	/** The number of spilled values read in this replay. */
+	long spilledRead = 0;
+
+	/**
+	 * @param conf The configuration, for {@link #BUFFER_BYTES} and {@link #SPILL_DIR}
+	 * @param valueClass The class of the values, used for the spill file
+	 */
+	public KeyGroupBuffer(final Configuration conf, final Class<V> valueClass) {
+		this.conf = conf;
+		this.valueClass = valueClass;
+		this.bufferBytes = conf.getInt(BUFFER_BYTES, DEFAULT_BUFFER_BYTES);
+	}
+
+	/** Add a value to the group. The value is copied and may be reused by the caller.
+	 *
+	 * @param value The value
+	 * @throws IOException if the buffer has to spill and the spill fails
+	 * @throws IllegalStateException if the group is being replayed
+	 */
+	public void add(final V value) throws IOException {
+		if (replaying) {
+			throw new IllegalStateException("Values can not be added to a group that is being replayed, clear it first");
+		}
+		value.write(buffer);
+		count++;
+		if (buffer.getLength() >= bufferBytes) {
+			spill();
+		}
+	}
+
+	/** @return the number of values in the group */
+	public long size() {
+		return count;
+	}
+
+	/** @return the number of values spilled to disk over the life of this buffer */
+	public long getTotalSpilled() {
+		return totalSpilled;
+	}
+
+	/** Append the buffered values to the spill file, and empty the buffer. */
+	void spill() throws IOException {
+		if (spillWriter == null) {
+			if (localFs == null) {
+				localFs = FileSystem.getLocal(conf);
+			}
+			File dir = new File(conf.get(SPILL_DIR, System.getProperty("java.io.tmpdir")));
+			spillFile = new Path(File.createTempFile("keygroup", ".seq", dir).getAbsolutePath());
+			spillWriter = SequenceFile.createWriter(localFs, conf, spillFile, NullWritable.class, valueClass, SequenceFile.CompressionType.NONE);
+			if (LOG.isDebugEnabled()) { LOG.debug("Spilling key group values to " + spillFile); }
+		}
+		final long buffered = count - spilled;
+		input.reset(buffer.getData(), buffer.getLength());
+		if (scratch == null) {
+			scratch = ReflectionUtils.newInstance(valueClass, conf);
+		}
+		for (long i = 0; i < buffered; i++) {
+			scratch.readFields(input);
+			spillWriter.append(NullWritable.get(), scratch);
+		}
+		spilled += buffered;
+		totalSpilled += buffered;
+		buffer.reset();
+	}
+
+	/** Start a replay of the group's values from the first value.
+	 *
+	 * @throws IOException if the spill file can not be opened
+	 */
+	public void rewind() throws IOException {
+		replaying = true;
+		if (spillWriter != null) {
+			spillWriter.close();
+			spillWriter = null;
+		}
+		if (spillReader != null) {
+			spillReader.close();
+			spillReader = null;
+		}
+		if (spilled > 0) {
+			spillReader = new SequenceFile.Reader(localFs, spillFile, conf);
+		}
+		spilledRead = 0;
+		input.reset(buffer.getData(), buffer.getLength());
+	}
+
+	/** Read the next value of the replay started by {@link #rewind()} into <code>value</code>.
+	 *
+	 * @param value The object to read the value into
+	 * @return false if there are no more values
+	 * @throws IOException if the spill file can not be read
+	 */
+	public boolean next(final V value) throws IOException {
+		if (!replaying) {
+			throw new IllegalStateException("rewind must be called before next");
+		}
+		if (spilledRead < spilled) {
+			spillReader.next(NullWritable.get(), value);
+			spilledRead++;
+			return true;
+		}
+		if (input.getPosition() < input.getLength()) {
+			value.readFields(input);
+			return true;
+		}
+		return false;
+	}
+
+	/** Empty the group, ready for the values of the next group.
+	 *
+	 * @throws IOException if the spill file can not be removed
+	 */
+	public void clear() throws IOException {
+		buffer.reset();
+		count = 0;
+		spilled = 0;
+		replaying = false;
+		removeSpill();
+	}
+
+	/** Release the spill file.
+	 *
+	 * @throws IOException if the spill file can not be removed
+	 */
+	public void close() throws IOException {
+		clear();
+	}
+
+	void removeSpill() throws IOException {
+		if (spillWriter != null) {
+			spillWriter.close();
+			spillWriter = null;
+		}
+		if (spillReader != null) {
+			spillReader.close();
+			spillReader = null;
+		}
+		if (spillFile != null) {
+			localFs.delete(spillFile, false);
+			spillFile = null;
+		}
+	}
+}
@@ -39,6 +39,8 @@ public class MainProgrameShell extends Configured implements Tool {
 	protected boolean verbose = false;
 	/** delete the output dir on start. */
 	boolean deleteOutputDir = false;
+	/** The most jobs of a {@link JobGraph} to run at once. */
+	int maxParallelJobs = 4;
 	
 	/**
 	 * @return the verbose
@@ -104,6 +106,14 @@ public class MainProgrameShell extends Configured implements Tool {
 		  /** Send the job to the framework. */
 		  RunningJob rj = launch(conf);
 		  outputJobCounters(rj);
+		  if (conf.getBoolean(SkewMonitoringPartitioner.MONITOR, false) && rj.isSuccessful()) {
+			  if (conf.getNumReduceTasks()==0) {
+				  /** A map only job never calls its partitioner, there is no skew to report. */
+				  if (verbose) { LOG.info( "No partition skew for " + conf.getJobName() + ", it has no reduces"); }
+			  } else {
+				  System.out.print(SkewMonitoringPartitioner.writeSummary(conf, rj));
+			  }
+		  }
 		  return isSuccessFul(rj);
 	  }
 
@@ -133,6 +143,10 @@ public class MainProgrameShell extends Configured implements Tool {
 			  return -1;
 		  }
 		  customSetup(conf);
+		  if (conf.getBoolean(SkewMonitoringPartitioner.MONITOR, false)) {
+			  /** After customSetup, so the partitioner the job actually uses is the one wrapped. */
+			  SkewMonitoringPartitioner.setupJob(conf);
+		  }
 
 		  deleteOutputIf(conf);
 		  return 0;
@@ -209,6 +223,14 @@ public class MainProgrameShell extends Configured implements Tool {
 			if (verbose) { LOG.info("Setting Client Output Filtering to " + reporting); }
 			conf.set("jobclient.output.filter", reporting);
 		}
+		if (commandLine.hasOption("skew")) {
+			if (verbose) { LOG.info("Monitoring the partition skew"); }
+			conf.setBoolean(SkewMonitoringPartitioner.MONITOR, true);
+		}
+		if (commandLine.hasOption("pj")) {
+			maxParallelJobs = Integer.parseInt(commandLine.getOptionValue("pj"));
+			if (verbose) { LOG.info("Running at most " + maxParallelJobs + " jobs at once"); }
+		}
 		
 	}
 
@@ -244,6 +266,16 @@ public class MainProgrameShell extends Configured implements Tool {
 				.create("tsr")
 				);
 		
+		options.addOption( OptionBuilder.withLongOpt("partitionSkew")
+				.withDescription("Count the records, bytes and heaviest keys of each partition, and write a " + SkewMonitoringPartitioner.SUMMARY_NAME + " file to the output directory")
+				.create("skew") );
+		
+		options.addOption( OptionBuilder.withLongOpt("parallelJobs")
+				.hasArg()
+				.withArgPattern("^[1-9][0-9]*$", 0)
+				.withDescription("The most jobs to run at once, for drivers that run several jobs.")
+				.create("pj") );
+		
 		return options;
 	}
 
@@ -297,6 +329,59 @@ public class MainProgrameShell extends Configured implements Tool {
 		
 	}
 
+	/** Create a {@link JobGraph} for drivers that run several jobs.
+	 * 
+	 * The job jar of each job added is set based on this class, as for {@link #launch(JobConf)},
+	 * and the graph uses {@link #isSuccessFul(RunningJob)} to decide if a job succeeded.
+	 * 
+	 * @return An empty graph, to be run with {@link #launch(JobGraph)}
+	 */
+	protected JobGraph newJobGraph() {
+		return new JobGraph() {
+			@Override
+			public Job add(String name, JobConf conf, Job... dependsOn) {
+				return super.add(name, new JobConf(conf, MainProgrameShell.this.getClass()), dependsOn);
+			}
+
+			@Override
+			protected boolean isSuccessful(RunningJob rj) throws IOException {
+				return rj.isSuccessful() && isSuccessFul(rj)==0;
+			}
+		};
+	}
+
+	/** Run the jobs of <code>graph</code>, at most {@link #maxParallelJobs} at once, and print the job wall times and the critical path.
+	 * When the partition skew is monitored, the skew summary of each job that succeeded is written, as {@link #run(String[])} does for a single job.
+	 * 
+	 * @param graph The jobs to run
+	 * @return The number of jobs that did not succeed, 0 on complete success
+	 * @throws InterruptedException
+	 * @throws IOException if a skew summary can not be written
+	 */
+	protected int launch(JobGraph graph) throws InterruptedException, IOException {
+		graph.run(maxParallelJobs);
+		graph.report(System.out);
+		int failed = 0;
+		for (JobGraph.Job job : graph.getJobs()) {
+			if (job.getState()!=JobGraph.State.SUCCEEDED) {
+				failed++;
+				continue;
+			}
+			final JobConf conf = job.getConf();
+			if (!conf.getBoolean(SkewMonitoringPartitioner.MONITOR, false)) {
+				continue;
+			}
+			if (conf.getNumReduceTasks()==0) {
+				/** A map only job never calls its partitioner, there is no skew to report. */
+				if (verbose) { LOG.info( "No partition skew for " + job.getName() + ", it has no reduces"); }
+				continue;
+			}
+			System.out.println(job.getName() + ":");
+			System.out.print(SkewMonitoringPartitioner.writeSummary(conf, job.getRunningJob()));
+		}
+		return failed;
+	}
+
 
 //	/**
 //	 * @param args
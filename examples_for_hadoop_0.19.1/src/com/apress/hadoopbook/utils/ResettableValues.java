@@ -0,0 +1,154 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.util.ReflectionUtils;
+
+/** Wrap the values iterator of a reduce call so that the values can be counted and read more than once.
+ *
+ * The first pass reads the reducer's iterator directly, copying each value into a {@link KeyGroupBuffer} as it goes,
+ * so the values are held as serialized bytes up to {@link KeyGroupBuffer#BUFFER_BYTES} and spilled to a local file beyond that,
+ * rather than as a list of objects. {@link #count()} reads the rest of the reducer's iterator into the buffer and returns the number
+ * of values, without disturbing the pass in progress. {@link #reset()} starts another pass from the first value, read back from the buffer.
+ *
+ * Call {@link #set(Iterator)} at the start of each reduce call, and {@link #close()} from the reducer's close so that the spill file is removed.
+ * As with the reducer's iterator, the object returned by {@link #next()} is reused, copy it to keep it. {@link #count()} advances the
+ * reducer's iterator, which changes the object it last returned.
+ *
+ * @author Jason
+ *
+ * @param <V> The value type
+ */
+public class ResettableValues<V extends Writable> implements Iterator<V> {
+	/** The values of the current key. */
+	final KeyGroupBuffer<V> buffer;
+	/** The value read back from {@link #buffer}. */
+	final V value;
+	/** The reducer's iterator for the current key. */
+	Iterator<V> source;
+	/** True once every value has been copied to {@link #buffer} and the values are read from it. */
+	boolean replaying = false;
+	/** True if {@link #value} holds a value that {@link #hasNext()} read and {@link #next()} has not returned. */
+	boolean pending = false;
+	/** The number of values returned in this pass. */
+	long position = 0;
+
+	/**
+	 * @param conf The configuration, for the {@link KeyGroupBuffer} settings
+	 * @param valueClass The class of the values
+	 */
+	public ResettableValues(final Configuration conf, final Class<V> valueClass) {
+		buffer = new KeyGroupBuffer<V>(conf, valueClass);
+		value = ReflectionUtils.newInstance(valueClass, conf);
+	}
+
+	/** Start on the values of a new key.
+	 *
+	 * @param values The values iterator passed to the reduce call
+	 * @return this, ready for the first pass
+	 * @throws IOException if the previous key's spill file can not be removed
+	 */
+	public ResettableValues<V> set(final Iterator<V> values) throws IOException {
+		buffer.clear();
+		source = values;
+		replaying = false;
+		pending = false;
+		position = 0;
+		return this;
+	}
+
+	/** Count the values of the key, reading any that the current pass has not reached into the buffer.
+	 *
+	 * @return The number of values
+	 * @throws IOException if the buffer can not spill or be read
+	 */
+	public long count() throws IOException {
+		drain();
+		return buffer.size();
+	}
+
+	/** Start another pass over the values, from the first value.
+	 *
+	 * @throws IOException if the buffer can not spill or be read
+	 */
+	public void reset() throws IOException {
+		drain();
+		buffer.rewind();
+		pending = false;
+		position = 0;
+	}
+
+	/** Copy the rest of the reducer's iterator to the buffer and continue the current pass from the buffer. */
+	void drain() throws IOException {
+		if (replaying) {
+			return;
+		}
+		while (source.hasNext()) {
+			buffer.add(source.next());
+		}
+		buffer.rewind();
+		replaying = true;
+		pending = false;
+		for (long i = 0; i < position; i++) {
+			buffer.next(value);
+		}
+	}
+
+	/** @return the number of values spilled to disk over the life of this object */
+	public long getTotalSpilled() {
+		return buffer.getTotalSpilled();
+	}
+
+	public boolean hasNext() {
+		if (!replaying) {
+			return source.hasNext();
+		}
+		if (!pending) {
+			try {
+				pending = buffer.next(value);
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to read value " + position + " back from the buffer", e);
+			}
+		}
+		return pending;
+	}
+
+	public V next() {
+		if (!replaying) {
+			final V next = source.next();
+			try {
+				buffer.add(next);
+			} catch (IOException e) {
+				throw new RuntimeException("Unable to buffer value " + position, e);
+			}
+			position++;
+			return next;
+		}
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		pending = false;
+		position++;
+		return value;
+	}
+
+	/** Values can not be removed. */
+	public void remove() {
+		throw new UnsupportedOperationException("remove");
+	}
+
+	/** Release the spill file.
+	 *
+	 * @throws IOException if the spill file can not be removed
+	 */
+	public void close() throws IOException {
+		buffer.close();
+	}
+}
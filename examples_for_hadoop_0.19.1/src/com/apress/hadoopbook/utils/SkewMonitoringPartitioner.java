@@ -0,0 +1,545 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.nio.charset.CharacterCodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.io.WritableUtils;
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.MapRunnable;
+import org.apache.hadoop.mapred.MapRunner;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.RecordReader;
+import org.apache.hadoop.mapred.Reporter;
+import org.apache.hadoop.mapred.RunningJob;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.apache.log4j.Logger;
+
+/** A {@link Partitioner} that delegates to the job's real partitioner and measures the partition skew.
+ *
+ * For each partition the number of records, the serialized bytes of the keys and values, and an approximate
+ * list of the heaviest keys are kept. The heavy keys are found with the space saving algorithm, which keeps
+ * {@link #TOP_KEYS} times {@link #SLOTS_PER_TOP_KEY} keys per partition, and reports each key's count with the
+ * most it may be over counted by. The keys are tracked as bytes, the bytes of {@link Text} and {@link BytesWritable} keys,
+ * the serialized form of other {@link Writable} keys, which is also what their byte count is measured from, and the
+ * string form of any other key. Keys are the same if their bytes are, and the tracked bytes are copied into buffers that are reused,
+ * so no key object is created or cloned per record.
+ *
+ * A partitioner has no {@link Reporter} and is not closed, so {@link #setupJob(JobConf)} also installs a
+ * {@link PublishingMapRunner}. When the map task's records are all partitioned, it adds the record and byte counts to the
+ * {@link #COUNTER_GROUP} counters and writes the heavy keys to a file in {@link #SKETCH_DIR} of the task output.
+ * {@link #writeSummary(JobConf, RunningJob)} then merges those into the {@link #SUMMARY_NAME} file in the job output directory,
+ * with the ratio of the largest partition to the mean partition.
+ *
+ * {@link MainProgrameShell} does all of this for a job when <code>-skew</code> is given or {@link #MONITOR} is true.
+ *
+ * @author Jason
+ *
+ * @param <K> The map output key class
+ * @param <V> The map output value class
+ */
+public class SkewMonitoringPartitioner<K, V> implements Partitioner<K, V> {
+	static Logger LOG = Logger.getLogger(SkewMonitoringPartitioner.class);
+
+	/** The configuration key that turns the monitor on in {@link MainProgrameShell}. */
+	public static final String MONITOR = "examples.skew.monitor";
+	/** The configuration key for the real partitioner class. */
+	public static final String PARTITIONER_CLASS = "examples.skew.partitioner.class";
+	/** The configuration key for the real map runner class. */
+	public static final String MAP_RUNNER_CLASS = "examples.skew.map.runner.class";
+	/** The configuration key for the number of heavy keys reported per partition. */
+	public static final String TOP_KEYS = "examples.skew.top.keys";
+	/** The default number of heavy keys reported per partition. */
+	public static final int DEFAULT_TOP_KEYS = 10;
+	/** The keys tracked for each key reported, more slots make the counts of the reported keys more accurate. */
+	public static final int SLOTS_PER_TOP_KEY = 4;
+
+	/** The counter group for the per partition record and byte counts. */
+	public static final String COUNTER_GROUP = "Partition Skew";
+	/** The name of the summary file in the job output directory, the leading _ hides it from later jobs' input. */
+	public static final String SUMMARY_NAME = "_partition_skew";
+	/** The directory of the job output the map tasks write their heavy keys in. */
+	public static final String SKETCH_DIR = "_partition_skew_maps";
+	/** The heavy key files start with this line, followed by the number of partitions. */
+	static final String PARTITIONS_HEADER = "#partitions\t";
+
+	/** The forms of the bytes of the keys, which decide how the heavy keys are turned back into text. */
+	static final int TEXT_KEY = 0;
+	static final int BYTES_KEY = 1;
+	static final int SERIALIZED_KEY = 2;
+
+	/** The partitioner constructed most recently in this JVM, which is the one the current map task's output buffer uses. */
+	static volatile SkewMonitoringPartitioner<?, ?> current;
+
+	/** Wrap the job's partitioner and map runner.
+	 *
+	 * @param conf The job, with its partitioner and map runner already set.
+	 */
+	public static void setupJob(JobConf conf) {
+		conf.setClass(PARTITIONER_CLASS, conf.getPartitionerClass(), Partitioner.class);
+		conf.setPartitionerClass(SkewMonitoringPartitioner.class);
+		conf.setClass(MAP_RUNNER_CLASS, conf.getMapRunnerClass(), MapRunnable.class);
+		conf.setMapRunnerClass(PublishingMapRunner.class);
+	}
+
+	/** The real partitioner. */
+	Partitioner<K, V> partitioner;
+	JobConf conf;
+	int topKeys;
+	/** The largest number of partitions a call was made with. */
+	int numPartitions;
+	long[] records = new long[0];
+	long[] bytes = new long[0];
+	HeavyKeys[] heavyKeys = new HeavyKeys[0];
+	/** Used to measure {@link Writable} values without a cheaper length. */
+	DataOutputBuffer buffer = new DataOutputBuffer();
+	/** Holds the serialized key, or the string form of a key that is not {@link Writable}. */
+	DataOutputBuffer keyBuffer = new DataOutputBuffer();
+	Text keyText = new Text();
+	/** The bytes of the current key, set by {@link #measureKey(Object)}. */
+	byte[] keyData;
+	int keyLength;
+	/** The form of the key bytes, {@link #TEXT_KEY}, {@link #BYTES_KEY} or {@link #SERIALIZED_KEY}. */
+	int keyForm = TEXT_KEY;
+	/** The class of the serialized keys. */
+	Class<?> keyClass;
+
+	@SuppressWarnings("unchecked")
+	public void configure(JobConf job) {
+		conf = job;
+		topKeys = job.getInt(TOP_KEYS, DEFAULT_TOP_KEYS);
+		partitioner = ReflectionUtils.newInstance(job.getClass(PARTITIONER_CLASS, null, Partitioner.class), job);
+		if (partitioner == null) {
+			throw new IllegalArgumentException("No partitioner set in " + PARTITIONER_CLASS + ", use SkewMonitoringPartitioner.setupJob");
+		}
+		current = this;
+	}
+
+	public int getPartition(K key, V value, int numPartitions) {
+		final int partition = partitioner.getPartition(key, value, numPartitions);
+		if (partition < 0 || partition >= numPartitions) {
+			/** The map output buffer would reject it with this message, fail the same way rather than index out of bounds here. */
+			throw new IllegalArgumentException("Illegal partition for " + key + " (" + partition + ")");
+		}
+		if (numPartitions > records.length) {
+			grow(numPartitions);
+		}
+		this.numPartitions = Math.max(this.numPartitions, numPartitions);
+		records[partition]++;
+		bytes[partition] += measureKey(key) + serializedSize(value);
+		if (heavyKeys[partition] == null) {
+			heavyKeys[partition] = new HeavyKeys(topKeys * SLOTS_PER_TOP_KEY);
+		}
+		heavyKeys[partition].offer(keyData, keyLength);
+		return partition;
+	}
+
+	void grow(final int size) {
+		final long[] r = new long[size];
+		System.arraycopy(records, 0, r, 0, records.length);
+		records = r;
+		final long[] b = new long[size];
+		System.arraycopy(bytes, 0, b, 0, bytes.length);
+		bytes = b;
+		final HeavyKeys[] h = new HeavyKeys[size];
+		System.arraycopy(heavyKeys, 0, h, 0, heavyKeys.length);
+		heavyKeys = h;
+	}
+
+	/** Point {@link #keyData} and {@link #keyLength} at the bytes of <code>key</code>, serializing it only if it is a {@link Writable}
+	 * without a cheaper form.
+	 *
+	 * @param key The key
+	 * @return The number of bytes the key serializes to, 0 for objects that are not {@link Writable}
+	 */
+	long measureKey(final Object key) {
+		if (key instanceof Text) {
+			final Text text = (Text) key;
+			keyForm = TEXT_KEY;
+			keyData = text.getBytes();
+			keyLength = text.getLength();
+			return WritableUtils.getVIntSize(keyLength) + keyLength;
+		}
+		if (key instanceof BytesWritable) {
+			final BytesWritable bytesWritable = (BytesWritable) key;
+			keyForm = BYTES_KEY;
+			keyData = bytesWritable.getBytes();
+			keyLength = bytesWritable.getLength();
+			return 4 + keyLength;
+		}
+		if (key instanceof Writable) {
+			keyBuffer.reset();
+			try {
+				((Writable) key).write(keyBuffer);
+			} catch (IOException e) {
+				keyBuffer.reset();
+			}
+			keyForm = SERIALIZED_KEY;
+			keyClass = key.getClass();
+			keyData = keyBuffer.getData();
+			keyLength = keyBuffer.getLength();
+			return keyLength;
+		}
+		keyText.set(key.toString());
+		keyForm = TEXT_KEY;
+		keyData = keyText.getBytes();
+		keyLength = keyText.getLength();
+		return 0;
+	}
+
+	/** Turn the bytes of a tracked key back into text for the heavy key files.
+	 *
+	 * @param data The key bytes
+	 * @param length The number of bytes
+	 * @return The string form of the key
+	 */
+	String keyString(final byte[] data, final int length) {
+		try {
+			switch (keyForm) {
+			case BYTES_KEY:
+				return new BytesWritable(Arrays.copyOf(data, length)).toString();
+			case SERIALIZED_KEY:
+				final Writable key = (Writable) ReflectionUtils.newInstance(keyClass, conf);
+				final DataInputBuffer in = new DataInputBuffer();
+				in.reset(data, length);
+				key.readFields(in);
+				return key.toString();
+			default:
+				return Text.decode(data, 0, length, true);
+			}
+		} catch (CharacterCodingException e) {
+			return "?";
+		} catch (IOException e) {
+			LOG.warn("Unable to read back a heavy key of " + keyClass, e);
+			return "?";
+		}
+	}
+
+	/** The number of bytes <code>o</code> serializes to, 0 for objects that are not {@link Writable}. */
+	long serializedSize(final Object o) {
+		if (o instanceof Text) {
+			final int length = ((Text) o).getLength();
+			return WritableUtils.getVIntSize(length) + length;
+		}
+		if (o instanceof BytesWritable) {
+			return 4 + ((BytesWritable) o).getLength();
+		}
+		if (o instanceof Writable) {
+			buffer.reset();
+			try {
+				((Writable) o).write(buffer);
+			} catch (IOException e) {
+				return 0;
+			}
+			return buffer.getLength();
+		}
+		return 0;
+	}
+
+	/** Add this task's counts to the counters and write the heavy keys to <code>file</code>.
+	 *
+	 * @param reporter The task's reporter
+	 * @param file The heavy key file, null to only update the counters.
+	 * @throws IOException
+	 */
+	void publish(final Reporter reporter, final Path file) throws IOException {
+		for (int partition = 0; partition < records.length; partition++) {
+			if (records[partition] == 0) {
+				continue;
+			}
+			reporter.incrCounter(COUNTER_GROUP, recordsCounter(partition), records[partition]);
+			reporter.incrCounter(COUNTER_GROUP, bytesCounter(partition), bytes[partition]);
+		}
+		if (file == null) {
+			return;
+		}
+		final FSDataOutputStream out = file.getFileSystem(conf).create(file);
+		final PrintStream ps = new PrintStream(out, false, "UTF-8");
+		try {
+			ps.println(PARTITIONS_HEADER + numPartitions);
+			for (int partition = 0; partition < heavyKeys.length; partition++) {
+				if (heavyKeys[partition] != null) {
+					heavyKeys[partition].write(ps, partition, this);
+				}
+			}
+		} finally {
+			ps.close();
+		}
+	}
+
+	static String recordsCounter(final int partition) {
+		return "Partition " + partition + " records";
+	}
+
+	static String bytesCounter(final int partition) {
+		return "Partition " + partition + " bytes";
+	}
+
+	/** The approximate heaviest keys of a partition, using the space saving algorithm.
+	 * Each tracked key has a count, which is at most <code>error</code> more than the true count.
+	 * A key that is not tracked replaces the key with the smallest count, and inherits that count as its error.
+	 *
+	 * The keys are held as bytes in a buffer per slot, which is reused when the slot's key is replaced.
+	 * There are only a few slots, so they are searched in order, comparing the hashes before the bytes.
+	 */
+	static class HeavyKeys {
+		final byte[][] keys;
+		final int[] lengths;
+		final int[] hashes;
+		final long[] counts;
+		final long[] errors;
+		int used = 0;
+
+		HeavyKeys(final int capacity) {
+			keys = new byte[capacity][];
+			lengths = new int[capacity];
+			hashes = new int[capacity];
+			counts = new long[capacity];
+			errors = new long[capacity];
+		}
+
+		/** Count one occurrence of the key in <code>data</code>, the bytes are only copied if the key becomes tracked. */
+		void offer(final byte[] data, final int length) {
+			final int hash = WritableComparator.hashBytes(data, length);
+			for (int i = 0; i < used; i++) {
+				if (hashes[i] == hash && lengths[i] == length && WritableComparator.compareBytes(keys[i], 0, length, data, 0, length) == 0) {
+					counts[i]++;
+					return;
+				}
+			}
+			if (keys.length == 0) {
+				return;
+			}
+			int replace;
+			if (used < keys.length) {
+				replace = used++;
+				counts[replace] = 0;
+				errors[replace] = 0;
+			} else {
+				replace = 0;
+				for (int i = 1; i < keys.length; i++) {
+					if (counts[i] < counts[replace]) {
+						replace = i;
+					}
+				}
+				errors[replace] = counts[replace];
+			}
+			counts[replace]++;
+			/** The framework reuses the key objects, so a tracked key must be a copy. */
+			if (keys[replace] == null || keys[replace].length < length) {
+				keys[replace] = new byte[Math.max(length, 16)];
+			}
+			System.arraycopy(data, 0, keys[replace], 0, length);
+			lengths[replace] = length;
+			hashes[replace] = hash;
+		}
+
+		/** Write the tracked keys, a line each of partition, count, error and key, heaviest first.
+		 *
+		 * @param ps The heavy key file
+		 * @param partition The partition of these keys
+		 * @param monitor The partitioner, which turns the key bytes back into text
+		 */
+		void write(final PrintStream ps, final int partition, final SkewMonitoringPartitioner<?, ?> monitor) {
+			final Integer[] order = new Integer[used];
+			for (int i = 0; i < used; i++) {
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				public int compare(Integer o1, Integer o2) {
+					return counts[o1] < counts[o2] ? 1 : (counts[o1] > counts[o2] ? -1 : 0);
+				}
+			});
+			for (Integer slot : order) {
+				ps.println(partition + "\t" + counts[slot] + "\t" + errors[slot] + "\t" + escape(monitor.keyString(keys[slot], lengths[slot])));
+			}
+		}
+	}
+
+	/** Keep a key on one line of the heavy key files. */
+	static String escape(final String key) {
+		return key.replace("\\", "\\\\").replace("\n", "\\n").replace("\r", "\\r");
+	}
+
+	/** A heavy key merged from the map task files. */
+	static class MergedKey {
+		final String key;
+		long count;
+		long error;
+
+		MergedKey(final String key) {
+			this.key = key;
+		}
+	}
+
+	/** Runs the job's map runner, {@link #MAP_RUNNER_CLASS}, then publishes the partitioner's measurements.
+	 *
+	 * @param <K1> The input key class
+	 * @param <V1> The input value class
+	 * @param <K2> The map output key class
+	 * @param <V2> The map output value class
+	 */
+	public static class PublishingMapRunner<K1, V1, K2, V2> implements MapRunnable<K1, V1, K2, V2> {
+		MapRunnable<K1, V1, K2, V2> runner;
+		JobConf conf;
+
+		@SuppressWarnings("unchecked")
+		public void configure(JobConf job) {
+			conf = job;
+			runner = ReflectionUtils.newInstance(job.getClass(MAP_RUNNER_CLASS, MapRunner.class, MapRunnable.class), job);
+		}
+
+		/** The records are partitioned as they are collected, so all of them have been counted when the real runner returns. */
+		public void run(RecordReader<K1, V1> input, OutputCollector<K2, V2> output, Reporter reporter) throws IOException {
+			runner.run(input, output, reporter);
+			final SkewMonitoringPartitioner<?, ?> partitioner = current;
+			if (partitioner == null || conf.getNumReduceTasks() == 0) {
+				return;
+			}
+			Path file = null;
+			final Path work = FileOutputFormat.getWorkOutputPath(conf);
+			if (work != null) {
+				file = new Path(new Path(work, SKETCH_DIR), conf.get("mapred.task.id", "map"));
+			} else {
+				LOG.warn("No task output directory, the heavy keys are not recorded");
+			}
+			partitioner.publish(reporter, file);
+		}
+	}
+
+	/** Merge the counters and the map tasks' heavy key files of a completed job into a report, and write it
+	 * to {@link #SUMMARY_NAME} in the job output directory. The map task files are removed.
+	 *
+	 * @param conf The job's configuration
+	 * @param rj The completed job
+	 * @return The report
+	 * @throws IOException
+	 */
+	public static String writeSummary(final JobConf conf, final RunningJob rj) throws IOException {
+		int partitions = conf.getNumReduceTasks();
+		final int topKeys = conf.getInt(TOP_KEYS, DEFAULT_TOP_KEYS);
+		final Path output = FileOutputFormat.getOutputPath(conf);
+
+		/** Merge the heavy keys of each partition by summing the counts and errors from every map. */
+		final Map<Integer, Map<String, MergedKey>> merged = new HashMap<Integer, Map<String, MergedKey>>();
+		boolean sawPartitions = false;
+		if (output != null) {
+			final Path sketches = new Path(output, SKETCH_DIR);
+			final FileSystem fs = sketches.getFileSystem(conf);
+			final FileStatus[] files = fs.exists(sketches) ? fs.listStatus(sketches) : new FileStatus[0];
+			for (FileStatus status : files) {
+				final BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(status.getPath()), "UTF-8"));
+				try {
+					String line;
+					while ((line = in.readLine()) != null) {
+						if (line.startsWith(PARTITIONS_HEADER)) {
+							final int seen = Integer.parseInt(line.substring(PARTITIONS_HEADER.length()));
+							partitions = sawPartitions ? Math.max(partitions, seen) : seen;
+							sawPartitions = true;
+							continue;
+						}
+						final String[] fields = line.split("\t", 4);
+						final Integer partition = Integer.valueOf(fields[0]);
+						Map<String, MergedKey> keys = merged.get(partition);
+						if (keys == null) {
+							keys = new HashMap<String, MergedKey>();
+							merged.put(partition, keys);
+						}
+						MergedKey key = keys.get(fields[3]);
+						if (key == null) {
+							key = new MergedKey(fields[3]);
+							keys.put(fields[3], key);
+						}
+						key.count += Long.parseLong(fields[1]);
+						key.error += Long.parseLong(fields[2]);
+					}
+				} finally {
+					in.close();
+				}
+			}
+			fs.delete(sketches, true);
+		}
+
+		final Counters counters = rj.getCounters();
+		final long[] records = new long[Math.max(partitions, 1)];
+		final long[] bytes = new long[records.length];
+		long totalRecords = 0;
+		long totalBytes = 0;
+		int largest = 0;
+		for (int partition = 0; partition < records.length; partition++) {
+			records[partition] = counters.findCounter(COUNTER_GROUP, recordsCounter(partition)).getCounter();
+			bytes[partition] = counters.findCounter(COUNTER_GROUP, bytesCounter(partition)).getCounter();
+			totalRecords += records[partition];
+			totalBytes += bytes[partition];
+			if (records[partition] > records[largest]) {
+				largest = partition;
+			}
+		}
+		final double mean = (double) totalRecords / records.length;
+		final double ratio = mean == 0 ? 0 : records[largest] / mean;
+
+		final StringBuilder sb = new StringBuilder();
+		sb.append(String.format("partitions\t%d\trecords\t%d\tbytes\t%d%n", records.length, totalRecords, totalBytes));
+		sb.append(String.format("largest partition\t%d\trecords\t%d\tmean records\t%.1f\tlargest/mean\t%.3f%n", largest, records[largest], mean, ratio));
+		sb.append(String.format("partition\trecords\tbytes\tshare%n"));
+		for (int partition = 0; partition < records.length; partition++) {
+			sb.append(String.format("%d\t%d\t%d\t%.4f%n", partition, records[partition], bytes[partition],
+					totalRecords == 0 ? 0.0 : (double) records[partition] / totalRecords));
+		}
+		sb.append(String.format("partition\tkey count\tover count at most\tkey%n"));
+		for (int partition = 0; partition < records.length; partition++) {
+			final Map<String, MergedKey> keys = merged.get(partition);
+			if (keys == null) {
+				continue;
+			}
+			final List<MergedKey> heaviest = new ArrayList<MergedKey>(keys.values());
+			Collections.sort(heaviest, new Comparator<MergedKey>() {
+				public int compare(MergedKey o1, MergedKey o2) {
+					return o1.count < o2.count ? 1 : (o1.count > o2.count ? -1 : o1.key.compareTo(o2.key));
+				}
+			});
+			for (MergedKey key : heaviest.subList(0, Math.min(topKeys, heaviest.size()))) {
+				sb.append(String.format("%d\t%d\t%d\t%s%n", partition, key.count, key.error, key.key));
+			}
+		}
+
+		final String report = sb.toString();
+		if (output != null) {
+			final Path summary = new Path(output, SUMMARY_NAME);
+			final FSDataOutputStream out = summary.getFileSystem(conf).create(summary);
+			try {
+				out.write(report.getBytes("UTF-8"));
+			} finally {
+				out.close();
+			}
+			LOG.info("Partition skew summary written to " + summary);
+		}
+		LOG.info("Partition skew, largest partition " + largest + " has " + records[largest] + " records, " + String.format("%.3f", ratio) + " times the mean");
+		return report;
+	}
+}
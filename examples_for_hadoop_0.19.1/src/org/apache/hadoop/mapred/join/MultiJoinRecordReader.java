@@ -0,0 +1,199 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.join;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.io.BooleanWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+
+/**
+ * An outer join whose tuples also mark the rows of the override join, so that
+ * a single scan of the sources can produce the inner, outer and override
+ * results.
+ *
+ * The tuple has one more position than there are sources. The last position
+ * is always written, and holds a {@link BooleanWritable} that is true when
+ * every source left of the rightmost source with a value holds its first value
+ * for the key. Exactly one tuple is marked for each value of the rightmost
+ * source, so the rightmost values of the marked tuples are the values the
+ * override join produces, even when sources to the left have duplicate rows.
+ *
+ * The iterators the sources add to the join collector are wrapped to count the
+ * values read since their last reset, as the values alone can not tell a
+ * duplicate row from the first row.
+ *
+ * {@link #define(JobConf)} registers the operator with
+ * {@link CompositeInputFormat}. It must be the outermost operator of the join
+ * expression.
+ */
+public class MultiJoinRecordReader<K extends WritableComparable>
+    extends JoinRecordReader<K> {
+
+  /** The name of the join operator. */
+  public static final String OP = "multi";
+
+  /** The wrapped iterator of each source that has the current key. */
+  private final PositionIterator[] positions;
+  /** Wraps the iterators the sources add, and adds them to the collector. */
+  private final JoinCollector collector;
+
+  public MultiJoinRecordReader(int id, JobConf conf, int capacity,
+      Class<? extends WritableComparator> cmpcl) throws IOException {
+    super(id, conf, capacity, cmpcl);
+    positions = new PositionIterator[capacity];
+    collector = new JoinCollector(capacity) {
+      /**
+       * The collector's iterators are typed for tuples, but hold the values
+       * of the sources.
+       */
+      @SuppressWarnings("unchecked")
+      @Override
+      public void add(int id, ResetableIterator<TupleWritable> i)
+          throws IOException {
+        positions[id] = new PositionIterator((ResetableIterator) i);
+        jc.add(id, (ResetableIterator) positions[id]);
+      }
+    };
+  }
+
+  /**
+   * Register the operator in <code>conf</code>, so that join expressions
+   * may use {@link #OP}.
+   */
+  public static void define(JobConf conf) {
+    conf.setClass("mapred.join.define." + OP, MultiJoinRecordReader.class,
+        ComposableRecordReader.class);
+  }
+
+  /** Emit every tuple, as the outer join does. */
+  protected boolean combine(Object[] srcs, TupleWritable dst) {
+    return true;
+  }
+
+  /** The tuple of the sources' values, and the override marker. */
+  @Override
+  protected TupleWritable createInternalValue() {
+    final Writable[] values = new Writable[kids.length + 1];
+    for (int i = 0; i < kids.length; ++i) {
+      values[i] = kids[i].createValue();
+    }
+    values[kids.length] = new BooleanWritable();
+    return new TupleWritable(values);
+  }
+
+  /**
+   * Fill the join collector as the composite reader does, with the iterators
+   * wrapped by {@link #collector}.
+   */
+  @Override
+  protected void fillJoinCollector(K iterkey) throws IOException {
+    Arrays.fill(positions, null);
+    final PriorityQueue<ComposableRecordReader<K,?>> q =
+      getRecordReaderQueue();
+    if (!q.isEmpty()) {
+      q.peek().key(iterkey);
+      final WritableComparator cmp = getComparator();
+      while (0 == cmp.compare(q.peek().key(), iterkey)) {
+        final ComposableRecordReader<K,?> t = q.poll();
+        t.accept(collector, iterkey);
+        if (t.hasNext()) {
+          q.add(t);
+        } else if (q.isEmpty()) {
+          return;
+        }
+      }
+    }
+  }
+
+  /** Read the next tuple, and set its override marker. */
+  @Override
+  public boolean next(K key, TupleWritable value) throws IOException {
+    if (!super.next(key, value)) {
+      return false;
+    }
+    int rightmost = -1;
+    for (int i = 0; i < kids.length; ++i) {
+      if (value.has(i)) {
+        rightmost = i;
+      }
+    }
+    boolean override = rightmost != -1;
+    for (int i = 0; override && i < rightmost; ++i) {
+      override = !value.has(i) || positions[i].position == 0;
+    }
+    ((BooleanWritable) value.get(kids.length)).set(override);
+    value.setWritten(kids.length);
+    return true;
+  }
+
+  /**
+   * Counts the values read from an iterator since it was last reset, the
+   * replayed values are not counted.
+   */
+  private static class PositionIterator
+      implements ResetableIterator<Writable> {
+    private final ResetableIterator<Writable> iterator;
+    /** The index of the current value, -1 before the first. */
+    int position = -1;
+
+    PositionIterator(ResetableIterator<Writable> iterator) {
+      this.iterator = iterator;
+    }
+
+    public boolean hasNext() {
+      return iterator.hasNext();
+    }
+
+    public boolean next(Writable val) throws IOException {
+      if (iterator.next(val)) {
+        ++position;
+        return true;
+      }
+      return false;
+    }
+
+    public boolean replay(Writable val) throws IOException {
+      return iterator.replay(val);
+    }
+
+    public void reset() {
+      iterator.reset();
+      position = -1;
+    }
+
+    public void add(Writable item) throws IOException {
+      iterator.add(item);
+    }
+
+    public void close() throws IOException {
+      iterator.close();
+    }
+
+    public void clear() {
+      iterator.clear();
+      position = -1;
+    }
+  }
+}
@@ -0,0 +1,48 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.join;
+
+/**
+ * Marks the positions of a {@link TupleWritable} that hold a value.
+ *
+ * The join record readers in this package set the written bits directly, and
+ * the methods that do so are package private. Joins that build their tuples
+ * outside of {@link CompositeInputFormat}, such as reduce side and broadcast
+ * joins, use this class so that mappers written for the map side join see the
+ * same {@link TupleWritable#has(int)} results.
+ */
+public final class TupleWritables {
+
+  private TupleWritables() {
+  }
+
+  /**
+   * Record that position <code>i</code> of <code>tuple</code> holds a value.
+   */
+  public static void setWritten(TupleWritable tuple, int i) {
+    tuple.setWritten(i);
+  }
+
+  /**
+   * Record that no position of <code>tuple</code> holds a value.
+   */
+  public static void clearWritten(TupleWritable tuple) {
+    tuple.clearWritten();
+  }
+}
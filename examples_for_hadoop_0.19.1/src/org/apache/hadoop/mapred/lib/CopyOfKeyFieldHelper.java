@@ -47,6 +47,26 @@ class CopyOfKeyFieldHelper {
     int endChar = 0;
     boolean numeric;
     boolean reverse;
+    
+    /** The number of fields whose lengths {@link CopyOfKeyFieldHelper#getStartOffset}
+     * and {@link CopyOfKeyFieldHelper#getEndOffset} need for this key. */
+    int lastFieldIdx() {
+      return Math.max(beginFieldIdx, endFieldIdx);
+    }
+  }
+  
+  /** The field lengths of one key, scanned only as far as the key specs
+   * compared so far have needed. The lengths array has the layout
+   * {@link CopyOfKeyFieldHelper#getWordLengths} returns, with the [0]'th
+   * element being the number of fields scanned so far, and is reused from
+   * key to key, so a scan is not safe to share between threads.
+   */
+  protected static class FieldScan {
+    int[] lengths = new int[10];
+    private byte[] b;
+    private int next;
+    private int end;
+    private boolean complete;
   }
   
   private List<KeyDescription> allKeySpecs = new ArrayList<KeyDescription>();
@@ -108,6 +128,53 @@ class CopyOfKeyFieldHelper {
     lengths[0] = idx; //number of words is the first element
     return lengths;
   }
+  /** Begin a lazy scan of the key in <code>b</code> from <code>start</code> to
+   * <code>end</code>. No bytes are examined until {@link #scanFields} is called.
+   */
+  public void startScan(FieldScan scan, byte[] b, int start, int end) {
+    scan.b = b;
+    scan.next = start;
+    scan.end = end;
+    scan.lengths[0] = 0;
+    scan.complete = false;
+    if (!keySpecSeen) {
+      //if there were no key specs, then the whole key is one word
+      scan.lengths[0] = 1;
+      scan.complete = true;
+    }
+  }
+  
+  /** Extend <code>scan</code> until it holds the lengths of the first
+   * <code>fields</code> fields, or of every field if the key has fewer.
+   * The result may be passed to {@link #getStartOffset} and {@link #getEndOffset}
+   * for any key spec whose {@link KeyDescription#lastFieldIdx()} is at most
+   * <code>fields</code>, and gives the same offsets as {@link #getWordLengths}.
+   */
+  public int[] scanFields(FieldScan scan, int fields) {
+    int[] lengths = scan.lengths;
+    int idx = lengths[0];
+    while (idx < fields && !scan.complete) {
+      if (++idx == lengths.length) {
+        int[] temp = lengths;
+        lengths = scan.lengths = new int[lengths.length * 2];
+        System.arraycopy(temp, 0, lengths, 0, temp.length);
+      }
+      int pos = UTF8ByteArrayUtils.findBytes(scan.b, scan.next, scan.end,
+          keyFieldSeparator);
+      if (pos == -1) {
+        //the last field runs to the end of the key, and is empty if the key
+        //ends with a separator
+        lengths[idx] = scan.end - scan.next;
+        scan.complete = true;
+      } else {
+        lengths[idx] = pos - scan.next;
+        scan.next = pos + 1;
+      }
+    }
+    lengths[0] = idx;
+    return lengths;
+  }
+  
   public int getStartOffset(byte[]b, int start, int end, 
       int []lengthIndices, KeyDescription k) {
     //if -k2.5,2 is the keyspec, the startChar is lengthIndices[1] + 5
@@ -24,6 +24,7 @@ import org.apache.hadoop.io.WritableComparator;
 import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.lib.CopyOfKeyFieldHelper.FieldScan;
 import org.apache.hadoop.mapred.lib.CopyOfKeyFieldHelper.KeyDescription;
 import org.apache.hadoop.io.Text;
 
@@ -46,6 +47,9 @@ import org.apache.hadoop.io.Text;
 public class Copy_2_of_KeyFieldBasedComparator<K, V> extends WritableComparator 
 implements JobConfigurable {
   private CopyOfKeyFieldHelper copyOfKeyFieldHelper = new CopyOfKeyFieldHelper();
+  //scratch field lengths for the two keys, reused by every comparison
+  private FieldScan scanFirst = new FieldScan();
+  private FieldScan scanSecond = new FieldScan();
   private static final byte NEGATIVE = (byte)'-';
   private static final byte ZERO = (byte)'0';
   private static final byte DECIMAL = (byte)'.';
@@ -70,9 +74,15 @@ implements JobConfigurable {
     if (allKeySpecs.size() == 0) {
       return compareBytes(b1, s1+n1, l1-n1, b2, s2+n2, l2-n2);
     }
-    int []lengthIndicesFirst = copyOfKeyFieldHelper.getWordLengths(b1, s1+n1, s1+l1);
-    int []lengthIndicesSecond = copyOfKeyFieldHelper.getWordLengths(b2, s2+n2, s2+l2);
-    for (KeyDescription keySpec : allKeySpecs) {
+    //the fields are only scanned as far as the key specs compared need,
+    //so a difference in an early field never looks at the rest of the keys
+    copyOfKeyFieldHelper.startScan(scanFirst, b1, s1+n1, s1+l1);
+    copyOfKeyFieldHelper.startScan(scanSecond, b2, s2+n2, s2+l2);
+    for (int k = 0, size = allKeySpecs.size(); k < size; k++) {
+      KeyDescription keySpec = allKeySpecs.get(k);
+      int lastField = keySpec.lastFieldIdx();
+      int []lengthIndicesFirst = copyOfKeyFieldHelper.scanFields(scanFirst, lastField);
+      int []lengthIndicesSecond = copyOfKeyFieldHelper.scanFields(scanSecond, lastField);
       int startCharFirst = copyOfKeyFieldHelper.getStartOffset(b1, s1+n1, s1+l1, lengthIndicesFirst,
           keySpec);
       int endCharFirst = copyOfKeyFieldHelper.getEndOffset(b1, s1+n1, s1+l1, lengthIndicesFirst,
@@ -0,0 +1,245 @@
+/**
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.apache.hadoop.mapred.lib;
+
+import java.util.List;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobConfigurable;
+import org.apache.hadoop.mapred.lib.CopyOfKeyFieldHelper.FieldScan;
+import org.apache.hadoop.mapred.lib.CopyOfKeyFieldHelper.KeyDescription;
+
+/**
+ * Encodes a {@link Text} key into a normalized key whose unsigned byte order
+ * is the order the key field specification of
+ * {@link Copy_2_of_KeyFieldBasedComparator} describes, so that the sort can
+ * use plain byte comparison and each key is parsed once, when it is encoded,
+ * rather than in every comparison.
+ *
+ * The encoded key is the normalized prefix, then the bytes of the original key,
+ * then the length of the prefix as a 4 byte big endian integer. Two keys the
+ * key field specification considers equal have equal prefixes, so grouping and
+ * partitioning can use the prefix alone, and {@link #decode} restores the
+ * original key for the reducer.
+ *
+ * The prefix has one segment per key spec:
+ * a marker byte, 0 if the key has no such field, so missing fields sort first,
+ * and 1 otherwise; then, for a text field, the field bytes with each 0 byte
+ * escaped as 0,255 and a 0,1 terminator, so a field sorts before any field it
+ * is a prefix of; and for a numeric (-n) field, a class byte for negative,
+ * zero and positive numbers, then the count of integer digits and the
+ * significant digits, inverted for negative numbers. A number is an optional
+ * '-', digits and an optional fraction; anything after that is ignored, and a
+ * field with no digits is zero, as for sort -n. Reverse (-r) segments are bit
+ * inverted. Every segment is prefix free, so the concatenation orders by the
+ * first spec that differs.
+ *
+ * Text fields are the bytes from the start offset through the end offset of
+ * the spec, as documented for the key field options. This is not always what
+ * the 0.19 comparators compare, as they pass the end offset of the field as a
+ * length.
+ *
+ * An encoder reuses its buffers and is not safe to share between threads.
+ */
+public class NormalizedKeyFieldEncoder implements JobConfigurable {
+  /** The bytes of the trailing prefix length. */
+  public static final int TRAILER_LENGTH = 4;
+
+  private static final byte MISSING = 0;
+  private static final byte PRESENT = 1;
+  private static final byte NEGATIVE = 0x40;
+  private static final byte ZERO = (byte) 0x80;
+  private static final byte POSITIVE = (byte) 0xc0;
+
+  private CopyOfKeyFieldHelper keyFieldHelper = new CopyOfKeyFieldHelper();
+  private KeyDescription[] keySpecs = new KeyDescription[0];
+  private int lastField;
+  private FieldScan scan = new FieldScan();
+  private byte[] buffer = new byte[64];
+  private int length;
+
+  /** Read the key field options the same way {@link Copy_2_of_KeyFieldBasedComparator} does. */
+  public void configure(JobConf job) {
+    String option = job.getKeyFieldComparatorOption();
+    String keyFieldSeparator = job.get("map.output.key.field.separator","\t");
+    keyFieldHelper.setKeyFieldSeparator(keyFieldSeparator);
+    keyFieldHelper.parseOption(option);
+    List<KeyDescription> allKeySpecs = keyFieldHelper.keySpecs();
+    if (allKeySpecs.size() == 0) {
+      //the comparator compares the whole key as bytes
+      keySpecs = new KeyDescription[] { new KeyDescription() };
+    } else {
+      keySpecs = allKeySpecs.toArray(new KeyDescription[allKeySpecs.size()]);
+    }
+    lastField = 0;
+    for (KeyDescription keySpec : keySpecs) {
+      lastField = Math.max(lastField, keySpec.lastFieldIdx());
+    }
+  }
+
+  /** Encode <code>key</code> into <code>encoded</code>. */
+  public void encode(Text key, BytesWritable encoded) {
+    encode(key.getBytes(), 0, key.getLength(), encoded);
+  }
+
+  /** Encode the key in <code>b</code> from <code>start</code> to <code>end</code>
+   * into <code>encoded</code>. */
+  public void encode(byte[] b, int start, int end, BytesWritable encoded) {
+    length = 0;
+    keyFieldHelper.startScan(scan, b, start, end);
+    int[] lengthIndices = keyFieldHelper.scanFields(scan, lastField);
+    for (KeyDescription keySpec : keySpecs) {
+      int segment = length;
+      int startChar = keyFieldHelper.getStartOffset(b, start, end,
+          lengthIndices, keySpec);
+      if (startChar == -1) {
+        put(MISSING);
+      } else {
+        //the end offset is inclusive, except when the spec runs to the end of the key
+        int endChar = Math.min(keyFieldHelper.getEndOffset(b, start, end,
+            lengthIndices, keySpec) + 1, end);
+        put(PRESENT);
+        if (keySpec.numeric) {
+          putNumber(b, startChar, endChar);
+        } else {
+          putText(b, startChar, endChar);
+        }
+      }
+      if (keySpec.reverse) {
+        for (int i = segment; i < length; i++) {
+          buffer[i] = (byte) ~buffer[i];
+        }
+      }
+    }
+    int prefixLength = length;
+    ensureCapacity(end - start + TRAILER_LENGTH);
+    System.arraycopy(b, start, buffer, length, end - start);
+    length += end - start;
+    buffer[length++] = (byte) (prefixLength >>> 24);
+    buffer[length++] = (byte) (prefixLength >>> 16);
+    buffer[length++] = (byte) (prefixLength >>> 8);
+    buffer[length++] = (byte) prefixLength;
+    encoded.set(buffer, 0, length);
+  }
+
+  /** The length of the normalized prefix of the encoded key in <code>b</code>
+   * from <code>s</code> for <code>l</code> bytes. */
+  public static int prefixLength(byte[] b, int s, int l) {
+    int t = s + l - TRAILER_LENGTH;
+    return ((b[t] & 0xff) << 24) | ((b[t + 1] & 0xff) << 16)
+      | ((b[t + 2] & 0xff) << 8) | (b[t + 3] & 0xff);
+  }
+
+  /** Restore the original key from <code>encoded</code> into <code>key</code>. */
+  public static void decode(BytesWritable encoded, Text key) {
+    byte[] b = encoded.getBytes();
+    int l = encoded.getLength();
+    int prefixLength = prefixLength(b, 0, l);
+    key.set(b, prefixLength, l - prefixLength - TRAILER_LENGTH);
+  }
+
+  private void putText(byte[] b, int start, int end) {
+    for (int i = start; i < end; i++) {
+      if (b[i] == 0) {
+        put((byte) 0);
+        put((byte) 0xff);
+      } else {
+        put(b[i]);
+      }
+    }
+    put((byte) 0);
+    put((byte) 1);
+  }
+
+  private void putNumber(byte[] b, int start, int end) {
+    int i = start;
+    boolean negative = false;
+    if (i < end && b[i] == '-') {
+      negative = true;
+      i++;
+    }
+    while (i < end && b[i] == '0') {
+      i++;
+    }
+    int integerStart = i;
+    while (i < end && isdigit(b[i])) {
+      i++;
+    }
+    int integerEnd = i;
+    int fractionStart = i;
+    int fractionEnd = i;
+    if (i < end && b[i] == '.') {
+      fractionStart = ++i;
+      while (i < end && isdigit(b[i])) {
+        i++;
+      }
+      fractionEnd = i;
+      while (fractionEnd > fractionStart && b[fractionEnd - 1] == '0') {
+        fractionEnd--;
+      }
+    }
+    int integerDigits = integerEnd - integerStart;
+    if (integerDigits == 0 && fractionEnd == fractionStart) {
+      //-0.0, 0 and a field without digits are all the same zero
+      put(ZERO);
+      return;
+    }
+    put(negative ? NEGATIVE : POSITIVE);
+    int magnitude = length;
+    //more integer digits is a bigger number, then the digits decide, and a
+    //number that is a prefix of another is smaller as the terminator is 0
+    put((byte) (integerDigits >>> 24));
+    put((byte) (integerDigits >>> 16));
+    put((byte) (integerDigits >>> 8));
+    put((byte) integerDigits);
+    for (i = integerStart; i < integerEnd; i++) {
+      put(b[i]);
+    }
+    for (i = fractionStart; i < fractionEnd; i++) {
+      put(b[i]);
+    }
+    put((byte) 0);
+    if (negative) {
+      for (i = magnitude; i < length; i++) {
+        buffer[i] = (byte) ~buffer[i];
+      }
+    }
+  }
+
+  private boolean isdigit(byte b) {
+    return '0' <= b && b <= '9';
+  }
+
+  private void put(byte b) {
+    if (length == buffer.length) {
+      ensureCapacity(1);
+    }
+    buffer[length++] = b;
+  }
+
+  private void ensureCapacity(int more) {
+    if (length + more > buffer.length) {
+      byte[] temp = buffer;
+      buffer = new byte[Math.max(buffer.length * 2, length + more)];
+      System.arraycopy(temp, 0, buffer, 0, length);
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch8;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.KeyValueTextInputFormat;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.join.MultiJoinRecordReader;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.apress.hadoopbook.utils.JoinPlanner;
+
+/** Verify that the override output of a single pass join matches the override join, when data sets have duplicate rows.
+ *
+ * The left data sets have duplicate rows for most keys, so the values to the left of the rightmost data set repeat
+ * from one pass over the rightmost values to the next. The override rows of the single pass join are compared with
+ * the rows of a separate override join, for each join strategy.
+ */
+public class TestMultiJoinMapper {
+	static final String[][] DATASETS = {
+		{ "k1\ta1", "k1\ta1", "k2\tx", "k2\tx", "k3\tz", "k3\tz", "k4\tp", "k5\tm", "k5\tn" },
+		{ "k1\tb1", "k2\ty1", "k2\ty2", "k4\tq", "k4\tq", "k5\to" },
+		{ "k1\tc1", "k1\tc2", "k4\tr", "k4\tr", "k5\ts" },
+	};
+
+	JobConf conf;
+	FileSystem fs;
+	Path base;
+	List<PlannedJoin.Table> tables = new ArrayList<PlannedJoin.Table>();
+
+	@Before
+	public void setUp() throws IOException {
+		conf = new JobConf();
+		conf.set("fs.default.name", "file:///");
+		conf.set("mapred.job.tracker", "local");
+		fs = FileSystem.getLocal(conf);
+		base = new Path(new File(System.getProperty("java.io.tmpdir"), "TestMultiJoinMapper").getAbsolutePath());
+		fs.delete(base, true);
+		conf.set("hadoop.tmp.dir", new Path(base, "tmp").toString());
+		for (int i = 0; i < DATASETS.length; i++) {
+			final Path path = new Path(base, "dataset_" + i + ".txt");
+			final Writer writer = new OutputStreamWriter(fs.create(path), "UTF-8");
+			for (String line : DATASETS[i]) {
+				writer.write(line + "\n");
+			}
+			writer.close();
+			tables.add(new PlannedJoin.Table(KeyValueTextInputFormat.class, path));
+		}
+		conf.setOutputFormat(TextOutputFormat.class);
+		conf.setOutputKeyClass(Text.class);
+		conf.setOutputValueClass(Text.class);
+		conf.setNumReduceTasks(0);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		fs.delete(base, true);
+	}
+
+	/** Run the override join and the single pass join with each strategy, and compare the override rows. */
+	@Test
+	public void testOverrideWithDuplicateRows() throws IOException {
+		final JobConf override = new JobConf(conf);
+		FileOutputFormat.setOutputPath(override, new Path(base, "override"));
+		override.setMapOutputValueClass(Text.class);
+		override.setMapperClass(IdentityMapper.class);
+		override.set(JoinPlanner.STRATEGY, JoinPlanner.Strategy.MERGE.name());
+		PlannedJoin.configure(override, "override", tables, true);
+		JobClient.runJob(override);
+		final List<String> expected = read(new Path(base, "override"), "part-");
+		assertEquals("[k1\tc1, k1\tc2, k2\ty1, k2\ty2, k3\tz, k3\tz, k4\tr, k4\tr, k5\ts]", expected.toString());
+
+		for (JoinPlanner.Strategy strategy : JoinPlanner.Strategy.values()) {
+			final Path output = new Path(base, "all." + strategy);
+			final JobConf single = new JobConf(conf);
+			FileOutputFormat.setOutputPath(single, output);
+			single.setMapperClass(MultiJoinMapper.class);
+			MultiJoinMapper.addNamedOutputs(single);
+			single.set(JoinPlanner.STRATEGY, strategy.name());
+			PlannedJoin.configure(single, MultiJoinRecordReader.OP, tables, true);
+			JobClient.runJob(single);
+			assertEquals(strategy + " override rows", expected, read(output, MultiJoinMapper.OVERRIDE + "-"));
+			/** The 16 tuples of the outer join, and the header line of {@link DuplicateKeyIndicatingWriter}. */
+			assertEquals(strategy + " outer rows", 17, read(output, MultiJoinMapper.OUTER + "-").size());
+		}
+	}
+
+	/** The sorted lines of the files in <code>dir</code> whose names start with <code>prefix</code>. */
+	List<String> read(final Path dir, final String prefix) throws IOException {
+		final List<String> lines = new ArrayList<String>();
+		for (FileStatus status : fs.listStatus(dir)) {
+			if (!status.getPath().getName().startsWith(prefix)) {
+				continue;
+			}
+			final BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(status.getPath()), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					lines.add(line);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		Collections.sort(lines);
+		return lines;
+	}
+}
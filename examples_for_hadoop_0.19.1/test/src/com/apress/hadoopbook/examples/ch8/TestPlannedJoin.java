@@ -0,0 +1,156 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch8;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.FileOutputFormat;
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.KeyValueTextInputFormat;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.TextOutputFormat;
+import org.apache.hadoop.mapred.lib.IdentityMapper;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.apress.hadoopbook.examples.ch9.FastIPv4TextComparator;
+import com.apress.hadoopbook.examples.ch9.IPv4TextPartitioner;
+import com.apress.hadoopbook.utils.JoinPlanner;
+
+/** Verify that a reduce side join with an IPv4 join comparator produces the rows of the merge join.
+ *
+ * The tables are sorted by address, which is not the byte order of the keys, so the shuffle must sort and group the keys
+ * with the join comparator for the reduce to see each key once.
+ */
+public class TestPlannedJoin {
+	static final String[][] TABLES = {
+		{ "1.2.3.4\ta1", "9.0.0.1\ta2", "10.0.0.1\ta3", "10.0.0.1\ta4", "192.168.1.9\ta5", "192.168.1.10\ta6" },
+		{ "9.0.0.1\tb1", "10.0.0.1\tb2", "100.0.0.1\tb3", "192.168.1.10\tb4" },
+	};
+
+	JobConf conf;
+	FileSystem fs;
+	Path base;
+	List<PlannedJoin.Table> tables = new ArrayList<PlannedJoin.Table>();
+
+	@Before
+	public void setUp() throws IOException {
+		conf = new JobConf();
+		conf.set("fs.default.name", "file:///");
+		conf.set("mapred.job.tracker", "local");
+		fs = FileSystem.getLocal(conf);
+		base = new Path(new File(System.getProperty("java.io.tmpdir"), "TestPlannedJoin").getAbsolutePath());
+		fs.delete(base, true);
+		conf.set("hadoop.tmp.dir", new Path(base, "tmp").toString());
+		for (int i = 0; i < TABLES.length; i++) {
+			final Path path = new Path(base, "table_" + i + ".txt");
+			final Writer writer = new OutputStreamWriter(fs.create(path), "UTF-8");
+			for (String line : TABLES[i]) {
+				writer.write(line + "\n");
+			}
+			writer.close();
+			tables.add(new PlannedJoin.Table(KeyValueTextInputFormat.class, path));
+		}
+		conf.setOutputFormat(TextOutputFormat.class);
+		conf.setOutputKeyClass(Text.class);
+		conf.setOutputValueClass(Text.class);
+		conf.setMapperClass(IdentityMapper.class);
+		conf.setNumReduceTasks(0);
+		conf.setClass("mapred.join.keycomparator", FastIPv4TextComparator.class, WritableComparator.class);
+		conf.setClass(PlannedJoin.PARTITIONER, IPv4TextPartitioner.class, Partitioner.class);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		fs.delete(base, true);
+	}
+
+	/**
+	 * Test method for {@link PlannedJoin#configure(JobConf, String, List, boolean)}.
+	 * Run the outer join as a merge join and as a reduce side join, and compare the rows.
+	 */
+	@Test
+	public void testReduceSideMatchesMerge() throws IOException {
+		final List<String> expected = run(JoinPlanner.Strategy.MERGE);
+		assertEquals("[1.2.3.4\t[a1,], 10.0.0.1\t[a3,b2], 10.0.0.1\t[a4,b2], 100.0.0.1\t[,b3], 192.168.1.10\t[a6,b4], 192.168.1.9\t[a5,], 9.0.0.1\t[a2,b1]]",
+				expected.toString());
+		assertEquals(expected, run(JoinPlanner.Strategy.REDUCE_SIDE));
+	}
+
+	/**
+	 * Test method for {@link JoinKeySortComparator#compare(byte[], int, int, byte[], int, int)}.
+	 * The sort comparator orders serialized keys by address, and the partitioner agrees with it on equal keys.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testSortComparatorAndPartitioner() throws IOException {
+		final JoinKeySortComparator comparator = new JoinKeySortComparator();
+		comparator.setConf(conf);
+		assertTrue(compare(comparator, "10.0.0.1", "192.168.1.1") < 0);
+		assertTrue(compare(comparator, "10.0.0.1", "1.2.3.4") > 0);
+		assertTrue(compare(comparator, "9.0.0.1", "10.0.0.1") < 0);
+		assertEquals(0, compare(comparator, "10.0.0.1", "010.000.000.001"));
+
+		final IPv4TextPartitioner<Text> partitioner = new IPv4TextPartitioner<Text>();
+		for (int partitions = 1; partitions < 20; partitions++) {
+			assertEquals(partitioner.getPartition(new Text("10.0.0.1"), null, partitions), partitioner.getPartition(new Text("010.000.000.001"), null, partitions));
+		}
+	}
+
+	/** Compare the serialized forms of <code>left</code> and <code>right</code>. */
+	static int compare(final JoinKeySortComparator comparator, final String left, final String right) throws IOException {
+		final DataOutputBuffer b1 = new DataOutputBuffer();
+		final DataOutputBuffer b2 = new DataOutputBuffer();
+		new Text(left).write(b1);
+		new Text(right).write(b2);
+		return comparator.compare(b1.getData(), 0, b1.getLength(), b2.getData(), 0, b2.getLength());
+	}
+
+	/** Run the outer join with <code>strategy</code>, and return the sorted rows. */
+	List<String> run(final JoinPlanner.Strategy strategy) throws IOException {
+		final Path output = new Path(base, "outer." + strategy);
+		final JobConf job = new JobConf(conf);
+		FileOutputFormat.setOutputPath(job, output);
+		job.set(JoinPlanner.STRATEGY, strategy.name());
+		final JoinPlanner.Plan plan = PlannedJoin.configure(job, "outer", tables, true);
+		assertEquals(strategy, plan.getStrategy());
+		JobClient.runJob(job);
+		final List<String> lines = new ArrayList<String>();
+		for (FileStatus status : fs.listStatus(output)) {
+			if (!status.getPath().getName().startsWith("part-")) {
+				continue;
+			}
+			final BufferedReader in = new BufferedReader(new InputStreamReader(fs.open(status.getPath()), "UTF-8"));
+			try {
+				String line;
+				while ((line = in.readLine()) != null) {
+					lines.add(line);
+				}
+			} finally {
+				in.close();
+			}
+		}
+		Collections.sort(lines);
+		return lines;
+	}
+}
@@ -0,0 +1,62 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import java.util.Random;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+
+/** Time {@link IPv4TextComparator} against {@link FastIPv4TextComparator} on dotted quad and zero padded keys.
+ *
+ * This is not a unit test, run the main method: <code>java com.apress.hadoopbook.examples.ch9.IPv4TextComparatorBenchmark [keys [rounds]]</code>.
+ * Each round compares every adjacent pair of a shuffled key array, after a warm up round for the JIT.
+ *
+ * @author Jason
+ *
+ */
+public class IPv4TextComparatorBenchmark {
+
+	static Text[] makeKeys(final int count, final boolean padded, final Random random) {
+		final Text[] keys = new Text[count];
+		for (int i = 0; i < count; i++) {
+			/** Keys in the same /16 often, so the comparison has to go past the first octets. */
+			final long address = random.nextInt(4) == 0 ? random.nextLong() & 0xffffffffL : 0x0a0a0000L | random.nextInt(0x10000);
+			final String format = padded ? "%03d.%03d.%03d.%03d" : "%d.%d.%d.%d";
+			keys[i] = new Text(String.format(format, address >>> 24, (address >>> 16) & 0xff, (address >>> 8) & 0xff, address & 0xff));
+		}
+		return keys;
+	}
+
+	/** @return nanoseconds per comparison. */
+	static double time(final WritableComparator comparator, final Text[] keys, final int rounds) {
+		long sink = 0;
+		final long start = System.nanoTime();
+		for (int round = 0; round < rounds; round++) {
+			for (int i = 1; i < keys.length; i++) {
+				sink += comparator.compare(keys[i - 1].getBytes(), 0, keys[i - 1].getLength(), keys[i].getBytes(), 0, keys[i].getLength());
+			}
+		}
+		final long elapsed = System.nanoTime() - start;
+		if (sink == Long.MIN_VALUE) {
+			System.out.println("unreachable, keeps the loop live");
+		}
+		return (double) elapsed / ((long) rounds * (keys.length - 1));
+	}
+
+	public static void main(String[] args) {
+		final int count = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+		final int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+		final Random random = new Random(1);
+		final WritableComparator reference = new IPv4TextComparator();
+		final WritableComparator fast = new FastIPv4TextComparator();
+		for (boolean padded : new boolean[] { false, true }) {
+			final Text[] keys = makeKeys(count, padded, random);
+			time(reference, keys, rounds);
+			time(fast, keys, rounds);
+			System.out.println(String.format("%-10s IPv4TextComparator %6.1f ns/compare, FastIPv4TextComparator %6.1f ns/compare",
+					padded ? "padded" : "dotted", time(reference, keys, rounds), time(fast, keys, rounds)));
+		}
+	}
+}
@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Verify that {@link ActiveRanges} expires ranges by end, regardless of the order the ranges arrive in.
+ */
+public class TestActiveRanges {
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.ActiveRanges#deactivate(long)}.
+	 */
+	@Test
+	public void testShortRangeBehindLongRange() {
+		ActiveRanges ranges = new ActiveRanges();
+		ranges.activate(0x0a000000L, 0x0affffffL, "long");
+		ranges.activate(0x0a000000L, 0x0a0000ffL, "short");
+		ranges.deactivate(0x0a000100L);
+		assertEquals("The short range expired", 1, ranges.size());
+		assertEquals("long", ranges.getValue(0));
+		assertEquals(0x0affffffL, ranges.getEnd(0));
+		ranges.deactivate(0x0b000000L);
+		assertTrue("All expired", ranges.isEmpty());
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.ActiveRanges#activate(long, long, String)}.
+	 * Compare against a brute force scan, past the initial capacity so the arrays grow.
+	 */
+	@Test
+	public void testAgainstScan() {
+		ActiveRanges ranges = new ActiveRanges();
+		Random random = new Random(1);
+		final int count = ActiveRanges.INITIAL_CAPACITY * 3;
+		long[] ends = new long[count];
+		long probe = 0;
+		for (int i = 0; i < count; i++) {
+			/** Begins ascend, as the reduce keys do, the ends are random. */
+			probe += random.nextInt(4);
+			ends[i] = probe + random.nextInt(20000);
+			ranges.activate(probe, ends[i], Integer.toString(i));
+			if (random.nextInt(8) == 0) {
+				ranges.deactivate(probe);
+				int expected = 0;
+				for (int j = 0; j <= i; j++) {
+					if (ends[j] >= probe) {
+						expected++;
+					}
+				}
+				assertEquals("Active at " + probe, expected, ranges.size());
+				for (int j = 0; j < ranges.size(); j++) {
+					assertTrue("Still active", ranges.getEnd(j) >= probe);
+					assertEquals("Value follows the range", ends[Integer.parseInt(ranges.getValue(j))], ranges.getEnd(j));
+				}
+			}
+		}
+		assertTrue("Max gauge", ranges.getMaxSize() > ActiveRanges.INITIAL_CAPACITY);
+		assertTrue("Percentiles are ordered", ranges.getSizePercentile(50) <= ranges.getSizePercentile(99));
+		assertTrue("Percentiles are bounded", ranges.getSizePercentile(99) <= ranges.getMaxSize());
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.ActiveRanges#reserve(int)}.
+	 * A range that never expires keeps the active set from emptying, so the arena has to be compacted.
+	 */
+	@Test
+	public void testArenaCompaction() {
+		ActiveRanges ranges = new ActiveRanges();
+		ranges.activate(0, 0xffffffffL, "everything");
+		final int arenaLength = ranges.getValueBytes().length;
+		final StringBuilder owner = new StringBuilder();
+		for (int i = 0; i < 200; i++) {
+			owner.append("long owner name ");
+		}
+		for (long address = 1; address < 1000; address++) {
+			final String value = address + owner.toString();
+			ranges.activate(address, address, value);
+			ranges.deactivate(address);
+			assertEquals(2, ranges.size());
+			assertEquals("Live value", value, ranges.getValue(ranges.getEnd(0) == address ? 0 : 1));
+			ranges.deactivate(address + 1);
+			assertEquals("everything", ranges.getValue(0));
+		}
+		assertEquals("Compacted rather than grown", arenaLength, ranges.getValueBytes().length);
+	}
+}
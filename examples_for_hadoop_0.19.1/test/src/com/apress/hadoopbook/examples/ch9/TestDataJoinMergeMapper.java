@@ -0,0 +1,72 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/** Verify that {@link DataJoinMergeMapper} orders the joined values by begin, end and network, with undecodable values last.
+ */
+public class TestDataJoinMergeMapper {
+
+	static String[] sort(String... lines) {
+		DataJoinMergeMapper mapper = new DataJoinMergeMapper();
+		mapper.ensureCapacity(lines.length);
+		for (int i = 0; i < lines.length; i++) {
+			mapper.values[i] = new Text(lines[i]);
+			mapper.decode(i);
+		}
+		mapper.sort(lines.length);
+		String[] sorted = new String[lines.length];
+		for (int i = 0; i < lines.length; i++) {
+			sorted[i] = mapper.values[mapper.order[i]].toString();
+		}
+		return sorted;
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.DataJoinMergeMapper#decode(int)}.
+	 * The third tab is found within the value's own length, even when the value is shorter than the Text buffer.
+	 */
+	@Test
+	public void testDecode() {
+		DataJoinMergeMapper mapper = new DataJoinMergeMapper();
+		mapper.ensureCapacity(2);
+		Text reused = new Text("10.0.0.0\t10.255.255.255\tTEN NETWORK\tlong log line");
+		reused.set("10.0.0.0\t10.0.0.255\tTEN\t");
+		mapper.values[0] = reused;
+		assertTrue(mapper.decode(0));
+		assertEquals(0x0a000000L, mapper.begins[0]);
+		assertEquals(0x0a0000ffL, mapper.ends[0]);
+		assertEquals("TEN", new String(reused.getBytes(), mapper.networkStarts[0], mapper.networkEnds[0] - mapper.networkStarts[0]));
+
+		reused.set("10.0.0.0\t10.0.0.255\tTEN");
+		assertFalse("No third tab in the value", mapper.decode(0));
+		assertEquals(DataJoinMergeMapper.UNPARSEABLE, mapper.begins[0]);
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.DataJoinMergeMapper#sort(int)}.
+	 */
+	@Test
+	public void testSort() {
+		String[] sorted = sort(
+				"junk",
+				"10.0.0.0\t10.255.255.255\tTEN\tb",
+				"9.0.0.0\t10.255.255.255\tNINE\tc",
+				"10.0.0.0\t10.0.0.255\tTEN SMALL\td",
+				"10.0.0.0\t10.255.255.255\tATEN\te",
+				"10.0.0.0\tbad\tTEN\tf");
+		assertEquals("9.0.0.0\t10.255.255.255\tNINE\tc", sorted[0]);
+		assertEquals("10.0.0.0\t10.0.0.255\tTEN SMALL\td", sorted[1]);
+		assertEquals("10.0.0.0\t10.255.255.255\tATEN\te", sorted[2]);
+		assertEquals("10.0.0.0\t10.255.255.255\tTEN\tb", sorted[3]);
+		assertEquals("Undecodable values last, in table order", "junk", sorted[4]);
+		assertEquals("Undecodable values last, in table order", "10.0.0.0\tbad\tTEN\tf", sorted[5]);
+	}
+}
@@ -0,0 +1,50 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/** Verify that {@link DottedQuadCodec} writes exactly what a {@link java.util.Formatter} writes for the same address.
+ */
+public class TestDottedQuadCodec {
+
+	static String format(final long address) {
+		return String.format("%d.%d.%d.%d", address >>> 24, (address >>> 16) & 0xff, (address >>> 8) & 0xff, address & 0xff);
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.DottedQuadCodec#pack(long, byte[], int)}.
+	 */
+	@Test
+	public void testPack() {
+		final byte[] bytes = new byte[DottedQuadCodec.MAX_LENGTH + 1];
+		for (long address : new long[] { 0L, 0x0a000001L, 0x7f000001L, 0xc0a8ff0aL, 0xffffffffL }) {
+			final int end = DottedQuadCodec.pack(address, bytes, 1);
+			final String expected = format(address);
+			assertEquals(expected, new String(bytes, 1, end - 1));
+			assertEquals("Round trip", address, AbstractKeyHelper.addrToLong(expected));
+		}
+		final Random random = new Random(1);
+		for (int i = 0; i < 10000; i++) {
+			final long address = random.nextLong() & 0xffffffffL;
+			assertEquals(format(address), new String(bytes, 0, DottedQuadCodec.pack(address, bytes, 0)));
+		}
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.DottedQuadCodec#pack(long, byte[], int)}.
+	 * Only the low 32 bits are used, and the longest address fills {@link DottedQuadCodec#MAX_LENGTH} bytes.
+	 */
+	@Test
+	public void testBounds() {
+		final byte[] bytes = new byte[DottedQuadCodec.MAX_LENGTH];
+		assertEquals(DottedQuadCodec.MAX_LENGTH, DottedQuadCodec.pack(0xffffffffL, bytes, 0));
+		assertEquals("255.255.255.255", new String(bytes));
+		assertEquals("1.2.3.4", new String(bytes, 0, DottedQuadCodec.pack(0x1200000001020304L, bytes, 0)));
+	}
+}
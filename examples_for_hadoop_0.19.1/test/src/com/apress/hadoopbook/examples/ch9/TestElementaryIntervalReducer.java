@@ -0,0 +1,152 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+
+/** Verify that {@link ElementaryIntervalReducer} cuts overlapping ranges into disjoint intervals with the right covering ranges.
+ */
+public class TestElementaryIntervalReducer {
+
+	/** Collects a copy of each interval, the reducer reuses its output objects. */
+	static class Collector implements OutputCollector<LongWritable, ElementaryIntervalWritable> {
+		List<Long> begins = new ArrayList<Long>();
+		List<ElementaryIntervalWritable> intervals = new ArrayList<ElementaryIntervalWritable>();
+
+		@Override
+		public void collect(LongWritable key, ElementaryIntervalWritable value) throws IOException {
+			begins.add(key.get());
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			value.write(new DataOutputStream(bytes));
+			ElementaryIntervalWritable copy = new ElementaryIntervalWritable();
+			copy.readFields(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+			intervals.add(copy);
+		}
+	}
+
+	static ElementaryIntervalReducer<Text> newReducer() {
+		JobConf conf = new JobConf();
+		conf.set("mapred.task.id", "attempt_200901010000_0001_r_000000_0");
+		ElementaryIntervalReducer<Text> reducer = new ElementaryIntervalReducer<Text>();
+		reducer.configure(conf);
+		return reducer;
+	}
+
+	static void reduce(ElementaryIntervalReducer<Text> reducer, Collector output, long begin, long end, String... owners) throws IOException {
+		List<Text> values = new ArrayList<Text>();
+		for (String owner : owners) {
+			values.add(new Text(owner));
+		}
+		reducer.reduce(new Text(String.format("%08x:%08x", begin, end)), values.iterator(), output, Reporter.NULL);
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.ElementaryIntervalReducer#advanceTo(long, OutputCollector)}.
+	 */
+	@Test
+	public void testNestedRanges() throws IOException {
+		ElementaryIntervalReducer<Text> reducer = newReducer();
+		Collector output = new Collector();
+		reduce(reducer, output, 0x10, 0x3f, "outer");
+		reduce(reducer, output, 0x20, 0x2f, "inner");
+		reduce(reducer, output, 0x50, 0x5f, "alone", "twin");
+		reducer.close();
+
+		assertEquals(Arrays.asList(0x10L, 0x20L, 0x30L, 0x50L), output.begins);
+		assertEquals(0x1fL, output.intervals.get(0).getEnd());
+		assertEquals(1, output.intervals.get(0).getDepth());
+		assertEquals(0x2fL, output.intervals.get(1).getEnd());
+		assertEquals(2, output.intervals.get(1).getDepth());
+		assertEquals("outer", output.intervals.get(1).getOwner(0).toString());
+		assertEquals("inner", output.intervals.get(1).getOwner(1).toString());
+		assertEquals(0x20L, output.intervals.get(1).getRangeBegin(1));
+		assertEquals(0x3fL, output.intervals.get(2).getEnd());
+		assertEquals("outer", output.intervals.get(2).getOwner(0).toString());
+		assertEquals(0x5fL, output.intervals.get(3).getEnd());
+		assertEquals(2, output.intervals.get(3).getDepth());
+		assertEquals(2, reducer.getMaxDepth());
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.ElementaryIntervalReducer#reduce(Object, java.util.Iterator, OutputCollector, Reporter)}.
+	 * Compare every address against a brute force scan of the ranges.
+	 */
+	@Test
+	public void testAgainstScan() throws IOException {
+		final Random random = new Random(1);
+		final int space = 4000;
+		final int count = 300;
+		final TreeSet<String> keys = new TreeSet<String>();
+		while (keys.size() < count) {
+			final long begin = random.nextInt(space);
+			final long end = Math.min(space - 1, begin + random.nextInt(random.nextBoolean() ? 20 : 600));
+			keys.add(String.format("%08x:%08x", begin, end));
+		}
+		final long[] begins = new long[count];
+		final long[] ends = new long[count];
+		ElementaryIntervalReducer<Text> reducer = newReducer();
+		Collector output = new Collector();
+		int i = 0;
+		for (String key : keys) {
+			begins[i] = Long.parseLong(key.substring(0, 8), 16);
+			ends[i] = Long.parseLong(key.substring(9), 16);
+			reduce(reducer, output, begins[i], ends[i], key);
+			i++;
+		}
+		reducer.close();
+
+		int maxDepth = 0;
+		int interval = 0;
+		for (long address = 0; address < space; address++) {
+			final TreeSet<String> expected = new TreeSet<String>();
+			for (int j = 0; j < count; j++) {
+				if (begins[j] <= address && address <= ends[j]) {
+					expected.add(String.format("%08x:%08x", begins[j], ends[j]));
+				}
+			}
+			maxDepth = Math.max(maxDepth, expected.size());
+			while (interval < output.begins.size() && output.intervals.get(interval).getEnd() < address) {
+				interval++;
+			}
+			if (interval == output.begins.size() || output.begins.get(interval) > address) {
+				assertTrue("Uncovered address " + address, expected.isEmpty());
+				continue;
+			}
+			final ElementaryIntervalWritable found = output.intervals.get(interval);
+			final TreeSet<String> actual = new TreeSet<String>();
+			for (int j = 0; j < found.getDepth(); j++) {
+				actual.add(found.getOwner(j).toString());
+				assertEquals("Range follows owner", found.getOwner(j).toString(),
+						String.format("%08x:%08x", found.getRangeBegin(j), found.getRangeEnd(j)));
+				if (j > 0) {
+					assertTrue("Owners are sorted", found.getRangeBegin(j - 1) <= found.getRangeBegin(j));
+				}
+			}
+			assertEquals("Covering ranges at " + address, expected, actual);
+		}
+		for (int j = 1; j < output.begins.size(); j++) {
+			assertTrue("Intervals are disjoint", output.intervals.get(j - 1).getEnd() < output.begins.get(j));
+		}
+		assertEquals(maxDepth, reducer.getMaxDepth());
+	}
+}
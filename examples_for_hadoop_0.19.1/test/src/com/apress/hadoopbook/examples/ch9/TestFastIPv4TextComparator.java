@@ -0,0 +1,76 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/** Verify that {@link FastIPv4TextComparator} orders exactly as {@link IPv4TextComparator} does, malformed input included.
+ */
+public class TestFastIPv4TextComparator {
+	IPv4TextComparator reference = new IPv4TextComparator();
+	FastIPv4TextComparator fast = new FastIPv4TextComparator();
+
+	/** Generate an address, padded or not, sometimes malformed. */
+	static String randomAddress(final Random random) {
+		StringBuilder sb = new StringBuilder();
+		final boolean padded = random.nextBoolean();
+		for (int i = 0; i < 4; i++) {
+			if (i > 0) {
+				sb.append('.');
+			}
+			/** Mostly valid octets, with some out of range ones that overflow into the next octet. */
+			final int octet = random.nextInt(10) == 0 ? random.nextInt(1000) : random.nextInt(256);
+			sb.append(padded ? String.format("%03d", octet) : Integer.toString(octet));
+		}
+		switch (random.nextInt(20)) {
+		case 0:
+			sb.setCharAt(random.nextInt(sb.length()), 'x');
+			break;
+		case 1:
+			sb.setCharAt(random.nextInt(sb.length()), '.');
+			break;
+		case 2:
+			sb.setLength(random.nextInt(sb.length()));
+			break;
+		default:
+			break;
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.FastIPv4TextComparator#compare(byte[], int, int, byte[], int, int)}.
+	 */
+	@Test
+	public void testAgainstReference() {
+		final Random random = new Random(1);
+		final Text left = new Text();
+		final Text right = new Text();
+		for (int i = 0; i < 100000; i++) {
+			left.set(randomAddress(random));
+			right.set(random.nextInt(10) == 0 ? left.toString() : randomAddress(random));
+			assertEquals(left + " vs " + right, reference.compare(left, right), fast.compare(left, right));
+			assertEquals(left.toString(), IPv4TextComparator.unpack(left.getBytes(), 0, left.getLength()),
+					FastIPv4TextComparator.unpackFast(left.getBytes(), 0, left.getLength()));
+		}
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.FastIPv4TextComparator#isFixed(byte[], int)}.
+	 */
+	@Test
+	public void testFixedWidth() {
+		assertTrue(FastIPv4TextComparator.isFixed(new Text("010.000.255.001").getBytes(), 0));
+		assertTrue("Octet over 255", !FastIPv4TextComparator.isFixed(new Text("010.000.256.001").getBytes(), 0));
+		assertTrue("Misplaced dot", !FastIPv4TextComparator.isFixed(new Text("0100.00.255.001").getBytes(), 0));
+		assertTrue("Mixed widths compare by value", fast.compare(new Text("010.000.000.001"), new Text("9.255.255.255")) > 0);
+		assertTrue("Overflowing octet is not fixed width", fast.compare(new Text("000.000.001.000"), new Text("000.000.000.999")) < 0);
+	}
+}
@@ -0,0 +1,198 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.apress.hadoopbook.examples.ch9.TestHotAddresses.Collector;
+import com.apress.hadoopbook.examples.ch9.TestHotAddresses.Record;
+
+/** Verify that {@link FusedOutputReducer} writes the same rows as {@link ReducerForStandardComparator} followed by {@link TranslateBackToIPMapper}.
+ *
+ * The shuffle is simulated as in {@link TestHotAddresses}, each partition is sorted and passed to both reduce chains.
+ */
+public class TestFusedOutputReducer {
+	static final long HOT = 0x10000005L;
+	static final String[] SEARCH_SPACE = {
+		"00000000:ffffffff\teverything",
+		"0a000000:0affffff\tten",
+		"0a000000:0a0000ff\tten small",
+		"10000000:10ffffff\tnetA",
+		"10000000:7fffffff\tbig",
+		"c0a80000:c0a8ffff\tprivate",
+		"ffffffff:ffffffff\tbroadcast",
+	};
+
+	JobConf conf;
+	FileSystem fs;
+	Path base;
+	PartitionedTextKeyHelperWithSeparators helper;
+
+	@Before
+	public void setUp() throws IOException {
+		conf = new JobConf();
+		conf.set("fs.default.name", "file:///");
+		conf.set("mapred.task.id", "attempt_200901010000_0001_r_000000_0");
+		conf.setClass(AbstractKeyHelper.RANGE_KEY_HELPER, PartitionedTextKeyHelperWithSeparators.class, KeyHelper.class);
+		fs = FileSystem.getLocal(conf);
+		base = new Path(new File(System.getProperty("java.io.tmpdir"), "TestFusedOutputReducer").getAbsolutePath());
+		fs.delete(base, true);
+		helper = new PartitionedTextKeyHelperWithSeparators(conf);
+	}
+
+	@After
+	public void tearDown() throws IOException {
+		fs.delete(base, true);
+	}
+
+	/** The search space records, 200 requests for {@link #HOT} and requests at the edges of the ranges and the address space. */
+	List<Record> input() {
+		final List<Record> records = new ArrayList<Record>();
+		for (String line : SEARCH_SPACE) {
+			final int tab = line.indexOf('\t');
+			records.add(new Record(new Text(line.substring(0, tab)), new Text(line.substring(tab + 1))));
+		}
+		final long[] addresses = { 0L, 0x09ffffffL, 0x0a000000L, 0x0a0000ffL, 0x0a000100L, 0x10ffffffL, 0x7fffffffL, 0xc0a80101L, 0xfffffffeL, 0xffffffffL };
+		final Text key = new Text();
+		for (int i = 0; i < 200 + addresses.length; i++) {
+			helper.reset();
+			helper.setSearchRequest(i < 200 ? HOT : addresses[i - 200]);
+			helper.setToRaw(key);
+			records.add(new Record(key, new Text("GET /page" + i)));
+		}
+		return records;
+	}
+
+	/** Sort the records of a partition by key, as the shuffle would, and reduce them with <code>reducer</code>. */
+	static List<Record> reduce(final ReducerForStandardComparator<Text> reducer, final JobConf conf, final List<Record> partition) throws IOException {
+		Collections.sort(partition, new Comparator<Record>() {
+			public int compare(Record o1, Record o2) {
+				return o1.key.compareTo(o2.key);
+			}
+		});
+		reducer.configure(conf);
+		final Collector output = new Collector();
+		for (int i = 0; i < partition.size();) {
+			final ArrayList<Text> values = new ArrayList<Text>();
+			int j = i;
+			for (; j < partition.size() && partition.get(j).key.equals(partition.get(i).key); j++) {
+				values.add(partition.get(j).value);
+			}
+			reducer.reduce(partition.get(i).key, values.iterator(), output, Reporter.NULL);
+			i = j;
+		}
+		reducer.close();
+		return output.records;
+	}
+
+	/** Reduce <code>partition</code> with the chain and with {@link FusedOutputReducer}, and assert that the rows are identical.
+	 *
+	 * @return the rows
+	 */
+	List<String> compare(final List<Record> partition) throws IOException {
+		final TranslateBackToIPMapper mapper = new TranslateBackToIPMapper();
+		mapper.configure(conf);
+		final Collector chained = new Collector();
+		for (Record record : reduce(new ReducerForStandardComparator<Text>(), conf, new ArrayList<Record>(partition))) {
+			mapper.map(record.key, record.value, chained, Reporter.NULL);
+		}
+		mapper.close();
+		final List<String> expected = lines(chained.records);
+		final List<String> fused = lines(reduce(new FusedOutputReducer<Text>(), conf, new ArrayList<Record>(partition)));
+		assertEquals(expected, fused);
+		return fused;
+	}
+
+	static List<String> lines(final List<Record> records) {
+		final List<String> lines = new ArrayList<String>();
+		for (Record record : records) {
+			lines.add(record.key + "\t" + record.value);
+		}
+		return lines;
+	}
+
+	/**
+	 * Test method for {@link FusedOutputReducer#handleHit(Object, org.apache.hadoop.mapred.OutputCollector, Reporter, Text, int)}.
+	 * Nested ranges, the whole address space and the first and last addresses, in a single reduce.
+	 */
+	@Test
+	public void testSingleReduce() throws IOException {
+		final List<String> rows = compare(input());
+		assertEquals("every hot request hits everything, netA and big", 3 * 200, TestHotAddresses.count(rows, "16.0.0.5\t"));
+		assertTrue(rows.contains("255.255.255.255\t255.255.255.255\t255.255.255.255\tbroadcast\tGET /page209"));
+		assertTrue(rows.contains("10.0.0.255\t10.0.0.0\t10.0.0.255\tten small\tGET /page203"));
+		assertTrue(rows.contains("0.0.0.0\t0.0.0.0\t255.255.255.255\teverything\tGET /page200"));
+	}
+
+	/**
+	 * Test method for {@link FusedOutputReducer#handleHit(Object, org.apache.hadoop.mapred.OutputCollector, Reporter, Text, int)}.
+	 * The hot address is salted over 4 reduces, so its hits come from the hot ranges rather than the active ranges.
+	 */
+	@Test
+	public void testSaltedHotAddress() throws IOException {
+		final Path searchSpace = new Path(base, "searchSpace");
+		final Writer writer = new OutputStreamWriter(fs.create(searchSpace), "UTF-8");
+		for (String line : SEARCH_SPACE) {
+			writer.write(line + "\n");
+		}
+		writer.close();
+		final List<Record> input = input();
+		final PartitionBoundarySampler sampler = new PartitionBoundarySampler(conf);
+		for (Record record : input) {
+			sampler.add(record.key);
+		}
+		final HotAddresses hot = sampler.findHotAddresses(4, 0.5f, 0);
+		assertEquals("only the crawler is hot", 1, hot.size());
+		assertEquals(3, hot.addRanges(new Path[] { searchSpace }, conf));
+		final Path hotPath = new Path(base, "hot");
+		hot.write(hotPath, conf);
+
+		conf.setNumReduceTasks(4);
+		conf.set(HotAddresses.HOT_FILE, hotPath.toString());
+		final SimpleIPRangePartitioner<Text> partitioner = new SimpleIPRangePartitioner<Text>();
+		partitioner.configure(conf);
+		final List<List<Record>> partitions = new ArrayList<List<Record>>();
+		for (int i = 0; i < 4; i++) {
+			partitions.add(new ArrayList<Record>());
+		}
+		final PartitionedTextKeyHelperWithSeparators spanHelper = new PartitionedTextKeyHelperWithSeparators(conf);
+		for (Record record : input) {
+			final Collector spanned = new Collector();
+			assertTrue(spanHelper.getFromRaw(record.key));
+			if (spanHelper.isSearchSpace()) {
+				partitioner.spanSpaceKeys(spanHelper, new Text(), record.value, spanned, Reporter.NULL);
+			} else {
+				spanned.collect(record.key, record.value);
+			}
+			for (Record span : spanned.records) {
+				partitions.get(partitioner.getPartition(span.key, span.value, 4)).add(span);
+			}
+		}
+
+		final List<String> salted = new ArrayList<String>();
+		for (List<Record> partition : partitions) {
+			salted.addAll(compare(partition));
+		}
+		assertEquals("every hot request hits everything, netA and big", 3 * 200, TestHotAddresses.count(salted, "16.0.0.5\t"));
+	}
+}
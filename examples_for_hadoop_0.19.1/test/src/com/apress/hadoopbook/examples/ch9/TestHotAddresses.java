@@ -0,0 +1,205 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.OutputCollector;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Verify that salting a hot address across several reduces gives the same join output as a single reduce.
+ *
+ * The shuffle is simulated: the search space keys are spanned and every key is partitioned by {@link SimpleIPRangePartitioner},
+ * each partition is sorted and passed to its own {@link ReducerForStandardComparator}.
+ */
+public class TestHotAddresses {
+	static final long HOT = 0x10000005L;
+	static final String[] SEARCH_SPACE = {
+		"10000000:10ffffff\tnetA",
+		"10000000:7fffffff\tbig",
+		"50000000:500000ff\tnetB",
+		"c0000000:ffffffff\thigh",
+	};
+
+	JobConf conf;
+	FileSystem fs;
+	Path base;
+	Path searchSpace;
+	PartitionedTextKeyHelperWithSeparators helper;
+
+	/** A key and value, copied. */
+	static class Record {
+		final Text key;
+		final Text value;
+		Record(Text key, Text value) {
+			this.key = new Text(key);
+			this.value = new Text(value);
+		}
+	}
+
+	/** Collects copies of the records. */
+	static class Collector implements OutputCollector<Text, Text> {
+		final List<Record> records = new ArrayList<Record>();
+		public void collect(Text key, Text value) throws IOException {
+			records.add(new Record(key, value));
+		}
+	}
+
+	@Before
+	public void setUp() throws IOException {
+		conf = new JobConf();
+		conf.set("fs.default.name", "file:///");
+		conf.setNumReduceTasks(4);
+		conf.set("mapred.task.id", "attempt_200901010000_0001_r_000000_0");
+		conf.setClass(AbstractKeyHelper.RANGE_KEY_HELPER, PartitionedTextKeyHelperWithSeparators.class, KeyHelper.class);
+		fs = FileSystem.getLocal(conf);
+		base = new Path(new File(System.getProperty("java.io.tmpdir"), "TestHotAddresses").getAbsolutePath());
+		fs.delete(base, true);
+		searchSpace = new Path(base, "searchSpace");
+		final Writer writer = new OutputStreamWriter(fs.create(searchSpace), "UTF-8");
+		for (String line : SEARCH_SPACE) {
+			writer.write(line + "\n");
+		}
+		writer.close();
+		helper = new PartitionedTextKeyHelperWithSeparators(conf);
+	}
+
+	/** The search space records and the log records, 200 requests for {@link #HOT} and 20 spread over the other ranges. */
+	List<Record> input() {
+		final List<Record> records = new ArrayList<Record>();
+		for (String line : SEARCH_SPACE) {
+			final int tab = line.indexOf('\t');
+			records.add(new Record(new Text(line.substring(0, tab)), new Text(line.substring(tab + 1))));
+		}
+		final Text key = new Text();
+		for (int i = 0; i < 220; i++) {
+			final long address = i < 200 ? HOT : 0x10000000L + (i - 200) * 0x0b000000L;
+			helper.reset();
+			helper.setSearchRequest(address);
+			helper.setToRaw(key);
+			records.add(new Record(key, new Text("GET /page" + i)));
+		}
+		return records;
+	}
+
+	/** Sort the records of a partition by key, as the shuffle would, and reduce them. */
+	List<String> reduce(List<Record> partition) throws IOException {
+		Collections.sort(partition, new Comparator<Record>() {
+			public int compare(Record o1, Record o2) {
+				return o1.key.compareTo(o2.key);
+			}
+		});
+		final ReducerForStandardComparator<Text> reducer = new ReducerForStandardComparator<Text>();
+		reducer.configure(conf);
+		final Collector output = new Collector();
+		for (int i = 0; i < partition.size();) {
+			final ArrayList<Text> values = new ArrayList<Text>();
+			int j = i;
+			for (; j < partition.size() && partition.get(j).key.equals(partition.get(i).key); j++) {
+				values.add(partition.get(j).value);
+			}
+			reducer.reduce(partition.get(i).key, values.iterator(), output, Reporter.NULL);
+			i = j;
+		}
+		reducer.close();
+		final List<String> lines = new ArrayList<String>();
+		for (Record record : output.records) {
+			lines.add(record.key + "\t" + record.value);
+		}
+		return lines;
+	}
+
+	/**
+	 * Test method for {@link PartitionBoundarySampler#findHotAddresses(int, float, int)} and {@link HotAddresses#read(Path, org.apache.hadoop.conf.Configuration)}.
+	 */
+	@Test
+	public void testSalting() throws IOException {
+		final List<Record> input = input();
+		final List<String> expected = reduce(new ArrayList<Record>(input));
+		Collections.sort(expected);
+		assertEquals("every hot request hits netA and big", 2 * 200, count(expected, String.format("%08x\t", HOT)));
+
+		final PartitionBoundarySampler sampler = new PartitionBoundarySampler(conf);
+		for (Record record : input) {
+			sampler.add(record.key);
+		}
+		final HotAddresses hot = sampler.findHotAddresses(4, 0.5f, 0);
+		assertEquals("only the crawler is hot", 1, hot.size());
+		assertEquals(HOT, hot.getAddress(0));
+		assertEquals(4, hot.getFanout(0));
+		assertEquals(2, hot.addRanges(new Path[] { searchSpace }, conf));
+		final Path hotPath = new Path(base, "hot");
+		hot.write(hotPath, conf);
+		final HotAddresses read = HotAddresses.read(hotPath, conf);
+		assertEquals(1, read.size());
+		assertEquals(HOT, read.getAddress(0));
+		assertEquals(4, read.getFanout(0));
+		assertEquals(200, read.getSampled(0));
+		assertEquals(2, read.getRanges(0).size());
+		assertEquals(-1, read.indexOf(HOT + 1));
+
+		conf.set(HotAddresses.HOT_FILE, hotPath.toString());
+		final SimpleIPRangePartitioner<Text> partitioner = new SimpleIPRangePartitioner<Text>();
+		partitioner.configure(conf);
+		final List<List<Record>> partitions = new ArrayList<List<Record>>();
+		for (int i = 0; i < 4; i++) {
+			partitions.add(new ArrayList<Record>());
+		}
+		final PartitionedTextKeyHelperWithSeparators spanHelper = new PartitionedTextKeyHelperWithSeparators(conf);
+		final int[] hotPartitions = new int[4];
+		for (Record record : input) {
+			final Collector spanned = new Collector();
+			assertTrue(spanHelper.getFromRaw(record.key));
+			if (spanHelper.isSearchSpace()) {
+				partitioner.spanSpaceKeys(spanHelper, new Text(), record.value, spanned, Reporter.NULL);
+			} else {
+				spanned.collect(record.key, record.value);
+			}
+			for (Record span : spanned.records) {
+				final int partition = partitioner.getPartition(span.key, span.value, 4);
+				partitions.get(partition).add(span);
+				if (spanHelper.getFromRaw(span.key) && spanHelper.isSearchRequest() && spanHelper.getSearchRequest() == HOT) {
+					hotPartitions[partition]++;
+				}
+			}
+		}
+		for (int i = 0; i < 4; i++) {
+			assertTrue("the hot requests are spread over every partition", hotPartitions[i] > 0 && hotPartitions[i] < 200);
+		}
+
+		final List<String> salted = new ArrayList<String>();
+		for (List<Record> partition : partitions) {
+			salted.addAll(reduce(partition));
+		}
+		Collections.sort(salted);
+		assertEquals(expected, salted);
+		fs.delete(base, true);
+	}
+
+	static int count(List<String> lines, String prefix) {
+		int count = 0;
+		for (String line : lines) {
+			if (line.startsWith(prefix)) {
+				count++;
+			}
+		}
+		return count;
+	}
+}
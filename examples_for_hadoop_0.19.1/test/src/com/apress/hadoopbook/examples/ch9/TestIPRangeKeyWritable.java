@@ -0,0 +1,136 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+
+import org.apache.hadoop.io.DataInputBuffer;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+/** Verify that {@link IPRangeKeyWritable} round trips, and that the registered raw comparator orders the
+ * keys the same way the text keys are ordered.
+ */
+public class TestIPRangeKeyWritable {
+
+	JobConf conf = new JobConf();
+
+	static IPRangeKeyWritable request( final long address ) {
+		IPRangeKeyWritable key = new IPRangeKeyWritable();
+		key.setSearchRequest(address);
+		return key;
+	}
+
+	static IPRangeKeyWritable space( final long begin, final long end, final long realBegin, final long realEnd ) {
+		IPRangeKeyWritable key = new IPRangeKeyWritable();
+		key.setSearchSpace(begin, end, realBegin, realEnd);
+		return key;
+	}
+
+	/** Compare 2 keys via their serialized form. */
+	static int rawCompare( final IPRangeKeyWritable a, final IPRangeKeyWritable b ) throws IOException {
+		DataOutputBuffer outA = new DataOutputBuffer();
+		a.write(outA);
+		DataOutputBuffer outB = new DataOutputBuffer();
+		b.write(outB);
+		assertEquals("Fixed width", a.isSearchRequest() ? IPRangeKeyWritable.REQUEST_SIZE : IPRangeKeyWritable.SPACE_SIZE, outA.getLength());
+		assertEquals("Fixed width", b.isSearchRequest() ? IPRangeKeyWritable.REQUEST_SIZE : IPRangeKeyWritable.SPACE_SIZE, outB.getLength());
+		return WritableComparator.get(IPRangeKeyWritable.class).compare(outA.getData(), 0, outA.getLength(), outB.getData(), 0, outB.getLength());
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.IPRangeKeyWritable#readFields(java.io.DataInput)}.
+	 * @throws IOException
+	 */
+	@Test
+	public void testRoundTrip() throws IOException {
+		IPRangeKeyWritable key = space(0x80000000L, 0xffffffffL, 0x7f000000L, 0xffffffffL);
+		DataOutputBuffer out = new DataOutputBuffer();
+		key.write(out);
+		DataInputBuffer in = new DataInputBuffer();
+		in.reset(out.getData(), out.getLength());
+		IPRangeKeyWritable read = new IPRangeKeyWritable();
+		read.readFields(in);
+		assertEquals("Unsigned begin", 0x80000000L, read.getBegin());
+		assertEquals("Unsigned end", 0xffffffffL, read.getEnd());
+		assertEquals("Real begin", 0x7f000000L, read.getRealBegin());
+		assertEquals("Real end", 0xffffffffL, read.getRealEnd());
+		assertTrue("Search space", read.isSearchSpace());
+		assertEquals("Equal after the round trip", key, read);
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.IPRangeKeyWritable.Comparator#compare(byte[], int, int, byte[], int, int)}.
+	 * @throws IOException
+	 */
+	@Test
+	public void testOrdering() throws IOException {
+		/** In the order the text keys sort. */
+		IPRangeKeyWritable[] sorted = {
+				request(0x00000000L),
+				space(0x0a000000L, 0x0a0000ffL, 0x0a000000L, 0x0a0000ffL),
+				space(0x0a000000L, 0x0affffffL, 0x0a000000L, 0x0affffffL),
+				request(0x0a000000L),
+				request(0x0a000001L),
+				space(0x80000000L, 0x800000ffL, 0x7f000000L, 0x800000ffL),
+				request(0x80000000L),
+				request(0xffffffffL),
+		};
+		for (int i = 0; i < sorted.length; i++) {
+			for (int j = 0; j < sorted.length; j++) {
+				final int expected = i < j ? -1 : i > j ? 1 : 0;
+				assertEquals(sorted[i] + " " + sorted[j], expected, Integer.signum(sorted[i].compareTo(sorted[j])));
+				assertEquals("raw " + sorted[i] + " " + sorted[j], expected, Integer.signum(rawCompare(sorted[i], sorted[j])));
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.IPRangeKeyHelper#getFromRaw(IPRangeKeyWritable)}.
+	 */
+	@Test
+	public void testHelper() {
+		IPRangeKeyHelper helper = new IPRangeKeyHelper(conf);
+		IPRangeKeyWritable key = helper.newRaw();
+
+		helper.setSearchRequest(0xc0a80001L);
+		helper.setToRaw(key);
+		assertTrue("Search request", key.isSearchRequest());
+		assertTrue("Valid", helper.getFromRaw(key));
+		assertTrue("Search request", helper.isSearchRequest());
+		assertEquals("Search request", 0xc0a80001L, helper.getSearchRequest());
+
+		helper.reset();
+		helper.setBeginRange(0xc0a80000L);
+		helper.setEndRange(0xc0a8ffffL);
+		helper.setHasRealRange(false);
+		helper.setToRaw(key);
+		assertEquals("Unspanned real begin", 0xc0a80000L, key.getRealBegin());
+		assertTrue("Valid", helper.getFromRaw(key));
+		assertTrue("Search space", helper.isSearchSpace());
+		assertFalse("Unspanned key", helper.isHasRealRange());
+
+		key.setSearchSpace(0x80000000L, 0x800000ffL, 0x7f000000L, 0x800000ffL);
+		assertTrue("Valid", helper.getFromRaw(key));
+		assertTrue("Spanned key", helper.isHasRealRange());
+		assertEquals("Real begin", 0x7f000000L, helper.getRealRangeBegin());
+
+		key.setSearchSpace(0x80000000L, 0x7fffffffL, 0x80000000L, 0x7fffffffL);
+		assertFalse("Begin after end", helper.getFromRaw(key));
+
+		/** Convert a text key into the binary form. */
+		PartitionedTextKeyHelperWithSeparators textHelper = new PartitionedTextKeyHelperWithSeparators(conf);
+		assertTrue("Text key", textHelper.getFromRaw(new Text("7f000000:7fffffff:7f000000:800000ff")));
+		assertTrue("Copied", AbstractKeyHelper.copy(textHelper, helper));
+		helper.setToRaw(key);
+		assertEquals("Copied", space(0x7f000000L, 0x7fffffffL, 0x7f000000L, 0x800000ffL), key);
+	}
+}
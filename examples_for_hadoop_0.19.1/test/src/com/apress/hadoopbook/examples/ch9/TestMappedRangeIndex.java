@@ -0,0 +1,169 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.fs.RawLocalFileSystem;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.apress.hadoopbook.utils.Utils;
+
+/** Verify that {@link MappedRangeIndex} returns the same hits as {@link SearchSpaceIndex} for the same ranges.
+ */
+public class TestMappedRangeIndex {
+
+	JobConf conf = new JobConf();
+
+	@Before
+	public void before() {
+		conf.set("fs.default.name", "file:///");
+	}
+
+	MappedRangeIndex write(ArrayList<SearchSpaceIndex.Entry> entries) throws IOException {
+		File indexFile = File.createTempFile("ranges", ".rangeindex");
+		indexFile.deleteOnExit();
+		MappedRangeIndex.write(entries, new Path(indexFile.getAbsolutePath()), conf);
+		return MappedRangeIndex.open(new Path(indexFile.getAbsolutePath()), conf);
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.MappedRangeIndex#lookup(long)}.
+	 * The owners repeat, so the dictionary is shared, and the addresses reach the top of the unsigned range.
+	 */
+	@Test
+	public void testAgainstSearchSpaceIndex() throws IOException {
+		final Random random = new Random(1);
+		final ArrayList<SearchSpaceIndex.Entry> entries = new ArrayList<SearchSpaceIndex.Entry>();
+		for (int i = 0; i < 2000; i++) {
+			final long begin = random.nextLong() & 0xffffffffL;
+			final long end = Math.min(0xffffffffL, begin + (random.nextLong() & (random.nextBoolean() ? 0xffffL : 0xfffffffL)));
+			entries.add(new SearchSpaceIndex.Entry(begin, end, "owner " + random.nextInt(50)));
+		}
+		entries.add(new SearchSpaceIndex.Entry(0xffffffffL, 0xffffffffL, "broadcast"));
+		Collections.sort(entries);
+		final SearchSpaceIndex expected = new SearchSpaceIndex();
+		expected.setEntries(entries);
+		final MappedRangeIndex mapped = write(entries);
+		assertEquals(expected.size(), mapped.size());
+
+		final Text owner = new Text();
+		for (int i = 0; i < 20000; i++) {
+			final long address = i == 0 ? 0xffffffffL : random.nextLong() & 0xffffffffL;
+			final int hits = expected.lookup(address);
+			assertEquals("Hits at " + address, hits, mapped.lookup(address));
+			for (int hit = 0; hit < hits; hit++) {
+				assertEquals(expected.getHitBegin(hit), mapped.getHitBegin(hit));
+				assertEquals(expected.getHitEnd(hit), mapped.getHitEnd(hit));
+				assertEquals(expected.getHitOwner(hit), mapped.getHitOwner(hit));
+				mapped.getHitOwner(hit, owner);
+				assertEquals(expected.getHitOwner(hit), owner.toString());
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.MappedRangeIndex#lookup(long)}.
+	 * The whole address space and a supernet cover the other ranges, and the hit lists hold them once per interval.
+	 */
+	@Test
+	public void testWideRanges() throws IOException {
+		final Random random = new Random(2);
+		final ArrayList<SearchSpaceIndex.Entry> entries = new ArrayList<SearchSpaceIndex.Entry>();
+		entries.add(new SearchSpaceIndex.Entry(0L, 0xffffffffL, "everything"));
+		entries.add(new SearchSpaceIndex.Entry(0x0a000000L, 0x0affffffL, "supernet"));
+		for (int i = 0; i < 2000; i++) {
+			final long begin = (random.nextBoolean() ? 0x0a000000L : 0L) + (random.nextLong() & 0xffffffL);
+			entries.add(new SearchSpaceIndex.Entry(begin, begin + (random.nextLong() & 0xfffL), "small " + random.nextInt(50)));
+		}
+		Collections.sort(entries);
+		final SearchSpaceIndex expected = new SearchSpaceIndex();
+		expected.setEntries(entries);
+		final MappedRangeIndex mapped = write(entries);
+		assertEquals(expected.hitLists.count, mapped.intervalCount);
+		assertEquals(expected.hitLists.length(), mapped.lists.limit());
+
+		for (int i = 0; i < 20000; i++) {
+			final long address = random.nextLong() & (random.nextBoolean() ? 0x0affffffL : 0xffffffffL);
+			final int hits = expected.lookup(address);
+			assertTrue("The whole space covers every address", hits > 0);
+			assertEquals("Hits at " + address, hits, mapped.lookup(address));
+			for (int hit = 0; hit < hits; hit++) {
+				assertEquals(expected.getHitBegin(hit), mapped.getHitBegin(hit));
+				assertEquals(expected.getHitEnd(hit), mapped.getHitEnd(hit));
+				assertEquals(expected.getHitOwner(hit), mapped.getHitOwner(hit));
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.MappedRangeIndex#MappedRangeIndex(File)}.
+	 */
+	@Test
+	public void testEmpty() throws IOException {
+		final MappedRangeIndex mapped = write(new ArrayList<SearchSpaceIndex.Entry>());
+		assertEquals(0, mapped.size());
+		assertEquals(0, mapped.lookup(0x0a000000L));
+	}
+
+	/** The local file system under another scheme, so {@link MappedRangeIndex#open(Path, org.apache.hadoop.conf.Configuration)} copies the index. */
+	public static class NonLocalFileSystem extends RawLocalFileSystem {
+		@Override
+		public URI getUri() {
+			return URI.create("nonlocal:///");
+		}
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.MappedRangeIndex#close()}.
+	 * The local copy of an index that is not on the local file system is deleted, an index mapped in place is left alone.
+	 */
+	@Test
+	public void testCloseDeletesCopy() throws IOException {
+		final ArrayList<SearchSpaceIndex.Entry> entries = new ArrayList<SearchSpaceIndex.Entry>();
+		entries.add(new SearchSpaceIndex.Entry(0x0a000000L, 0x0affffffL, "ten"));
+		File indexFile = File.createTempFile("ranges", ".rangeindex");
+		indexFile.deleteOnExit();
+		MappedRangeIndex.write(entries, new Path(indexFile.getAbsolutePath()), conf);
+
+		final MappedRangeIndex inPlace = MappedRangeIndex.open(new Path(indexFile.getAbsolutePath()), conf);
+		inPlace.close();
+		assertTrue(indexFile.exists());
+
+		conf.setClass("fs.nonlocal.impl", NonLocalFileSystem.class, FileSystem.class);
+		final MappedRangeIndex copied = MappedRangeIndex.open(new Path("nonlocal://" + indexFile.getAbsolutePath()), conf);
+		final File copy = copied.copy;
+		assertNotNull(copy);
+		assertEquals(1, copied.lookup(0x0a000001L));
+		copied.close();
+		assertFalse(copy.exists());
+		assertTrue(indexFile.exists());
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.MappedRangeIndex#MappedRangeIndex(File)}.
+	 */
+	@Test(expected=IOException.class)
+	public void testNotAnIndex() throws IOException {
+		File text = File.createTempFile("searchspace", ".txt");
+		text.deleteOnExit();
+		Utils.createSimpleFile(conf, new Path(text.getAbsolutePath()), "0a000000:0affffff\tten\n");
+		new MappedRangeIndex(text);
+	}
+}
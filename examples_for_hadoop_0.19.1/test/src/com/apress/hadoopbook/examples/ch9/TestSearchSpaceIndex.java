@@ -0,0 +1,140 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.ch9;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Random;
+
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Before;
+import org.junit.Test;
+
+import com.apress.hadoopbook.utils.Utils;
+
+/** Verify that {@link SearchSpaceIndex} finds every range that contains an address, including ranges
+ * that are hidden behind longer overlapping ranges.
+ */
+public class TestSearchSpaceIndex {
+
+	JobConf conf = new JobConf();
+	SearchSpaceIndex index;
+
+	@Before
+	public void before() {
+		conf.set("fs.default.name", "file:///");
+		ArrayList<SearchSpaceIndex.Entry> entries = new ArrayList<SearchSpaceIndex.Entry>();
+		entries.add( new SearchSpaceIndex.Entry( 0x0a000000L, 0x0affffffL, "ten" ));
+		entries.add( new SearchSpaceIndex.Entry( 0x0a000000L, 0x0a0000ffL, "ten small" ));
+		entries.add( new SearchSpaceIndex.Entry( 0x0a000100L, 0x0a0001ffL, "ten next" ));
+		entries.add( new SearchSpaceIndex.Entry( 0xc0a80000L, 0xc0a8ffffL, "private" ));
+		entries.add( new SearchSpaceIndex.Entry( 0xffffffffL, 0xffffffffL, "broadcast" ));
+		Collections.sort(entries);
+		index = new SearchSpaceIndex();
+		index.setEntries(entries);
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.SearchSpaceIndex#lookup(long)}.
+	 */
+	@Test
+	public void testLookup() {
+		assertEquals("Before the first range", 0, index.lookup(0x09ffffffL));
+
+		assertEquals("Nested range at the start", 2, index.lookup(0x0a000000L));
+		assertEquals("Hits are in begin, end order", 0x0a0000ffL, index.getHitEnd(0));
+		assertEquals("Hits are in begin, end order", "ten small", index.getHitOwner(0));
+		assertEquals("Hits are in begin, end order", "ten", index.getHitOwner(1));
+
+		/** The small range has expired, but the second nested range is still behind the long one. */
+		assertEquals("Second nested range", 2, index.lookup(0x0a000180L));
+		assertEquals("Second nested range begin", 0x0a000100L, index.getHitBegin(1));
+		assertEquals("Second nested range", "ten next", index.getHitOwner(1));
+
+		assertEquals("Only the long range", 1, index.lookup(0x0a000200L));
+		assertEquals("Only the long range", "ten", index.getHitOwner(0));
+
+		assertEquals("Between ranges", 0, index.lookup(0x0b000000L));
+		assertEquals("End of a range", 1, index.lookup(0xc0a8ffffL));
+		assertEquals("Past the end of a range", 0, index.lookup(0xc0a90000L));
+		assertEquals("Last address", 1, index.lookup(0xffffffffL));
+		assertEquals("Last address", "broadcast", index.getHitOwner(0));
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.SearchSpaceIndex#lookup(long)}.
+	 * The whole address space and a supernet cover thousands of small ranges, the hits must match a scan of every range,
+	 * and each range is listed only for the intervals it covers.
+	 */
+	@Test
+	public void testWideRanges() {
+		final Random random = new Random(3);
+		final ArrayList<SearchSpaceIndex.Entry> entries = new ArrayList<SearchSpaceIndex.Entry>();
+		entries.add(new SearchSpaceIndex.Entry(0L, 0xffffffffL, "everything"));
+		entries.add(new SearchSpaceIndex.Entry(0x0a000000L, 0x0affffffL, "supernet"));
+		for (int i = 0; i < 5000; i++) {
+			final long begin = random.nextLong() & 0xffffffffL;
+			entries.add(new SearchSpaceIndex.Entry(begin, Math.min(0xffffffffL, begin + (random.nextLong() & 0xffL)), "small " + i));
+		}
+		for (int i = 0; i < 100; i++) {
+			final long begin = 0x0a000000L + (random.nextLong() & 0xffff00L);
+			entries.add(new SearchSpaceIndex.Entry(begin, begin + 0xffL, "in supernet " + i));
+		}
+		Collections.sort(entries);
+		index.setEntries(entries);
+		assertTrue("The lists hold the wide ranges once per interval, not every range", index.hitLists.length() < 4 * index.hitLists.count);
+
+		for (int i = 0; i < 5000; i++) {
+			final long address = i < 1000 ? entries.get(random.nextInt(entries.size())).begin : random.nextLong() & (i < 2000 ? 0x0affffffL : 0xffffffffL);
+			final int hits = index.lookup(address);
+			int hit = 0;
+			for (int j = 0; j < entries.size(); j++) {
+				final SearchSpaceIndex.Entry entry = entries.get(j);
+				if (entry.begin <= address && address <= entry.end) {
+					assertTrue("Hits at " + address, hit < hits);
+					assertEquals("Hits are in index order", entry.owner, index.getHitOwner(hit++));
+				}
+			}
+			assertEquals("Hits at " + address, hit, hits);
+			assertTrue("The whole space covers every address", hits > 0);
+		}
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.SearchSpaceIndex#build(Path[], Path, org.apache.hadoop.conf.Configuration)}.
+	 * @throws IOException
+	 */
+	@Test
+	public void testBuildAndLoad() throws IOException {
+		File tmp = File.createTempFile("searchspace", ".txt");
+		tmp.deleteOnExit();
+		File indexFile = File.createTempFile("searchspace", ".index");
+		indexFile.deleteOnExit();
+		Path input = new Path(tmp.getAbsolutePath());
+		Path indexPath = new Path(indexFile.getAbsolutePath());
+
+		/** Out of order, with one invalid line. */
+		Utils.createSimpleFile(conf, input,
+				"c0a80000:c0a8ffff\tprivate\n"
+				+ "0a000000:0affffff\tten\n"
+				+ "not a range\tbad\n"
+				+ "0a000000:0a0000ff\tten small\n");
+		assertEquals("Valid ranges written", 3, SearchSpaceIndex.build(new Path[] { input }, indexPath, conf));
+
+		SearchSpaceIndex loaded = new SearchSpaceIndex();
+		loaded.load(indexPath, conf);
+		assertEquals("Valid ranges loaded", 3, loaded.size());
+		assertEquals("Sorted by begin", 0x0a000000L, loaded.begins[0]);
+		assertEquals("Sorted by begin then end", 0x0a0000ffL, loaded.ends[0]);
+		assertEquals("Sorted by begin then end", 0x0affffffL, loaded.ends[1]);
+		assertEquals("Sorted by begin", 0xc0a80000L, loaded.begins[2]);
+		assertEquals("Lookup in the loaded index", 2, loaded.lookup(0x0a000001L));
+	}
+}
@@ -4,11 +4,13 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Formatter;
 import java.util.HashMap;
 
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapred.JobConf;
 import org.apache.hadoop.mapred.OutputCollector;
@@ -410,7 +412,7 @@ public class TestSimpleIPRangeParttioner extends ClusterMapReduceDelegate {
 	@Test
 	public void testSpanSpaceKeys() throws IOException {
 
-		SimpleIPRangePartitioner partitioner = new SimpleIPRangePartitioner();
+		SimpleIPRangePartitioner<Text> partitioner = new SimpleIPRangePartitioner<Text>();
 		JobConf conf = new JobConf();
 		conf.setNumReduceTasks(4);
 		conf.set(PartitionedTextKeyHelperWithSeparators.EXAMPLES_CH9_RANGE_SEPARATOR_CHAR, "" + rangeSeparator);
@@ -488,7 +490,7 @@ public class TestSimpleIPRangeParttioner extends ClusterMapReduceDelegate {
 
 	@Test
 	public void testGetPartition() {
-		SimpleIPRangePartitioner partitioner = new SimpleIPRangePartitioner();
+		SimpleIPRangePartitioner<Text> partitioner = new SimpleIPRangePartitioner<Text>();
 		JobConf conf = new JobConf();
 		conf.setNumReduceTasks(4);
 		conf.set(PartitionedTextKeyHelperWithSeparators.EXAMPLES_CH9_RANGE_SEPARATOR_CHAR, "" + rangeSeparator);
@@ -528,4 +530,75 @@ public class TestSimpleIPRangeParttioner extends ClusterMapReduceDelegate {
 	}
 
 
+	/** Build boundaries from a sample that is clustered in 2 small parts of the address space, load them into the partitioner,
+	 * and verify that the partitions are balanced and that ranges are still spanned correctly.
+	 * @throws IOException
+	 */
+	@Test
+	public void testSampledBoundaries() throws IOException {
+		JobConf conf = new JobConf();
+		conf.setNumReduceTasks(4);
+		conf.set("fs.default.name", "file:///");
+		PartitionBoundarySampler sampler = new PartitionBoundarySampler(conf);
+		for (long i = 0; i < 3000; i++) {
+			sampler.addRequest(0x0a000000L + i * 16);	/** 10.0.0.0/8 */
+		}
+		for (long i = 0; i < 1000; i++) {
+			sampler.addRequest(0xc0a80000L + i);		/** 192.168.0.0/16 */
+		}
+		sampler.addSpace(0x0a000000L, 0x0affffffL);
+		sampler.addSpace(0xc0a80000L, 0xc0a8ffffL);
+		long[] ends = sampler.computeBoundaries(4);
+		assertEquals("Number of partitions", 4, ends.length);
+		assertEquals("Last partition end", 0xffffffffL, ends[3]);
+		for (int i = 1; i < ends.length; i++) {
+			assertTrue("Ascending ends", ends[i] > ends[i-1]);
+		}
+		double[] loads = sampler.estimateLoads(ends);
+		for (int i = 0; i < loads.length; i++) {
+			assertTrue(String.format("Partition %d load %.1f is balanced", i, loads[i]), loads[i] > 800 && loads[i] < 1200);
+		}
+
+		File boundaries = File.createTempFile("boundaries", ".txt");
+		boundaries.deleteOnExit();
+		PartitionBoundarySampler.writeBoundaries(new Path(boundaries.getAbsolutePath()), conf, ends, loads);
+		conf.set(SimpleIPRangePartitioner.PARTITION_FILE, boundaries.getAbsolutePath());
+		SimpleIPRangePartitioner<Text> partitioner = new SimpleIPRangePartitioner<Text>();
+		partitioner.configure(conf);
+		assertEquals("Partitions loaded", 4, partitioner.ranges.size());
+
+		Text key = new Text();
+		Text value = new Text();
+		for (int i = 0; i < ends.length; i++) {
+			key.set(String.format("%08x%c", ends[i], searchRequestSuffix));
+			assertEquals("Partition end " + key, i, partitioner.getPartition(key, value, 4));
+			if (i > 0) {
+				key.set(String.format("%08x%c", ends[i-1] + 1, searchRequestSuffix));
+				assertEquals("Partition begin " + key, i, partitioner.getPartition(key, value, 4));
+			}
+		}
+
+		/** The 10/8 range covers at least 2 partitions, the spanned pieces must be contiguous and cover the range exactly. */
+		PartitionedTextKeyHelperWithSeparators helper = new PartitionedTextKeyHelperWithSeparators(conf);
+		helper.setBeginRange(0x0a000000L);
+		helper.setEndRange(0x0affffffL);
+		helper.setHasRealRange(false);
+		outputRecords.clear();
+		int count = partitioner.spanSpaceKeys(helper, new Text(), value, new TestOutputCollector(), Reporter.NULL);
+		assertTrue("Range is split across the sampled boundaries", count >= 2);
+		assertEquals("Output keys", count, outputRecords.size());
+		long next = 0x0a000000L;
+		for (KeyValue record : outputRecords) {
+			key.set(record.key);
+			assertTrue("Valid spanned key " + key, helper.getFromRaw(key));
+			assertEquals("Contiguous " + key, next, helper.getBeginRange());
+			assertEquals("Real begin " + key, 0x0a000000L, helper.getRealRangeBegin());
+			assertEquals("Real end " + key, 0x0affffffL, helper.getRealRangeEnd());
+			assertEquals("Piece is in one partition " + key, partitioner.getPartition(key, value, 4),
+					partitioner.ranges.ceilingEntry(helper.getEndRange()).getValue().intValue());
+			next = helper.getEndRange() + 1;
+		}
+		assertEquals("Covers the whole range", 0x0b000000L, next);
+	}
+
 }
@@ -215,4 +215,87 @@ public class TestTextKeyHelperWithSeparators {
 	}
 
 
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.HexAddressCodec#pack(long, byte[], int)}, the byte level keys
+	 * must be identical to the keys built with a {@link Formatter}.
+	 */
+	@Test
+	public void testHexAddressCodec() {
+		long[] addresses = { 0, 1, 0x7f000001L, 0x80000000L, 0xc0a80001L, 0xdeadbeefL, 0xffffffffL };
+		byte[] bytes = new byte[HexAddressCodec.ADDRESS_LENGTH];
+		for (long address : addresses) {
+			HexAddressCodec.pack(address, bytes, 0);
+			String expected = String.format("%08x", address);
+			assertEquals("Packed form of " + expected, expected, new String(bytes));
+			assertEquals("Unpacked form of " + expected, address, HexAddressCodec.unpack(bytes, 0));
+			assertEquals("Upper case " + expected, address, HexAddressCodec.unpack(expected.toUpperCase().getBytes(), 0));
+		}
+		assertEquals("Not hex", -1L, HexAddressCodec.unpack("0000000g".getBytes(), 0));
+		assertEquals("Not hex", -1L, HexAddressCodec.unpack("-0000001".getBytes(), 0));
+
+		/** The partitioned keys are built from the bytes as well. */
+		conf.set(TextKeyHelperWithSeparators.EXAMPLES_CH9_RANGE_SEPARATOR_CHAR, ":");
+		conf.set(TextKeyHelperWithSeparators.EXAMPLES_CH9_SEARCH_SUFFIX_CHAR, ";");
+		PartitionedTextKeyHelperWithSeparators partitioned = new PartitionedTextKeyHelperWithSeparators(conf);
+		key.set("7f000000:7fffffff:7f000000:800000ff");
+		assertTrue("Partitioned key", partitioned.getFromRaw(key));
+		partitioned.setToRaw(otherKey);
+		assertEquals("Partitioned key round trip", key, otherKey);
+		key.set("C0A80000:C0A8FFFF");
+		assertTrue("Upper case range key", partitioned.getFromRaw(key));
+		partitioned.setToRaw(otherKey);
+		assertEquals("Range key is written in lower case", new Text("c0a80000:c0a8ffff"), otherKey);
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.AbstractKeyHelper#addrToLong(String)}.
+	 */
+	@Test
+	public void testAddrToLong() {
+		assertEquals("Dotted quad", 0xc0a80001L, AbstractKeyHelper.addrToLong("192.168.0.1"));
+		assertEquals("Dotted quad", 0xffffffffL, AbstractKeyHelper.addrToLong("255.255.255.255"));
+		assertEquals("Dotted quad", 0L, AbstractKeyHelper.addrToLong("0.0.0.0"));
+		assertEquals("Hex", 0xc0a80001L, AbstractKeyHelper.addrToLong("c0a80001"));
+		for (String bad : new String[] { "", "1.2.3", "1.2.3.4.5", "256.1.1.1", "1..2.3", ".1.2.3", "1.2.3.", "1.2.3.4 ", "0001.2.3.4", "localhost", "-1.2.3.4" }) {
+			assertEquals("Not an address [" + bad + "]", -1L, AbstractKeyHelper.addrToLong(bad));
+			final byte[] bytes = ("x" + bad + "y").getBytes();
+			assertEquals("Not an address bytes [" + bad + "]", -1L, AbstractKeyHelper.addrToLong(bytes, 1, bytes.length - 2));
+		}
+		final byte[] line = "x 10.1.2.3 y".getBytes();
+		assertEquals("Dotted quad bytes", 0x0a010203L, AbstractKeyHelper.parseDottedQuad(line, 2, 8));
+		assertEquals("Trailing space", -1L, AbstractKeyHelper.parseDottedQuad(line, 2, 9));
+		assertEquals("Dotted quad bytes", 0x0a010203L, AbstractKeyHelper.addrToLong(line, 2, 8));
+		final byte[] hex = "x C0A80001 a0b0c0d y".getBytes();
+		assertEquals("Hex bytes", 0xc0a80001L, AbstractKeyHelper.addrToLong(hex, 2, 8));
+		assertEquals("7 digit hex bytes", 0x0a0b0c0dL, AbstractKeyHelper.addrToLong(hex, 11, 7));
+		assertEquals("A 7 character dotted quad is not hex", 0x01020304L, AbstractKeyHelper.addrToLong("1.2.3.4".getBytes(), 0, 7));
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.examples.ch9.HostnameResolver#resolve(String, org.apache.hadoop.mapred.Reporter)}.
+	 * The lookup is replaced, so the cache behavior is tested without touching the network.
+	 */
+	@Test
+	public void testHostnameResolverCache() {
+		assertTrue("Resolution is off by default", HostnameResolver.newResolver(conf) == null);
+		final int[] lookups = new int[1];
+		HostnameResolver resolver = new HostnameResolver(2) {
+			@Override
+			protected long lookup(String hostName) {
+				lookups[0]++;
+				return hostName.startsWith("bad") ? -1 : hostName.length();
+			}
+		};
+		assertEquals(3L, resolver.resolve("one", null));
+		assertEquals(3L, resolver.resolve("two", null));
+		assertEquals(3L, resolver.resolve("one", null));
+		assertEquals("Cached", 2, lookups[0]);
+		assertEquals("Failures are cached too", -1L, resolver.resolve("bad", null));
+		assertEquals("Bounded", 2, resolver.size());
+		assertEquals(3L, resolver.resolve("one", null));
+		assertEquals("one was recently used", 3, lookups[0]);
+		assertEquals(3L, resolver.resolve("two", null));
+		assertEquals("two was the least recently used and was evicted", 4, lookups[0]);
+	}
+
 }
@@ -0,0 +1,93 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.jobconf;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.RawComparator;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.lib.KeyFieldBasedPartitioner;
+import org.apache.hadoop.mapred.lib.NormalizedKeyFieldEncoder;
+import org.apache.hadoop.util.ReflectionUtils;
+import org.junit.Test;
+
+/** Verify that {@link NormalizedKeyFieldSort#setupJob(JobConf)} keeps the job's partitioner and grouping comparator.
+ */
+public class TestNormalizedKeyFieldSort {
+
+	/**
+	 * Test method for {@link NormalizedKeyFieldSort#setupJob(JobConf)}.
+	 * The job's partitioner and grouping comparator are passed the original keys, as in {@link OutputComparatorAndGrouping}.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testWrapsPartitionerAndGrouping() throws Exception {
+		JobConf conf = new JobConf();
+		conf.setMapOutputKeyClass(Text.class);
+		conf.set("map.output.key.field.separator", " ");
+		conf.setKeyFieldPartitionerOptions("-k 2,2");
+		conf.setOutputValueGroupingComparator(OutputComparatorAndGrouping.ValueGroupingComparator.class);
+		NormalizedKeyFieldSort.setupJob(conf);
+		assertEquals(NormalizedKeyFieldSort.PrefixPartitioner.class, conf.getPartitionerClass());
+
+		NormalizedKeyFieldSort.PrefixPartitioner<Text> partitioner = ReflectionUtils.newInstance(NormalizedKeyFieldSort.PrefixPartitioner.class, conf);
+		KeyFieldBasedPartitioner<Text, Text> real = ReflectionUtils.newInstance(KeyFieldBasedPartitioner.class, conf);
+		RawComparator<BytesWritable> grouping = conf.getOutputValueGroupingComparator();
+		NormalizedKeyFieldEncoder encoder = new NormalizedKeyFieldEncoder();
+		encoder.configure(conf);
+
+		Text value = new Text();
+		BytesWritable encoded = new BytesWritable();
+		for (String key : new String[] { "Reduce 1 20", "Reduce 2 21", "Reduce 17 3" }) {
+			encoder.encode(new Text(key), encoded);
+			assertEquals(key, real.getPartition(new Text(key), value, 7), partitioner.getPartition(encoded, value, 7));
+		}
+
+		BytesWritable first = encode(encoder, "Reduce 1 20");
+		BytesWritable second = encode(encoder, "Reduce 1 24");
+		BytesWritable third = encode(encoder, "Reduce 1 25");
+		assertEquals("20 and 24 group together", 0, grouping.compare(first, second));
+		assertTrue("25 starts a new group", grouping.compare(second, third) < 0);
+		DataOutputBuffer b1 = new DataOutputBuffer();
+		DataOutputBuffer b2 = new DataOutputBuffer();
+		first.write(b1);
+		second.write(b2);
+		assertEquals(0, grouping.compare(b1.getData(), 0, b1.getLength(), b2.getData(), 0, b2.getLength()));
+	}
+
+	/**
+	 * Test method for {@link NormalizedKeyFieldSort#setupJob(JobConf)}.
+	 * Without a partitioner or grouping comparator of its own, the job partitions and groups by the normalized prefix.
+	 */
+	@SuppressWarnings("unchecked")
+	@Test
+	public void testDefaultsUsePrefix() throws Exception {
+		JobConf conf = new JobConf();
+		conf.setMapOutputKeyClass(Text.class);
+		conf.setKeyFieldComparatorOptions("-k1,1");
+		NormalizedKeyFieldSort.setupJob(conf);
+		assertNull(conf.get(NormalizedKeyFieldSort.PARTITIONER_CLASS));
+		assertNull(conf.get(NormalizedKeyFieldSort.GROUPING_COMPARATOR_CLASS));
+
+		NormalizedKeyFieldSort.PrefixPartitioner<Text> partitioner = ReflectionUtils.newInstance(NormalizedKeyFieldSort.PrefixPartitioner.class, conf);
+		RawComparator<BytesWritable> grouping = conf.getOutputValueGroupingComparator();
+		NormalizedKeyFieldEncoder encoder = new NormalizedKeyFieldEncoder();
+		encoder.configure(conf);
+		BytesWritable first = encode(encoder, "a\tx");
+		BytesWritable second = encode(encoder, "a\ty");
+		assertEquals("The keys differ only after the key field", 0, grouping.compare(first, second));
+		assertEquals(partitioner.getPartition(first, null, 13), partitioner.getPartition(second, null, 13));
+	}
+
+	static BytesWritable encode(NormalizedKeyFieldEncoder encoder, String key) {
+		BytesWritable encoded = new BytesWritable();
+		encoder.encode(new Text(key), encoded);
+		return encoded;
+	}
+}
@@ -0,0 +1,111 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.examples.jobconf;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+/** Verify that {@link OutputComparatorAndGrouping.ValueGroupingComparator} groups as the original regular expression did.
+ */
+public class TestValueGroupingComparator {
+	/** The pattern the comparator used to match with. */
+	static Pattern valueGroupingPattern = Pattern.compile( "(?:^|\\s)(-?[0-9]+)$");
+
+	/** The original regular expression comparison. */
+	static int regexCompare(OutputComparatorAndGrouping.ValueGroupingComparator comparator, String left, String right) {
+		Matcher matcher = valueGroupingPattern.matcher(left);
+		if (!matcher.find()) {
+			return Integer.signum(new Text(left).compareTo(new Text(right)));
+		}
+		int leftNumber = Integer.parseInt(matcher.group(1));
+		matcher = valueGroupingPattern.matcher(right);
+		if (!matcher.find()) {
+			return Integer.signum(new Text(left).compareTo(new Text(right)));
+		}
+		int rightNumber = Integer.parseInt(matcher.group(1));
+		return comparator.compareGroups(leftNumber, rightNumber);
+	}
+
+	static byte[] serialize(String key) throws IOException {
+		DataOutputBuffer out = new DataOutputBuffer();
+		new Text(key).write(out);
+		byte[] bytes = new byte[out.getLength()];
+		System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	/** Key fragments, including the line terminators that <code>$</code> allows at the end. */
+	static final String[] PIECES = { "Reduce", " ", "1", "-", "23", "\t", "\n", "\r", "x", "\u2028", "7", "" };
+
+	/**
+	 * Test method for {@link OutputComparatorAndGrouping.ValueGroupingComparator#compare(byte[], int, int, byte[], int, int)}.
+	 */
+	@Test
+	public void testAgainstRegex() throws IOException {
+		JobConf conf = new JobConf();
+		conf.setInt(OutputComparatorAndGrouping.ValueGroupingComparator.GROUPING_FACTOR, 3);
+		OutputComparatorAndGrouping.ValueGroupingComparator comparator = new OutputComparatorAndGrouping.ValueGroupingComparator();
+		comparator.setConf(conf);
+		assertEquals(3, comparator.groupingFactor);
+
+		Random random = new Random(1);
+		for (int i = 0; i < 20000; i++) {
+			String left = randomKey(random);
+			String right = randomKey(random);
+			int expected = regexCompare(comparator, left, right);
+			assertEquals("[" + left + "] [" + right + "]", expected, Integer.signum(comparator.compare(new Text(left), new Text(right))));
+			assertEquals("objects [" + left + "] [" + right + "]", expected, Integer.signum(comparator.compare((Object) new Text(left), (Object) new Text(right))));
+			byte[] l = serialize(left);
+			byte[] r = serialize(right);
+			assertEquals("raw [" + left + "] [" + right + "]", expected, Integer.signum(comparator.compare(l, 0, l.length, r, 0, r.length)));
+		}
+	}
+
+	/**
+	 * Test method for {@link OutputComparatorAndGrouping.ValueGroupingComparator#trailingNumber(byte[], int, int)}.
+	 */
+	@Test
+	public void testTrailingNumber() {
+		assertEquals(42L, trailing("Reduce 1 42"));
+		assertEquals(-42L, trailing("Reduce 1 -42"));
+		assertEquals(42L, trailing("42"));
+		assertEquals(42L, trailing("Reduce 1 42\r\n"));
+		assertEquals(42L, trailing("Reduce 1 42\u2028"));
+		assertEquals("Line separator is not white space", OutputComparatorAndGrouping.ValueGroupingComparator.NO_NUMBER, trailing("Reduce\u202842"));
+		assertEquals(Integer.MIN_VALUE, trailing("a " + Integer.MIN_VALUE));
+		assertEquals(OutputComparatorAndGrouping.ValueGroupingComparator.NO_NUMBER, trailing("Reduce 1x42"));
+		assertEquals(OutputComparatorAndGrouping.ValueGroupingComparator.NO_NUMBER, trailing("Reduce 1 --42"));
+		assertEquals(OutputComparatorAndGrouping.ValueGroupingComparator.NO_NUMBER, trailing("Reduce 1 42\n\n"));
+		assertEquals(OutputComparatorAndGrouping.ValueGroupingComparator.NO_NUMBER, trailing(""));
+	}
+
+	/** As Integer.parseInt would. */
+	@Test(expected=NumberFormatException.class)
+	public void testOverflow() {
+		trailing("a 2147483648");
+	}
+
+	static long trailing(String key) {
+		Text text = new Text(key);
+		return OutputComparatorAndGrouping.ValueGroupingComparator.trailingNumber(text.getBytes(), 0, text.getLength());
+	}
+
+	static String randomKey(Random random) {
+		StringBuilder sb = new StringBuilder();
+		int count = random.nextInt(6);
+		for (int i = 0; i < count; i++) {
+			sb.append(PIECES[random.nextInt(PIECES.length)]);
+		}
+		return sb.toString();
+	}
+}
@@ -0,0 +1,64 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.junit.Test;
+
+/** Verify the keys and value lists of an {@link ArenaHashTable} survive the slot arrays and the arena growing.
+ */
+public class TestArenaHashTable {
+
+	void add(ArenaHashTable table, String key, int tag, String value) {
+		final Text k = new Text(key);
+		final Text v = new Text(value);
+		table.add(k.getBytes(), k.getLength(), tag, v.getBytes(), v.getLength());
+	}
+
+	List<String> values(ArenaHashTable table, String key, int tag) {
+		final List<String> result = new ArrayList<String>();
+		final Text k = new Text(key);
+		final int entry = table.find(k.getBytes(), k.getLength());
+		if (entry == ArenaHashTable.NONE) {
+			return null;
+		}
+		for (int value = table.first(entry, tag); value != ArenaHashTable.NONE; value = table.next(value)) {
+			result.add(new String(table.getArena(), table.valueStart(value), table.valueLength(value)));
+		}
+		return result;
+	}
+
+	/**
+	 * Test method for {@link ArenaHashTable#add(byte[], int, int, byte[], int)} and {@link ArenaHashTable#find(byte[], int)}.
+	 */
+	@Test
+	public void testAddAndFind() {
+		/** Start small so that both the slots and the arena grow several times. */
+		final ArenaHashTable table = new ArenaHashTable(3, 2, 16);
+		for (int i = 0; i < 1000; i++) {
+			add(table, "key" + i, 0, "a" + i);
+			add(table, "key" + i, 2, "c" + i);
+			if (i % 2 == 0) {
+				add(table, "key" + i, 2, "d" + i);
+			}
+		}
+		assertEquals(1000, table.size());
+		assertEquals(2500, table.getValueCount());
+		for (int i = 0; i < 1000; i++) {
+			assertEquals("[a" + i + "]", values(table, "key" + i, 0).toString());
+			assertEquals("no values for table 1", "[]", values(table, "key" + i, 1).toString());
+			assertEquals("values in the order added", i % 2 == 0 ? "[c" + i + ", d" + i + "]" : "[c" + i + "]", values(table, "key" + i, 2).toString());
+		}
+		assertEquals("a missing key", null, values(table, "key1000", 0));
+		assertEquals("a prefix of a key", null, values(table, "key", 0));
+		add(table, "", 1, "");
+		assertEquals("an empty key and value", 1, values(table, "", 1).size());
+		assertEquals("", values(table, "", 1).get(0));
+	}
+}
@@ -0,0 +1,81 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.apache.hadoop.mapred.Counters;
+import org.apache.hadoop.mapred.Counters.Counter;
+import org.apache.hadoop.mapred.InputSplit;
+import org.apache.hadoop.mapred.Reporter;
+import org.junit.Test;
+
+/** Verify that {@link BatchedCounters} reports the same totals as direct {@link Reporter#incrCounter(String, String, long)} calls.
+ */
+public class TestBatchedCounters {
+
+	enum Sample { ONE }
+
+	/** A reporter that keeps the counters and the number of increment calls. */
+	static class CountingReporter implements Reporter {
+		Counters counters = new Counters();
+		int calls = 0;
+
+		public void incrCounter(@SuppressWarnings("rawtypes") Enum key, long amount) {
+			calls++;
+			counters.incrCounter(key, amount);
+		}
+
+		public void incrCounter(String group, String counter, long amount) {
+			calls++;
+			counters.incrCounter(group, counter, amount);
+		}
+
+		public Counter getCounter(String group, String name) {
+			return counters.findCounter(group, name);
+		}
+
+		public InputSplit getInputSplit() throws UnsupportedOperationException {
+			throw new UnsupportedOperationException();
+		}
+
+		public void setStatus(String status) {
+		}
+
+		public void progress() {
+		}
+	}
+
+	/**
+	 * Test method for {@link com.apress.hadoopbook.utils.BatchedCounters#record(org.apache.hadoop.mapred.Reporter)}.
+	 */
+	@Test
+	public void testTotals() {
+		CountingReporter reporter = new CountingReporter();
+		BatchedCounters counters = new BatchedCounters(10);
+		BatchedCounters.Handle records = counters.register("Group", "Records");
+		BatchedCounters.Handle odd = counters.register("Group", "Odd");
+		BatchedCounters.Handle one = counters.register(Sample.ONE);
+		assertSame("Interned", records, counters.register("Group", "Records"));
+		for (int i = 0; i < 95; i++) {
+			counters.record(reporter);
+			counters.incr(records);
+			if ((i & 1) == 1) {
+				counters.incr(odd);
+			}
+			counters.incr(one, 2);
+			counters.wrap(reporter).incrCounter("Group", "Wrapped", 1);
+		}
+		assertEquals("Flushed at the start of the 90th record", 89, reporter.getCounter("Group", "Records").getCounter());
+		assertEquals("4 counters flushed 9 times", 36, reporter.calls);
+		counters.flush();
+		assertEquals(95, reporter.getCounter("Group", "Records").getCounter());
+		assertEquals(47, reporter.getCounter("Group", "Odd").getCounter());
+		assertEquals(95, reporter.getCounter("Group", "Wrapped").getCounter());
+		assertEquals(190, reporter.counters.getCounter(Sample.ONE));
+		counters.flush();
+		assertEquals("Nothing left to flush", 40, reporter.calls);
+	}
+}
@@ -0,0 +1,146 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.mapred.JobClient;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.JobID;
+import org.apache.hadoop.mapred.RunningJob;
+import org.junit.Test;
+
+/** Verify the scheduling, fail fast and critical path of {@link JobGraph}, with a client that runs no real jobs.
+ */
+public class TestJobGraph {
+	/** The number of polls a job takes to complete. */
+	static final String POLLS = "test.jobgraph.polls";
+	/** If true the job fails. */
+	static final String FAIL = "test.jobgraph.fail";
+
+	/** Hands out {@link RunningJob} objects that complete after {@link #POLLS} calls to isComplete. */
+	static class FakeClient extends JobClient {
+		List<String> submitted = new ArrayList<String>();
+		List<String> killed = new ArrayList<String>();
+		int running = 0;
+		int maxRunning = 0;
+
+		@Override
+		public RunningJob submitJob(final JobConf conf) throws IOException {
+			final String name = conf.getJobName();
+			submitted.add(name);
+			running++;
+			maxRunning = Math.max(maxRunning, running);
+			return (RunningJob) Proxy.newProxyInstance(RunningJob.class.getClassLoader(), new Class<?>[] { RunningJob.class }, new InvocationHandler() {
+				int polls = conf.getInt(POLLS, 1);
+				boolean complete = false;
+
+				public Object invoke(Object proxy, Method method, Object[] args) {
+					final String m = method.getName();
+					if (m.equals("isComplete")) {
+						if (!complete && --polls <= 0) {
+							complete = true;
+							running--;
+						}
+						return complete;
+					} else if (m.equals("isSuccessful")) {
+						return complete && !conf.getBoolean(FAIL, false);
+					} else if (m.equals("killJob")) {
+						killed.add(name);
+						return null;
+					} else if (m.equals("getID")) {
+						return new JobID("test", submitted.size());
+					}
+					return null;
+				}
+			});
+		}
+	}
+
+	/** A graph that submits through a {@link FakeClient}. */
+	static class FakeGraph extends JobGraph {
+		FakeClient client = new FakeClient();
+
+		FakeGraph() {
+			setPollInterval(1);
+		}
+
+		@Override
+		protected RunningJob submit(Job job) throws IOException {
+			return client.submitJob(job.getConf());
+		}
+	}
+
+	static JobConf conf(String name, int polls, boolean fail) {
+		JobConf conf = new JobConf();
+		conf.setJobName(name);
+		conf.setInt(POLLS, polls);
+		conf.setBoolean(FAIL, fail);
+		return conf;
+	}
+
+	/**
+	 * Test method for {@link JobGraph#run(int)}.
+	 * Independent jobs run together up to the limit, a job waits for its dependencies, and the longest chain is the critical path.
+	 */
+	@Test
+	public void testRun() throws InterruptedException {
+		FakeGraph graph = new FakeGraph();
+		JobGraph.Job a = graph.add("a", conf("a", 1, false));
+		JobGraph.Job b = graph.add("b", conf("b", 50, false));
+		JobGraph.Job c = graph.add("c", conf("c", 1, false));
+		graph.add("d", conf("d", 1, false), a, c);
+		graph.add("e", conf("e", 1, false), b);
+		FakeClient client = graph.client;
+		assertTrue(graph.run(2));
+		assertEquals(2, client.maxRunning);
+		assertEquals("a", client.submitted.get(0));
+		assertEquals("b", client.submitted.get(1));
+		assertTrue("d after its dependencies", client.submitted.indexOf("d") > client.submitted.indexOf("c"));
+		for (JobGraph.Job job : graph.getJobs()) {
+			assertEquals(JobGraph.State.SUCCEEDED, job.getState());
+		}
+		List<JobGraph.Job> path = graph.criticalPath();
+		assertEquals(2, path.size());
+		assertEquals(b, path.get(0));
+		assertEquals("e", path.get(1).getName());
+	}
+
+	/**
+	 * Test method for {@link JobGraph#run(int)}.
+	 * A failure kills the running jobs and nothing more is submitted.
+	 */
+	@Test
+	public void testFailFast() throws InterruptedException {
+		FakeGraph graph = new FakeGraph();
+		JobGraph.Job a = graph.add("a", conf("a", 1, true));
+		graph.add("b", conf("b", 1000, false));
+		graph.add("c", conf("c", 1, false), a);
+		graph.add("d", conf("d", 1, false));
+		FakeClient client = graph.client;
+		assertFalse(graph.run(2));
+		assertEquals(JobGraph.State.FAILED, graph.getJobs().get(0).getState());
+		assertEquals(JobGraph.State.KILLED, graph.getJobs().get(1).getState());
+		assertEquals(JobGraph.State.NOT_RUN, graph.getJobs().get(2).getState());
+		assertEquals(JobGraph.State.NOT_RUN, graph.getJobs().get(3).getState());
+		assertEquals("[b]", client.killed.toString());
+	}
+
+	/** Dependencies must already be in the graph, so there can be no cycles. */
+	@Test(expected = IllegalArgumentException.class)
+	public void testForeignDependency() {
+		JobGraph other = new JobGraph();
+		JobGraph.Job a = other.add("a", new JobConf());
+		new JobGraph().add("b", new JobConf(), a);
+	}
+}
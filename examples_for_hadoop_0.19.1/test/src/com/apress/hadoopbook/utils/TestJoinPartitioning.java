@@ -0,0 +1,86 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Verify that {@link JoinPartitioning#verify(org.apache.hadoop.conf.Configuration, java.util.Collection, Class)} refuses mismatched inputs.
+ */
+public class TestJoinPartitioning {
+	JobConf conf;
+	FileSystem fs;
+	Path base;
+
+	@Before
+	public void setUp() throws IOException {
+		conf = new JobConf();
+		conf.set("fs.default.name", "file:///");
+		fs = FileSystem.getLocal(conf);
+		base = new Path(new File(System.getProperty("java.io.tmpdir"), "TestJoinPartitioning").getAbsolutePath());
+		fs.delete(base, true);
+	}
+
+	/** Make a data set directory with <code>parts</code> part files and, if <code>partitioning</code> is not null, its metadata file. */
+	Path dataset(String name, int parts, JoinPartitioning partitioning) throws IOException {
+		Path dir = new Path(base, name);
+		fs.mkdirs(dir);
+		for (int i = 0; i < parts; i++) {
+			fs.create(new Path(dir, String.format("part-%05d", i))).close();
+		}
+		if (partitioning != null) {
+			partitioning.write(conf, dir);
+		}
+		return dir;
+	}
+
+	void assertRefused(Path... inputs) {
+		try {
+			JoinPartitioning.verify(conf, Arrays.asList(inputs), Text.Comparator.class);
+			fail("mismatched inputs accepted");
+		} catch (IOException expected) {
+		}
+	}
+
+	/**
+	 * Test method for {@link JoinPartitioning#verify(org.apache.hadoop.conf.Configuration, java.util.Collection, Class)}.
+	 */
+	@Test
+	public void testVerify() throws IOException {
+		conf.setNumReduceTasks(2);
+		conf.setMapOutputKeyClass(Text.class);
+		JoinPartitioning partitioning = JoinPartitioning.forJob(conf, 2);
+		assertEquals(HashPartitioner.class.getName(), partitioning.getPartitioner());
+		assertEquals(Text.Comparator.class.getName(), partitioning.getComparator());
+		Path a = dataset("a", 2, partitioning);
+		Path b = dataset("b", 2, partitioning);
+		assertEquals(partitioning, JoinPartitioning.read(conf, a));
+		assertEquals(partitioning, JoinPartitioning.verify(conf, Arrays.asList(a, b), Text.Comparator.class));
+
+		assertNull("hand arranged inputs are not checked", JoinPartitioning.verify(conf, Arrays.asList(dataset("c", 1, null), dataset("d", 3, null)), Text.Comparator.class));
+		assertRefused(a, dataset("e", 2, null));
+		assertRefused(a, dataset("f", 3, new JoinPartitioning(partitioning.getPartitioner(), partitioning.getComparator(), 3)));
+		assertRefused(a, dataset("g", 2, new JoinPartitioning("other.Partitioner", partitioning.getComparator(), 2)));
+		assertRefused(a, dataset("h", 1, partitioning));
+		try {
+			JoinPartitioning.verify(conf, Arrays.asList(a, b), HashPartitioner.class);
+			fail("a different join comparator accepted");
+		} catch (IOException expected) {
+		}
+		fs.delete(base, true);
+	}
+}
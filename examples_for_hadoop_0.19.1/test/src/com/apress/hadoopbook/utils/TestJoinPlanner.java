@@ -0,0 +1,83 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.fs.FSDataOutputStream;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Verify the strategies {@link JoinPlanner#plan(org.apache.hadoop.conf.Configuration, String, java.util.List, boolean)} chooses.
+ */
+public class TestJoinPlanner {
+	JobConf conf;
+	FileSystem fs;
+	Path base;
+	Path small;
+	Path large;
+
+	@Before
+	public void setUp() throws IOException {
+		conf = new JobConf();
+		conf.set("fs.default.name", "file:///");
+		fs = FileSystem.getLocal(conf);
+		base = new Path(new File(System.getProperty("java.io.tmpdir"), "TestJoinPlanner").getAbsolutePath());
+		fs.delete(base, true);
+		small = file(new Path(base, "small"), 100);
+		large = new Path(base, "large");
+		file(new Path(large, "part-00000"), 600);
+		file(new Path(large, "part-00001"), 400);
+		file(new Path(large, "_logs"), 5000);
+	}
+
+	Path file(Path path, int bytes) throws IOException {
+		FSDataOutputStream out = fs.create(path);
+		out.write(new byte[bytes]);
+		out.close();
+		return path;
+	}
+
+	JoinPlanner.Plan plan(String op, boolean sorted) throws IOException {
+		return JoinPlanner.plan(conf, op, Arrays.asList(small, large), sorted);
+	}
+
+	/**
+	 * Test method for {@link JoinPlanner#plan(org.apache.hadoop.conf.Configuration, String, java.util.List, boolean)}.
+	 */
+	@Test
+	public void testPlan() throws IOException {
+		assertEquals("hidden files are not counted", 1000, JoinPlanner.size(conf, large));
+		conf.setLong(JoinPlanner.BROADCAST_BYTES, 100);
+		JoinPlanner.Plan plan = plan("inner", true);
+		assertEquals(JoinPlanner.Strategy.BROADCAST, plan.getStrategy());
+		assertEquals("the largest input is streamed", 1, plan.getStreamed());
+		assertEquals(JoinPlanner.Strategy.MERGE, plan("outer", true).getStrategy());
+		assertEquals(JoinPlanner.Strategy.REDUCE_SIDE, plan("outer", false).getStrategy());
+
+		conf.setLong(JoinPlanner.BROADCAST_BYTES, 99);
+		assertEquals(JoinPlanner.Strategy.MERGE, plan("inner", true).getStrategy());
+		assertEquals(JoinPlanner.Strategy.REDUCE_SIDE, plan("inner", false).getStrategy());
+
+		conf.set(JoinPlanner.STRATEGY, "REDUCE_SIDE");
+		assertEquals(JoinPlanner.Strategy.REDUCE_SIDE, plan("inner", true).getStrategy());
+		conf.set(JoinPlanner.STRATEGY, "BROADCAST");
+		assertEquals("outer joins are broadcast when forced", JoinPlanner.Strategy.BROADCAST, plan("outer", true).getStrategy());
+		conf.set(JoinPlanner.STRATEGY, "HASH");
+		try {
+			plan("inner", true);
+			fail("an unknown strategy was accepted");
+		} catch (IOException expected) {
+		}
+		fs.delete(base, true);
+	}
+}
@@ -0,0 +1,73 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+/** Verify that {@link KeyGroupBuffer} replays the values in order, in memory and once spilled.
+ */
+public class TestKeyGroupBuffer {
+
+	static void replay(KeyGroupBuffer<Text> buffer, int first, int count) throws IOException {
+		Text value = new Text();
+		buffer.rewind();
+		for (int i = 0; i < count; i++) {
+			assertTrue(buffer.next(value));
+			assertEquals("value " + (first + i), value.toString());
+		}
+		assertFalse(buffer.next(value));
+	}
+
+	/**
+	 * Test method for {@link KeyGroupBuffer#add(org.apache.hadoop.io.Writable)}.
+	 * A small buffer spills, the replay reads the spilled and the buffered values in order, and can be repeated.
+	 */
+	@Test
+	public void testSpill() throws IOException {
+		JobConf conf = new JobConf();
+		conf.setInt(KeyGroupBuffer.BUFFER_BYTES, 100);
+		KeyGroupBuffer<Text> buffer = new KeyGroupBuffer<Text>(conf, Text.class);
+		Text value = new Text();
+		for (int i = 0; i < 1000; i++) {
+			value.set("value " + i);
+			buffer.add(value);
+		}
+		assertEquals(1000, buffer.size());
+		assertTrue("spilled", buffer.getTotalSpilled() > 900);
+		assertTrue("only the tail is in memory", buffer.buffer.getLength() < 100);
+		replay(buffer, 0, 1000);
+		replay(buffer, 0, 1000);
+		File spill = new File(buffer.spillFile.toUri().getPath());
+		assertTrue(spill.exists());
+
+		buffer.clear();
+		assertFalse("cleared groups release the spill", spill.exists());
+		for (int i = 5; i < 8; i++) {
+			value.set("value " + i);
+			buffer.add(value);
+		}
+		assertNull("small groups stay in memory", buffer.spillFile);
+		replay(buffer, 5, 3);
+		buffer.close();
+	}
+
+	/** Adding to a group being replayed is an error. */
+	@Test(expected = IllegalStateException.class)
+	public void testAddWhileReplaying() throws IOException {
+		KeyGroupBuffer<Text> buffer = new KeyGroupBuffer<Text>(new JobConf(), Text.class);
+		buffer.add(new Text("a"));
+		buffer.rewind();
+		buffer.add(new Text("b"));
+	}
+}
@@ -0,0 +1,71 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+/** Verify that {@link ResettableValues} counts and replays the values of a key, in memory and once spilled.
+ */
+public class TestResettableValues {
+
+	static List<Text> values(int first, int count) {
+		final List<Text> values = new ArrayList<Text>();
+		for (int i = 0; i < count; i++) {
+			values.add(new Text("value " + (first + i)));
+		}
+		return values;
+	}
+
+	static void pass(ResettableValues<Text> values, int first, int from, int count) {
+		for (int i = from; i < count; i++) {
+			assertTrue(values.hasNext());
+			assertEquals("value " + (first + i), values.next().toString());
+		}
+		assertFalse(values.hasNext());
+	}
+
+	/**
+	 * Test method for {@link ResettableValues#count()} and {@link ResettableValues#reset()}.
+	 * Counting part way through the first pass continues the pass from the buffer, and a reset replays every value.
+	 */
+	@Test
+	public void testCountAndReset() throws IOException {
+		final JobConf conf = new JobConf();
+		conf.setInt(KeyGroupBuffer.BUFFER_BYTES, 100);
+		final ResettableValues<Text> values = new ResettableValues<Text>(conf, Text.class);
+
+		values.set(values(0, 1000).iterator());
+		for (int i = 0; i < 10; i++) {
+			assertEquals("value " + i, values.next().toString());
+		}
+		assertEquals(1000, values.count());
+		assertTrue("spilled", values.getTotalSpilled() > 900);
+		pass(values, 0, 10, 1000);
+		values.reset();
+		pass(values, 0, 0, 1000);
+		values.reset();
+		pass(values, 0, 0, 1000);
+
+		values.set(values(5, 3).iterator());
+		pass(values, 5, 0, 3);
+		values.reset();
+		pass(values, 5, 0, 3);
+		assertEquals(3, values.count());
+
+		values.set(values(0, 0).iterator());
+		assertEquals("an empty key", 0, values.count());
+		assertFalse(values.hasNext());
+		values.close();
+	}
+}
@@ -0,0 +1,137 @@
+/**
+ *
+ */
+package com.apress.hadoopbook.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Random;
+
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.Partitioner;
+import org.apache.hadoop.mapred.lib.HashPartitioner;
+import org.junit.Test;
+
+/** Verify the per partition counts and heavy keys of {@link SkewMonitoringPartitioner}.
+ */
+public class TestSkewMonitoringPartitioner {
+
+	/**
+	 * Test method for {@link SkewMonitoringPartitioner#getPartition(Object, Object, int)}.
+	 * A third of the records have one hot key, the partitions and the counters must match the real partitioner.
+	 */
+	@Test
+	public void testCounts() throws IOException {
+		JobConf conf = new JobConf();
+		conf.setPartitionerClass(HashPartitioner.class);
+		SkewMonitoringPartitioner.setupJob(conf);
+		conf.setInt(SkewMonitoringPartitioner.TOP_KEYS, 3);
+		SkewMonitoringPartitioner<Text, Text> monitor = new SkewMonitoringPartitioner<Text, Text>();
+		monitor.configure(conf);
+		HashPartitioner<Text, Text> real = new HashPartitioner<Text, Text>();
+
+		long[] records = new long[4];
+		long[] bytes = new long[4];
+		Random random = new Random(1);
+		Text key = new Text();
+		Text value = new Text("v");
+		for (int i = 0; i < 30000; i++) {
+			key.set(i % 3 == 0 ? "hot" : "cold" + random.nextInt(5000));
+			int partition = monitor.getPartition(key, value, 4);
+			assertEquals(real.getPartition(key, value, 4), partition);
+			records[partition]++;
+			bytes[partition] += 1 + key.getLength() + 1 + value.getLength();
+		}
+
+		TestBatchedCounters.CountingReporter reporter = new TestBatchedCounters.CountingReporter();
+		monitor.publish(reporter, null);
+		for (int partition = 0; partition < 4; partition++) {
+			assertEquals(records[partition], reporter.counters.findCounter(SkewMonitoringPartitioner.COUNTER_GROUP, SkewMonitoringPartitioner.recordsCounter(partition)).getCounter());
+			assertEquals(bytes[partition], reporter.counters.findCounter(SkewMonitoringPartitioner.COUNTER_GROUP, SkewMonitoringPartitioner.bytesCounter(partition)).getCounter());
+		}
+
+		int hotPartition = real.getPartition(new Text("hot"), value, 4);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(out, true, "UTF-8");
+		monitor.heavyKeys[hotPartition].write(ps, hotPartition, monitor);
+		String[] first = out.toString("UTF-8").split("\n")[0].split("\t");
+		assertEquals("The hot key is the heaviest", "hot", first[3]);
+		long count = Long.parseLong(first[1]);
+		long error = Long.parseLong(first[2]);
+		assertTrue("Never under counted", count >= 10000);
+		assertTrue("Over counted by at most the error", count - error <= 10000);
+	}
+
+	/**
+	 * Test method for {@link SkewMonitoringPartitioner.HeavyKeys#offer(byte[], int)}.
+	 * The tracked keys are copies, as the framework reuses its key objects.
+	 */
+	@Test
+	public void testHeavyKeysCopy() throws IOException {
+		SkewMonitoringPartitioner.HeavyKeys heavyKeys = new SkewMonitoringPartitioner.HeavyKeys(2);
+		Text key = new Text("a");
+		heavyKeys.offer(key.getBytes(), key.getLength());
+		key.set("b");
+		heavyKeys.offer(key.getBytes(), key.getLength());
+		key.set("a");
+		heavyKeys.offer(key.getBytes(), key.getLength());
+		key.set("cc");
+		heavyKeys.offer(key.getBytes(), key.getLength());
+		assertEquals("a", Text.decode(heavyKeys.keys[0], 0, heavyKeys.lengths[0]));
+		assertEquals(2, heavyKeys.counts[0]);
+		assertEquals("cc replaces b and inherits its count", "cc", Text.decode(heavyKeys.keys[1], 0, heavyKeys.lengths[1]));
+		assertEquals(2, heavyKeys.counts[1]);
+		assertEquals(1, heavyKeys.errors[1]);
+	}
+
+	/**
+	 * Test method for {@link SkewMonitoringPartitioner#getPartition(Object, Object, int)}.
+	 * Serialized keys are counted and written back as text, and a partition out of range fails as the framework would.
+	 */
+	@Test
+	public void testWritableKeysAndIllegalPartition() throws IOException {
+		JobConf conf = new JobConf();
+		conf.setPartitionerClass(HashPartitioner.class);
+		SkewMonitoringPartitioner.setupJob(conf);
+		SkewMonitoringPartitioner<LongWritable, Text> monitor = new SkewMonitoringPartitioner<LongWritable, Text>();
+		monitor.configure(conf);
+		LongWritable key = new LongWritable();
+		Text value = new Text("v");
+		for (int i = 0; i < 100; i++) {
+			key.set(i % 2 == 0 ? 42 : i);
+			monitor.getPartition(key, value, 1);
+		}
+		assertEquals(100 * (8 + 2), monitor.bytes[0]);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		PrintStream ps = new PrintStream(out, true, "UTF-8");
+		monitor.heavyKeys[0].write(ps, 0, monitor);
+		assertEquals("0\t50\t0\t42", out.toString("UTF-8").split("\n")[0]);
+
+		conf.setClass(SkewMonitoringPartitioner.PARTITIONER_CLASS, OutOfRangePartitioner.class, Partitioner.class);
+		monitor = new SkewMonitoringPartitioner<LongWritable, Text>();
+		monitor.configure(conf);
+		try {
+			monitor.getPartition(key, value, 2);
+			fail("A partition out of range is rejected");
+		} catch (IllegalArgumentException e) {
+			assertEquals("Illegal partition for " + key + " (2)", e.getMessage());
+		}
+	}
+
+	/** Returns one past the last partition. */
+	public static class OutOfRangePartitioner implements Partitioner<LongWritable, Text> {
+		public void configure(JobConf job) {
+		}
+
+		public int getPartition(LongWritable key, Text value, int numPartitions) {
+			return numPartitions;
+		}
+	}
+}
@@ -0,0 +1,109 @@
+package org.apache.hadoop.mapred.lib;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.mapred.JobConf;
+import org.apache.hadoop.mapred.lib.CopyOfKeyFieldHelper.FieldScan;
+import org.apache.hadoop.mapred.lib.CopyOfKeyFieldHelper.KeyDescription;
+import org.junit.Test;
+
+/** Verify that the lazily scanning {@link Copy_2_of_KeyFieldBasedComparator} orders keys exactly as {@link KeyFieldBasedComparator} does.
+ */
+public class TestCopy_2_of_KeyFieldBasedComparator {
+	/** Key spec options, mixed so that some comparisons are decided early and some need every field. */
+	static final String[] OPTIONS = { "", "-n", "-r", "-k1,1", "-k2,2", "-k 1.2,3.1", "-k2n,2", "-k3,3nr", "-k12,12",
+		"-k1.3,1.0", "-k2 -k1,1", "-k1,1 -k11,11n", "-nr -k2,3 -k4", "-k0,2", "-k4.0,4.2r -k1n" };
+
+	/** Field fragments, with numbers and short fields so that numeric specs and character positions both matter. */
+	static final String[] PIECES = { "", "0", "-0.0", "7", "12", "-3", "0.50", "abc", "ab", "x", "00012", ".5" };
+
+	static byte[] serialize(String key) throws IOException {
+		DataOutputBuffer out = new DataOutputBuffer();
+		new Text(key).write(out);
+		byte[] bytes = new byte[out.getLength()];
+		System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	static String randomKey(Random random, String separator) {
+		StringBuilder sb = new StringBuilder();
+		/** Up to 24 fields, more than the 10 the original length array started with. */
+		int fields = 1 + random.nextInt(random.nextInt(5) == 0 ? 24 : 5);
+		for (int i = 0; i < fields; i++) {
+			if (i > 0) {
+				sb.append(separator);
+			}
+			sb.append(PIECES[random.nextInt(PIECES.length)]);
+		}
+		return sb.toString();
+	}
+
+	/** The signum of a comparison, or the exception class, as the numeric comparison can run off the end of an empty field. */
+	static String outcome(org.apache.hadoop.io.WritableComparator comparator, byte[] l, byte[] r) {
+		try {
+			return Integer.toString(Integer.signum(comparator.compare(l, 0, l.length, r, 0, r.length)));
+		} catch (RuntimeException e) {
+			return e.getClass().getName();
+		}
+	}
+
+	/**
+	 * Test method for {@link Copy_2_of_KeyFieldBasedComparator#compare(byte[], int, int, byte[], int, int)}.
+	 */
+	@Test
+	public void testAgainstKeyFieldBasedComparator() throws IOException {
+		Random random = new Random(1);
+		for (String separator : new String[] { " ", "\t" }) {
+			for (String option : OPTIONS) {
+				JobConf conf = new JobConf();
+				conf.set("map.output.key.field.separator", separator);
+				conf.setKeyFieldComparatorOptions(option);
+				KeyFieldBasedComparator<Text, Text> reference = new KeyFieldBasedComparator<Text, Text>();
+				reference.configure(conf);
+				Copy_2_of_KeyFieldBasedComparator<Text, Text> lazy = new Copy_2_of_KeyFieldBasedComparator<Text, Text>();
+				lazy.configure(conf);
+				for (int i = 0; i < 5000; i++) {
+					String left = randomKey(random, separator);
+					String right = random.nextInt(10) == 0 ? left : randomKey(random, separator);
+					byte[] l = serialize(left);
+					byte[] r = serialize(right);
+					assertEquals("[" + option + "] [" + left + "] [" + right + "]", outcome(reference, l, r), outcome(lazy, l, r));
+				}
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link CopyOfKeyFieldHelper#scanFields(FieldScan, int)}.
+	 * The offsets from a partial scan match the offsets from {@link CopyOfKeyFieldHelper#getWordLengths(byte[], int, int)}.
+	 */
+	@Test
+	public void testScanFields() {
+		Random random = new Random(2);
+		CopyOfKeyFieldHelper helper = new CopyOfKeyFieldHelper();
+		helper.setKeyFieldSeparator(" ");
+		helper.parseOption("-k3.2,5.1 -k1,2 -k14 -k7.0,7.0");
+		FieldScan scan = new FieldScan();
+		for (int i = 0; i < 2000; i++) {
+			Text key = new Text(randomKey(random, " "));
+			byte[] b = key.getBytes();
+			int end = key.getLength();
+			int[] all = helper.getWordLengths(b, 0, end);
+			helper.startScan(scan, b, 0, end);
+			for (KeyDescription k : helper.keySpecs()) {
+				int[] partial = helper.scanFields(scan, k.lastFieldIdx());
+				assertEquals(key.toString(), helper.getStartOffset(b, 0, end, all, k), helper.getStartOffset(b, 0, end, partial, k));
+				assertEquals(key.toString(), helper.getEndOffset(b, 0, end, all, k), helper.getEndOffset(b, 0, end, partial, k));
+			}
+		}
+		Text key = new Text("a b c d e");
+		helper.startScan(scan, key.getBytes(), 0, key.getLength());
+		assertEquals("Only the fields asked for are scanned", 2, helper.scanFields(scan, 2)[0]);
+		assertEquals("A short key is scanned completely", 5, helper.scanFields(scan, 20)[0]);
+	}
+}
@@ -0,0 +1,145 @@
+package org.apache.hadoop.mapred.lib;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.util.Random;
+
+import org.apache.hadoop.io.BytesWritable;
+import org.apache.hadoop.io.DataOutputBuffer;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.WritableComparator;
+import org.apache.hadoop.mapred.JobConf;
+import org.junit.Test;
+
+/** Verify that the byte order of keys encoded by {@link NormalizedKeyFieldEncoder} is the order of the key field specification.
+ */
+public class TestNormalizedKeyFieldEncoder {
+	/** {@link Copy_2_of_KeyFieldBasedComparator} comparing the text fields through their end offset, rather than using the offset as a length.
+	 * The keys are serialized into arrays of their exact size, so the open ended end offset, one past the key, can be clipped to the array.
+	 */
+	static class ReferenceComparator extends Copy_2_of_KeyFieldBasedComparator<Text, Text> {
+		@Override
+		protected int compareByteSequence(byte[] first, int start1, int end1, byte[] second, int start2, int end2, Object keyObj) {
+			CopyOfKeyFieldHelper.KeyDescription key = (CopyOfKeyFieldHelper.KeyDescription) keyObj;
+			if (start1 == -1 || start2 == -1) {
+				if (start1 == start2) {
+					return 0;
+				}
+				return super.compareByteSequence(first, start1, end1, second, start2, end2, keyObj);
+			}
+			end1 = Math.min(end1, first.length - 1);
+			end2 = Math.min(end2, second.length - 1);
+			int result;
+			if (key.numeric) {
+				result = numericalCompare(first, start1, end1, second, start2, end2);
+			} else {
+				result = compareBytes(first, start1, Math.max(0, end1 - start1 + 1), second, start2, Math.max(0, end2 - start2 + 1));
+			}
+			return key.reverse ? -result : result;
+		}
+	}
+
+	/** Well formed numbers, which are also used for the text specs.
+	 * There are no zero padded non zero numbers, as {@link Copy_2_of_KeyFieldBasedComparator#numericalCompare} orders 12 after 00012.
+	 */
+	static final String[] NUMBERS = { "0", "-0.0", "00", "7", "12", "-3", "0.50", ".5", "0.125", "12.5", "-12.50", "100", "-100", "99.999", "3" };
+
+	/** Text fields, with an empty field, a 0 byte and multi byte characters. */
+	static final String[] WORDS = { "", "a", "ab", "abc", "b", "a\u0000", "a\u0000b", "\u00e9t\u00e9", "Z", "zz" };
+
+	/** Numeric specs cover a single well formed number, as {@link Copy_2_of_KeyFieldBasedComparator#numericalCompare} looks at the bytes after a number,
+	 * and orders an empty field before 0.
+	 */
+	static final String[] NUMERIC_OPTIONS = { "-k1,1n", "-k1,1nr", "-k2,2n", "-k3,3nr -k1,1", "-k1,1 -k2,2n", "-k2,2n -k1,1r", "-k4,4n" };
+
+	/** Numeric specs running to the end of the key, used with single field keys. */
+	static final String[] WHOLE_KEY_NUMERIC_OPTIONS = { "-n", "-nr", "-k1n" };
+
+	static final String[] TEXT_OPTIONS = { "", "-r", "-k1,1", "-k2", "-k2,3r", "-k1.2,1.2", "-k1.3,1.0", "-k3,3 -k1,1r", "-k5,5 -k1,1", "-k0,2", "-k2.2,3.1" };
+
+	static byte[] serialize(String key) throws IOException {
+		DataOutputBuffer out = new DataOutputBuffer();
+		new Text(key).write(out);
+		byte[] bytes = new byte[out.getLength()];
+		System.arraycopy(out.getData(), 0, bytes, 0, bytes.length);
+		return bytes;
+	}
+
+	static String randomKey(Random random, String[] pieces, int maxFields) {
+		StringBuilder sb = new StringBuilder();
+		int fields = 1 + random.nextInt(maxFields);
+		for (int i = 0; i < fields; i++) {
+			if (i > 0) {
+				sb.append(' ');
+			}
+			sb.append(pieces[random.nextInt(pieces.length)]);
+		}
+		return sb.toString();
+	}
+
+	static void check(String[] options, String[] pieces, int maxFields, Random random) throws IOException {
+		for (String option : options) {
+			JobConf conf = new JobConf();
+			conf.set("map.output.key.field.separator", " ");
+			conf.setKeyFieldComparatorOptions(option);
+			ReferenceComparator reference = new ReferenceComparator();
+			reference.configure(conf);
+			NormalizedKeyFieldEncoder encoder = new NormalizedKeyFieldEncoder();
+			encoder.configure(conf);
+			BytesWritable left = new BytesWritable();
+			BytesWritable right = new BytesWritable();
+			Text decoded = new Text();
+			for (int i = 0; i < 5000; i++) {
+				String l = randomKey(random, pieces, maxFields);
+				String r = randomKey(random, pieces, maxFields);
+				byte[] lb = serialize(l);
+				byte[] rb = serialize(r);
+				int expected = Integer.signum(reference.compare(lb, 0, lb.length, rb, 0, rb.length));
+				encoder.encode(new Text(l), left);
+				encoder.encode(new Text(r), right);
+				int prefix = Integer.signum(WritableComparator.compareBytes(left.getBytes(), 0, NormalizedKeyFieldEncoder.prefixLength(left.getBytes(), 0, left.getLength()),
+						right.getBytes(), 0, NormalizedKeyFieldEncoder.prefixLength(right.getBytes(), 0, right.getLength())));
+				assertEquals("prefix [" + option + "] [" + l + "] [" + r + "]", expected, prefix);
+				if (expected != 0) {
+					assertEquals("key [" + option + "] [" + l + "] [" + r + "]", expected, Integer.signum(left.compareTo(right)));
+				}
+				NormalizedKeyFieldEncoder.decode(left, decoded);
+				assertEquals(l, decoded.toString());
+			}
+		}
+	}
+
+	/**
+	 * Test method for {@link NormalizedKeyFieldEncoder#encode(Text, BytesWritable)} with numeric key specs.
+	 */
+	@Test
+	public void testNumericFields() throws IOException {
+		check(NUMERIC_OPTIONS, NUMBERS, 4, new Random(1));
+		check(WHOLE_KEY_NUMERIC_OPTIONS, NUMBERS, 1, new Random(4));
+	}
+
+	/** Zero padding does not change a number's value, as for sort -n. */
+	@Test
+	public void testZeroPadding() {
+		JobConf conf = new JobConf();
+		conf.setKeyFieldComparatorOptions("-n");
+		NormalizedKeyFieldEncoder encoder = new NormalizedKeyFieldEncoder();
+		encoder.configure(conf);
+		BytesWritable padded = new BytesWritable();
+		BytesWritable plain = new BytesWritable();
+		encoder.encode(new Text("00012"), padded);
+		encoder.encode(new Text("12.000"), plain);
+		assertEquals(0, WritableComparator.compareBytes(padded.getBytes(), 0, NormalizedKeyFieldEncoder.prefixLength(padded.getBytes(), 0, padded.getLength()),
+				plain.getBytes(), 0, NormalizedKeyFieldEncoder.prefixLength(plain.getBytes(), 0, plain.getLength())));
+	}
+
+	/**
+	 * Test method for {@link NormalizedKeyFieldEncoder#encode(Text, BytesWritable)} with text key specs.
+	 */
+	@Test
+	public void testTextFields() throws IOException {
+		check(TEXT_OPTIONS, WORDS, 4, new Random(2));
+		check(TEXT_OPTIONS, NUMBERS, 4, new Random(3));
+	}
+}